@@ -0,0 +1,40 @@
+package teaspoon.adaptation;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line and, unless -rf/-rff are given, writes the
+ * results as JSON to bench-results/teaspoon-<timestamp>.json so runs can be compared across commits
+ * (jmh.morethan.net, or any JSON tool). With no benchmark pattern the whole teaspoon suite runs.
+ *
+ * e.g. BenchmarkRunner EstimatorBenchmark -p size=50x1701,1000x1701
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if (cmd.getIncludes().isEmpty()) {
+            options.include("teaspoon\\..*Benchmark");
+        }
+        if (!cmd.getResultFormat().hasValue() && !cmd.getResult().hasValue()) {
+            File dir = new File("bench-results");
+            dir.mkdirs();
+            String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            options.resultFormat(ResultFormatType.JSON)
+                    .result(new File(dir, "teaspoon-" + stamp + ".json").getPath());
+        }
+        new Runner(options.build()).run();
+    }
+
+}
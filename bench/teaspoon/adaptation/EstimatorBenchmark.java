@@ -0,0 +1,101 @@
+package teaspoon.adaptation;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The estimators as analyseGene runs them on one alignment, each benchmark building its estimator
+ * from the matrices so the per-alignment setup (packing, codon tables) is part of the cost. Sizes run
+ * from a flu HA gene sample (50x1701) to HIV deep sequencing (30000x9000); the large sizes want a 4GB
+ * heap, pick sizes with -p size=... on smaller machines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class EstimatorBenchmark {
+
+    // bins, prior and which as in analyseGene
+    static final double[][] BINS = {{0.0, 0.15, 0.75}, {0.15, 0.75, 1.0}};
+    static final double[] LOW = {0.0, 0.15};
+    static final double[] MID = {0.15, 0.75};
+    static final double[] HIGH = {0.75, 1.0};
+    static final boolean[] WHICH = {false, true, false};
+
+    @Param({"50x1701", "1000x1701", "30000x9000"})
+    public String size;
+
+    SyntheticAlignments alignment;
+    int[] sampler;
+
+    @Setup
+    public void setup() {
+        alignment = SyntheticAlignments.of(size, 42);
+        sampler = alignment.sampler(7);
+    }
+
+    static double[] prior() {
+        return new double[]{1.0, 1.0, 1.0, 1.0};
+    }
+
+    @Benchmark
+    public double bhattMethod() {
+        BhattMethod bm = new BhattMethod(alignment.main, alignment.ancestral);
+        bm.setRandom(new SplittableRandom(1));
+        bm.Method(BINS, prior(), true, WHICH, 0.0);
+        return bm.Adaptation;
+    }
+
+    @Benchmark
+    public double bhattMethodAnalytic() {
+        BhattMethod bm = new BhattMethod(alignment.main, alignment.ancestral);
+        bm.setAnalyticBeta(true);
+        bm.Method(BINS, prior(), true, WHICH, 0.0);
+        return bm.Adaptation;
+    }
+
+    @Benchmark
+    public double williamson3bin() {
+        Williamson3bin w = new Williamson3bin(alignment.main, alignment.ancestral);
+        return w.williamson3bin_method(LOW, MID, HIGH);
+    }
+
+    @Benchmark
+    public double siteEstMultiNG() {
+        SiteEstMulti s = new SiteEstMulti(alignment.main, alignment.ancestral);
+        double total = 0.0;
+        for (int site = 0, codon = 0; site < s.numSites() - 2; site += 3, codon++) {
+            if (!s.bad_sites_list[site] && !s.bad_sites_list[site + 1] && !s.bad_sites_list[site + 2]) {
+                double[][] identity = s.NGmethod(site, codon);
+                total += identity[0][0] + identity[1][0] + identity[2][0];
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double tajimasD() {
+        return new DiversityStats(alignment.main, alignment.ancestral).TajimasD();
+    }
+
+    @Benchmark
+    public Store createBlocks() {
+        BhattMethod bm = new BhattMethod(alignment.main, alignment.ancestral);
+        return bm.CreateBlocks(3, alignment.ancestral.length, sampler);
+    }
+
+}
@@ -0,0 +1,98 @@
+package teaspoon.adaptation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The FASTA readers on a synthetic alignment written to a temporary file, one line per sequence.
+ * Read_main is run with and without sample-time parsing of the headers, and into the PackedAlignment the
+ * whole-genome window scans read. Setup reads the file once with
+ * each reader and fails the trial if the matrix is not sequences x sites.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class FastaReaderBenchmark {
+
+    @Param({"50x1701", "1000x1701", "30000x9000"})
+    public String size;
+
+    File fasta;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticAlignments alignment = SyntheticAlignments.of(size, 42);
+        fasta = File.createTempFile("teaspoon-bench-", ".fasta");
+        fasta.deleteOnExit();
+        alignment.writeFASTA(fasta, false);
+
+        int rows = alignment.main.length;
+        int columns = alignment.ancestral.length;
+        checkShape("Read_main", readMain(), rows, columns);
+        checkShape("Read_main with sample times", readMainSampleTimes(), rows, columns);
+        PackedAlignment packed = readMainPacked();
+        if (packed.numSequences() != rows || packed.numSites() != columns) {
+            throw new IllegalStateException("Read_main.readPacked read " + packed.numSequences() + "x" + packed.numSites()
+                    + ", expected " + rows + "x" + columns);
+        }
+        checkShape("DataSet.readFASTA", dataSetReadFASTA(), rows, columns);
+        checkShape("DataSet.readFASTAfast", dataSetReadFASTAfast(), rows, columns);
+    }
+
+    private static void checkShape(String reader, int[][] matrix, int rows, int columns) {
+        if (matrix.length != rows || matrix[0].length != columns) {
+            throw new IllegalStateException(reader + " read " + matrix.length + "x" + matrix[0].length
+                    + ", expected " + rows + "x" + columns);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        fasta.delete();
+    }
+
+    @Benchmark
+    public int[][] readMain() {
+        return new Read_main(fasta.getPath()).readFASTA();
+    }
+
+    @Benchmark
+    public int[][] readMainSampleTimes() {
+        return new Read_main(fasta.getPath(), true).readFASTA();
+    }
+
+    @Benchmark
+    public PackedAlignment readMainPacked() {
+        return new Read_main(fasta.getPath(), true).readPacked();
+    }
+
+    @Benchmark
+    public int[][] dataSetReadFASTA() {
+        return new DataSet(fasta.getPath()).integer_matrix;
+    }
+
+    @Benchmark
+    public int[][] dataSetReadFASTAfast() {
+        DataSet data = new DataSet();
+        data.input = new File(fasta.getPath());
+        return data.readFASTAfast();
+    }
+
+}
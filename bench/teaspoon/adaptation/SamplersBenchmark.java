@@ -0,0 +1,83 @@
+package teaspoon.adaptation;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * One site's worth of Beta and Dirichlet draws (N = 500 as in BhattMethod), drawn one at a time with
+ * Beta()/Dirichlet() and as a batch with fillBeta/fillDirichlet. Shapes are derived + prior and
+ * ancestral + prior counts: a rare variant, a mid-frequency site and a near-fixed one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SamplersBenchmark {
+
+    static final int DRAWS = 500;
+
+    @Param({"2:49", "21:30", "49:2"})
+    public String counts;
+
+    double a;
+    double b;
+    double[] alpha;
+    Samplers beta;
+    Samplers dirichlet;
+    double[] betaOut;
+    double[][] dirichletOut;
+
+    @Setup
+    public void setup() {
+        String[] ab = counts.split(":");
+        a = Double.parseDouble(ab[0]) + 1.0;
+        b = Double.parseDouble(ab[1]) + 1.0;
+        alpha = new double[]{a, 1.0 / 3.0, 1.0 / 3.0, b};
+        beta = new Samplers(new double[]{a, b}, new SplittableRandom(42));
+        dirichlet = new Samplers(alpha, new SplittableRandom(42));
+        betaOut = new double[DRAWS];
+        dirichletOut = new double[DRAWS][4];
+    }
+
+    @Benchmark
+    public void betaPerDraw(Blackhole bh) {
+        for (int i = 0; i < DRAWS; i++) {
+            bh.consume(beta.Beta());
+        }
+    }
+
+    @Benchmark
+    public double[] betaBatch() {
+        beta.fillBeta(betaOut);
+        return betaOut;
+    }
+
+    @Benchmark
+    public void dirichletPerDraw(Blackhole bh) {
+        for (int i = 0; i < DRAWS; i++) {
+            bh.consume(dirichlet.Dirichlet());
+        }
+    }
+
+    @Benchmark
+    public double[][] dirichletBatch() {
+        dirichlet.fillDirichlet(dirichletOut);
+        return dirichletOut;
+    }
+
+}
@@ -0,0 +1,117 @@
+package teaspoon.adaptation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded synthetic alignments for the benchmarks, coded as Read_main does (A=1,C=2,G=3,T=4,gap=5).
+ * The ancestral sequence is random; a fraction of sites carries a derived base at a frequency drawn
+ * from the neutral 1/i spectrum, a smaller fraction is fixed for a derived base, and a few sites have
+ * gaps in some sequences so the bad-site handling is exercised.
+ *
+ * Sizes are written "sequences x sites", e.g. 50x1701 for a flu HA alignment, 30000x9000 for HIV deep
+ * sequencing; sites are rounded down to whole codons.
+ */
+public class SyntheticAlignments {
+
+    static final double POLYMORPHIC = 0.15;    // proportion of segregating sites
+    static final double FIXED = 0.03;          // proportion of sites fixed for a derived base
+    static final double GAPPED = 0.005;        // proportion of sites with gaps
+
+    public final int[][] main;
+    public final int[] ancestral;
+
+    public SyntheticAlignments(int sequences, int sites, long seed) {
+        sites -= sites % 3;
+        SplittableRandom random = new SplittableRandom(seed);
+        ancestral = new int[sites];
+        main = new int[sequences][sites];
+
+        // cumulative neutral site frequency spectrum, P(i derived copies) proportional to 1/i
+        double[] sfs = new double[Math.max(1, sequences - 1)];
+        double total = 0.0;
+        for (int i = 0; i < sfs.length; i++) {
+            total += 1.0 / (i + 1);
+            sfs[i] = total;
+        }
+
+        for (int site = 0; site < sites; site++) {
+            int base = 1 + random.nextInt(4);
+            ancestral[site] = base;
+            for (int i = 0; i < sequences; i++) {
+                main[i][site] = base;
+            }
+            double kind = random.nextDouble();
+            int derived = 1 + (base + random.nextInt(3)) % 4;    // any base but the ancestral one
+            if (kind < FIXED) {
+                for (int i = 0; i < sequences; i++) {
+                    main[i][site] = derived;
+                }
+            } else if (kind < FIXED + POLYMORPHIC) {
+                int copies = 1 + search(sfs, random.nextDouble() * total);
+                for (int c = 0; c < copies; c++) {
+                    main[random.nextInt(sequences)][site] = derived;
+                }
+            } else if (kind < FIXED + POLYMORPHIC + GAPPED) {
+                main[random.nextInt(sequences)][site] = 5;
+            }
+        }
+    }
+
+    // parses "sequences x sites"
+    public static SyntheticAlignments of(String size, long seed) {
+        String[] parts = size.toLowerCase().split("x");
+        return new SyntheticAlignments(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()), seed);
+    }
+
+    private static int search(double[] cumulative, double value) {
+        int lo = 0;
+        int hi = cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public int numCodons() {
+        return ancestral.length / 3;
+    }
+
+    // a fixed bootstrap sampler over the codons
+    public int[] sampler(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] sampler = new int[numCodons()];
+        for (int i = 0; i < sampler.length; i++) {
+            sampler[i] = random.nextInt(sampler.length);
+        }
+        return sampler;
+    }
+
+    // FASTA, wrapped at 60 columns or one line per sequence; headers end in _<sampling year> as the sample-time parser expects
+    public void writeFASTA(File file, boolean wrap) throws IOException {
+        char[] bases = {'N', 'A', 'C', 'G', 'T', '-'};
+        BufferedWriter out = new BufferedWriter(new FileWriter(file));
+        char[] line = new char[main.length == 0 ? 0 : main[0].length];
+        for (int i = 0; i < main.length; i++) {
+            out.write(">seq" + i + "_" + (1990 + i % 25) + "\n");
+            for (int site = 0; site < line.length; site++) {
+                line[site] = bases[main[i][site]];
+            }
+            int width = wrap ? 60 : line.length;
+            for (int start = 0; start < line.length; start += width) {
+                out.write(line, start, Math.min(width, line.length - start));
+                out.write('\n');
+            }
+        }
+        out.close();
+    }
+
+}
@@ -0,0 +1,204 @@
+package jebl.evolution.align;
+
+import java.util.Arrays;
+
+import jebl.util.ProgressListener;
+
+/**
+ * Score-only dynamic programming with affine gap costs for two plain residue strings, in linear space and
+ * without any traceback bookkeeping. The substitution scores of the second sequence are looked up once per
+ * residue of the first (a query profile, one row of scores per distinct residue), so the inner loop is
+ * three maxima over float arrays.
+ *
+ * The recurrences, boundary values and free end gap rules are those of NeedlemanWunschLinearSpaceAffine
+ * (global) and SmithWatermanLinearSpaceAffine (local) for sequences without gap characters, and every cell
+ * is evaluated in the same floating point order, so the scores are identical. Aligners keep one kernel and
+ * reuse its buffers, the same way they keep their matrices between alignments.
+ */
+final class AffineScoreKernel {
+
+    private static final float NEGATIVE_INFINITY = Float.NEGATIVE_INFINITY;
+
+    private float[] M = new float[0], Ix = new float[0], Iy = new float[0];   // the previous (and then current) row
+    private int[] starti = new int[0], startj = new int[0];                  // local alignment starts, previous row
+    private final float[][] profile = new float[128][];                       // profile[residue][j], j = 1..m
+    private final int[] profileStamp = new int[128];
+    private int stamp = 0;
+
+    // local alignment results
+    float maxval;
+    int start1, start2, end1, end2;
+
+    private void allocate(int m) {
+        if (M.length < m + 1) {
+            int length = m + 1 + 5;
+            M = new float[length];
+            Ix = new float[length];
+            Iy = new float[length];
+            starti = new int[length];
+            startj = new int[length];
+        }
+        if (++stamp == 0) {
+            Arrays.fill(profileStamp, 0);
+            stamp = 1;
+        }
+    }
+
+    // scores of residue c against every residue of s2, built once per alignment
+    private float[] profileRow(char c, char[] s2, int m, float[][] score) {
+        float[] row = profile[c];
+        if (profileStamp[c] != stamp) {
+            if (row == null || row.length < m + 1) {
+                row = profile[c] = new float[m + 1 + 5];
+            }
+            float[] scoreRow = score[c];
+            for (int j = 1; j <= m; j++) {
+                row[j] = scoreRow[s2[j - 1]];
+            }
+            profileStamp[c] = stamp;
+        }
+        return row;
+    }
+
+    /**
+     * Global alignment score of s1 against s2.
+     *
+     * @param d gap open cost, as NeedlemanWunschLinearSpaceAffine holds it (already including any extension)
+     * @param e gap extension cost
+     * @param freeGapsAtEnds leading and trailing gaps cost nothing
+     * @return the score NeedlemanWunschLinearSpaceAffine.doAlignment(s1, s2, null, true) computes
+     */
+    float globalScore(char[] s1, char[] s2, float[][] score, float d, float e, boolean freeGapsAtEnds) {
+        int n = s1.length, m = s2.length;
+        allocate(m);
+        float[] M = this.M, Ix = this.Ix, Iy = this.Iy;
+
+        M[0] = 0;
+        Ix[0] = Iy[0] = NEGATIVE_INFINITY;
+        for (int j = 1; j <= m; j++) {
+            Iy[j] = freeGapsAtEnds ? 0 : - d - e * (j - 1);
+            Ix[j] = M[j] = NEGATIVE_INFINITY;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            float[] s = profileRow(s1[i - 1], s2, m, score);
+            // gaps in the last row and column are end gaps
+            float yd = d, ye = e;
+            if (i == n && freeGapsAtEnds) {
+                yd = 0;
+                ye = 0;
+            }
+            float diagM = M[0], diagX = Ix[0], diagY = Iy[0];
+            float leftM = NEGATIVE_INFINITY;
+            float leftX = freeGapsAtEnds ? 0 : - d - e * (i - 1);
+            float leftY = NEGATIVE_INFINITY;
+            M[0] = leftM;
+            Ix[0] = leftX;
+            Iy[0] = leftY;
+            for (int j = 1; j <= m; j++) {
+                float upM = M[j], upX = Ix[j], upY = Iy[j];
+                float xd = d, xe = e;
+                if (j == m && freeGapsAtEnds) {
+                    xd = 0;
+                    xe = 0;
+                }
+                float valm = Align.max(diagM + s[j], diagX + s[j], diagY + s[j]);
+                float valx = Align.max(upM - xd, upX - xe, upY - xd);
+                float valy = Align.max(leftM - yd, leftY - ye, leftX - yd);
+                M[j] = leftM = valm;
+                Ix[j] = leftX = valx;
+                Iy[j] = leftY = valy;
+                diagM = upM;
+                diagX = upX;
+                diagY = upY;
+            }
+        }
+        float result = Align.max(M[m], Ix[m], Iy[m]);
+        if (freeGapsAtEnds && n == 0) result = 0;
+        return result;
+    }
+
+    /**
+     * Best local alignment of s1 against s2: its score goes to maxval and the substrings it aligns
+     * (start inclusive, end exclusive) to start1, end1 and start2, end2, with the same tie breaking as
+     * SmithWatermanLinearSpaceAffine.
+     *
+     * @return false if the progress listener cancelled the alignment
+     */
+    boolean localScore(char[] s1, char[] s2, float[][] score, float d, float e, ProgressListener progress) {
+        int n = s1.length, m = s2.length;
+        allocate(m);
+        float[] M = this.M, Ix = this.Ix, Iy = this.Iy;
+        int[] starti = this.starti, startj = this.startj;
+
+        maxval = NEGATIVE_INFINITY;
+        start1 = start2 = end1 = end2 = 0;
+        for (int j = 0; j <= m; j++) {
+            M[j] = Ix[j] = Iy[j] = 0;
+            starti[j] = 0;
+            startj[j] = j;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            if (progress != null && progress.setProgress((double) i / n)) {
+                return false;
+            }
+            float[] s = profileRow(s1[i - 1], s2, m, score);
+            float diagM = M[0], diagX = Ix[0], diagY = Iy[0];
+            int diagi = starti[0], diagj = startj[0];
+            float leftM = 0, leftY = 0;
+            int lefti = i, leftj = 0;
+            starti[0] = i;
+            startj[0] = 0;
+            for (int j = 1; j <= m; j++) {
+                float upM = M[j], upX = Ix[j];
+                int upi = starti[j], upj = startj[j];
+                float valm = Align.max(0, diagM + s[j], diagX + s[j], diagY + s[j]);
+                float valix = Align.max(upM - d, upX - e);
+                float valiy = Align.max(leftM - d, leftY - e);
+
+                float val = Align.max(valm, valix, valiy);
+                int si, sj;
+                if (val == 0) {
+                    si = i;
+                    sj = j;
+                } else if (val == valm) {
+                    si = diagi;
+                    sj = diagj;
+                } else if (val == valix) {
+                    si = upi;
+                    sj = upj;
+                } else {
+                    si = lefti;
+                    sj = leftj;
+                }
+                if (val > maxval) {
+                    maxval = val;
+                    start1 = si;
+                    start2 = sj;
+                    end1 = i;
+                    end2 = j;
+                }
+
+                diagM = upM;
+                diagX = upX;
+                diagY = Iy[j];
+                diagi = upi;
+                diagj = upj;
+                M[j] = leftM = valm;
+                Ix[j] = valix;
+                Iy[j] = leftY = valiy;
+                starti[j] = lefti = si;
+                startj[j] = leftj = sj;
+            }
+        }
+        return true;
+    }
+
+    // the last row of the matrices computed, for printing
+    void copyLastRow(float[][][] F, int m) {
+        System.arraycopy(M, 0, F[0][1], 0, m + 1);
+        System.arraycopy(Ix, 0, F[1][1], 0, m + 1);
+        System.arraycopy(Iy, 0, F[2][1], 0, m + 1);
+    }
+}
@@ -135,6 +135,26 @@ public class AlignmentTreeBuilderFactory {
         return build(matrixBuilder, method, progressListener);
     }
 
+    /**
+     *
+     * @param seqs Sequences to build distance matrix from
+     * @param method method the tree building method to use
+     * @param aligners makes one pairwise aligner per thread; the pairs are aligned on all available processors
+     * @param progressListener must not be null. If you are not interested in progress, pass in ProgressListener.EMPTY
+     * @return A tree building result (containing a tree and a distance matrix)
+     */
+    static public Result build(final List<Sequence> seqs, TreeBuilderFactory.Method method, final PairwiseAligner.Factory aligners,
+                               ProgressListener progressListener)
+            throws CannotBuildDistanceMatrixException
+    {
+        DistanceMatrixBuilder matrixBuilder = new DistanceMatrixBuilder() {
+            public DistanceMatrix buildDistanceMatrix(final ProgressListener progressListener) throws CannotBuildDistanceMatrixException {
+                return new SequenceAlignmentsDistanceMatrix(seqs, aligners, progressListener, Runtime.getRuntime().availableProcessors());
+            }
+        };
+        return build(matrixBuilder, method, progressListener);
+    }
+
     static public Result build(List<Sequence> seqs, TreeBuilderFactory.Method method, MultipleAligner aligner,
                                 /*boolean needDistances, */ProgressListener progress, final boolean useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable)
             throws CannotBuildDistanceMatrixException
@@ -4,6 +4,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import jebl.evolution.align.scores.Blosum60;
 import jebl.evolution.align.scores.NucleotideScores;
@@ -23,6 +25,7 @@ import jebl.evolution.trees.RootedTree;
 import jebl.evolution.trees.TreeBuilderFactory;
 import jebl.evolution.trees.Utils;
 import jebl.util.ProgressListener;
+import jebl.util.TaskPool;
 
 /**
  * @author Matt Kearse
@@ -38,14 +41,33 @@ import jebl.util.ProgressListener;
  */
 public class BartonSternberg implements MultipleAligner {
 
+    /**
+     * How the guide tree that sets the order of the progressive alignment is built.
+     */
+    public static enum GuideTree {
+        /** neighbour-joining on the distances of pairwise alignments of all pairs */
+        PAIRWISE,
+        /** neighbour-joining on the distances of a quick progressive alignment along an arbitrary tree */
+        FAST,
+        /**
+         * from the k-mers the sequences share, without aligning them (see KmerGuideTree); for large numbers
+         * of sequences. Match and mismatch costs are never estimated with this guide tree.
+         */
+        KMER
+    }
+
     Scores scores;
     NeedlemanWunschLinearSpaceAffine aligner;
     private int refinementIterations;
     private float gapOpen,gapExtend;
     private boolean freeGapsAtEnds;
-    private boolean fastGuide;
+    private GuideTree guide;
     // if not null, scores are from estimate
     private Scores origScores = null;
+    // sequences realigned at a time against the same profile during refinement
+    private int refinementBatchSize = 1;
+    // number of threads for batch refinement
+    int threads = Runtime.getRuntime().availableProcessors();
 
     private void establishScores(Scores scores) {
         this.scores = scores;
@@ -53,18 +75,46 @@ public class BartonSternberg implements MultipleAligner {
         aligner = new NeedlemanWunschLinearSpaceAffine(this.scores, gapOpen, gapExtend, freeGapsAtEnds);
     }
 
+    // aligners with the current scores, one per thread for the all-pairs guide tree distances
+    private PairwiseAligner.Factory alignerFactory() {
+        final Scores scores = this.scores;
+        return new PairwiseAligner.Factory() {
+            public PairwiseAligner newAligner() {
+                return new NeedlemanWunschLinearSpaceAffine(scores, gapOpen, gapExtend, freeGapsAtEnds);
+            }
+        };
+    }
+
+    /**
+     * By default refinement takes each sequence out of the profile and realigns it in turn. With a batch size
+     * greater than one, that many sequences are taken out together, realigned in parallel against what is left
+     * and put back in order, and refinement stops early once an iteration no longer raises the total score of
+     * the realignments. The result then depends on the batch size, but not on the number of threads.
+     */
+    public void setRefinementBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be at least 1, got " + batchSize);
+        }
+        this.refinementBatchSize = batchSize;
+    }
+
     public Scores getEstimatedScores() {
         return origScores != null ? scores : null;
     }
 
     public BartonSternberg(Scores scores, float gapOpen, float gapExtend, int refinementIterations,
                            boolean freeGapsAtEnds, boolean fastGuide) {
+        this(scores, gapOpen, gapExtend, refinementIterations, freeGapsAtEnds, fastGuide ? GuideTree.FAST : GuideTree.PAIRWISE);
+    }
+
+    public BartonSternberg(Scores scores, float gapOpen, float gapExtend, int refinementIterations,
+                           boolean freeGapsAtEnds, GuideTree guide) {
 //        if (true) throw new RuntimeException("testing");
        this.gapOpen = gapOpen;
        this.gapExtend = gapExtend;
        this.freeGapsAtEnds = freeGapsAtEnds;
 
-        this.fastGuide = fastGuide;
+        this.guide = guide;
 
         this.refinementIterations = refinementIterations;
         establishScores(scores);
@@ -135,7 +185,7 @@ public class BartonSternberg implements MultipleAligner {
             sequenceProfilesWithoutGaps[i] = new Profile(i, sequencesWithoutGaps[i]);
         }
 
-        int treeWork = refineOnly ? 0 : (fastGuide ? numSequences : numSequences*(numSequences - 1)/2);
+        int treeWork = refineOnly ? 0 : (guide != GuideTree.PAIRWISE ? numSequences : numSequences*(numSequences - 1)/2);
         int alignmentWork = refineOnly ? 0 : numSequences - 1;
         int refinementWork = numSequences * refinementIterations;
 
@@ -162,23 +212,32 @@ public class BartonSternberg implements MultipleAligner {
             // We want a binary rooted tree
 
             //long start = System.currentTimeMillis();
-            final boolean estimateMatchCost = estimateMatchMismatchCosts && scores instanceof NucleotideScores;
-
-            final AlignmentTreeBuilderFactory.Result unrootedGuideTree =
-                    fastGuide ?
-                            AlignmentTreeBuilderFactory.build(sequencesForGuideTree, TreeBuilderFactory.Method.NEIGHBOR_JOINING,
-                                    this, compoundProgress.getMinorProgress(),true) :
-                            AlignmentTreeBuilderFactory.build(sequencesForGuideTree, TreeBuilderFactory.Method.NEIGHBOR_JOINING,
-                                    aligner, compoundProgress.getMinorProgress());
-            if (compoundProgress.isCanceled()) return null;
-            //long duration = System.currentTimeMillis() - start;
-            //System.out.println("took " + duration +  " for " + (fastGuide ? " fast" : "normal") + " guide tree");
+            final boolean estimateMatchCost = estimateMatchMismatchCosts && scores instanceof NucleotideScores
+                    && guide != GuideTree.KMER;
+
+            RootedTree guideTree;
+            DistanceMatrix guideDistances = null;
+            if (guide == GuideTree.KMER) {
+                guideTree = new KmerGuideTree(sequencesForGuideTree).build(compoundProgress.getMinorProgress());
+                if (guideTree == null || compoundProgress.isCanceled()) return null;
+            } else {
+                final AlignmentTreeBuilderFactory.Result unrootedGuideTree =
+                        guide == GuideTree.FAST ?
+                                AlignmentTreeBuilderFactory.build(sequencesForGuideTree, TreeBuilderFactory.Method.NEIGHBOR_JOINING,
+                                        this, compoundProgress.getMinorProgress(),true) :
+                                AlignmentTreeBuilderFactory.build(sequencesForGuideTree, TreeBuilderFactory.Method.NEIGHBOR_JOINING,
+                                        alignerFactory(), compoundProgress.getMinorProgress());
+                if (compoundProgress.isCanceled()) return null;
+                //long duration = System.currentTimeMillis() - start;
+                //System.out.println("took " + duration +  " for " + guide + " guide tree");
 
-            RootedTree guideTree = Utils.rootTreeAtCenter(unrootedGuideTree.tree);
+                guideTree = Utils.rootTreeAtCenter(unrootedGuideTree.tree);
+                guideDistances = unrootedGuideTree.distance;
+            }
             compoundProgress.incrementSectionsCompleted(treeWork);
 
             if( estimateMatchCost ) {
-                final DistanceMatrix distanceMat = unrootedGuideTree.distance;
+                final DistanceMatrix distanceMat = guideDistances;
                 final double[][] distances = distanceMat.getDistances();
                 double sum = 0.0;
                 final int n = distances.length;
@@ -202,41 +261,17 @@ public class BartonSternberg implements MultipleAligner {
         }
 
         //now remove a single sequence, and we
-        for (int j = 0; j < refinementIterations; j++) {
-            String message = "Refining alignment";
-            if(refinementIterations> 1) {
-                message = message + " (iteration " +(j+1) + " of " + refinementIterations+ ")";
-            }
-            progress.setMessage(message);
-            for (int i = 0; i < numSequences; ++i) {
-//                if(j> 0&& i!= 8) continue;
-//                Profile sequenceProfile = sequenceProfiles[i];
-                boolean display = false;
-
-                String sequence = profile.getSequence(i);
-                if(j>= 0 && i== 8) {
-//                    display = true;
-                }
-                if(display) {
-                    System.out.println("remove sequence =" + sequence);
-                    profile.print (true);
-                }
-                Profile sequenceProfile = new Profile(i, sequence);
-                profile.remove(sequenceProfile);
-//                aligner.setDebug(display);
-
-                AlignmentResult results[] = aligner.doAlignment(profile, sequenceProfilesWithoutGaps[i], compoundProgress.getMinorProgress(), false);
-//                aligner.setDebug(false);
-                if (compoundProgress.isCanceled()) return null;
-                compoundProgress.incrementSectionsCompleted(1);
-                if(display){
-                    profile.print(false);
-
-                    System.out.println("result =" + results[0].size + "," + results[1].size + " from " + profile.length() + "," + sequenceProfile.length());
-                }
-                profile = Profile.combine(profile, sequenceProfilesWithoutGaps[i], results[0], results[1]);
-                if(display) {
-                    profile.print(true);
+        if (refinementBatchSize > 1) {
+            if (!refineInBatches(profile, sequencesWithoutGaps, sequenceProfilesWithoutGaps, progress)) return null;
+        } else {
+            for (int j = 0; j < refinementIterations; j++) {
+                progress.setMessage(refinementMessage(j));
+                for (int i = 0; i < numSequences; ++i) {
+                    profile.remove(i);
+                    AlignmentResult results[] = aligner.doAlignment(profile, sequenceProfilesWithoutGaps[i], compoundProgress.getMinorProgress(), false);
+                    if (compoundProgress.isCanceled()) return null;
+                    compoundProgress.incrementSectionsCompleted(1);
+                    profile.insert(i, sequencesWithoutGaps[i], profile.getColumnIds(), results[0], results[1]);
                 }
             }
         }
@@ -248,6 +283,88 @@ public class BartonSternberg implements MultipleAligner {
         return results;
     }
 
+    private String refinementMessage(int iteration) {
+        String message = "Refining alignment";
+        if(refinementIterations> 1) {
+            message = message + " (iteration " +(iteration+1) + " of " + refinementIterations+ ")";
+        }
+        return message;
+    }
+
+    /**
+     * Refinement by batches (see setRefinementBatchSize). Each thread has its own aligner; progress is reported
+     * from the calling thread as batches complete, the workers only check for cancellation.
+     *
+     * @return false if cancelled
+     */
+    private boolean refineInBatches(Profile profile, final String[] sequences, final Profile[] sequenceProfiles,
+                                    final ProgressListener progress) {
+        final int numSequences = sequences.length;
+        // at least one sequence is left to align against
+        final int batchSize = Math.max(Math.min(refinementBatchSize, numSequences - 1), 1);
+        final Scores scores = this.scores;
+        final ThreadLocal<NeedlemanWunschLinearSpaceAffine> aligners = new ThreadLocal<NeedlemanWunschLinearSpaceAffine>() {
+            protected NeedlemanWunschLinearSpaceAffine initialValue() {
+                return new NeedlemanWunschLinearSpaceAffine(scores, gapOpen, gapExtend, freeGapsAtEnds);
+            }
+        };
+        final ProgressListener cancelOnly = TaskPool.cancelOnly(progress);
+
+        TaskPool pool = new TaskPool(threads, "refinement");
+        try {
+            double previousScore = 0;
+            for (int j = 0; j < refinementIterations; j++) {
+                progress.setMessage(refinementMessage(j));
+                double score = 0;
+                for (int first = 0; first < numSequences; first += batchSize) {
+                    int last = Math.min(first + batchSize, numSequences);
+                    for (int i = first; i < last; i++) {
+                        profile.remove(i);
+                    }
+                    // the free end gap form is made once here rather than by every aligner
+                    final Profile frozen = freeGapsAtEnds ? profile.supportFreeEndGaps() : profile;
+                    final int[] frozenColumns = profile.getColumnIds();
+                    final float[] alignmentScores = new float[last - first];
+                    List<Future<AlignmentResult[]>> futures = new ArrayList<Future<AlignmentResult[]>>(last - first);
+                    for (int i = first; i < last; i++) {
+                        final int sequence = i;
+                        final int slot = i - first;
+                        futures.add(pool.submit(new Callable<AlignmentResult[]>() {
+                            public AlignmentResult[] call() {
+                                if (cancelOnly.isCanceled()) return null;
+                                NeedlemanWunschLinearSpaceAffine aligner = aligners.get();
+                                AlignmentResult[] results = aligner.doAlignment(frozen, sequenceProfiles[sequence], cancelOnly, false);
+                                alignmentScores[slot] = aligner.getScore();
+                                return results;
+                            }
+                        }));
+                    }
+                    List<AlignmentResult[]> results = new ArrayList<AlignmentResult[]>(last - first);
+                    for (Future<AlignmentResult[]> future : futures) {
+                        results.add(pool.get(future));
+                    }
+                    if (compoundProgress.isCanceled()) return false;
+                    for (int i = first; i < last; i++) {
+                        AlignmentResult[] result = results.get(i - first);
+                        profile.insert(i, sequences[i], frozenColumns, result[0], result[1]);
+                        score += alignmentScores[i - first];
+                    }
+                    compoundProgress.incrementSectionsCompleted(last - first);
+                    compoundProgress.getMinorProgress().setProgress(0);
+                }
+                if (j > 0 && score <= previousScore) {
+                    // converged: count the iterations left as done
+                    compoundProgress.incrementSectionsCompleted(numSequences * (refinementIterations - j - 1));
+                    break;
+                }
+                previousScore = score;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return true;
+    }
+
     public static void main(String[] arguments) throws IOException, ImportException {
         File file = new File(arguments[0]);
         SequenceType sequenceType = SequenceType.AMINO_ACID;
@@ -0,0 +1,282 @@
+package jebl.evolution.align;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import jebl.evolution.distances.KmerDistanceMatrix;
+import jebl.evolution.distances.KmerSketch;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.sequences.Sequence;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.SimpleRootedTree;
+import jebl.evolution.trees.Tree;
+import jebl.evolution.trees.TreeBuilderFactory;
+import jebl.evolution.trees.Utils;
+import jebl.util.ProgressListener;
+import jebl.util.TaskPool;
+
+/**
+ * A guide tree for progressive alignment from k-mer distances, without aligning any sequences.
+ *
+ * Up to EMBEDDING_THRESHOLD sequences this is neighbour-joining on all pairwise k-mer distances, rooted at
+ * its center like the other guide trees. Beyond that the n x n matrix is avoided as in mBed (Blackshields
+ * et al. 2010): every sequence is described by its distances to about log2(n)^2 seed sequences, the
+ * sequences are split in two by 2-means on those vectors, recursively, and each cluster of at most
+ * CLUSTER_SIZE sequences gets a neighbour-joining subtree. That takes about n log2(n)^2 distances and
+ * memory linear in n, so tens of thousands of sequences are practical.
+ *
+ * The tree is binary and its taxa are those of the sequences.
+ */
+class KmerGuideTree {
+
+    static final int EMBEDDING_THRESHOLD = 500;
+    static final int CLUSTER_SIZE = 100;
+    // minimiser window for large sets, where the sketches are compared with many seeds
+    private static final int MINIMISER_WINDOW = 8;
+    private static final int MAXIMUM_ITERATIONS = 20;
+
+    // number of threads for the seed distances
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    private final List<Sequence> sequences;
+    private final KmerSketch[] sketches;
+
+    KmerGuideTree(List<Sequence> sequences) {
+        this.sequences = sequences;
+        int n = sequences.size();
+        int k = KmerSketch.defaultSize(sequences.get(0).getSequenceType());
+        sketches = KmerDistanceMatrix.sketch(sequences, k, n > EMBEDDING_THRESHOLD ? MINIMISER_WINDOW : 1);
+    }
+
+    /**
+     * @return the guide tree, or null if cancelled
+     */
+    RootedTree build(ProgressListener progress) {
+        int n = sequences.size();
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) {
+            all[i] = i;
+        }
+        if (n <= EMBEDDING_THRESHOLD) {
+            return clusterTree(all, progress);
+        }
+
+        progress.setProgress(0);
+        double[][] vectors = embed(seeds(n));
+        if (progress.isCanceled()) return null;
+
+        SimpleRootedTree tree = new SimpleRootedTree();
+        int[] done = {0};
+        if (bisect(all, vectors, tree, progress, done) == null) return null;
+        return tree;
+    }
+
+    // about log2(n)^2 seeds, spread evenly over the sequences ordered by length
+    private int[] seeds(int n) {
+        double log = Math.log(n) / Math.log(2);
+        int count = Math.min(n, (int) Math.ceil(log * log));
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return sequences.get(a).getLength() - sequences.get(b).getLength();
+            }
+        });
+        int[] seeds = new int[count];
+        for (int s = 0; s < count; s++) {
+            seeds[s] = order[(int) ((long) s * n / count)];
+        }
+        return seeds;
+    }
+
+    // the k-mer distances of every sequence to the seeds, in blocks of rows on a TaskPool
+    private double[][] embed(final int[] seeds) {
+        final int n = sketches.length;
+        final double[][] vectors = new double[n][seeds.length];
+        final int block = 64;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int from = 0; from < n; from += block) {
+            final int first = from;
+            final int last = Math.min(from + block, n);
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    for (int i = first; i < last; i++) {
+                        for (int s = 0; s < seeds.length; s++) {
+                            vectors[i][s] = sketches[i].distance(sketches[seeds[s]]);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        TaskPool pool = new TaskPool(threads, "k-mer embedding");
+        try {
+            pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+        return vectors;
+    }
+
+    // subtree of the members in tree, split by 2-means until the clusters are small; null if cancelled
+    private Node bisect(int[] members, double[][] vectors, SimpleRootedTree tree, ProgressListener progress, int[] done) {
+        if (members.length <= CLUSTER_SIZE) {
+            Node root;
+            if (members.length == 1) {
+                // 2-means can leave an outlier on its own, and a one-taxon tree has no root to copy
+                root = tree.createExternalNode(sequences.get(members[0]).getTaxon());
+            } else {
+                RootedTree cluster = clusterTree(members, ProgressListener.EMPTY);
+                root = copy(cluster, cluster.getRootNode(), tree);
+            }
+            done[0] += members.length;
+            if (progress.setProgress((double) done[0] / sequences.size())) return null;
+            return root;
+        }
+        int[][] halves = twoMeans(members, vectors);
+        List<Node> children = new ArrayList<Node>(2);
+        for (int[] half : halves) {
+            Node child = bisect(half, vectors, tree, progress, done);
+            if (child == null) return null;
+            children.add(child);
+        }
+        return tree.createInternalNode(children);
+    }
+
+    /**
+     * Splits the members in two by Lloyd's algorithm with two centers, starting from the member farthest from
+     * their mean and the member farthest from that one. Members that all sit at the same point are cut in half.
+     */
+    private static int[][] twoMeans(int[] members, double[][] vectors) {
+        int dimension = vectors[members[0]].length;
+        double[] mean = new double[dimension];
+        for (int i : members) {
+            add(mean, vectors[i]);
+        }
+        scale(mean, 1.0 / members.length);
+        int a = farthest(members, vectors, mean);
+        int b = farthest(members, vectors, vectors[a]);
+
+        boolean[] second = new boolean[members.length];
+        int secondCount = 0;
+        if (distance(vectors[a], vectors[b]) > 0) {
+            double[] centerA = vectors[a].clone();
+            double[] centerB = vectors[b].clone();
+            for (int iteration = 0; iteration < MAXIMUM_ITERATIONS; iteration++) {
+                boolean changed = false;
+                secondCount = 0;
+                for (int m = 0; m < members.length; m++) {
+                    double[] v = vectors[members[m]];
+                    boolean toB = distance(v, centerB) < distance(v, centerA);
+                    changed |= toB != second[m];
+                    second[m] = toB;
+                    if (toB) secondCount++;
+                }
+                if ((!changed && iteration > 0) || secondCount == 0 || secondCount == members.length) {
+                    break;
+                }
+                Arrays.fill(centerA, 0);
+                Arrays.fill(centerB, 0);
+                for (int m = 0; m < members.length; m++) {
+                    add(second[m] ? centerB : centerA, vectors[members[m]]);
+                }
+                scale(centerA, 1.0 / (members.length - secondCount));
+                scale(centerB, 1.0 / secondCount);
+            }
+        }
+        if (secondCount == 0 || secondCount == members.length) {
+            secondCount = members.length / 2;
+            for (int m = 0; m < members.length; m++) {
+                second[m] = m >= members.length - secondCount;
+            }
+        }
+
+        int[] first = new int[members.length - secondCount];
+        int[] rest = new int[secondCount];
+        int f = 0, r = 0;
+        for (int m = 0; m < members.length; m++) {
+            if (second[m]) {
+                rest[r++] = members[m];
+            } else {
+                first[f++] = members[m];
+            }
+        }
+        return new int[][]{first, rest};
+    }
+
+    private static int farthest(int[] members, double[][] vectors, double[] from) {
+        int best = members[0];
+        double bestDistance = -1;
+        for (int i : members) {
+            double d = distance(vectors[i], from);
+            if (d > bestDistance) {
+                best = i;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    // squared Euclidean distance
+    private static double distance(double[] x, double[] y) {
+        double sum = 0;
+        for (int k = 0; k < x.length; k++) {
+            double d = x[k] - y[k];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private static void add(double[] sum, double[] x) {
+        for (int k = 0; k < x.length; k++) {
+            sum[k] += x[k];
+        }
+    }
+
+    private static void scale(double[] x, double factor) {
+        for (int k = 0; k < x.length; k++) {
+            x[k] *= factor;
+        }
+    }
+
+    // neighbour-joining on the k-mer distances of the members, rooted at its center
+    private RootedTree clusterTree(int[] members, ProgressListener progress) {
+        List<Taxon> taxa = new ArrayList<Taxon>(members.length);
+        KmerSketch[] clusterSketches = new KmerSketch[members.length];
+        for (int m = 0; m < members.length; m++) {
+            taxa.add(sequences.get(members[m]).getTaxon());
+            clusterSketches[m] = sketches[members[m]];
+        }
+        if (members.length < 3) {
+            SimpleRootedTree tree = new SimpleRootedTree();
+            List<Node> tips = new ArrayList<Node>(members.length);
+            for (Taxon taxon : taxa) {
+                tips.add(tree.createExternalNode(taxon));
+            }
+            if (tips.size() > 1) {
+                tree.createInternalNode(tips);
+            }
+            return tree;
+        }
+        Tree tree = TreeBuilderFactory.getBuilder(TreeBuilderFactory.Method.NEIGHBOR_JOINING,
+                new KmerDistanceMatrix(taxa, clusterSketches, progress)).build();
+        return Utils.rootTreeAtCenter(tree);
+    }
+
+    private static Node copy(RootedTree from, Node node, SimpleRootedTree to) {
+        if (from.isExternal(node)) {
+            return to.createExternalNode(from.getTaxon(node));
+        }
+        List<Node> children = new ArrayList<Node>();
+        for (Node child : from.getChildren(node)) {
+            children.add(copy(from, child, to));
+        }
+        return to.createInternalNode(children);
+    }
+}
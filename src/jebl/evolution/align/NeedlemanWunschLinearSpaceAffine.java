@@ -71,6 +71,8 @@ public class NeedlemanWunschLinearSpaceAffine extends AlignLinearSpaceAffine imp
     int[][][] Bi, Bj, Bk;
     private int allocatedn = -1;
     private int allocatedm = -1;
+    private AffineScoreKernel scoreKernel;
+    private ColumnScores columnScores1, columnScores2;   // of the two profiles being aligned
 
     public void allocateMatrices(int n, int m) {
         //first time running this alignment. Create all new matrices.
@@ -154,6 +156,8 @@ public class NeedlemanWunschLinearSpaceAffine extends AlignLinearSpaceAffine imp
 //        System.out.println("total =" + totalProgress + "," +n+ "," +m);
         currentProgress = 0;
         cancelled = false;
+        columnScores1 = new ColumnScores(profile1, sub);
+        columnScores2 = new ColumnScores(profile2, sub);
         int maximumResultLength = m + n;
         AlignmentResult result1 = new AlignmentResult(maximumResultLength);
         AlignmentResult result2 = new AlignmentResult(maximumResultLength);
@@ -165,6 +169,45 @@ public class NeedlemanWunschLinearSpaceAffine extends AlignLinearSpaceAffine imp
         return matchResult;
     }
 
+    /**
+     * Lookup tables for one of the profiles being aligned, worked out once per alignment rather than once per
+     * cell of every pass: the gap fraction of each column, and, for each residue that makes up a whole column
+     * of the other profile (always the case for a single sequence), its score against every column of this one.
+     * The entries are computed by gapFraction and ProfileCharacter.score, so they are the values the cells used.
+     */
+    private static final class ColumnScores {
+        final float[] gapFractions;
+        private final Profile profile;
+        private final Scores sub;
+        private final float[][] residueScores = new float[128][];
+
+        ColumnScores(Profile profile, Scores sub) {
+            this.profile = profile;
+            this.sub = sub;
+            gapFractions = new float[profile.length()];
+            for (int k = 0; k < gapFractions.length; k++) {
+                gapFractions[k] = gapFraction(profile.profile[k]);
+            }
+        }
+
+        // scores of character against every column, or null if it is not a single residue
+        float[] scores(ProfileCharacter character) {
+            char residue = character.singleResidue();
+            if (residue == 0 || residue >= residueScores.length) {
+                return null;
+            }
+            float[] scores = residueScores[residue];
+            if (scores == null) {
+                scores = new float[profile.length()];
+                for (int k = 0; k < scores.length; k++) {
+                    scores[k] = ProfileCharacter.score(character, profile.profile[k], sub);
+                }
+                residueScores[residue] = scores;
+            }
+            return scores;
+        }
+    }
+
     private static float gapFraction(ProfileCharacter character) {
         float result = character.gapFraction();
         //assert result < 1.0; //should not be calling this function on a profile that contains all gap Characters at one location.
@@ -221,6 +264,10 @@ public class NeedlemanWunschLinearSpaceAffine extends AlignLinearSpaceAffine imp
             }
             allocateMatrices(n, m);
         }
+        // the profile along j, and the gap fractions of the one along i
+        ColumnScores columnScores = invert ? columnScores1 : columnScores2;
+        float[] rowGapFractions = (invert ? columnScores2 : columnScores1).gapFractions;
+        float[] columnGapFractions = columnScores.gapFractions;
 
         int u = n / 2;
 
@@ -292,9 +339,13 @@ public class NeedlemanWunschLinearSpaceAffine extends AlignLinearSpaceAffine imp
             if (freeStartGap) Ix[1][0] = 0;
             cxtype[1][0] = TYPE_X;
             cx[1][0] = 0;
+            ProfileCharacter row = profile1.profile[offset1 + i - 1];
+            float[] rowScores = columnScores.scores(row);
+            float rowGapFraction = rowGapFractions[offset1 + i - 1];
             for (int j = 1; j <= m; j++) {
                 if (cancelled) return 0;
-                s = ProfileCharacter.score(profile1.profile[offset1 + i - 1], profile2.profile[offset2 + j - 1], sub);
+                int column = offset2 + j - 1;
+                s = rowScores != null ? rowScores[column] : ProfileCharacter.score(row, profile2.profile[column], sub);
                 if (debug) {
                     System.out.println("loc=" + j + "," + i + " p1=" + profile1.profile[offset1 + i - 1] +
                             " p2=" + profile2.profile[offset2 + j - 1] + " score=" + s);
@@ -342,8 +393,8 @@ public class NeedlemanWunschLinearSpaceAffine extends AlignLinearSpaceAffine imp
                     xd = 0;
                     xe = 0;
                 }
-                float gapFraction = gapFraction(profile1.profile[offset1 + i - 1]);
-                float ownGapFraction = gapFraction(profile2.profile[offset2 + j - 1]);
+                float gapFraction = rowGapFraction;
+                float ownGapFraction = columnGapFractions[column];
                 if (gapCostProduction && gapFraction > 0) {
                     // if the other sequence that we are aligning a gap to
                     // already had some gaps in it, proportionally reduce the gap cost.
@@ -396,8 +447,8 @@ public class NeedlemanWunschLinearSpaceAffine extends AlignLinearSpaceAffine imp
                     yd = 0;
                     ye = 0;
                 }
-                ownGapFraction = gapFraction(profile1.profile[offset1 + i - 1]);
-                gapFraction = gapFraction(profile2.profile[offset2 + j - 1]);
+                ownGapFraction = rowGapFraction;
+                gapFraction = columnGapFractions[column];
                 if (gapCostProduction && gapFraction > 0) {
                     // if the other sequence that we are aligning a gap to
                     // already had some gaps in it, proportionally reduce the gap cost.
@@ -692,9 +743,27 @@ public class NeedlemanWunschLinearSpaceAffine extends AlignLinearSpaceAffine imp
         return new Result(new BasicAlignment(seqs), getScore());
     }
 
+    /**
+     * Score of the best alignment, without computing the alignment itself. Sequences without gap characters
+     * go through the score-only kernel, which gives the same score as the full linear-space pass.
+     */
     public double getScore(Sequence seq1, Sequence seq2) {
-        doAlignment(seq1.getString(), seq2.getString(), null, true);
-        return getScore();
+        String sq1 = strip(seq1.getString()).toUpperCase();
+        String sq2 = strip(seq2.getString()).toUpperCase();
+        if (hasGaps(sq1) || hasGaps(sq2)) {
+            doAlignment(sq1, sq2, null, true);
+            return getScore();
+        }
+        if (scoreKernel == null) {
+            scoreKernel = new AffineScoreKernel();
+        }
+        resultScore = scoreKernel.globalScore(sq1.toCharArray(), sq2.toCharArray(), sub.score, d, e, freeGapsAtEnds);
+        return resultScore;
+    }
+
+    // gap characters change the gap costs of the columns they are in (see gapFraction), which the kernel does not do
+    private static boolean hasGaps(String sequence) {
+        return sequence.indexOf('-') >= 0 || sequence.indexOf('_') >= 0;
     }
 }
 
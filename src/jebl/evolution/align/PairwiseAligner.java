@@ -21,6 +21,14 @@ public interface PairwiseAligner {
         }
     }
 
+    /**
+     * Makes aligners with the same settings. Aligners keep their dynamic programming buffers between calls,
+     * so parallel code takes one aligner per thread from a factory instead of sharing one.
+     */
+    public interface Factory {
+        PairwiseAligner newAligner();
+    }
+
     Result doAlignment(Sequence seq1, Sequence seq2, ProgressListener progress);
 
     double getScore(Sequence seq1, Sequence seq2);
@@ -1,5 +1,6 @@
 package jebl.evolution.align;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,6 +14,11 @@ import jebl.evolution.sequences.Sequence;
  *
  * Represents a profile of a number of sequences to be used in a
  * multiple sequence alignment.
+ *
+ * The columns are kept as character counts. Each sequence is kept as its non-gap characters and the ids of
+ * the columns they are in; a column keeps its id while columns are inserted or removed around it, so adding
+ * or removing one sequence (see insert and remove(int)) takes time proportional to the length of the profile
+ * rather than to the size of the whole alignment. The padded strings are only built by getSequence.
  */
 class Profile {
     ProfileCharacter[] profile;
@@ -20,11 +26,80 @@ class Profile {
 //    int length;
     int sequenceCount;
     private boolean automaticallyCalculatedAlphabetSize = false;
-    private Map<Integer, String> paddedSequences = new HashMap<Integer, String>();
+    private Map<Integer, Row> rows = new HashMap<Integer, Row>();
     private boolean supportsFreeEndGaps=false;
+    // columnIds[i] is the id of profile[i]; positions[id] is the index of column id, or -1 once it is removed
+    private int[] columnIds;
+    private int[] positions;
+    private int nextColumnId = 0;
+
+    // the non-gap characters of a sequence and the ids of the columns they are in, in column order
+    private static final class Row {
+        final char[] characters;
+        final int[] columns;
+
+        Row(char[] characters, int[] columns) {
+            this.characters = characters;
+            this.columns = columns;
+        }
+    }
 
     public String getSequence(int sequenceNumber) {
-        return paddedSequences.get(sequenceNumber);
+        Row row = rows.get(sequenceNumber);
+        if (row == null) return null;
+        char[] sequence = new char[profile.length];
+        Arrays.fill(sequence, '-');
+        for (int k = 0; k < row.columns.length; k++) {
+            int position = positions[row.columns[k]];
+            if (position >= 0) {
+                sequence[position] = row.characters[k];
+            }
+        }
+        return new String(sequence);
+    }
+
+    /**
+     * The ids of the columns, in order. An alignment against the profile as it is now can be passed to insert
+     * after other sequences have been inserted. The array is never modified.
+     */
+    int[] getColumnIds() {
+        return columnIds;
+    }
+
+    private void setColumns(ProfileCharacter[] characters, int[] ids) {
+        profile = characters;
+        columnIds = ids;
+        positions = new int[nextColumnId];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < ids.length; i++) {
+            positions[ids[i]] = i;
+        }
+    }
+
+    private int[] newColumnIds(int count) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nextColumnId++;
+        }
+        return ids;
+    }
+
+    private static Row createRow(String sequence, int[] ids) {
+        int residues = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            if (sequence.charAt(i) != '-') residues++;
+        }
+        char[] characters = new char[residues];
+        int[] columns = new int[residues];
+        residues = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            char character = sequence.charAt(i);
+            if (character != '-') {
+                characters[residues] = character;
+                columns[residues++] = ids[i];
+            }
+        }
+        return new Row(characters, columns);
     }
 
 
@@ -96,7 +171,7 @@ class Profile {
         if (supportsFreeEndGaps) sequence=supportFreeEndGaps( sequence);
         sequenceCount++;
         if (sequenceCount == 1) {
-            profile = createProfile(sequence, alphabetSize);
+            setColumns(createProfile(sequence, alphabetSize), newColumnIds(sequence.length()));
         }
         else {
             assert(profile.length == sequence.length());
@@ -105,7 +180,7 @@ class Profile {
                 character.addCharacter(sequence.charAt(i), 1);
             }
         }
-        paddedSequences.put(sequenceNumber, sequence);
+        rows.put(sequenceNumber, createRow(sequence, columnIds));
 
 //        length = profile.length;
     }
@@ -117,14 +192,95 @@ class Profile {
             profile[i].removeProfileCharacter(remove.profile[i]);
         }
         sequenceCount-= remove.sequenceCount;
-        for (Integer sequenceNumber : remove.paddedSequences.keySet()) {
-            paddedSequences.remove(sequenceNumber);
+        for (Integer sequenceNumber : remove.rows.keySet()) {
+            rows.remove(sequenceNumber);
         }
 
         trim();
 
     }
 
+    /**
+     * Removes one sequence, the same as remove(new Profile(sequenceNumber, getSequence(sequenceNumber)))
+     * without building its padded string.
+     */
+    public void remove(int sequenceNumber) {
+        Row row = rows.remove(sequenceNumber);
+        int k = 0;
+        for (int i = 0; i < profile.length; i++) {
+            while (k < row.columns.length && positions[row.columns[k]] < 0) k++;
+            if (k < row.columns.length && positions[row.columns[k]] == i) {
+                profile[i].removeCharacter(row.characters[k++], 1);
+            } else {
+                profile[i].removeCharacter('-', 1);
+            }
+        }
+        sequenceCount--;
+        trim();
+    }
+
+    /**
+     * Adds a sequence without gaps in place, given its alignment to the columns alignedColumnIds (from
+     * getColumnIds). If those are the current columns this is the same as
+     * combine(this, new Profile(sequenceNumber, sequence), result1, result2), but the other sequences are not
+     * copied. Columns inserted since alignedColumnIds was taken are gaps in the new sequence, and the new
+     * sequence's own insertions go after them, just before the next of the aligned columns.
+     */
+    void insert(int sequenceNumber, String sequence, int[] alignedColumnIds, AlignmentResult result1, AlignmentResult result2) {
+        sequence = sequence.toUpperCase();
+        int length = profile.length;
+        char[] assigned = new char[length];
+        Arrays.fill(assigned, '-');
+        char[] rowCharacters = new char[sequence.length()];
+        int[] rowColumns = new int[sequence.length()];
+        int residues = 0;
+        ProfileCharacter[] inserted = new ProfileCharacter[result1.size];
+        int[] insertedBefore = new int[result1.size];
+        int insertedCount = 0;
+        int firstNewId = nextColumnId;
+        int index1 = 0;
+        int index2 = 0;
+        for (int i = 0; i < result1.size; i++) {
+            char character = result2.values[i] ? sequence.charAt(index2++) : '-';
+            int id;
+            if (result1.values[i]) {
+                id = alignedColumnIds[index1++];
+                assigned[positions[id]] = character;
+            } else {
+                ProfileCharacter column = new ProfileCharacter(alphabetSize);
+                column.addGaps(sequenceCount);
+                column.addCharacter(character, 1);
+                id = nextColumnId++;
+                inserted[insertedCount] = column;
+                insertedBefore[insertedCount++] = index1 < alignedColumnIds.length ? positions[alignedColumnIds[index1]] : length;
+            }
+            if (character != '-') {
+                rowCharacters[residues] = character;
+                rowColumns[residues++] = id;
+            }
+        }
+        assert(index2 == sequence.length());
+
+        ProfileCharacter[] characters = new ProfileCharacter[length + insertedCount];
+        int[] ids = new int[length + insertedCount];
+        int index = 0;
+        int next = 0;
+        for (int i = 0; i <= length; i++) {
+            while (next < insertedCount && insertedBefore[next] == i) {
+                characters[index] = inserted[next];
+                ids[index++] = firstNewId + next++;
+            }
+            if (i < length) {
+                profile[i].addCharacter(assigned[i], 1);
+                characters[index] = profile[i];
+                ids[index++] = columnIds[i];
+            }
+        }
+        sequenceCount++;
+        rows.put(sequenceNumber, new Row(Arrays.copyOf(rowCharacters, residues), Arrays.copyOf(rowColumns, residues)));
+        setColumns(characters, ids);
+    }
+
     /* used after a sequence has been removed from a profile to remove profile characters
     that are all gap characters in the remaining sequences profiled.
     */
@@ -140,38 +296,14 @@ class Profile {
 //        System.out.println("gaps =" + gapCount+ "," + count);
         if(gapCount== 0) return;
         ProfileCharacter characters[]=new ProfileCharacter[count];
-        char [][] sequences = new char[sequenceCount][];
-        char[][] newSequences = new char[sequenceCount][];
-        int[] sequenceNumbers =new int[sequenceCount];
-        for (int i = 0; i < sequenceCount; i++) {
-            newSequences[i]=new char[count];
-        }
-        int i = 0;
-        for (Map.Entry<Integer, String> entry : paddedSequences.entrySet()) {
-            sequenceNumbers[i]= entry.getKey();
-            sequences[i++] = entry.getValue ().toCharArray();
-        }
-        assert(i== sequenceCount);
+        int[] ids = new int[count];
         int index = 0;
-        int sourceIndex = 0;
-        for (ProfileCharacter character : profile) {
-            if (character.isAllGaps()) {
-                sourceIndex++;
-                continue;
-            }
-            characters [ index  ] = character;
-            for (int j = 0; j < sequenceCount; j++) {
-                newSequences[j][ index ] = sequences [j][ sourceIndex ];
-            }
-            sourceIndex++;
-            index ++;
+        for (int i = 0; i < profile.length; i++) {
+            if (profile[i].isAllGaps()) continue;
+            characters [ index  ] = profile[i];
+            ids[index++] = columnIds[i];
         }
-        for (int j = 0; j < sequenceCount; j++) {
-            String sequence = new String(newSequences[j]);
-            assert(sequence.length()== count);
-            paddedSequences.put(sequenceNumbers[j], sequence);
-        }
-        profile= characters;
+        setColumns(characters, ids);
     }
 
     public static Profile combine(Profile profile1, Profile profile2, AlignmentResult result1, AlignmentResult result2) {
@@ -197,22 +329,53 @@ class Profile {
             }
             result.profile[i]= character;
         }
-        for (Map.Entry<Integer, String> entry : profile1.paddedSequences.entrySet()) {
-            String sequence = entry.getValue();
-            sequence = buildAlignmentString(sequence, result1);
-            result.paddedSequences.put(entry.getKey(), sequence);
+        result.setColumns(result.profile, result.newColumnIds(size));
+        int[] columns1 = combinedColumns(profile1, result1);
+        for (Map.Entry<Integer, Row> entry : profile1.rows.entrySet()) {
+            result.rows.put(entry.getKey(), combinedRow(entry.getValue(), profile1, columns1));
         }
-        for (Map.Entry<Integer, String> entry : profile2.paddedSequences.entrySet()) {
-            String sequence = entry.getValue();
-            sequence = buildAlignmentString(sequence, result2);
-            result.paddedSequences.put(entry.getKey(), sequence);
+        int[] columns2 = combinedColumns(profile2, result2);
+        for (Map.Entry<Integer, Row> entry : profile2.rows.entrySet()) {
+            result.rows.put(entry.getKey(), combinedRow(entry.getValue(), profile2, columns2));
         }
         result.sequenceCount= profile1.sequenceCount + profile2.sequenceCount;
-        assert(result.sequenceCount == result.paddedSequences.size());
+        assert(result.sequenceCount == result.rows.size());
 //        result.length = size;
         return result;
     }
 
+    // the column of the combined profile that each column of profile ends up in
+    private static int[] combinedColumns(Profile profile, AlignmentResult result) {
+        int[] columns = new int[profile.length()];
+        int index = 0;
+        for (int i = 0; i < result.size; i++) {
+            if (result.values[i]) {
+                columns[index++] = i;
+            }
+        }
+        assert(index == columns.length);
+        return columns;
+    }
+
+    // the combined profile's column ids are its column indices
+    private static Row combinedRow(Row row, Profile profile, int[] combinedColumns) {
+        int residues = 0;
+        for (int column : row.columns) {
+            if (profile.positions[column] >= 0) residues++;
+        }
+        char[] characters = new char[residues];
+        int[] columns = new int[residues];
+        residues = 0;
+        for (int k = 0; k < row.columns.length; k++) {
+            int position = profile.positions[row.columns[k]];
+            if (position >= 0) {
+                characters[residues] = row.characters[k];
+                columns[residues++] = combinedColumns[position];
+            }
+        }
+        return new Row(characters, columns);
+    }
+
     public static int calculateAlphabetSize(String[] sequences) {
         int total = 0;
         boolean found[] = new boolean[127];
@@ -247,8 +410,8 @@ class Profile {
     public void print(boolean displaySequences) {
         if(displaySequences) {
             int maximum = 0;
-            for (int k = 0; k < paddedSequences.size(); k++) {
-                String sequence = paddedSequences.get(k);
+            for (int k = 0; k < rows.size(); k++) {
+                String sequence = getSequence(k);
                 maximum = Math.max(maximum, sequence.length ());
                 System.out.println(sequence);
             }
@@ -325,9 +488,9 @@ class Profile {
         if (sequenceCount<2) return this;
         Profile result =new Profile(alphabetSize+1);
         result.supportsFreeEndGaps=true;
-        for (Map.Entry<Integer, String> entry : paddedSequences.entrySet()) {
-             String sequence =entry.getValue();
-             result.addSequence(entry.getKey(), sequence);
+        for (Integer sequenceNumber : rows.keySet()) {
+             String sequence =getSequence(sequenceNumber);
+             result.addSequence(sequenceNumber, sequence);
         }
         return result;
     }
@@ -45,7 +45,7 @@ public class ProfileCharacter {
         count [ numberOfUniqueCharacters ++ ] = increment;
     }
 
-    private void removeCharacter(char character, int increment) {
+    void removeCharacter(char character, int increment) {
         calculatedGapFraction = false;
         totalCharacters -= increment;
         for (int i = 0; i < numberOfUniqueCharacters; i++) {
@@ -124,6 +124,13 @@ public class ProfileCharacter {
     }
 
 
+    /**
+     * @return the residue if this is a single residue (one character, counted once), otherwise 0
+     */
+    char singleResidue() {
+        return totalCharacters == 1 && numberOfUniqueCharacters == 1 ? characters[0] : 0;
+    }
+
     public int print() {
         System.out.print(toString());
         return numberOfUniqueCharacters;
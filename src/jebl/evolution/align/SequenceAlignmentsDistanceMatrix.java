@@ -2,6 +2,8 @@ package jebl.evolution.align;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import jebl.evolution.distances.BasicDistanceMatrix;
 import jebl.evolution.distances.CannotBuildDistanceMatrixException;
@@ -10,6 +12,7 @@ import jebl.evolution.distances.JukesCantorDistanceMatrix;
 import jebl.evolution.sequences.Sequence;
 import jebl.evolution.taxa.Taxon;
 import jebl.util.ProgressListener;
+import jebl.util.TaskPool;
 
 /**
  *
@@ -17,6 +20,9 @@ import jebl.util.ProgressListener;
  * specified sequences (unlike the methods in jebl.evolution.distances, which
  * extract the pairwise distances from a multiple sequence alignment).
  *
+ * Given a {@link PairwiseAligner.Factory} the rows of the matrix are aligned in parallel, each thread with
+ * its own aligner.
+ *
  * @author Joseph Heled
  * @version $Id: SequenceAlignmentsDistanceMatrix.java 842 2007-11-12 22:33:48Z twobeers $
  *
@@ -28,6 +34,12 @@ public class SequenceAlignmentsDistanceMatrix extends BasicDistanceMatrix {
         super(getTaxa(seqs), getDistances(seqs, aligner, progress));
     }
 
+    public SequenceAlignmentsDistanceMatrix(List<Sequence> seqs, PairwiseAligner.Factory aligners, ProgressListener progress, int threads)
+            throws CannotBuildDistanceMatrixException
+    {
+        super(getTaxa(seqs), getDistances(seqs, aligners, progress, threads));
+    }
+
     static List<Taxon> getTaxa(List<Sequence> seqs) {
         List<Taxon> t = new ArrayList<Taxon>();
         for( Sequence s : seqs ) {
@@ -36,7 +48,15 @@ public class SequenceAlignmentsDistanceMatrix extends BasicDistanceMatrix {
         return t;
     }
 
-
+    // distance of a pairwise alignment, read from its two sequences without building a distance matrix
+    private static double distance(PairwiseAligner.Result result, boolean isProtein) throws CannotBuildDistanceMatrixException {
+        List<Sequence> pair = result.alignment.getSequenceList();
+        if(isProtein) {
+            return JukesCantorDistanceMatrix.getDistance(pair.get(0), pair.get(1));
+        } else {
+            return F84DistanceMatrix.getDistance(pair.get(0), pair.get(1));
+        }
+    }
 
     private static double[][] getDistances(List<Sequence> seqs, PairwiseAligner aligner, final ProgressListener progress) throws CannotBuildDistanceMatrixException {
         final int n = seqs.size();
@@ -50,15 +70,61 @@ public class SequenceAlignmentsDistanceMatrix extends BasicDistanceMatrix {
                 PairwiseAligner.Result result = aligner.doAlignment(seqs.get(i), seqs.get(j), compoundProgress.getMinorProgress());
                 compoundProgress.incrementSectionsCompleted(1);
                 if(compoundProgress.isCanceled()) return d;
-                if(isProtein) {
-                    d[i][j] = new JukesCantorDistanceMatrix(result.alignment, null).getDistances()[0][1];
-                } else {
-                    d[i][j] = new F84DistanceMatrix(result.alignment).getDistances()[0][1];
+                d[i][j] = distance(result, isProtein);
+                d[j][i] = d[i][j];
+            }
+        }
+        return d;
+    }
+
+    /**
+     * One task per row on a pool of the given number of threads. Progress is reported from the calling thread
+     * as rows complete; the workers only check for cancellation, so the listener is never called concurrently.
+     */
+    private static double[][] getDistances(final List<Sequence> seqs, final PairwiseAligner.Factory aligners, final ProgressListener progress, int threads)
+            throws CannotBuildDistanceMatrixException
+    {
+        final int n = seqs.size();
+        final double [][] d = new double[n][n];
+        final boolean isProtein = seqs.get(0).getSequenceType().getCanonicalStateCount()> 4;
+
+        final CompoundAlignmentProgressListener compoundProgress = new CompoundAlignmentProgressListener(progress,(n * (n - 1)) / 2);
+        final ThreadLocal<PairwiseAligner> aligner = new ThreadLocal<PairwiseAligner>() {
+            protected PairwiseAligner initialValue() {
+                return aligners.newAligner();
+            }
+        };
+        final ProgressListener cancelOnly = TaskPool.cancelOnly(progress);
 
+        List<Callable<Void>> rows = new ArrayList<Callable<Void>>(n);
+        for(int i = 0; i < n; ++i) {
+            final int row = i;
+            rows.add(new Callable<Void>() {
+                public Void call() throws CannotBuildDistanceMatrixException {
+                    for(int j = row+1; j < n; ++j) {
+                        if(cancelOnly.isCanceled()) return null;
+                        PairwiseAligner.Result result = aligner.get().doAlignment(seqs.get(row), seqs.get(j), cancelOnly);
+                        if(result == null || cancelOnly.isCanceled()) return null;
+                        d[row][j] = distance(result, isProtein);
+                        d[j][row] = d[row][j];
+                    }
+                    return null;
                 }
-                d[j][i] = d[i][j];
+            });
+        }
+
+        TaskPool pool = new TaskPool(threads, "pairwise alignments");
+        try {
+            List<Future<Void>> futures = pool.submitAll(rows);
+            for(int i = 0; i < n; ++i) {
+                pool.get(futures.get(i), CannotBuildDistanceMatrixException.class);
+                compoundProgress.incrementSectionsCompleted(n - i - 1);
+                compoundProgress.getMinorProgress().setProgress(0);
+                if(compoundProgress.isCanceled()) return d;
             }
+        } finally {
+            pool.shutdown();
         }
         return d;
     }
-}
\ No newline at end of file
+}
@@ -10,7 +10,7 @@ import jebl.util.ProgressListener;
  */
 public class SmithWatermanLinearSpaceAffine extends AlignLinearSpaceAffine {
 
-    TracebackSimple[][] start;	// Best alignment ending at (i,j) begins at start[i][j]
+    private AffineScoreKernel kernel;
     float maxval;           	// Score of best alignment
     int start1, start2;   		// Best alignment begins at (start1, start2)
     int end1, end2;       		// Best alignment ends at (end1, end2)
@@ -20,6 +20,9 @@ public class SmithWatermanLinearSpaceAffine extends AlignLinearSpaceAffine {
     }
 
     /**
+     * Finds the score and extent of the best local alignment with the score-only kernel; the alignment
+     * itself is only computed by getMatch, as a global alignment of the two aligned substrings.
+     *
      * @param sq1
      * @param sq2
      */
@@ -27,55 +30,15 @@ public class SmithWatermanLinearSpaceAffine extends AlignLinearSpaceAffine {
 
         prepareAlignment(sq1, sq2);
 
-        char[] s1 = sq1.toCharArray();
-        char[] s2 = sq2.toCharArray();
-
-        int n = this.n, m = this.m;
-        float[][] score = sub.score;
-        float[][] M = F[0], Ix = F[1], Iy = F[2];
-        start = new TracebackSimple[2][m+1];
-        maxval = Float.NEGATIVE_INFINITY;
-        // Initialize first column (i=0); score is zero:
-        for (int j=0; j<=m; j++) {
-            start[1][j] = new TracebackSimple(0, j);
+        if (kernel == null) {
+            kernel = new AffineScoreKernel();
         }
-
-
-        for (int i=1; i<=n; i++) {
-            if( progress != null && progress.setProgress((double)i/n) ) {
-               return; 
-            }
-
-            swap01(M); swap01(Ix); swap01(Iy); swap01(start);
-            // F[k][1] represents (new) col i and F[k][0] represents (old) col i-1
-            // Initialize first row (j=0):
-            start[1][0] = new TracebackSimple(i, 0);
-            for (int j=1; j<=m; j++) {
-                float s = score[s1[i-1]][s2[j-1]];
-                float val, valm, valix, valiy;
-                valm  = M[1][j]  = max(0, M[0][j-1]+s, Ix[0][j-1]+s, Iy[0][j-1]+s);
-                valix = Ix[1][j] = max(M[0][j]-d, Ix[0][j]-e);
-                valiy = Iy[1][j] = max(M[1][j-1]-d, Iy[1][j-1]-e);
-
-                val = max(valm, valix, valiy);
-                if (val == 0) {
-                    start[1][j] = new TracebackSimple(i, j);
-                } else if (val == valm) {
-                    start[1][j] = start[0][j-1];
-                } else if (val == valix) {
-                    start[1][j] = start[0][j];
-                } else if (val == valiy) {
-                    start[1][j] = start[1][j-1];
-                } else {
-                    throw new Error("SWSmartAffine 1");
-                }
-                if (val > maxval) {
-                    maxval = val;
-                    TracebackSimple sij = start[1][j];
-                    start1 = sij.i; start2 = sij.j;
-                    end1 = i; end2 = j;
-                }
-            }
+        boolean completed = kernel.localScore(sq1.toCharArray(), sq2.toCharArray(), sub.score, d, e, progress);
+        maxval = kernel.maxval;
+        start1 = kernel.start1; start2 = kernel.start2;
+        end1 = kernel.end1; end2 = kernel.end2;
+        if (completed) {
+            kernel.copyLastRow(F, m);
         }
     }
 
@@ -0,0 +1,96 @@
+package jebl.evolution.align;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jebl.evolution.align.scores.NucleotideScores;
+import jebl.evolution.distances.CannotBuildDistanceMatrixException;
+import jebl.evolution.sequences.BasicSequence;
+import jebl.evolution.sequences.Sequence;
+import jebl.evolution.sequences.SequenceType;
+import jebl.evolution.taxa.Taxon;
+import jebl.util.ProgressListener;
+
+/**
+ * Regression check for BartonSternberg, run from main. The default refinement (batch size 1) must give
+ * EXPECTED, the alignment of INPUT made by the code before profile rows were kept incrementally. Batch
+ * refinement must give the same alignment whatever the number of threads, and every aligned row must be
+ * its input sequence with gaps added.
+ */
+public class TestBartonSternberg {
+
+    // fourteen sequences evolved from one 90-base root with substitutions and short indels
+    static final String[] INPUT = {
+            "TCCCCGATGATTAACATGTAGCGGAGACGTGATGGACCTTGGCATCCGTCCTGCCACGGCTCGTATGGGCTGCGAATGTGAAAGTTTTTCGGG",
+            "TCCCCCACGATTAACTTGTAGCGGAGACGGAGACCTTGGCATCCGTCCTGCCACGGCTCGTATGGGCTGCGAATGCTAAAGTTTTTCGGG",
+            "TCCCCCTTAACTTGTAGCGGAGACGGAGACCTGGGCATCCGTCCTGCCACGGCTCGTAGCGGCTGCGAATGTTAAAGTTTTTCGGG",
+            "TCCCCCACGCTTAACTTGTAGCGGAGACGGAGGCCTGGGCATCCGTCCTGCCACAGCTCGTATGGCCTGCGAATGTTAGAGTTTTTCGGG",
+            "TCCCGGTACGATTAACTTGTAGCGGATACGGAGACGTGGGCATCCGTCTTGCCACGGCTCGTATGGGCTTCGAATGTTAAAGGTTTTCGGT",
+            "TCCCCCACGATTGACTTGTAGCGGAGACGGAGACCTGGGCATCCGCCCTGCCACGGCTCGGTTGGGCTGCGAATGTTACAGTTTTTCGGG",
+            "TACCCCACGATTAACTTGTAGCGGAGACGGAGACTGGGCATCCGTCCTGCCACGGCTCGTATGGGCTGCGAATGTGAAAGTTTTTCGGG",
+            "TCCCCCACGATTAACTTGGAGCGGGGCTACGTCGAGACCTGGGCATCCGTCCTGGCACGGCTCGTATGGGCTGCGAATGTAAAAGTTTTTCGGG",
+            "TCCCCCACGATTACCTTGTAGCCGAGACGGAGACCTGGAGGCGTCCTTCCTGCCACGGCTCGTATGGGCTGCGACTGTTAAAAGTTTTTCGGG",
+            "TCCCCCACTATTTGCTTGTATTCGCGGAGACGGAGAACTTGGCATCCGTCCTGCCACAGCTCGTATGGGTTGCGAATGTCAAAGTTTTTCGGG",
+            "TCCCCCACGATTAACTTGTAGCGGAGAGGGAGAATCGTGGGCATCCCTGCCTCGGCTTGTATGGGATGCGAATGTTAAAGTTTATCGGG",
+            "TCACCCACGATTAACTTGTAGTGGAGACGGAGACCTGGGCATCCGTCCTGCCACAGCTCGTATGGGCTCCGAATGTTAAAGTTCTTCGGG",
+            "TCCCACGATTACCTTGTAGCGGAGACGGAGACCTGGGCATCCGTATTGCCACGGCTCGTATGGGCTGCGAATGAATTAAAGTTTTTCGGG",
+            "GGCCCCTCGAGTAACTTGTAGCGGAGACTGAGACCTGGGCATTCCGTCCCGCGATCACGGCTCGTTTGGGCTGCGAAAGTTAAAGTTTTTCGGG"
+    };
+
+    static final String[] EXPECTED = {
+            "T-CCCCGATGATTAACATGTA---GCGGAG--ACGTGATGGA--CCT--TGGCA-TCCGTCCTGC---CACGGCTCGTATGGGCTGCGAATG--TGAAAGTTTTTCGGG",
+            "TCCCCC-ACGATTAACTTGTA---GCGGAG--ACG---GAGA--CCT--TGGCA-TCCGTCCTGC---CACGGCTCGTATGGGCTGCGAATGC--TAAAGTTTTTCGGG",
+            "TCCCCC-----TTAACTTGTA---GCGGAG--ACG---GAGA--CCTG--GGCA-TCCGTCCTGC---CACGGCTCGTAGCGGCTGCGAATG--TTAAAGTTTTTCGGG",
+            "TCCCCC-ACGCTTAACTTGTA---GCGGAG--ACG---GAGG--CCTG--GGCA-TCCGTCCTGC---CACAGCTCGTATGGCCTGCGAATG--TTAGAGTTTTTCGGG",
+            "TCCCGGTACGATTAACTTGTA---GCGGA--TACG---GAGA--CGTG--GGCA-TCCGTCTTGC---CACGGCTCGTATGGGCTTCGAATG--TTAAAGGTTTTCGGT",
+            "TCCCCC-ACGATTGACTTGTA---GCGGAG--ACG---GAGA--CCTG--GGCA-TCCGCCCTGC---CACGGCTCGGTTGGGCTGCGAATG--TTACAGTTTTTCGGG",
+            "TACCCC-ACGATTAACTTGTA---GCGGAG--ACG---GAGA--C-TG--GGCA-TCCGTCCTGC---CACGGCTCGTATGGGCTGCGAATG--TGAAAGTTTTTCGGG",
+            "TCCCCC-ACGATTAACTTGGA---GCGGGGCTACGTC-GAGA--CCTG--GGCA-TCCGTCCTG-G--CACGGCTCGTATGGGCTGCGAATG--TAAAAGTTTTTCGGG",
+            "TCCCCC-ACGATTACCTTGTA---GCCGAG--ACG---GAGA--CCTGGAGGC-GTCCTTCCTGC---CACGGCTCGTATGGGCTGCGACTG-TTAAAAGTTTTTCGGG",
+            "TCCCCC-ACTATTTGCTTGTATTCGCGGAG--ACG---GAGA--ACT--TGGCA-TCCGTCCTGC---CACAGCTCGTATGGGTTGCGAATG--TCAAAGTTTTTCGGG",
+            "TCCCCC-ACGATTAACTTGTA---GCGGAG--AGG---GAGAATCGTG--GGCA-TCC---CTGC---CTCGGCTTGTATGGGATGCGAATG--TTAAAGTTTATCGGG",
+            "TCACCC-ACGATTAACTTGTA---GTGGAG--ACG---GAGA--CCTG--GGCA-TCCGTCCTGC---CACAGCTCGTATGGGCTCCGAATG--TTAAAGTTCTTCGGG",
+            "TCCC---ACGATTACCTTGTA---GCGGAG--ACG---GAGA--CCTG--GGCA-TCCGTATTGC---CACGGCTCGTATGGGCTGCGAATGAATTAAAGTTTTTCGGG",
+            "GGCCCCT-CGAGTAACTTGTA---GCGGAG--AC---TGAGA--CCTG--GGCATTCCGTCCCGCGATCACGGCTCGTTTGGGCTGCGAAAG--TTAAAGTTTTTCGGG"
+    };
+
+    public static void main(String[] args) throws CannotBuildDistanceMatrixException {
+        String[] aligned = align(1, 1);
+        check(Arrays.equals(aligned, EXPECTED), "batch size 1 differs from the previous alignment");
+        checkRows(aligned);
+
+        String[] batch = align(4, 1);
+        checkRows(batch);
+        for (int threads = 2; threads <= 4; threads++) {
+            check(Arrays.equals(align(4, threads), batch), "batch size 4 differs between 1 and " + threads + " threads");
+        }
+        System.out.println("BartonSternberg ok");
+    }
+
+    static String[] align(int batchSize, int threads) throws CannotBuildDistanceMatrixException {
+        List<Sequence> sequences = new ArrayList<Sequence>();
+        for (int i = 0; i < INPUT.length; i++) {
+            sequences.add(new BasicSequence(SequenceType.NUCLEOTIDE, Taxon.getTaxon("s" + i), INPUT[i]));
+        }
+        BartonSternberg aligner = new BartonSternberg(new NucleotideScores(5, -4), 10, 1, 2, false, false);
+        aligner.setRefinementBatchSize(batchSize);
+        aligner.threads = threads;
+        return aligner.align(sequences, ProgressListener.EMPTY, false, false);
+    }
+
+    // rows of equal length that are the input sequences once the gaps are dropped
+    static void checkRows(String[] aligned) {
+        check(aligned.length == INPUT.length, "expected " + INPUT.length + " rows, got " + aligned.length);
+        for (int i = 0; i < aligned.length; i++) {
+            check(aligned[i].length() == aligned[0].length(), "row " + i + " has a different length");
+            check(aligned[i].replace("-", "").equals(INPUT[i]), "row " + i + " is not its input sequence");
+        }
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
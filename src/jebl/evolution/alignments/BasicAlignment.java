@@ -42,10 +42,21 @@ public class BasicAlignment implements Alignment {
      * @param sequences
      */
     public BasicAlignment(Collection<? extends Sequence> sequences) {
+        this(sequences, false);
+    }
+
+    /**
+     * Constructs a basic alignment from a collection of sequences. The sequence
+     * objects are not copied.
+     * @param sequences
+     * @param compressPatterns if true, identical sites share one pattern whose weight is the number
+     * of those sites; the patterns are then in order of first occurrence rather than one per site.
+     */
+    public BasicAlignment(Collection<? extends Sequence> sequences, boolean compressPatterns) {
+        this.compressPatterns = compressPatterns;
         for (Sequence sequence : sequences) {
             put(sequence);
         }
-        constructPatterns();
     }
 
     /**
@@ -54,10 +65,20 @@ public class BasicAlignment implements Alignment {
      * @param sequences
      */
     public BasicAlignment(Sequence[] sequences) {
+        this(sequences, false);
+    }
+
+    /**
+     * Constructs a basic alignment from an array of sequences. The sequence
+     * objects are not copied.
+     * @param sequences
+     * @param compressPatterns see {@link #BasicAlignment(Collection, boolean)}
+     */
+    public BasicAlignment(Sequence[] sequences, boolean compressPatterns) {
+        this.compressPatterns = compressPatterns;
         for (Sequence sequence : sequences) {
             put(sequence);
         }
-        constructPatterns();
     }
 
     /**
@@ -84,11 +105,12 @@ public class BasicAlignment implements Alignment {
 	}
 
 	public int getSiteCount() {
-	    return patterns.size();
+	    getPatterns();
+	    return siteCount;
 	}
 
     public int getPatternCount() {
-        return patterns.size();
+        return getPatterns().size();
     }
 
 	public int getPatternLength() {
@@ -96,9 +118,19 @@ public class BasicAlignment implements Alignment {
 	}
 
     public List<Pattern> getPatterns() {
+        if (patterns == null) {
+            constructPatterns();
+        }
         return patterns;
     }
 
+    /**
+     * @return true if identical sites share a weighted pattern
+     */
+    public boolean isCompressed() {
+        return compressPatterns;
+    }
+
 	/**
 	 * @return the list of taxa that the state values correspond to.
 	 */
@@ -112,7 +144,7 @@ public class BasicAlignment implements Alignment {
 	 */
 	public void addSequence(Sequence sequence) {
 	    put(sequence);
-	    constructPatterns();
+	    patterns = null;    // rebuilt when next asked for
 	}
 
     private void put(Sequence sequence) {
@@ -136,7 +168,8 @@ public class BasicAlignment implements Alignment {
     }
 
     private void constructPatterns() {
-        patterns.clear();
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        Map<List<State>, BasicPattern> distinct = new HashMap<List<State>, BasicPattern>();
 
         State[][] seqs = new State[sequences.size()][];
         int i = 0;
@@ -150,7 +183,7 @@ public class BasicAlignment implements Alignment {
         }
 
         for (int j = 0; j < maxLen; j++) {
-            List<State> states = new ArrayList<State>();
+            List<State> states = new ArrayList<State>(seqs.length);
             for (i = 0; i < seqs.length; i++) {
                 if (j < seqs[i].length) {
                     states.add(seqs[i][j]);
@@ -158,14 +191,29 @@ public class BasicAlignment implements Alignment {
                     states.add(sequenceType.getGapState());
                 }
             }
-            patterns.add(new BasicPattern(states));
+            if (compressPatterns) {
+                BasicPattern pattern = distinct.get(states);
+                if (pattern != null) {
+                    pattern.weight += 1.0;
+                    continue;
+                }
+                pattern = new BasicPattern(states);
+                distinct.put(states, pattern);
+                patterns.add(pattern);
+            } else {
+                patterns.add(new BasicPattern(states));
+            }
         }
+        this.siteCount = maxLen;
+        this.patterns = patterns;
     }
 
     private SequenceType sequenceType = null;
     private List<Taxon> taxonList = new ArrayList<Taxon>();
     private Map<Taxon, Sequence> sequences = new HashMap<Taxon, Sequence>();
-    private List<Pattern> patterns = new ArrayList<Pattern>();
+    private List<Pattern> patterns = null;    // built on demand
+    private int siteCount = 0;
+    private boolean compressPatterns = false;
 
     private class BasicPattern implements Pattern {
 
@@ -210,7 +258,7 @@ public class BasicAlignment implements Alignment {
 	    }
 
 	    public double getWeight() {
-		    return 1.0;
+		    return weight;
 	    }
 
 	    /**
@@ -242,6 +290,7 @@ public class BasicAlignment implements Alignment {
 	    }
 
 	    private final List<State> states;
+	    private double weight = 1.0;    // number of sites with this pattern
     }
 
 }
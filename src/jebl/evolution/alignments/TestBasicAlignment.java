@@ -0,0 +1,127 @@
+package jebl.evolution.alignments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jebl.evolution.distances.CannotBuildDistanceMatrixException;
+import jebl.evolution.distances.DistanceMatrix;
+import jebl.evolution.distances.F84DistanceMatrix;
+import jebl.evolution.distances.HKYDistanceMatrix;
+import jebl.evolution.distances.JukesCantorDistanceMatrix;
+import jebl.evolution.distances.TamuraNeiDistanceMatrix;
+import jebl.evolution.parsimony.FitchParsimony;
+import jebl.evolution.sequences.BasicSequence;
+import jebl.evolution.sequences.Sequence;
+import jebl.evolution.sequences.SequenceType;
+import jebl.evolution.taxa.Taxon;
+import jebl.evolution.trees.RootedTree;
+import jebl.evolution.trees.TreeBuilderFactory;
+import jebl.util.ProgressListener;
+
+/**
+ * Regression check for pattern compression in BasicAlignment, run from main. A compressed alignment must
+ * hold each distinct site once, in order of first occurrence, weighted by how often it occurs, and the
+ * distance matrices and Fitch parsimony score must be exactly those of the uncompressed alignment. An
+ * alignment built one sequence at a time must have the patterns of one built in one go.
+ */
+public class TestBasicAlignment {
+
+    // nine aligned sequences of 120 sites with substitutions, gaps and a few N, R and Y
+    static final String[] INPUT = {
+            "AACTGGCGAGTGAAGGACACATTTAGTATTTGCTCACTCCCTCTATTAR-G-CACAACTTAGCTGT-GCTTGGTCCGTA-ATTATTAAACCTGTACAATCATGAGGCG-AAATACGTYGG",
+            "GACTCCCGAGTTGAGGACCCATTAATAATTTGCACACTCCCTATATTATTGTCACAATTTAGCTGTTTATTGGAACGTATATTCCTGAACGTGTACTATCGTGAGGCGGAAGCACGTCTC",
+            "AACTGGCGAGTGGAGGACACATTAATT-TTTGCTCACTCCC-GTATTATTGCCACAATTTAGCTGTTGATTGGAACGTATATTACTCAACCTATCCTATCATGAGGCGGAAGCACGTCGG",
+            "AACGGGCGAGT-GAGGACAC-TTAATTACATGCTCACTCCCTAGARTATAGTCATAGGTTAGCTCTTGCTTGGAACNTATATTARTGAACCTGTACTATCATGAGGCGGAAGCAG-TCGG",
+            "AACTGGCGAGTGGAGGAC-TATTAATAAT-TGGTAACTCCCT-TATTATTTTCACAATTTAGCTGT-GCTTGGAACGTATATTACTGAACCTG-ACTATCATGTGGCGGAATCAC-TCGG",
+            "AACTGGCGAGTGGCGGATAGATTAAGAATTTGCGCACTCCCTATATTATTGTGACAAT-TAGCGATGGC-TGGAACGTATAATACTGAACCTGTAATATCATGAGGCG-AAGCACGTC-G",
+            "AACTGGCGAGTGGAGGACA-ATTAATAATTTGCTCAACCCCTATATTATTGTCACAATTTAGCTGTTGCTTGGAAC-CAAATTACT-AACTTGTACTATCATGATGCGGAAGCTCGGCGG",
+            "AACTGNCGAGTGGAGGACACATTAATAATTTG-GCACTCCCTATTTTAT-GTCACAATTTAGCTGTTGCTTGGAACGTCGATTACRGAACCTGTAGTATCATGAGGCTGAAGCACGTC-G",
+            "AGCTGGCGAGTGGAGGCCARATTAATAATTTTCTCGCTCCCTCTATTATTGTCRCAAYTGAGCTATTGCTTGAAAYGTTTATTCCTGAACCCGTACTATGATGAGGCGGAAGCACGTCGG"
+    };
+
+    public static void main(String[] args) throws CannotBuildDistanceMatrixException {
+        List<Sequence> sequences = new ArrayList<Sequence>();
+        for (int i = 0; i < INPUT.length; i++) {
+            sequences.add(new BasicSequence(SequenceType.NUCLEOTIDE, Taxon.getTaxon("t" + i), INPUT[i]));
+        }
+        BasicAlignment plain = new BasicAlignment(sequences);
+        BasicAlignment compressed = new BasicAlignment(sequences, true);
+
+        check(plain.getPatternCount() == plain.getSiteCount(), "an uncompressed alignment needs one pattern per site");
+        check(compressed.getSiteCount() == plain.getSiteCount(), "compression changed the site count");
+        checkCompressed(plain.getPatterns(), compressed.getPatterns());
+
+        BasicAlignment incremental = new BasicAlignment();
+        for (Sequence sequence : sequences) {
+            incremental.addSequence(sequence);
+            check(incremental.getPatternCount() == incremental.getSiteCount(), "patterns were not rebuilt after addSequence");
+        }
+        check(samePatterns(incremental.getPatterns(), plain.getPatterns()), "adding sequences one at a time gave other patterns");
+
+        checkDistances(new JukesCantorDistanceMatrix(plain, ProgressListener.EMPTY),
+                new JukesCantorDistanceMatrix(compressed, ProgressListener.EMPTY), "Jukes-Cantor");
+        checkDistances(new HKYDistanceMatrix(plain, ProgressListener.EMPTY),
+                new HKYDistanceMatrix(compressed, ProgressListener.EMPTY), "HKY");
+        checkDistances(new TamuraNeiDistanceMatrix(plain, ProgressListener.EMPTY),
+                new TamuraNeiDistanceMatrix(compressed, ProgressListener.EMPTY), "Tamura-Nei");
+        checkDistances(new F84DistanceMatrix(plain, ProgressListener.EMPTY),
+                new F84DistanceMatrix(compressed, ProgressListener.EMPTY), "F84");
+
+        RootedTree tree = (RootedTree) TreeBuilderFactory.getBuilder(TreeBuilderFactory.Method.UPGMA,
+                new JukesCantorDistanceMatrix(plain, ProgressListener.EMPTY)).build();
+        double score = new FitchParsimony(plain, false).getScore(tree);
+        check(new FitchParsimony(compressed, false).getScore(tree) == score, "compression changed the parsimony score");
+        System.out.println(plain.getSiteCount() + " sites, " + compressed.getPatternCount() + " patterns, ok");
+    }
+
+    // every site of plain must be the first compressed pattern equal to it, weights counting the sites
+    static void checkCompressed(List<Pattern> plain, List<Pattern> compressed) {
+        double[] weights = new double[compressed.size()];
+        int next = 0;
+        for (Pattern site : plain) {
+            int k = 0;
+            while (k < next && !site.getStates().equals(compressed.get(k).getStates())) {
+                k++;
+            }
+            if (k == next) {
+                // a new pattern, it must come next
+                check(next < compressed.size() && site.getStates().equals(compressed.get(next).getStates()),
+                        "pattern " + next + " is not the next distinct site");
+                next++;
+            }
+            weights[k]++;
+        }
+        check(next == compressed.size(), "there are patterns for no site");
+        for (int k = 0; k < weights.length; k++) {
+            check(compressed.get(k).getWeight() == weights[k], "pattern " + k + " has weight " + compressed.get(k).getWeight()
+                    + " for " + weights[k] + " sites");
+        }
+    }
+
+    static boolean samePatterns(List<Pattern> a, List<Pattern> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).getStates().equals(b.get(i).getStates()) || a.get(i).getWeight() != b.get(i).getWeight()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void checkDistances(DistanceMatrix plain, DistanceMatrix compressed, String model) {
+        for (int i = 0; i < plain.getSize(); i++) {
+            for (int j = 0; j < plain.getSize(); j++) {
+                check(Double.compare(plain.getDistance(i, j), compressed.getDistance(i, j)) == 0,
+                        model + " distance " + i + "," + j + " changed with compression");
+            }
+        }
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
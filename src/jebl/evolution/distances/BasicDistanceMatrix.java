@@ -3,9 +3,12 @@ package jebl.evolution.distances;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import jebl.evolution.taxa.Taxon;
 import jebl.util.ProgressListener;
+import jebl.util.TaskPool;
 
 /**
  * @author Andrew Rambaut
@@ -134,25 +137,26 @@ public class BasicDistanceMatrix implements DistanceMatrix {
     protected static double[][] buildDistancesMatrix(PairwiseDistanceCalculator pairwiseDistanceCalculator, int dimension, boolean useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable, ProgressListener progress)
             throws CannotBuildDistanceMatrixException
     {
-        double[][] distances = new double[dimension][dimension];
+        return buildDistancesMatrix(pairwiseDistanceCalculator, dimension, useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable,
+                progress, Runtime.getRuntime().availableProcessors());
+    }
 
-        float tot = (dimension * (dimension - 1)) / 2;
-        int done = 0;
+    /**
+     * As above, with the rows of the matrix computed on the given number of threads. The calculator must be safe
+     * to call from several threads at once.
+     */
+    protected static double[][] buildDistancesMatrix(PairwiseDistanceCalculator pairwiseDistanceCalculator, int dimension, boolean useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable, ProgressListener progress, int threads)
+            throws CannotBuildDistanceMatrixException
+    {
         final double noDistance=-1;
+        double[][] distances = computeDistances(pairwiseDistanceCalculator, dimension, useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable, noDistance, progress, threads);
+
         double maxDistance=-1;
         for(int i = 0; i < dimension; ++i) {
             for(int j = i+1; j < dimension; ++j) {
-                try {
-                    distances[i][j] = pairwiseDistanceCalculator.calculatePairwiseDistance(i, j);
+                if (distances[i][j]!=noDistance) {
                     maxDistance=Math.max(distances[i][j],maxDistance);
-                } catch (CannotBuildDistanceMatrixException e) {
-                    if (!useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable) {
-                        throw e;
-                    }
-                   distances[i][j]=noDistance;
                 }
-                distances[j][i] = distances[i][j];
-                if( progress != null ) progress.setProgress( ++done / tot);
             }
         }
         if (maxDistance<0) {
@@ -168,4 +172,52 @@ public class BasicDistanceMatrix implements DistanceMatrix {
         }
         return distances;
     }
+
+    /**
+     * Symmetric matrix of the distances of all pairs, one task per row on a ForkJoinPool. Pairs whose distance
+     * cannot be calculated get noDistance if skipFailures, otherwise the failure of the first such pair (in row
+     * order) is thrown. Progress is reported as rows complete.
+     */
+    static double[][] computeDistances(final PairwiseDistanceCalculator pairwiseDistanceCalculator, final int dimension,
+                                       final boolean skipFailures, final double noDistance, ProgressListener progress, int threads)
+            throws CannotBuildDistanceMatrixException
+    {
+        final double[][] distances = new double[dimension][dimension];
+
+        List<Callable<Void>> rows = new ArrayList<Callable<Void>>(dimension);
+        for(int i = 0; i < dimension; ++i) {
+            final int row = i;
+            rows.add(new Callable<Void>() {
+                public Void call() throws CannotBuildDistanceMatrixException {
+                    for(int j = row+1; j < dimension; ++j) {
+                        try {
+                            distances[row][j] = pairwiseDistanceCalculator.calculatePairwiseDistance(row, j);
+                        } catch (CannotBuildDistanceMatrixException e) {
+                            if (!skipFailures) {
+                                throw e;
+                            }
+                            distances[row][j]=noDistance;
+                        }
+                        distances[j][row] = distances[row][j];
+                    }
+                    return null;
+                }
+            });
+        }
+
+        float tot = (dimension * (dimension - 1)) / 2;
+        int done = 0;
+        TaskPool pool = new TaskPool(threads, "distance matrix");
+        try {
+            List<Future<Void>> futures = pool.submitAll(rows);
+            for(int i = 0; i < dimension; ++i) {
+                pool.get(futures.get(i), CannotBuildDistanceMatrixException.class);
+                done += dimension - i - 1;
+                if( progress != null ) progress.setProgress( done / tot);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return distances;
+    }
 }
\ No newline at end of file
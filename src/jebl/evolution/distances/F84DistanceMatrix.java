@@ -1,9 +1,9 @@
 package jebl.evolution.distances;
 
+import java.util.Arrays;
+
 import jebl.evolution.alignments.Alignment;
-import jebl.evolution.alignments.Pattern;
-import jebl.evolution.sequences.Nucleotides;
-import jebl.evolution.sequences.State;
+import jebl.evolution.sequences.Sequence;
 import jebl.util.ProgressListener;
 
 /**
@@ -25,32 +25,39 @@ public class F84DistanceMatrix extends BasicDistanceMatrix {
         super(alignment.getTaxa(), Initialaizer.getDistances(alignment, null));
     }
 
+    /**
+     * F84 distance between two already aligned sequences, as in the matrix of an alignment of just those two.
+     */
+    public static double getDistance(Sequence seq1, Sequence seq2) {
+        return Initialaizer.calculatePairwiseDistance(new PatternStates(Arrays.asList(seq1, seq2)), 0, 1);
+    }
+
     static class Initialaizer {
 
     //
     // Private stuff
     //
     private static final double MAX_DISTANCE = 1000.0;
-    private static Alignment alignment;
 
 	/**
 	 * Calculate a pairwise distance
 	 */
-	static private double calculatePairwiseDistance(int taxon1, int taxon2) {
+	static private double calculatePairwiseDistance(PatternStates patterns, int taxon1, int taxon2) {
 
         double[] total = new double [4];
         double[] transversions = new double [4];
 
-        for( Pattern pattern : alignment.getPatterns() ) {
-            State state1 = pattern.getState(taxon1);
-            State state2 = pattern.getState(taxon2);
+        final byte[] states1 = patterns.states[taxon1];
+        final byte[] states2 = patterns.states[taxon2];
+        for( int p = 0; p < patterns.patternCount; ++p ) {
+            final int flags = patterns.flags(states1, states2, p);
 
-            double weight = pattern.getWeight();
-            if (!state1.isAmbiguous() && !state2.isAmbiguous() ) {
-                total[state1.getIndex()] += weight;
+            double weight = patterns.weights[p];
+            if ( (flags & PatternStates.UNAMBIGUOUS) != 0 ) {
+                total[states1[p]] += weight;
 
-                if( Nucleotides.isTransversion(state1, state2) ) {
-                    transversions[state1.getIndex()] += weight;
+                if( (flags & PatternStates.TRANSVERSION) != 0 ) {
+                    transversions[states1[p]] += weight;
                 }
             }
         }
@@ -66,28 +73,24 @@ public class F84DistanceMatrix extends BasicDistanceMatrix {
     }
 
 
-        synchronized static double[][] getDistances(Alignment alignment, ProgressListener progress) {
-            Initialaizer.alignment = alignment;
-
+        static double[][] getDistances(Alignment alignment, ProgressListener progress) {
             final int stateCount = alignment.getSequenceType().getCanonicalStateCount();
 
             if (stateCount != 4) {
                 throw new IllegalArgumentException("F84DistanceMatrix must have nucleotide patterns");
             }
 
+            final PatternStates patterns = new PatternStates(alignment);
             int dimension = alignment.getTaxa().size();
-            double[][] distances = new double[dimension][dimension];
-            float tot = (dimension * (dimension - 1)) / 2;
-            int done = 0;
-            for(int i = 0; i < dimension; ++i) {
-                for(int j = i+1; j < dimension; ++j) {
-                    distances[i][j] = calculatePairwiseDistance(i, j);
-                    distances[j][i] = distances[i][j];
-                    if( progress != null ) progress.setProgress( ++done / tot);
-                }
+            try {
+                return BasicDistanceMatrix.computeDistances(new PairwiseDistanceCalculator() {
+                    public double calculatePairwiseDistance(int taxon1, int taxon2) {
+                        return Initialaizer.calculatePairwiseDistance(patterns, taxon1, taxon2);
+                    }
+                }, dimension, false, MAX_DISTANCE, progress, Runtime.getRuntime().availableProcessors());
+            } catch (CannotBuildDistanceMatrixException e) {
+                throw new IllegalStateException(e);  // every F84 distance can be calculated
             }
-
-            return distances;
         }
     }
 }
\ No newline at end of file
@@ -1,9 +1,7 @@
 package jebl.evolution.distances;
 
 import jebl.evolution.alignments.Alignment;
-import jebl.evolution.alignments.Pattern;
 import jebl.evolution.sequences.Nucleotides;
-import jebl.evolution.sequences.State;
 import jebl.util.ProgressListener;
 
 /**
@@ -90,7 +88,7 @@ public class HKYDistanceMatrix extends BasicDistanceMatrix {
         //
         // Private stuff
         //
-        private static Alignment alignment;
+        private PatternStates patterns;
 
         //used in correction formula
         private double constA, constB, constC;
@@ -106,21 +104,22 @@ public class HKYDistanceMatrix extends BasicDistanceMatrix {
                                     // including identical columns (which have neither a transition nor a transversion) )
             boolean noGapsPairFound = false;
 
-            for( Pattern pattern : alignment.getPatterns() ) {
-                State state1 = pattern.getState(taxon1);
-                State state2 = pattern.getState(taxon2);
+            final byte[] states1 = patterns.states[taxon1];
+            final byte[] states2 = patterns.states[taxon2];
+            for( int p = 0; p < patterns.patternCount; ++p ) {
+                final int flags = patterns.flags(states1, states2, p);
 
                 // ignore any ambiguous or gaps
-                if( state1.isAmbiguous() || state2.isAmbiguous() ) {
+                if( (flags & PatternStates.UNAMBIGUOUS) == 0 ) {
                    continue;
                 } else {
                     noGapsPairFound = true;
                 }
 
-                double weight = pattern.getWeight();
+                double weight = patterns.weights[p];
                 // acgt
-                if ( state1 != state2 ) {
-                    if ( Nucleotides.isTransition(state1, state2) ) {
+                if ( (flags & PatternStates.DIFFERENT) != 0 ) {
+                    if ( (flags & PatternStates.TRANSITION) != 0 ) {
                         // it's a transition
                         sumTs += weight;
                     } else {
@@ -174,7 +173,7 @@ public class HKYDistanceMatrix extends BasicDistanceMatrix {
         double[][] getDistances(Alignment alignment, ProgressListener progress , boolean useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable)
                 throws CannotBuildDistanceMatrixException
         {
-            Initializer.alignment = alignment;
+            patterns = new PatternStates(alignment);
 
             // ASK Alexei
             final int stateCount = alignment.getSequenceType().getCanonicalStateCount();
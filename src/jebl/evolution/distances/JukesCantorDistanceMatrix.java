@@ -1,8 +1,9 @@
 package jebl.evolution.distances;
 
+import java.util.Arrays;
+
 import jebl.evolution.alignments.Alignment;
-import jebl.evolution.alignments.Pattern;
-import jebl.evolution.sequences.State;
+import jebl.evolution.sequences.Sequence;
 import jebl.util.ProgressListener;
 
 /**
@@ -28,12 +29,28 @@ public class JukesCantorDistanceMatrix extends BasicDistanceMatrix {
         super(alignment.getTaxa(), new Initializer().getDistances(alignment, progress,useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable));
     }
 
+    /**
+     * Jukes-Cantor distance between two already aligned sequences, as in the matrix of an alignment of just
+     * those two.
+     * @throws CannotBuildDistanceMatrixException if the sequences do not overlap
+     */
+    public static double getDistance(Sequence seq1, Sequence seq2) throws CannotBuildDistanceMatrixException {
+        Initializer initializer = new Initializer();
+        initializer.init(new PatternStates(Arrays.asList(seq1, seq2)), seq1.getSequenceType().getCanonicalStateCount());
+        return initializer.calculatePairwiseDistance(0, 1);
+    }
+
     private static class Initializer implements PairwiseDistanceCalculator {
         // Helpers during construction
         private double maxTheoreticalSubsRate;
-        private Alignment alignment;
+        private PatternStates patterns;
         private static final double MAX_DISTANCE = 1000.0;
 
+        private void init(PatternStates patterns, int stateCount) {
+            this.patterns = patterns;
+            maxTheoreticalSubsRate = ((double)stateCount - 1) / stateCount;
+        }
+
         /**
          * Calculate number of substitution between sequences as a ratio.
          * @throws CannotBuildDistanceMatrixException
@@ -45,21 +62,21 @@ public class JukesCantorDistanceMatrix extends BasicDistanceMatrix {
             boolean noGapsPairFound = false;
 
             // If both sequences are of zero length then the substitution ratio is zero because they are identical
-            if(alignment.getPatterns().size() == 0)
+            if(patterns.patternCount == 0)
                 return 0.0;
 
-            for( Pattern pattern : alignment.getPatterns() ) {
-                State state1 = pattern.getState(taxon1);
-                State state2 = pattern.getState(taxon2);
+            final byte[] states1 = patterns.states[taxon1];
+            final byte[] states2 = patterns.states[taxon2];
+            for( int p = 0; p < patterns.patternCount; ++p ) {
+                final int flags = patterns.flags(states1, states2, p);
 
-                final double weight = pattern.getWeight();
+                final double weight = patterns.weights[p];
 
-                if(!state1.isGap() && !state2.isGap())
+                if((flags & PatternStates.NO_GAP) != 0)
                     noGapsPairFound = true;
 
-                if (!state1.isAmbiguous() && !state2.isAmbiguous()) {
-                    if(state1 != state2)
-                        sumDistance += weight;
+                if ((flags & PatternStates.DIFFERENT) != 0) {
+                    sumDistance += weight;
                 }
                 sumWeight += weight;
             }
@@ -96,12 +113,8 @@ public class JukesCantorDistanceMatrix extends BasicDistanceMatrix {
         synchronized double[][] getDistances(Alignment alignment, ProgressListener progress, boolean useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable)
                 throws CannotBuildDistanceMatrixException
         {
-            this.alignment = alignment;
-
             // ASK Alexei
-            int stateCount = alignment.getSequenceType().getCanonicalStateCount();
-
-            maxTheoreticalSubsRate = ((double)stateCount - 1) / stateCount;
+            init(new PatternStates(alignment), alignment.getSequenceType().getCanonicalStateCount());
 
             int dimension = alignment.getTaxa().size();
             return BasicDistanceMatrix.buildDistancesMatrix(this,dimension,useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable,progress);
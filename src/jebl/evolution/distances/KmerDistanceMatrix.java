@@ -0,0 +1,56 @@
+package jebl.evolution.distances;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jebl.evolution.sequences.Sequence;
+import jebl.evolution.taxa.Taxon;
+import jebl.util.ProgressListener;
+
+/**
+ * k-mer distances (see KmerSketch.distance) between unaligned sequences. No alignment is needed, so this is
+ * a quick measure of similarity for guide trees rather than an estimate of evolutionary distance.
+ */
+public class KmerDistanceMatrix extends BasicDistanceMatrix {
+
+    public KmerDistanceMatrix(List<? extends Sequence> sequences, ProgressListener progress) {
+        this(getTaxa(sequences), sketch(sequences, KmerSketch.defaultSize(sequences.get(0).getSequenceType()), 1), progress);
+    }
+
+    /**
+     * @param sketches one for each taxon, in the same order
+     */
+    public KmerDistanceMatrix(List<Taxon> taxa, KmerSketch[] sketches, ProgressListener progress) {
+        super(taxa, getDistances(sketches, progress, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static KmerSketch[] sketch(List<? extends Sequence> sequences, int k, int window) {
+        KmerSketch[] sketches = new KmerSketch[sequences.size()];
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i] = new KmerSketch(sequences.get(i), k, window);
+        }
+        return sketches;
+    }
+
+    private static List<Taxon> getTaxa(List<? extends Sequence> sequences) {
+        List<Taxon> taxa = new ArrayList<Taxon>(sequences.size());
+        for (Sequence sequence : sequences) {
+            taxa.add(sequence.getTaxon());
+        }
+        return taxa;
+    }
+
+    private static double[][] getDistances(final KmerSketch[] sketches, ProgressListener progress, int threads) {
+        PairwiseDistanceCalculator calculator = new PairwiseDistanceCalculator() {
+            public double calculatePairwiseDistance(int taxon1, int taxon2) {
+                return sketches[taxon1].distance(sketches[taxon2]);
+            }
+        };
+        try {
+            return computeDistances(calculator, sketches.length, false, 0, progress, threads);
+        } catch (CannotBuildDistanceMatrixException e) {
+            // there is a k-mer distance between any two sequences
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package jebl.evolution.distances;
+
+import java.util.Arrays;
+
+import jebl.evolution.sequences.Sequence;
+import jebl.evolution.sequences.SequenceType;
+
+/**
+ * The k-mers of an unaligned sequence, packed into longs (2 bits a residue for nucleotides, 5 for amino acids)
+ * and kept sorted with their counts, so two sketches share k-mers in a single merge. A k-mer with an ambiguous
+ * residue or a gap in it is left out.
+ *
+ * With a window w > 1 only minimisers are kept: of every w consecutive k-mers the one with the smallest hash.
+ * That keeps about 2/(w+1) of them, and sequences that share a stretch of at least w+k-1 residues still pick
+ * the same k-mers from it.
+ */
+public final class KmerSketch {
+
+    private final long[] kmers;     // distinct, ascending
+    private final int[] counts;
+    private final int total;
+
+    /**
+     * @param k residues per k-mer; at most 31 for nucleotides and 12 for amino acids
+     * @param window number of consecutive k-mers each minimiser is chosen from, 1 to keep every k-mer
+     */
+    public KmerSketch(Sequence sequence, int k, int window) {
+        SequenceType type = sequence.getSequenceType();
+        int states = type.getCanonicalStateCount();
+        int bits = states <= 4 ? 2 : 5;
+        if (states > 32 || k < 1 || k * bits > 63) {
+            throw new IllegalArgumentException("k-mers of " + k + " " + type.getName() + " residues do not fit in a long");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1, got " + window);
+        }
+        long mask = (1L << (k * bits)) - 1;
+
+        byte[] residues = sequence.getStateIndices();
+        long[] selected = new long[Math.max(residues.length - k + 1, 0)];
+        int count = 0;
+        long[] run = new long[selected.length];  // k-mers of the current stretch of unambiguous residues
+        int runLength = 0;
+        long code = 0;
+        int valid = 0;
+        for (int i = 0; i <= residues.length; i++) {
+            int state = i < residues.length ? residues[i] : -1;
+            if (state >= 0 && state < states) {
+                code = ((code << bits) | state) & mask;
+                if (++valid >= k) {
+                    run[runLength++] = code;
+                }
+            } else {
+                count = minimisers(run, runLength, window, selected, count);
+                runLength = 0;
+                valid = 0;
+                code = 0;
+            }
+        }
+
+        Arrays.sort(selected, 0, count);
+        long[] distinct = new long[count];
+        int[] multiplicity = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (size > 0 && distinct[size - 1] == selected[i]) {
+                multiplicity[size - 1]++;
+            } else {
+                distinct[size] = selected[i];
+                multiplicity[size++] = 1;
+            }
+        }
+        kmers = Arrays.copyOf(distinct, size);
+        counts = Arrays.copyOf(multiplicity, size);
+        total = count;
+    }
+
+    // appends the minimisers of run[0 .. length-1] to selected, each position at most once
+    private static int minimisers(long[] run, int length, int window, long[] selected, int count) {
+        if (window == 1) {
+            System.arraycopy(run, 0, selected, count, length);
+            return count + length;
+        }
+        int last = -1;
+        for (int start = 0; start == 0 || start + window <= length; start++) {
+            int end = Math.min(start + window, length);
+            int best = -1;
+            long bestHash = 0;
+            for (int p = start; p < end; p++) {
+                long h = hash(run[p]);
+                if (best < 0 || h < bestHash) {
+                    best = p;
+                    bestHash = h;
+                }
+            }
+            if (best > last) {
+                selected[count++] = run[best];
+                last = best;
+            }
+        }
+        return count;
+    }
+
+    // 64 bit finaliser of MurmurHash3, so the minimisers do not favour k-mers of low-numbered residues
+    private static long hash(long code) {
+        code ^= code >>> 33;
+        code *= 0xff51afd7ed558ccdL;
+        code ^= code >>> 33;
+        code *= 0xc4ceb9fe1a85ec53L;
+        code ^= code >>> 33;
+        return code;
+    }
+
+    /**
+     * k-mer size that is long enough not to be shared by chance in sequences of a few thousand residues
+     */
+    public static int defaultSize(SequenceType type) {
+        return type.getCanonicalStateCount() <= 4 ? 8 : 3;
+    }
+
+    /**
+     * @return the number of k-mers (or minimisers) in the sketch, counting repeats
+     */
+    public int size() {
+        return total;
+    }
+
+    /**
+     * @return the number of k-mers the two sketches have in common, counting a repeated k-mer as often as it
+     * occurs in both
+     */
+    public int shared(KmerSketch other) {
+        long[] a = kmers, b = other.kmers;
+        int i = 0, j = 0, shared = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                shared += Math.min(counts[i++], other.counts[j++]);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * k-mer distance: one minus the fraction of the smaller sketch that is shared, from 0 for a sequence
+     * contained in the other to 1 for nothing in common (or a sketch without k-mers).
+     */
+    public double distance(KmerSketch other) {
+        int smaller = Math.min(total, other.total);
+        if (smaller == 0) {
+            return 1.0;
+        }
+        return 1.0 - (double) shared(other) / smaller;
+    }
+}
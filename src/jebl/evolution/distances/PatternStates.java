@@ -0,0 +1,120 @@
+package jebl.evolution.distances;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jebl.evolution.alignments.Alignment;
+import jebl.evolution.alignments.Pattern;
+import jebl.evolution.sequences.Nucleotides;
+import jebl.evolution.sequences.Sequence;
+import jebl.evolution.sequences.SequenceType;
+import jebl.evolution.sequences.State;
+
+/**
+ * The patterns of an alignment as state indices, one byte array per taxon, with a table that classifies
+ * every pair of states once. Distance calculators walk two byte arrays and look up flags instead of calling
+ * Pattern.getState, isAmbiguous and Nucleotides.isTransition on State objects for every pattern and pair.
+ * The flags come from those same methods, and patterns are visited in alignment order, so the sums (and
+ * distances) are exactly those of the object-based loops.
+ */
+class PatternStates {
+
+    static final int UNAMBIGUOUS = 1;    // neither state is ambiguous (or a gap)
+    static final int NO_GAP = 2;         // neither state is a gap
+    static final int DIFFERENT = 4;      // both unambiguous and not the same state
+    static final int TRANSITION = 8;     // nucleotides only: Nucleotides.isTransition
+    static final int TRANSVERSION = 16;  // nucleotides only: Nucleotides.isTransversion
+    static final int PURINE = 32;        // nucleotides only: the first state is a purine
+
+    final byte[][] states;      // states[taxon][pattern]
+    final double[] weights;
+    final int patternCount;
+    private final byte[] pairs; // pairs[state1 * stateCount + state2]
+    private final int stateCount;
+
+    PatternStates(Alignment alignment) {
+        List<Pattern> patterns = alignment.getPatterns();
+        int taxonCount = alignment.getTaxa().size();
+        patternCount = patterns.size();
+        states = new byte[taxonCount][patternCount];
+        weights = new double[patternCount];
+        for (int p = 0; p < patternCount; p++) {
+            Pattern pattern = patterns.get(p);
+            for (int t = 0; t < taxonCount; t++) {
+                states[t][p] = (byte) pattern.getState(t).getIndex();
+            }
+            weights[p] = pattern.getWeight();
+        }
+
+        pairs = classify(alignment.getSequenceType());
+        stateCount = alignment.getSequenceType().getStateCount();
+    }
+
+    /**
+     * The sites of already aligned sequences, one pattern of weight 1 per site, read straight from the
+     * sequences' state indices without building an Alignment. Shorter sequences are padded with gaps, as
+     * in BasicAlignment.
+     */
+    PatternStates(List<? extends Sequence> sequences) {
+        SequenceType type = sequences.get(0).getSequenceType();
+        int length = 0;
+        for (Sequence sequence : sequences) {
+            length = Math.max(length, sequence.getLength());
+        }
+        patternCount = length;
+        states = new byte[sequences.size()][];
+        for (int t = 0; t < states.length; t++) {
+            byte[] indices = sequences.get(t).getStateIndices();
+            if (indices.length < length) {
+                int from = indices.length;
+                indices = Arrays.copyOf(indices, length);
+                Arrays.fill(indices, from, length, (byte) type.getGapState().getIndex());
+            }
+            states[t] = indices;
+        }
+        weights = new double[length];
+        Arrays.fill(weights, 1.0);
+        pairs = classify(type);
+        stateCount = type.getStateCount();
+    }
+
+    private static byte[] classify(SequenceType type) {
+        int stateCount = type.getStateCount();
+        byte[] pairs = new byte[stateCount * stateCount];
+        boolean nucleotides = type.equals(SequenceType.NUCLEOTIDE);
+        for (int i = 0; i < stateCount; i++) {
+            State state1 = type.getState(i);
+            for (int j = 0; j < stateCount; j++) {
+                State state2 = type.getState(j);
+                int flags = 0;
+                if (!state1.isAmbiguous() && !state2.isAmbiguous()) {
+                    flags |= UNAMBIGUOUS;
+                    if (state1 != state2) {
+                        flags |= DIFFERENT;
+                    }
+                }
+                if (!state1.isGap() && !state2.isGap()) {
+                    flags |= NO_GAP;
+                }
+                if (nucleotides) {
+                    if (Nucleotides.isTransition(state1, state2)) {
+                        flags |= TRANSITION;
+                    }
+                    if (Nucleotides.isTransversion(state1, state2)) {
+                        flags |= TRANSVERSION;
+                    }
+                    if (Nucleotides.isPurine(state1)) {
+                        flags |= PURINE;
+                    }
+                }
+                pairs[i * stateCount + j] = (byte) flags;
+            }
+        }
+        return pairs;
+    }
+
+    // flags of the states of the two taxa at pattern p
+    final int flags(byte[] states1, byte[] states2, int p) {
+        return pairs[states1[p] * stateCount + states2[p]];
+    }
+}
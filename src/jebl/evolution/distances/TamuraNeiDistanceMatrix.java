@@ -1,9 +1,7 @@
 package jebl.evolution.distances;
 
 import jebl.evolution.alignments.Alignment;
-import jebl.evolution.alignments.Pattern;
 import jebl.evolution.sequences.Nucleotides;
-import jebl.evolution.sequences.State;
 import jebl.util.ProgressListener;
 
 /**
@@ -41,7 +39,7 @@ public class TamuraNeiDistanceMatrix extends BasicDistanceMatrix {
 
     static class Initializer extends ModelBasedDistanceMatrix implements PairwiseDistanceCalculator {
 
-        private Alignment alignment;
+        private PatternStates patterns;
 
         // used in correction formula
         private double constA1, constA2, constC;
@@ -58,25 +56,26 @@ public class TamuraNeiDistanceMatrix extends BasicDistanceMatrix {
             double sumWeight = 0.0;
             boolean noGapsPairFound = false;
 
-            for( Pattern pattern : alignment.getPatterns() ) {
-                State state1 = pattern.getState(taxon1);
-                State state2 = pattern.getState(taxon2);
+            final byte[] states1 = patterns.states[taxon1];
+            final byte[] states2 = patterns.states[taxon2];
+            for( int p = 0; p < patterns.patternCount; ++p ) {
+                final int flags = patterns.flags(states1, states2, p);
 
-                double weight = pattern.getWeight();
+                double weight = patterns.weights[p];
                 // acgt
 
                 // ignore any ambiguous states or gaps
-                if( state1.isAmbiguous() || state2.isAmbiguous() ) {
+                if( (flags & PatternStates.UNAMBIGUOUS) == 0 ) {
                     continue;
                 } else {
                     noGapsPairFound = true;
                 }
 
 
-                if ( state1 != state2 ) {
-                    if ( Nucleotides.isTransition(state1, state2) ) {
+                if ( (flags & PatternStates.DIFFERENT) != 0 ) {
+                    if ( (flags & PatternStates.TRANSITION) != 0 ) {
                         // it's a transition
-                        if( Nucleotides.isPurine(state1) ) {
+                        if( (flags & PatternStates.PURINE) != 0 ) {
                             sumTsAG += weight;
                         } else {
                             sumTsCT += weight;
@@ -143,7 +142,7 @@ public class TamuraNeiDistanceMatrix extends BasicDistanceMatrix {
         double[][] getDistances(Alignment alignment, ProgressListener progress , boolean useTwiceMaximumDistanceWhenPairwiseDistanceNotCalculatable)
                 throws CannotBuildDistanceMatrixException
         {
-            this.alignment = alignment;
+            this.patterns = new PatternStates(alignment);
 
             // ASK Alexei
             final int stateCount = alignment.getSequenceType().getCanonicalStateCount();
@@ -0,0 +1,107 @@
+package jebl.evolution.distances;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jebl.evolution.alignments.Alignment;
+import jebl.evolution.alignments.BasicAlignment;
+import jebl.evolution.sequences.BasicSequence;
+import jebl.evolution.sequences.Sequence;
+import jebl.evolution.sequences.SequenceType;
+import jebl.evolution.taxa.Taxon;
+import jebl.util.ProgressListener;
+
+/**
+ * Regression check for the nucleotide distance matrices, run from main. The distances of every pair of
+ * INPUT, in row order, must be bit-identical to those the State-based calculators gave before the patterns
+ * were read into PatternStates.
+ */
+public class TestDistanceMatrices {
+
+    // nine aligned sequences of 120 sites with substitutions, gaps and a few N, R and Y
+    static final String[] INPUT = {
+            "AACTGGCGAGTGAAGGACACATTTAGTATTTGCTCACTCCCTCTATTAR-G-CACAACTTAGCTGT-GCTTGGTCCGTA-ATTATTAAACCTGTACAATCATGAGGCG-AAATACGTYGG",
+            "GACTCCCGAGTTGAGGACCCATTAATAATTTGCACACTCCCTATATTATTGTCACAATTTAGCTGTTTATTGGAACGTATATTCCTGAACGTGTACTATCGTGAGGCGGAAGCACGTCTC",
+            "AACTGGCGAGTGGAGGACACATTAATT-TTTGCTCACTCCC-GTATTATTGCCACAATTTAGCTGTTGATTGGAACGTATATTACTCAACCTATCCTATCATGAGGCGGAAGCACGTCGG",
+            "AACGGGCGAGT-GAGGACAC-TTAATTACATGCTCACTCCCTAGARTATAGTCATAGGTTAGCTCTTGCTTGGAACNTATATTARTGAACCTGTACTATCATGAGGCGGAAGCAG-TCGG",
+            "AACTGGCGAGTGGAGGAC-TATTAATAAT-TGGTAACTCCCT-TATTATTTTCACAATTTAGCTGT-GCTTGGAACGTATATTACTGAACCTG-ACTATCATGTGGCGGAATCAC-TCGG",
+            "AACTGGCGAGTGGCGGATAGATTAAGAATTTGCGCACTCCCTATATTATTGTGACAAT-TAGCGATGGC-TGGAACGTATAATACTGAACCTGTAATATCATGAGGCG-AAGCACGTC-G",
+            "AACTGGCGAGTGGAGGACA-ATTAATAATTTGCTCAACCCCTATATTATTGTCACAATTTAGCTGTTGCTTGGAAC-CAAATTACT-AACTTGTACTATCATGATGCGGAAGCTCGGCGG",
+            "AACTGNCGAGTGGAGGACACATTAATAATTTG-GCACTCCCTATTTTAT-GTCACAATTTAGCTGTTGCTTGGAACGTCGATTACRGAACCTGTAGTATCATGAGGCTGAAGCACGTC-G",
+            "AGCTGGCGAGTGGAGGCCARATTAATAATTTTCTCGCTCCCTCTATTATTGTCRCAAYTGAGCTATTGCTTGAAAYGTTTATTCCTGAACCCGTACTATGATGAGGCGGAAGCACGTCGG"
+    };
+
+    static final double[] JUKES_CANTOR = {
+            0.2556949402279449, 0.13674116759546595, 0.17784734496671215, 0.15701267188640544,
+            0.19927737429975423, 0.17784734496671215, 0.16735766348565728, 0.2102264738656188,
+            0.16735766348565728, 0.22133778820447422, 0.16735766348565728, 0.2102264738656188,
+            0.18848582121067953, 0.1468084328445715, 0.22133778820447422, 0.1468084328445715,
+            0.10732563273050497, 0.16735766348565728, 0.1268072475329505, 0.11700318635743587,
+            0.16735766348565728, 0.1468084328445715, 0.19927737429975423, 0.17784734496671215,
+            0.1468084328445715, 0.19927737429975423, 0.13674116759546595, 0.11700318635743587,
+            0.09777136339743268, 0.1468084328445715, 0.16735766348565728, 0.1268072475329505,
+            0.18848582121067953, 0.11700318635743587, 0.18848582121067953, 0.15701267188640544
+    };
+
+    static final double[] HKY = {
+            0.27524905541108224, 0.14922070642479163, 0.20291364801526643, 0.17685052738000356,
+            0.22071006419670147, 0.19684634507479906, 0.18669993965495008, 0.23633352375426042,
+            0.17076349597683704, 0.23605126455694936, 0.17828710790124924, 0.21941312415960243,
+            0.19483754301178158, 0.1544711726960381, 0.23057742322879188, 0.15865952960509497,
+            0.11575444549721675, 0.17753184054337273, 0.1330883441087288, 0.12510438721558798,
+            0.17756274385202145, 0.1636508392378137, 0.22157273042561781, 0.19251676363816517,
+            0.1640149796346338, 0.2205724752755474, 0.15146031362787088, 0.1275660126828128,
+            0.1090519878508146, 0.16183517184695337, 0.17930901925198311, 0.13706581509029717,
+            0.20443174021996185, 0.12618768621900248, 0.20025979853233486, 0.17147444658533717
+    };
+
+    static final double[] TAMURA_NEI = {
+            0.2758343468586813, 0.1492216431196897, 0.20304039640634175, 0.1774713148375912,
+            0.22071214264772557, 0.19939467903901684, 0.1867010248465453, 0.23893558192776704,
+            0.17173755041630928, 0.23616960825247196, 0.17839444526823617, 0.22052206950695072,
+            0.1948379984595684, 0.15544110685864357, 0.23392845269429785, 0.1586604765584723,
+            0.1158734068968573, 0.17763804536680222, 0.1335841587059981, 0.1252035301971151,
+            0.17865531093000922, 0.1642013313030863, 0.22217782911867573, 0.19479977561541612,
+            0.1641537009684011, 0.22069588163794818, 0.1514604451413772, 0.1286221810258268,
+            0.10916473220129469, 0.1629462595095726, 0.18051094740502158, 0.13716908062544286,
+            0.20454772528093315, 0.12666996805361033, 0.200261626413926, 0.1719601266330947
+    };
+
+    static final double[] F84 = {
+            0.4104490984891451, 0.17789588069080206, 0.2584166135558078, 0.23000433994623487,
+            0.2642140926246774, 0.225095176115721, 0.24852153644102204, 0.2413175829955901,
+            0.25463396014942175, 0.3682580311448156, 0.3194605684350555, 0.33948023645872155,
+            0.3216053227043436, 0.2651523256880301, 0.32719111545640733, 0.18866387749661326,
+            0.18337980885288702, 0.24759122717720916, 0.14708786669512303, 0.19197800121720202,
+            0.21945034190820523, 0.2537115100449035, 0.3771734304527347, 0.2656717333852657,
+            0.2744309093806766, 0.28864971347557167, 0.24322121141942904, 0.18511380385755397,
+            0.18194458554401938, 0.20925238661049306, 0.26777570533497813, 0.2096876907988179,
+            0.29965337580546325, 0.1693394613694005, 0.2203399983130964, 0.21485071133317252
+    };
+
+    public static void main(String[] args) throws CannotBuildDistanceMatrixException {
+        List<Sequence> sequences = new ArrayList<Sequence>();
+        for (int i = 0; i < INPUT.length; i++) {
+            sequences.add(new BasicSequence(SequenceType.NUCLEOTIDE, Taxon.getTaxon("t" + i), INPUT[i]));
+        }
+        Alignment alignment = new BasicAlignment(sequences);
+        check(new JukesCantorDistanceMatrix(alignment, ProgressListener.EMPTY), JUKES_CANTOR, "Jukes-Cantor");
+        check(new HKYDistanceMatrix(alignment, ProgressListener.EMPTY), HKY, "HKY");
+        check(new TamuraNeiDistanceMatrix(alignment, ProgressListener.EMPTY), TAMURA_NEI, "Tamura-Nei");
+        check(new F84DistanceMatrix(alignment, ProgressListener.EMPTY), F84, "F84");
+        System.out.println("distance matrices ok");
+    }
+
+    // expected holds the pairs i < j of the matrix row by row
+    static void check(DistanceMatrix matrix, double[] expected, String model) {
+        int k = 0;
+        for (int i = 0; i < matrix.getSize(); i++) {
+            for (int j = i + 1; j < matrix.getSize(); j++, k++) {
+                if (Double.compare(matrix.getDistance(i, j), expected[k]) != 0) {
+                    throw new IllegalStateException(model + " distance " + i + "," + j + " is " + matrix.getDistance(i, j)
+                            + ", expected " + expected[k]);
+                }
+            }
+        }
+    }
+}
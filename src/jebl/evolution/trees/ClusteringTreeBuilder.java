@@ -79,6 +79,11 @@ public abstract class ClusteringTreeBuilder<T extends Tree> implements TreeBuild
                 builder = new UPGMATreeBuilder(distances);
                 break;
             }
+            case RAPID_NEIGHBOR_JOINING:
+            {
+                builder = new RapidNeighborJoiningTreeBuilder(distances);
+                break;
+            }
             case NEIGHBOR_JOINING:
             default:
             {
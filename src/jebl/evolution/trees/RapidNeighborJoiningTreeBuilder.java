@@ -0,0 +1,291 @@
+package jebl.evolution.trees;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jebl.evolution.distances.DistanceMatrix;
+import jebl.evolution.graphs.Node;
+import jebl.evolution.taxa.Taxon;
+
+/**
+ * Neighbor-joining as in RapidNJ (Simonsen, Mailund and Pedersen 2008): the same joins and branch lengths as
+ * NeighborJoiningTreeBuilder, without looking at every pair for every join.
+ *
+ * Each cluster keeps the clusters that are older than it sorted by distance, and the row sums of the distances
+ * are kept up to date rather than recomputed. With u the row sum divided by (clusters - 2), the pair (a, c) has
+ * Q = d(a,c) - u(a) - u(c) >= d(a,c) - u(a) - max u, so a sorted row is read only until that bound reaches the
+ * best Q found so far, which is usually a small part of it.
+ *
+ * The distances are kept as floats in one triangle, a quarter of the dense matrix ClusteringTreeBuilder makes,
+ * and only the first part of each sorted row is kept (the rest of a row is looked up in the triangle in the
+ * rare case a scan gets that far). Because of the floats, near ties between pairs may be resolved differently
+ * from NeighborJoiningTreeBuilder.
+ */
+public class RapidNeighborJoiningTreeBuilder extends ClusteringTreeBuilder<Tree> {
+
+    // the sorted rows keep at least this many entries, and otherwise 1/SORTED_FRACTION of the taxa
+    private static final int MINIMUM_SORTED = 256;
+    private static final int SORTED_FRACTION = 8;
+
+    private final SimpleTree tree;
+
+    /**
+     * construct NJ tree
+     *
+     * @param distanceMatrix distance matrix
+     */
+    public RapidNeighborJoiningTreeBuilder(DistanceMatrix distanceMatrix) {
+        super(distanceMatrix, 3);
+        if (distanceMatrix.getSize() > 65535) {
+            throw new IllegalArgumentException("at most 65535 taxa, got " + distanceMatrix.getSize());
+        }
+
+        this.tree = new SimpleTree();
+    }
+
+    //
+    // Non public part
+    //
+
+    // Everything below is indexed by slot (the index into clusters); a join puts the new cluster in the slot
+    // of the first of the pair.
+
+    private float[] triangle;   // distance between slots a > b at a * (a - 1) / 2 + b
+    private double[] sums;      // sum of the distances to the other clusters
+    private int[] clusterIndex; // cluster number of the slot, -1 once it has been joined
+    private int[] birth;        // order in which the clusters in the slots were created
+    private int[][] sorted;     // the first sortedLength slots created before this one, by increasing distance
+    private int[] olderCount;   // number of clusters that were older than this one when it was created
+    private int sortedLength;
+    private int births;
+    private long[] keys;
+
+    private float distance(int a, int b) {
+        if (a == b) return 0;
+        if (a < b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        return triangle[(int) ((long) a * (a - 1) / 2 + b)];
+    }
+
+    private void setDistance(int a, int b, float d) {
+        if (a < b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        triangle[(int) ((long) a * (a - 1) / 2 + b)] = d;
+    }
+
+    protected double getDist(int a, int b) {
+        return distance(alias[a], alias[b]);
+    }
+
+    protected void init(final DistanceMatrix distanceMatrix) {
+        int n = distanceMatrix.getSize();
+        numClusters = n;
+        clusters = new Node[n];
+        alias = new int[n];
+        tipCount = new int[n];
+        clusterIndex = new int[n];
+        birth = new int[n];
+
+        triangle = new float[(int) ((long) n * (n - 1) / 2)];
+        sums = new double[n];
+        for (int a = 1; a < n; a++) {
+            int offset = (int) ((long) a * (a - 1) / 2);
+            for (int b = 0; b < a; b++) {
+                double d = distanceMatrix.getDistance(a, b);
+                assert (!Double.isNaN(d));
+                float f = (float) d;
+                triangle[offset + b] = f;
+                sums[a] += f;
+                sums[b] += f;
+            }
+        }
+
+        final List<Taxon> taxa = distanceMatrix.getTaxa();
+        for (int i = 0; i < n; i++) {
+            clusters[i] = createExternalNode(taxa.get(i));
+            alias[i] = i;
+            tipCount[i] = 1;
+            clusterIndex[i] = i;
+            birth[i] = i;
+        }
+        births = n;
+
+        sortedLength = Math.max(MINIMUM_SORTED, n / SORTED_FRACTION);
+        keys = new long[n];
+        sorted = new int[n][];
+        olderCount = new int[n];
+        for (int a = 0; a < n; a++) {
+            int count = 0;
+            for (int b = 0; b < a; b++) {
+                keys[count++] = key(distance(a, b), b);
+            }
+            setSortedRow(a, count);
+        }
+    }
+
+    // sorts by distance, then slot
+    private static long key(float d, int slot) {
+        int bits = Float.floatToIntBits(d);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | slot;
+    }
+
+    private void setSortedRow(int slot, int count) {
+        Arrays.sort(keys, 0, count);
+        int[] row = new int[Math.min(count, sortedLength)];
+        for (int k = 0; k < row.length; k++) {
+            row[k] = (int) keys[k];
+        }
+        sorted[slot] = row;
+        olderCount[slot] = count;
+    }
+
+    /** Find next two clusters to join. set shared best{i,j} */
+    protected void findNextPair() {
+        besti = 0;
+        bestj = 1;
+        if (numClusters <= 2) return;
+
+        final double divisor = numClusters - 2.0;
+        double maxU = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numClusters; i++) {
+            maxU = Math.max(maxU, sums[alias[i]] / divisor);
+        }
+
+        double qmin = Double.POSITIVE_INFINITY;
+        int bestA = alias[0], bestC = alias[1];
+        for (int i = 0; i < numClusters; i++) {
+            final int a = alias[i];
+            final double ua = sums[a] / divisor;
+            final int[] row = sorted[a];
+            boolean bounded = false;
+            for (int c : row) {
+                if (clusterIndex[c] < 0 || birth[c] > birth[a]) continue;
+                double d = distance(a, c);
+                if (d - ua - maxU >= qmin) {
+                    bounded = true;
+                    break;
+                }
+                double q = d - ua - sums[c] / divisor;
+                if (q < qmin) {
+                    qmin = q;
+                    bestA = a;
+                    bestC = c;
+                }
+            }
+            if (!bounded && row.length < olderCount[a]) {
+                // past the part of the row that is kept: look at the other older clusters directly
+                for (int k = 0; k < numClusters; k++) {
+                    int c = alias[k];
+                    if (birth[c] >= birth[a]) continue;
+                    double q = distance(a, c) - ua - sums[c] / divisor;
+                    if (q < qmin) {
+                        qmin = q;
+                        bestA = a;
+                        bestC = c;
+                    }
+                }
+            }
+        }
+        besti = Math.min(clusterIndex[bestA], clusterIndex[bestC]);
+        bestj = Math.max(clusterIndex[bestA], clusterIndex[bestC]);
+    }
+
+    protected void newCluster() {
+        final int abi = alias[besti];
+        final int abj = alias[bestj];
+        double[] d = joinClusters();
+        Node[] n = { clusters[abi], clusters[abj] };
+        newCluster = createInternalNode(n, d);
+
+        clusters[abi] = newCluster;
+        clusters[abj] = null;
+
+        // Update distances and row sums
+        double sum = 0;
+        int count = 0;
+        for (int k = 0; k < numClusters; k++) {
+            if (k != besti && k != bestj) {
+                int ak = alias[k];
+                float dk = (float) updatedDistance(k);
+                sums[ak] += dk - distance(ak, abi) - distance(ak, abj);
+                setDistance(ak, abi, dk);
+                sum += dk;
+                keys[count++] = key(dk, ak);
+            }
+        }
+        sums[abi] = sum;
+        sums[abj] = 0;
+
+        // Update alias
+        System.arraycopy(alias, bestj + 1, alias, bestj, numClusters - 1 - bestj);
+
+        tipCount[abi] += tipCount[abj];
+        tipCount[abj] = 0;
+
+        numClusters--;
+        clusterIndex[abj] = -1;
+        for (int k = bestj; k < numClusters; k++) {
+            clusterIndex[alias[k]] = k;
+        }
+
+        // the new cluster is younger than all the others
+        birth[abi] = births++;
+        sorted[abj] = null;
+        setSortedRow(abi, count);
+    }
+
+    protected Tree getTree() {
+        return tree;
+    }
+
+    protected Node createExternalNode(Taxon taxon) {
+        return tree.createExternalNode(taxon);
+    }
+
+    protected Node createInternalNode(Node[] nodes, double[] distances) {
+        assert nodes.length == distances.length;
+
+        Node node = tree.createInternalNode(Arrays.asList(nodes));
+        for(int k = 0; k < nodes.length; ++k) {
+            tree.setEdgeLength(node, nodes[k], distances[k]);
+        }
+        return node;
+    }
+
+    protected void finish() {
+        // Connect up the final two clusters
+        tree.addEdge(clusters[alias[0]], clusters[alias[1]], getDist(0, 1));
+
+        triangle = null;
+        sorted = null;
+        keys = null;
+        super.finish();
+    }
+
+    protected double[] joinClusters() {
+        final double divisor = numClusters - 2.0;
+        double dij = getDist(besti, bestj);
+        double li = (dij + (sums[alias[besti]] - sums[alias[bestj]]) / divisor) * 0.5;
+        double lj = dij - li;
+
+        if (li < 0.0) li = 0.0;
+        if (lj < 0.0) lj = 0.0;
+        return new double[]{li, lj};
+    }
+
+    protected double updatedDistance(int k) {
+        final int i = besti;
+        final int j = bestj;
+
+        double d = (getDist(k, i) + getDist(k, j) - getDist(i, j)) * 0.5;
+        // Some large distances foil the method
+        return Math.max(d, 0.0);
+    }
+}
@@ -0,0 +1,112 @@
+package jebl.evolution.trees;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import jebl.evolution.distances.BasicDistanceMatrix;
+import jebl.evolution.distances.DistanceMatrix;
+import jebl.evolution.graphs.Edge;
+import jebl.evolution.taxa.Taxon;
+
+/**
+ * Regression check for RapidNeighborJoiningTreeBuilder, run from main. On noisy distances of random trees
+ * it must make the splits of NeighborJoiningTreeBuilder, with the same branch lengths to within the
+ * rounding of its float matrix. The larger sizes scan past the sorted row prefix, so the fallback to the
+ * full triangle is exercised too.
+ */
+public class TestRapidNeighborJoining {
+
+    // relative, the rapid builder keeps its distances as floats
+    static final double LENGTH_TOLERANCE = 1e-4;
+
+    public static void main(String[] args) {
+        Random random = new Random(25);
+        for (int n : new int[] {3, 4, 5, 10, 50, 300, 600}) {
+            DistanceMatrix distances = randomTreeDistances(n, random);
+            check(TreeBuilderFactory.getBuilder(TreeBuilderFactory.Method.RAPID_NEIGHBOR_JOINING, distances)
+                    instanceof RapidNeighborJoiningTreeBuilder, "the factory does not give the rapid builder");
+            Tree expected = new NeighborJoiningTreeBuilder(distances).build();
+            Tree rapid = new RapidNeighborJoiningTreeBuilder(distances).build();
+            compare(distances.getTaxa(), expected, rapid, n);
+        }
+        check(!TreeBuilderFactory.isRootedMethod(TreeBuilderFactory.Method.RAPID_NEIGHBOR_JOINING),
+                "rapid neighbour-joining should be unrooted");
+        System.out.println("rapid neighbour-joining ok");
+    }
+
+    // path lengths of a random binary tree, each multiplied by 1 +- 10% noise
+    static DistanceMatrix randomTreeDistances(int n, Random random) {
+        List<List<Integer>> clusters = new ArrayList<List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            List<Integer> cluster = new ArrayList<Integer>();
+            cluster.add(i);
+            clusters.add(cluster);
+        }
+        double[] depth = new double[n];    // from each taxon up to the root of its cluster
+        double[][] distances = new double[n][n];
+        while (clusters.size() > 1) {
+            List<Integer> a = clusters.remove(random.nextInt(clusters.size()));
+            List<Integer> b = clusters.remove(random.nextInt(clusters.size()));
+            double lengthA = 0.01 + random.nextDouble();
+            double lengthB = 0.01 + random.nextDouble();
+            for (int i : a) {
+                depth[i] += lengthA;
+            }
+            for (int j : b) {
+                depth[j] += lengthB;
+            }
+            for (int i : a) {
+                for (int j : b) {
+                    double d = (depth[i] + depth[j]) * (1.0 + 0.1 * (2.0 * random.nextDouble() - 1.0));
+                    distances[i][j] = distances[j][i] = d;
+                }
+            }
+            a.addAll(b);
+            clusters.add(a);
+        }
+        List<Taxon> taxa = new ArrayList<Taxon>();
+        for (int i = 0; i < n; i++) {
+            taxa.add(Taxon.getTaxon("taxon" + i));
+        }
+        return new BasicDistanceMatrix(taxa, distances);
+    }
+
+    static void compare(List<Taxon> taxa, Tree expected, Tree rapid, int n) {
+        Map<BitSet, Double> lengths = edgeLengths(taxa, expected);
+        Map<BitSet, Double> rapidLengths = edgeLengths(taxa, rapid);
+        check(lengths.keySet().equals(rapidLengths.keySet()), n + " taxa: the splits differ");
+        for (Map.Entry<BitSet, Double> edge : lengths.entrySet()) {
+            double length = edge.getValue();
+            double difference = Math.abs(rapidLengths.get(edge.getKey()) - length);
+            check(difference <= LENGTH_TOLERANCE * Math.max(1.0, Math.abs(length)),
+                    n + " taxa: branch length " + rapidLengths.get(edge.getKey()) + ", expected " + length);
+        }
+    }
+
+    // length of every edge, keyed by its split standardised to contain the first taxon
+    static Map<BitSet, Double> edgeLengths(List<Taxon> taxa, Tree tree) {
+        Map<BitSet, Double> lengths = new HashMap<BitSet, Double>();
+        boolean[] split = new boolean[taxa.size()];
+        for (Edge edge : tree.getEdges()) {
+            SplitUtils.getSplit(taxa, tree, edge, split);
+            BitSet key = new BitSet(split.length);
+            for (int i = 0; i < split.length; i++) {
+                if (split[i]) {
+                    key.set(i);
+                }
+            }
+            lengths.put(key, edge.getLength());
+        }
+        return lengths;
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
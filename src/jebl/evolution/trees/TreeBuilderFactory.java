@@ -17,7 +17,9 @@ public class TreeBuilderFactory {
     /**
      * Supported methods for tree building
      */
-    public static enum Method { NEIGHBOR_JOINING("Neighbor-Joining"), UPGMA("UPGMA");
+    public static enum Method { NEIGHBOR_JOINING("Neighbor-Joining"), UPGMA("UPGMA"),
+        /** neighbor-joining for large numbers of taxa, see {@link RapidNeighborJoiningTreeBuilder} */
+        RAPID_NEIGHBOR_JOINING("Rapid Neighbor-Joining");
         Method(String name) { this.name = name; }
         public String toString() { return getName(); }
         public String getName() { return name; }
@@ -46,6 +48,7 @@ public class TreeBuilderFactory {
                 return true;
             }
             case NEIGHBOR_JOINING:
+            case RAPID_NEIGHBOR_JOINING:
             default:
             {
                 return false;
@@ -72,6 +75,11 @@ public class TreeBuilderFactory {
                 builder = new UPGMATreeBuilder(distances);
                 break;
             }
+            case RAPID_NEIGHBOR_JOINING:
+            {
+                builder = new RapidNeighborJoiningTreeBuilder(distances);
+                break;
+            }
             case NEIGHBOR_JOINING:
             default:
             {
@@ -0,0 +1,134 @@
+package jebl.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A ForkJoinPool for splitting a calculation into tasks (rows of a distance matrix, a batch of alignments...).
+ * Results are read back in submission order, so they do not depend on the number of threads. A task that
+ * fails has its exception rethrown by get(): as is if it is of the checked type asked for, otherwise wrapped
+ * in a RuntimeException.
+ *
+ * shutdown() cancels any tasks not started yet, so it can be called from a finally block once the caller
+ * stops reading results early (on cancellation or failure).
+ */
+public final class TaskPool {
+
+    private final ForkJoinPool pool;
+    private final String what;
+
+    /**
+     * @param threads number of threads, at least one is used
+     * @param what name of the calculation for exception messages, e.g. "distance matrix"
+     */
+    public TaskPool(int threads, String what) {
+        this.pool = new ForkJoinPool(Math.max(threads, 1));
+        this.what = what;
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        return pool.submit(task);
+    }
+
+    public <T> List<Future<T>> submitAll(List<? extends Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        return futures;
+    }
+
+    /**
+     * Submits all tasks at once and hands their results back in submission order: next() blocks until the
+     * next result is ready, so the caller can use early results while later tasks are still running.
+     */
+    public <T> Iterator<T> results(List<? extends Callable<T>> tasks) {
+        final List<Future<T>> futures = submitAll(tasks);
+        return new Iterator<T>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < futures.size();
+            }
+
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Future<T> future = futures.get(next);
+                futures.set(next++, null);    // the result is the caller's now
+                return get(future);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Runs all tasks and waits for them.
+     * @return their results in submission order
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>(tasks.size());
+        for (Future<T> future : submitAll(tasks)) {
+            results.add(get(future));
+        }
+        return results;
+    }
+
+    /**
+     * Waits for a task.
+     * @param checked checked exception type thrown by the task that is passed on unwrapped
+     * @return the result of the task
+     */
+    public <T, E extends Exception> T get(Future<T> future, Class<E> checked) throws E {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(what + " interrupted", e);
+        } catch (ExecutionException e) {
+            if (checked.isInstance(e.getCause())) {
+                throw checked.cast(e.getCause());
+            }
+            throw new RuntimeException(what + " failed", e.getCause());
+        }
+    }
+
+    public <T> T get(Future<T> future) {
+        return get(future, RuntimeException.class);
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * A listener for the workers of a calculation reporting progress from the calling thread: it
+     * ignores progress and messages and is cancelled when progress is.
+     */
+    public static ProgressListener cancelOnly(final ProgressListener progress) {
+        return new ProgressListener() {
+            protected void _setProgress(double fractionCompleted) {
+            }
+
+            protected void _setIndeterminateProgress() {
+            }
+
+            protected void _setMessage(String message) {
+            }
+
+            public boolean isCanceled() {
+                return progress.isCanceled();
+            }
+        };
+    }
+}
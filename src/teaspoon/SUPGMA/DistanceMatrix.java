@@ -22,6 +22,9 @@ public class DistanceMatrix {
     double constB;
     double constC;
 
+    int threads = Runtime.getRuntime().availableProcessors(); // pairwise differences are counted on this many threads
+    private int[] mismatches;
+
     protected static final double MAX_DISTANCE = 1000.0;
 
     public DistanceMatrix(int[][] sequenceMatrix) {
@@ -51,92 +54,74 @@ public class DistanceMatrix {
 
     public double[][] getRawDistances() {
 
-        double[][] rawDistances = new double[sequenceMatrix.length][sequenceMatrix.length];
-
-
-        for(int i=0; i< sequenceMatrix.length-1; i++) {
-
-            int[] seq1 = sequenceMatrix[i];
-
-            for(int j=(i+1); j<sequenceMatrix.length; j++) {
-
-                int seq_diff = 0;
-
-
-                int[] seq2 = sequenceMatrix[j];
-
-                for(int s=0; s<seq1.length; s++) {
-
-                    int base_i = seq1[s];
-                    int base_j = seq2[s];
-
-                    if(base_i != 5 || base_j != 5) {   //ignore gaps
-                        if(base_i != base_j) {
-
-                            //System.out.println(s+": "+base_i+","+base_j);
-                            seq_diff++;
+        return unpack(getPackedRawDistances());
+    }
 
-                        }
-                    }
-                }
+    public double[][] getJCDistances() {
 
-                double perSiteDiff = (double)seq_diff/seq1.length;
+        return unpack(getPackedJCDistances());
+    }
 
-                rawDistances[i][j] = perSiteDiff;
+    // per-site differences of every pair i < j, packed upper-triangular (see HammingKernel.index)
+    public double[] getPackedRawDistances() {
 
+        int[] mismatches = getMismatches();
+        double[] rawDistances = new double[mismatches.length];
+        int length = sequenceLength();
 
+        for(int k=0; k<mismatches.length; k++) {
 
-            }
+            rawDistances[k] = (double)mismatches[k]/length;
         }
         return rawDistances;
     }
 
-    public double[][] getJCDistances() {
-
-        double[][] JCCorrectedDistances = new double[sequenceMatrix.length][sequenceMatrix.length];
-
-
-        for(int i=0; i< sequenceMatrix.length-1; i++) {
-
-            int[] seq1 = sequenceMatrix[i];
-
-            for(int j=(i+1); j<sequenceMatrix.length; j++) {
+    public double[] getPackedJCDistances() {
 
-                int seq_diff = 0;
+        int[] mismatches = getMismatches();
+        double[] JCCorrectedDistances = new double[mismatches.length];
+        int length = sequenceLength();
 
+        for(int k=0; k<mismatches.length; k++) {
 
-                int[] seq2 = sequenceMatrix[j];
+            double perSiteDiff = (double)mismatches[k]/length;
+            double correctedDiff = 0.0;
 
-                for(int s=0; s<seq1.length; s++) {
-
-                    int base_i = seq1[s];
-                    int base_j = seq2[s];
+            if(perSiteDiff != 0.0){
+                // use constants?
+                correctedDiff =-(3.0/4.0)*Math.log(1.0-(4.0/3.0)*perSiteDiff);
+            }
+            JCCorrectedDistances[k] = correctedDiff;
+        }
+        return JCCorrectedDistances;
+    }
 
-                    if(base_i != 5 || base_j != 5) {   //ignore gaps
-                        if(base_i != base_j) {
+    // differing sites of every pair, gap against gap ignored; counted once and shared by raw and JC distances
+    private synchronized int[] getMismatches() {
 
-                            //System.out.println(s+": "+base_i+","+base_j);
-                            seq_diff++;
+        if(mismatches == null) {
+            mismatches = new HammingKernel(sequenceMatrix).mismatches(sequenceLength(), threads);
+        }
+        return mismatches;
+    }
 
-                        }
-                    }
-                }
+    private int sequenceLength() {
 
-                double perSiteDiff = (double)seq_diff/seq1.length;
-                double correctedDiff = 0.0;
+        return sequenceMatrix.length == 0 ? 0 : sequenceMatrix[0].length;
+    }
 
-                if(perSiteDiff != 0.0){
-                    // use constants?
-                    correctedDiff =-(3.0/4.0)*Math.log(1.0-(4.0/3.0)*perSiteDiff);
-                }
-                JCCorrectedDistances[i][j] = correctedDiff;
+    // dense n x n matrix with the packed distances in its upper triangle
+    private double[][] unpack(double[] packed) {
 
+        int n = sequenceMatrix.length;
+        double[][] distances = new double[n][n];
 
+        for(int i=0; i<n-1; i++) {
 
-            }
+            int offset = HammingKernel.index(i, i+1, n);
+            System.arraycopy(packed, offset, distances[i], i+1, n-i-1);
         }
-        return JCCorrectedDistances;
-
+        return distances;
     }
 
     public int calculateMatrixDimension() {
@@ -0,0 +1,114 @@
+package teaspoon.SUPGMA;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import jebl.util.TaskPool;
+
+/**
+ * Pairwise mismatch counts of an alignment, 64 sites at a time. Every sequence is stored as one bitmask
+ * per state (A, C, G, T and gap), so the sites two sequences share are the popcount of the OR of the
+ * per-state ANDs, and a pair differs at every other site. Two gaps count as a match and a gap against
+ * a base as a difference, as in DistanceMatrix.getRawDistances; any state other than 1-4 is read as a gap
+ * (5), which is all Read_main produces.
+ *
+ * Counts are packed upper-triangular (see index) and worked out in blocks of rows on a ForkJoinPool.
+ */
+public class HammingKernel {
+
+    static final int STATES = 5;            // A, C, G, T, gap
+    private static final int BLOCK = 32;    // rows per task, and columns per tile inside a task
+
+    private final long[][] masks;           // masks[sequence][STATES * word + state]
+    private final int words;
+
+    public HammingKernel(int[][] sequenceMatrix) {
+        int length = sequenceMatrix.length == 0 ? 0 : sequenceMatrix[0].length;
+        words = (length + 63) >>> 6;
+        masks = new long[sequenceMatrix.length][];
+        for (int i = 0; i < sequenceMatrix.length; i++) {
+            masks[i] = encode(sequenceMatrix[i], words);
+        }
+    }
+
+    private static long[] encode(int[] sequence, int words) {
+        long[] mask = new long[STATES * words];
+        for (int s = 0; s < sequence.length; s++) {
+            int base = sequence[s];
+            int state = base >= 1 && base <= 4 ? base - 1 : 4;
+            mask[STATES * (s >>> 6) + state] |= 1L << s;    // the shift only uses the low six bits of s
+        }
+        return mask;
+    }
+
+    // position of the pair i < j in a packed upper-triangular matrix of n sequences
+    public static int index(int i, int j, int n) {
+        return (int) ((long) i * (2L * n - i - 1) / 2 + (j - i - 1));
+    }
+
+    public static int size(int n) {
+        long size = (long) n * (n - 1) / 2;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many sequences for a packed distance matrix: " + n);
+        }
+        return (int) size;
+    }
+
+    // sites at which sequences i and j share a state
+    public int matches(int i, int j) {
+        long[] a = masks[i];
+        long[] b = masks[j];
+        int matches = 0;
+        for (int k = 0; k < a.length; k += STATES) {
+            long same = (a[k] & b[k]) | (a[k + 1] & b[k + 1]) | (a[k + 2] & b[k + 2])
+                    | (a[k + 3] & b[k + 3]) | (a[k + 4] & b[k + 4]);
+            matches += Long.bitCount(same);
+        }
+        return matches;
+    }
+
+    // number of differing sites for every pair i < j of sequences of the given length, packed
+    public int[] mismatches(final int length, int threads) {
+        final int n = masks.length;
+        final int[] counts = new int[size(n)];
+        if (n < 2) {
+            return counts;
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int from = 0; from < n - 1; from += BLOCK) {
+            final int first = from;
+            final int last = Math.min(from + BLOCK, n - 1);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    rowBlock(first, last, length, counts);
+                    return null;
+                }
+            });
+        }
+        TaskPool pool = new TaskPool(threads, "distance matrix");
+        try {
+            pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+        return counts;
+    }
+
+    // rows first .. last-1 against every later row, a tile of BLOCK columns at a time so the masks of the
+    // block stay in cache
+    private void rowBlock(int first, int last, int length, int[] counts) {
+        int n = masks.length;
+        for (int tile = first + 1; tile < n; tile += BLOCK) {
+            int tileEnd = Math.min(tile + BLOCK, n);
+            for (int i = first; i < last; i++) {
+                int offset = index(i, i + 1, n) - (i + 1);
+                for (int j = Math.max(tile, i + 1); j < tileEnd; j++) {
+                    counts[offset + j] = length - matches(i, j);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package teaspoon.SUPGMA;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
+import org.apache.commons.math3.linear.SingularMatrixException;
+
+import jebl.util.TaskPool;
+
+/**
+ * Least squares without an intercept, fitted from the normal equations. Rows are added one at a time to
+ * X'X and X'y, so a regression over all n(n-1)/2 pairs of sequences needs O(p^2) memory for p columns
+ * instead of the n(n-1)/2 x p design matrix OLSMultipleLinearRegression takes. The coefficients agree
+ * with OLSMultipleLinearRegression.estimateRegressionParameters to rounding.
+ */
+public class NormalEquations {
+
+    // row of the design matrix for the pair of sequences i < j
+    public interface PairDesign {
+
+        int columns();
+
+        // fills every entry of x
+        void row(int i, int j, double[] x);
+    }
+
+    private static final int ROWS_PER_TASK = 64;
+
+    private final int columns;
+    private final double[] xtx;    // upper triangle, row-major
+    private final double[] xty;
+    private long rows;
+
+    public NormalEquations(int columns) {
+        this.columns = columns;
+        this.xtx = new double[columns * columns];
+        this.xty = new double[columns];
+    }
+
+    public void add(double[] x, double y) {
+        for (int a = 0; a < columns; a++) {
+            double xa = x[a];
+            if (xa == 0.0) {
+                continue;
+            }
+            xty[a] += xa * y;
+            int offset = a * columns;
+            for (int b = a; b < columns; b++) {
+                xtx[offset + b] += xa * x[b];
+            }
+        }
+        rows++;
+    }
+
+    public void merge(NormalEquations other) {
+        for (int k = 0; k < xtx.length; k++) {
+            xtx[k] += other.xtx[k];
+        }
+        for (int k = 0; k < columns; k++) {
+            xty[k] += other.xty[k];
+        }
+        rows += other.rows;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    // regression coefficients; SingularMatrixException when the columns are not linearly independent
+    public double[] solve() {
+        double[][] matrix = new double[columns][columns];
+        for (int a = 0; a < columns; a++) {
+            for (int b = a; b < columns; b++) {
+                matrix[a][b] = xtx[a * columns + b];
+                matrix[b][a] = xtx[a * columns + b];
+            }
+        }
+        try {
+            CholeskyDecomposition cholesky = new CholeskyDecomposition(new Array2DRowRealMatrix(matrix, false));
+            return cholesky.getSolver().solve(new ArrayRealVector(xty, false)).toArray();
+        } catch (NonPositiveDefiniteMatrixException e) {
+            throw new SingularMatrixException();
+        }
+    }
+
+    /**
+     * Fits the upper triangle of distances against the design, in blocks of rows on a ForkJoinPool.
+     * Every block has its own accumulator and the blocks are merged in order, so the coefficients do
+     * not depend on the number of threads.
+     */
+    public static double[] fit(final double[][] distances, final PairDesign design, int threads) {
+        final int n = distances.length;
+        List<Callable<NormalEquations>> tasks = new ArrayList<Callable<NormalEquations>>();
+        for (int from = 0; from < n - 1; from += ROWS_PER_TASK) {
+            final int first = from;
+            final int last = Math.min(from + ROWS_PER_TASK, n - 1);
+            tasks.add(new Callable<NormalEquations>() {
+                @Override
+                public NormalEquations call() {
+                    NormalEquations block = new NormalEquations(design.columns());
+                    double[] x = new double[design.columns()];
+                    for (int i = first; i < last; i++) {
+                        for (int j = i + 1; j < n; j++) {
+                            design.row(i, j, x);
+                            block.add(x, distances[i][j]);
+                        }
+                    }
+                    return block;
+                }
+            });
+        }
+        NormalEquations total = new NormalEquations(design.columns());
+        TaskPool pool = new TaskPool(threads, "regression");
+        try {
+            for (NormalEquations block : pool.invokeAll(tasks)) {
+                total.merge(block);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return total.solve();
+    }
+
+}
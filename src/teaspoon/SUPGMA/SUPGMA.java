@@ -16,7 +16,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.math3.linear.SingularMatrixException;
 import org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression;
 
@@ -28,7 +27,6 @@ import jebl.evolution.distances.TamuraNeiDistanceMatrix;
 import jebl.evolution.graphs.Node;
 import jebl.evolution.io.FastaImporter;
 import jebl.evolution.io.ImportException;
-import jebl.evolution.sequences.BasicSequence;
 import jebl.evolution.sequences.Sequence;
 import jebl.evolution.sequences.SequenceType;
 import jebl.evolution.taxa.Taxon;
@@ -49,8 +47,10 @@ public class SUPGMA {
     List<Taxon> taxa;
     List<Sequence> sequences;
     int date_position_in_name;
+    int threads = Runtime.getRuntime().availableProcessors(); // regressions over pairs run on this many threads
 
     String sequenceFileName;
+    WindowedAlignment windowedAlignment;
     public SUPGMA(String filename, int date_position_in_name) {
 
         this.sequenceFileName = filename;
@@ -78,7 +78,7 @@ public class SUPGMA {
             reader = new BufferedReader(new FileReader(sequenceFileName));
             FastaImporter importer = new FastaImporter(reader, SequenceType.NUCLEOTIDE);
             this.sequences = importer.importSequences();
-            BasicAlignment alignment = new BasicAlignment(sequences);
+            BasicAlignment alignment = new BasicAlignment(sequences, true);
             reader.close();
             switch(model) {
                 case 'J':
@@ -130,7 +130,7 @@ public class SUPGMA {
 
         DistanceMatrix pairwiseDistances = null;
 
-        BasicAlignment alignment = new BasicAlignment(sequences);
+        BasicAlignment alignment = new BasicAlignment(sequences, true);
         switch(model) {
             case 'J':
                 pairwiseDistances = new JukesCantorDistanceMatrix(alignment, ProgressListener.EMPTY );
@@ -181,52 +181,13 @@ public class SUPGMA {
 
         double[][] pairwiseDistances = distanceMatrix.getDistances();
 
-
-        int dimensions = (int)Math.floor((Math.pow(pairwiseDistances.length, 2)-pairwiseDistances.length)*0.5);
-
-        int c = 0;
-        int p = 0;
-        boolean multipleTheta = false;
-
         Set<Double> uniqueSamplingTimes = new HashSet<Double>();
         uniqueSamplingTimes.addAll(samplingTimes);
         List<Double> timepoints = new ArrayList<Double>();
         timepoints.addAll(uniqueSamplingTimes);
         Collections.sort(timepoints);
 
-        int no_of_timepoints = uniqueSamplingTimes.size();
-
-        double [] y = new double[dimensions];
-        double [][] linearModelMatrix = new double[dimensions][no_of_timepoints+1];
-
-        for(int i=0; i < pairwiseDistances.length-1; i++) {
-
-            for(int j=(i+1); j < pairwiseDistances.length; j++) {
-
-                y[c] = pairwiseDistances[i][j];
-
-                if(samplingTimes.get(i)-samplingTimes.get(j)==0) {
-
-                    linearModelMatrix[c][timepoints.indexOf(samplingTimes.get(i))] = 1;
-                }
-
-                linearModelMatrix[c][no_of_timepoints] = Math.abs(samplingTimes.get(i)-samplingTimes.get(j));
-
-                c++;
-
-
-
-            }
-        }
-
-        //System.out.println(linearModelMatrix.length + " c "+ c);
-
-        OLSMultipleLinearRegression regression = new OLSMultipleLinearRegression();
-        regression.setNoIntercept(true);
-        regression.newSampleData(y, linearModelMatrix);
-
-
-        double[] beta = regression.estimateRegressionParameters();
+        double[] beta = NormalEquations.fit(pairwiseDistances, multiThetaDesign(samplingTimes, timepoints), threads);
 
         for(double d: beta) {
             System.out.println(d);
@@ -239,50 +200,14 @@ public class SUPGMA {
 
         double[][] pairwiseDistances = distanceMatrix.getDistances();
 
-        int dimensions = (int)Math.floor((Math.pow(pairwiseDistances.length, 2)-pairwiseDistances.length)*0.5);
-
-        int c = 0;
-        int p = 0;
-
-
         Set<Double> uniqueSamplingTimes = new HashSet<Double>();
         uniqueSamplingTimes.addAll(samplingTimes);
         samplingTimesSet = new ArrayList<Double>();
         samplingTimesSet.addAll(uniqueSamplingTimes);
         Collections.sort(samplingTimesSet);
 
-        int no_of_timepoints = uniqueSamplingTimes.size();
-
-        double [] y = new double[dimensions];
-        double [][] linearModelMatrix = new double[dimensions][no_of_timepoints+1];
-
-        //System.out.println("dimensions: "+dimensions);
-        for(int i=0; i < pairwiseDistances.length-1; i++) {
-
-            for(int j=(i+1); j < pairwiseDistances.length; j++) {
-
-                y[c] = pairwiseDistances[i][j];
-
-                if(samplingTimes.get(i)-samplingTimes.get(j)==0) {
-
-                    linearModelMatrix[c][samplingTimesSet.indexOf(samplingTimes.get(i))] = 1;
-                }
-                //System.out.println(i+","+j+" :"+samplingTimes.get(i)+" and "+samplingTimes.get(j)+ " pop "+linearModelMatrix[c][timepoints.indexOf(samplingTimes.get(i))]);
-
-                linearModelMatrix[c][no_of_timepoints] = Math.abs(samplingTimes.get(i)-samplingTimes.get(j));
-
-                c++;
-
-
-
-            }
-        }
-        OLSMultipleLinearRegression regression = new OLSMultipleLinearRegression();
-        regression.setNoIntercept(true);
-        regression.newSampleData(y, linearModelMatrix);
-
         try{
-            double[] beta = regression.estimateRegressionParameters();
+            double[] beta = NormalEquations.fit(pairwiseDistances, multiThetaDesign(samplingTimes, samplingTimesSet), threads);
             int d = 0;
             while (d < beta.length-1) {
                 System.out.println(samplingTimesSet.get(d)+":"+beta[d]);
@@ -401,40 +326,7 @@ public class SUPGMA {
         DistanceMatrix distanceMatrix = getDistances('H');
         double[][] pairwiseDistances = distanceMatrix.getDistances();
 
-        int dimensions = (int)Math.floor((Math.pow(pairwiseDistances.length, 2)-pairwiseDistances.length)*0.5);
-
-        int c = 0;
-
-        double [] y = new double[dimensions];
-        double [][] linearModelMatrix = new double[dimensions][2];
-
-        for(int i=0; i < pairwiseDistances.length-1; i++) {
-
-            for(int j=(i+1); j < pairwiseDistances.length; j++) {
-
-
-                y[c] = pairwiseDistances[i][j];
-
-                linearModelMatrix[c][0] = 1;
-                //System.out.println(i+","+j+" :"+samplingTimes.get(i)+" and "+samplingTimes.get(j)+ " pop "+linearModelMatrix[c][0]);
-
-                linearModelMatrix[c][1] = (samplingTimes.get(i) - samplingTimes.get(j));
-
-
-                c++;
-            }
-
-
-        }
-
-        //System.out.println(linearModelMatrix.length + " c "+ c);
-
-        OLSMultipleLinearRegression regression = new OLSMultipleLinearRegression();
-        regression.setNoIntercept(true);
-        regression.newSampleData(y, linearModelMatrix);
-
-
-        double[] beta = regression.estimateRegressionParameters();
+        double[] beta = NormalEquations.fit(pairwiseDistances, thetaDesign(samplingTimes, false), threads);
 
         for(double d: beta) {
             System.out.println(d);
@@ -456,78 +348,83 @@ public class SUPGMA {
         Collections.sort(samplingTimesSet);
 
         System.out.println("dimensions: "+dimensions);
-        int c = 0;
-
-        double [] y = new double[dimensions];
-        double [][] linearModelMatrix = new double[dimensions][2];
-
         //assuming single/constant population
-        for(int i=0; i < pairwiseDistances.length-1; i++) {
+        double[] beta = NormalEquations.fit(pairwiseDistances, thetaDesign(samplingTimes, true), threads);
 
-            for(int j=(i+1); j < pairwiseDistances.length; j++) {
-
-                y[c] = pairwiseDistances[i][j];
-
-                linearModelMatrix[c][0] = 1;
-                //System.out.println(i+","+j+" :"+samplingTimes.get(i)+" and "+samplingTimes.get(j)+ " pop "+linearModelMatrix[c][0]);
-
-                linearModelMatrix[c][1] = Math.abs(samplingTimes.get(i) - samplingTimes.get(j));
+        for(double d: beta) {
+            System.out.println(d);
+        }
+        return beta;
+    }
 
-                c++;
+    // pairs sampled at the same time get an indicator for that timepoint, every pair the time between them
+    private static NormalEquations.PairDesign multiThetaDesign(List<Double> samplingTimes, List<Double> timepoints) {
 
+        final double[] times = new double[samplingTimes.size()];
+        final int[] timepoint = new int[samplingTimes.size()];
+        for(int i=0; i < times.length; i++) {
+            times[i] = samplingTimes.get(i);
+            timepoint[i] = timepoints.indexOf(samplingTimes.get(i));
+        }
+        final int no_of_timepoints = timepoints.size();
 
+        return new NormalEquations.PairDesign() {
+            @Override
+            public int columns() {
+                return no_of_timepoints+1;
             }
-        }
 
+            @Override
+            public void row(int i, int j, double[] x) {
+                Arrays.fill(x, 0.0);
+                if(times[i]-times[j]==0) {
+                    x[timepoint[i]] = 1;
+                }
+                x[no_of_timepoints] = Math.abs(times[i]-times[j]);
+            }
+        };
+    }
 
-        //System.out.println(linearModelMatrix.length + " c "+ c);
-
-        OLSMultipleLinearRegression regression = new OLSMultipleLinearRegression();
-        regression.setNoIntercept(true);
-        regression.newSampleData(y, linearModelMatrix);
+    // constant population: one theta for every pair and the (absolute) time between them
+    private static NormalEquations.PairDesign thetaDesign(List<Double> samplingTimes, final boolean absolute) {
 
+        final double[] times = new double[samplingTimes.size()];
+        for(int i=0; i < times.length; i++) {
+            times[i] = samplingTimes.get(i);
+        }
 
-        double[] beta = regression.estimateRegressionParameters();
+        return new NormalEquations.PairDesign() {
+            @Override
+            public int columns() {
+                return 2;
+            }
 
-        for(double d: beta) {
-            System.out.println(d);
-        }
-        return beta;
+            @Override
+            public void row(int i, int j, double[] x) {
+                x[0] = 1;
+                x[1] = absolute ? Math.abs(times[i] - times[j]) : times[i] - times[j];
+            }
+        };
     }
 
+    // the file is read on the first call, later windows are views onto the same sequences
     private List<Sequence> subAlignment(int start, int end) {
 
-        List<Sequence> subAlignment = new ArrayList<>();
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(sequenceFileName));
-            FastaImporter importer = new FastaImporter(reader, SequenceType.NUCLEOTIDE);
-            this.sequences = importer.importSequences();
-            BasicAlignment alignment = new BasicAlignment(sequences);
-            reader.close();
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (ImportException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        for(Sequence s: sequences) {
-
-            String seq = s.getString();
-            if((start-1) < seq.length() && (end < seq.length())) {
-                String subSeq = seq.substring(start - 1, end);
-                int count = StringUtils.countMatches(subSeq, '-');
-                if (count <= subSeq.length() * 0.05) {
-                    BasicSequence newSeq = new BasicSequence(SequenceType.NUCLEOTIDE, s.getTaxon(), subSeq);
-                    subAlignment.add(newSeq);
-                }
+        if(windowedAlignment == null) {
+            try {
+                windowedAlignment = new WindowedAlignment(sequenceFileName);
+                this.sequences = windowedAlignment.getSequences();
+
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+            } catch (ImportException e) {
+                e.printStackTrace();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
 
-        return subAlignment;
+        return windowedAlignment.window(start, end);
     }
 
     private void estimateThetaPerWindow(int geneStart, int geneEnd, int window_length) {
@@ -0,0 +1,179 @@
+package teaspoon.SUPGMA;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jebl.evolution.io.FastaImporter;
+import jebl.evolution.io.ImportException;
+import jebl.evolution.sequences.Sequence;
+import jebl.evolution.sequences.SequenceType;
+import jebl.evolution.sequences.State;
+import jebl.evolution.taxa.Taxon;
+import jebl.util.AttributableHelper;
+
+/**
+ * A FASTA alignment read once and cut into windows. Every sequence keeps its characters and a running count
+ * of its gaps, so a window is a set of views over those characters (no substrings or copies) and the gap
+ * filter costs two look-ups per sequence instead of a scan of the window.
+ */
+public class WindowedAlignment {
+
+    private final List<Sequence> sequences;
+    private final byte[][] characters;
+    private final int[][] gaps;    // gaps[i][k] = number of '-' in the first k characters of sequence i
+
+    public WindowedAlignment(String filename) throws IOException, ImportException {
+        BufferedReader reader = new BufferedReader(new FileReader(filename));
+        try {
+            FastaImporter importer = new FastaImporter(reader, SequenceType.NUCLEOTIDE);
+            sequences = importer.importSequences();
+        } finally {
+            reader.close();
+        }
+        characters = new byte[sequences.size()][];
+        gaps = new int[sequences.size()][];
+        for (int i = 0; i < characters.length; i++) {
+            String seq = sequences.get(i).getString();
+            byte[] chars = new byte[seq.length()];
+            int[] counts = new int[seq.length() + 1];
+            for (int k = 0; k < chars.length; k++) {
+                char c = seq.charAt(k);
+                chars[k] = (byte) c;
+                counts[k + 1] = counts[k] + (c == '-' ? 1 : 0);
+            }
+            characters[i] = chars;
+            gaps[i] = counts;
+        }
+    }
+
+    public List<Sequence> getSequences() {
+        return sequences;
+    }
+
+    /**
+     * Sequences over positions start to end (1-based, inclusive) that reach past end and have at most 5%
+     * gaps in the window, as views onto the loaded characters.
+     */
+    public List<Sequence> window(int start, int end) {
+        List<Sequence> window = new ArrayList<>();
+        for (int i = 0; i < characters.length; i++) {
+            int length = characters[i].length;
+            if ((start - 1) < length && (end < length)) {
+                int count = gaps[i][end] - gaps[i][start - 1];
+                if (count <= (end - start + 1) * 0.05) {
+                    window.add(new Range(sequences.get(i), characters[i], start - 1, end));
+                }
+            }
+        }
+        return window;
+    }
+
+    // characters from .. to-1 of a loaded sequence
+    private static class Range implements Sequence {
+
+        private final Sequence source;
+        private final byte[] characters;
+        private final int from;
+        private final int length;
+
+        Range(Sequence source, byte[] characters, int from, int to) {
+            this.source = source;
+            this.characters = characters;
+            this.from = from;
+            this.length = to - from;
+        }
+
+        public Taxon getTaxon() {
+            return source.getTaxon();
+        }
+
+        public SequenceType getSequenceType() {
+            return source.getSequenceType();
+        }
+
+        public String getString() {
+            StringBuilder buffer = new StringBuilder(length);
+            for (int k = 0; k < length; k++) {
+                buffer.append((char) characters[from + k]);
+            }
+            return buffer.toString();
+        }
+
+        public State[] getStates() {
+            State[] states = new State[length];
+            for (int k = 0; k < length; k++) {
+                states[k] = getState(k);
+            }
+            return states;
+        }
+
+        public byte[] getStateIndices() {
+            byte[] indices = new byte[length];
+            for (int k = 0; k < length; k++) {
+                indices[k] = (byte) getState(k).getIndex();
+            }
+            return indices;
+        }
+
+        public State getState(int site) {
+            return getSequenceType().getState((char) characters[from + site]);
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int compareTo(Object o) {
+            return getTaxon().compareTo(((Sequence) o).getTaxon());
+        }
+
+        public String toString() {
+            return getString();
+        }
+
+        // Attributable implementation, per window as for a new BasicSequence
+
+        public void setAttribute(String name, Object value) {
+            if (helper == null) {
+                helper = new AttributableHelper();
+            }
+            helper.setAttribute(name, value);
+        }
+
+        public Object getAttribute(String name) {
+            if (helper == null) {
+                return null;
+            }
+            return helper.getAttribute(name);
+        }
+
+        public void removeAttribute(String name) {
+            if (helper != null) {
+                helper.removeAttribute(name);
+            }
+        }
+
+        public Set<String> getAttributeNames() {
+            if (helper == null) {
+                return Collections.emptySet();
+            }
+            return helper.getAttributeNames();
+        }
+
+        public Map<String, Object> getAttributeMap() {
+            if (helper == null) {
+                return Collections.emptyMap();
+            }
+            return helper.getAttributeMap();
+        }
+
+        private AttributableHelper helper = null;
+    }
+
+}
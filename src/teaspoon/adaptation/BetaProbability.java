@@ -0,0 +1,66 @@
+package teaspoon.adaptation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.math3.special.Beta;
+
+/**
+ * Exact P(u < p < v) for p ~ Beta(a,b), as a difference of regularized incomplete Beta functions
+ * (commons-math3 Beta.regularizedBeta).
+ * Replaces the Monte Carlo estimate in BhattMethod.BetaSiteFreq; values are cached on (a, b, u, v)
+ * since most sites of an alignment share the same derived and ancestral counts.
+ * Not thread safe, each BhattMethod keeps its own instance.
+ */
+public class BetaProbability {
+
+	private final Map<Key, Double> cache = new HashMap<Key, Double>();
+
+	// a = derived count + prior, b = ancestral count + prior
+	public double probability(double a, double b, double u, double v) {
+		Key key = new Key(a, b, u, v);
+		Double p = cache.get(key);
+		if (p == null) {
+			p = Beta.regularizedBeta(v, a, b) - Beta.regularizedBeta(u, a, b);
+			cache.put(key, p);
+		}
+		return p;
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	private static final class Key {
+		final double a;
+		final double b;
+		final double u;
+		final double v;
+
+		Key(double a, double b, double u, double v) {
+			this.a = a;
+			this.b = b;
+			this.u = u;
+			this.v = v;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return a == k.a && b == k.b && u == k.u && v == k.v;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = Double.doubleToLongBits(a);
+			h = 31 * h + Double.doubleToLongBits(b);
+			h = 31 * h + Double.doubleToLongBits(u);
+			h = 31 * h + Double.doubleToLongBits(v);
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+}
@@ -3,15 +3,18 @@ package teaspoon.adaptation;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
-public class BhattMethod {
+import java.util.SplittableRandom;
+public class BhattMethod implements CodonPathways.Pathway {
 
     double N = 500.0; //set number of replicates
     double number_bins;
     boolean[] WhichBins;
     double[][] bins;
     int NumSample;
-    public final  int[][] integer_matrix;
+    public final PackedAlignment packed; // the alignment, column-major; per-sequence access goes through column(site)
     public final int[] integer_ancestral;
+    public final CompressedAlignment compressed; // codon histograms, all column counts come from here
+    public final int[] codons; // for a bootstrap view, the resampled codons of packed; null otherwise
     double neutralratio;
     double neutralbin;
     double[] SilentCountArray;
@@ -27,6 +30,13 @@ public class BhattMethod {
     public  int[][] codon_matrix;
     public  boolean[] bad_sites_list;
     Methods preprocess = new Methods();
+    SplittableRandom random; // per-instance sampling stream, null uses the thread's default stream
+    boolean analyticBeta = false; // exact Beta bin probabilities in BetaSiteFreq instead of sampling
+    BetaProbability betaProbability;
+    SiteSummary summary;
+    private double[] betaDraws;         // sampling buffers reused across sites, N draws each
+    private double[][] dirichletDraws;
+    private static CodonPathways pathwayTable; // NGpathway for every codon pair, the genetic code is fixed
 
 
     public final String[] AA =	{"K","N","K","N","T","T","T","T","R","S","R","S","I","I","M","I","Q","H","Q","H","P","P","P","P",
@@ -38,18 +48,87 @@ public class BhattMethod {
     }
 
     public BhattMethod(int[][] m,int[] a){
-        this.integer_matrix = m;
+        this(new PackedAlignment(m), a);
+    }
+
+    public BhattMethod(PackedAlignment m, int[] a){
+        this.packed = m;
         this.integer_ancestral = a;
-        bad_sites_list = InvalidSites(integer_matrix, integer_ancestral);
+        this.compressed = new CompressedAlignment(m);
+        this.codons = null;
+        bad_sites_list = preprocess.InvalidSites(compressed, integer_ancestral);
+    }
+
+    // bootstrap replicate made of the given codons of the original alignment (codon indices as in CreateBlocks).
+    // The packed alignment, its compressed form and the site summary are shared, packed stays the original
+    // alignment so per-sequence access has to go through column(site).
+    public BhattMethod(BhattMethod original, int[] sampler){
+        this.packed = original.packed;
+        this.compressed = original.compressed;
+        this.summary = original.summary().resample(sampler);
+        int[] composed = new int[sampler.length];
+        for(int k=0;k<sampler.length;k++){
+            composed[k] = original.codons == null ? sampler[k] : original.codons[sampler[k]];
+        }
+        this.codons = composed;
+        this.integer_ancestral = new int[3*sampler.length];
+        this.bad_sites_list = new boolean[3*sampler.length];
+        for(int site=0;site<integer_ancestral.length;site++){
+            integer_ancestral[site] = original.integer_ancestral[original.column(site, sampler)];
+            bad_sites_list[site] = original.bad_sites_list[original.column(site, sampler)];
+        }
     }
 
     public void setNeutralRatio(double val){
         this.neutralratio=val;
     }
 
+    public void setRandom(SplittableRandom random){
+        this.random=random;
+    }
+
+    public void setAnalyticBeta(boolean analytic){
+        this.analyticBeta=analytic;
+    }
+
+    // column of packed behind a site of this alignment
+    public int column(int site){
+        return codons == null ? site : 3*codons[site/3] + site%3;
+    }
+
+    public int numSites(){
+        return codons == null ? packed.numSites() : 3*codons.length;
+    }
+
+    private int column(int site, int[] sampler){
+        return 3*sampler[site/3] + site%3;
+    }
+
+    // per-column counts and codon identities, built on first use and shared by all bins
+    public SiteSummary summary(){
+        if(summary == null){
+            summary = new SiteSummary(compressed, integer_ancestral, bad_sites_list, this);
+        }
+        return summary;
+    }
+
+    private double[] betaDraws(){
+        if(betaDraws == null || betaDraws.length != (int) N){
+            betaDraws = new double[(int) N];
+        }
+        return betaDraws;
+    }
+
+    private double[][] dirichletDraws(){
+        if(dirichletDraws == null || dirichletDraws.length != (int) N){
+            dirichletDraws = new double[(int) N][4];
+        }
+        return dirichletDraws;
+    }
+
     public ArrayList<Mutation> Tracking(ArrayList<Mutation> FullStore,double[] prior,boolean needprior){
         int c=0;
-        for(int site=0;site<integer_matrix[0].length;site++){
+        for(int site=0;site<numSites();site++){
             //************************************************************************************************************************
             // dirichlet site frequency spectrum
             SiteInfo Info = SiteInformation(site);
@@ -69,12 +148,12 @@ public class BhattMethod {
                 observations[i] = Info.data[i].rawNObs+Info.data[i].Prior;	// add observations into an array to find Dirichlet(01+p....0k+p) where p is the prior
             }
 
-            Samplers S = new Samplers(observations);
+            Samplers S = new Samplers(observations, random);
             double[][] dist = new double[(int)N][4];
             double[] mean = new double[4];
+            S.fillDirichlet(dist);
             for(int i=0;i<(int) N;i++){ // Sampler loop
-                double[] point = S.Dirichlet();
-                dist[i]=point;
+                double[] point = dist[i];
                 for(int x=0;x<numbase;x++){
                     mean[x]+=point[x];
                 }
@@ -240,12 +319,14 @@ public class BhattMethod {
             observations[i] = Info.data[i].rawNObs + Info.data[i].Prior;	// add observations into an array to find Dirichlet(01+p....0k+p) where p is the prior
         }
 
-        Samplers S = new Samplers(observations);
+        Samplers S = new Samplers(observations, random);
+        double[][] draws = dirichletDraws();
+        S.fillDirichlet(draws);      // randomly draw the base frequencies from a dirichlet distribution which is based on the observed+prior
 
         double count = 0;
         //bootstrap replicate based on observations (which are essential prior plus observations)
         for(int i=0;i<(int) N;i++){
-            double[] point = S.Dirichlet();      // randomly draw the base frequencies from a dirichlet distribution which is based on the observed+prior
+            double[] point = draws[i];
             for(int x=0;x<numbase;x++){
                 if(Info.data[x].inans==false){
                     sampler[i]+=point[x];    //derived freq from the Dirichlet distribution 500 X
@@ -265,7 +346,6 @@ public class BhattMethod {
         SiteInfo Info = SiteInformation(site);
 
         double[] observations = new double[2];
-        double[] sampler = new double[(int)N];
 
         //numbase should be a class variable
 
@@ -288,15 +368,22 @@ public class BhattMethod {
         observations[0] = observations[0]+prior[0];   //derived frequency
         observations[1] = observations[1]+prior[1];   // ancestral frequency
 
-        Samplers S = new Samplers(observations);
+        if(analyticBeta){
+            if(betaProbability == null){
+                betaProbability = new BetaProbability();
+            }
+            Info.Dprob = betaProbability.probability(observations[0], observations[1], u, v);
+            return Info;
+        }
+
+        Samplers S = new Samplers(observations, random);
+        double[] sampler = betaDraws();
+        S.fillBeta(sampler);
 
         double count = 0;
 
         for(int i=0; i < (int)N; i++) {
 
-            double point = S.Beta();
-            sampler[i] = point;
-
             if(sampler[i]> u && sampler[i] < v){
                  count++;
             }
@@ -329,7 +416,7 @@ public class BhattMethod {
             observations[i] = Info.data[i].rawNObs+Info.data[i].Prior;	// add observations into an array to find Dirichlet(01+p....0k+p) where p is the prior
         }
 
-        Samplers S = new Samplers(observations);
+        Samplers S = new Samplers(observations, random);
         double[] isSil = new double[4];
 
         //checking if site is silent or replacement
@@ -356,9 +443,12 @@ public class BhattMethod {
         double silent=0;
         double replacement=0;
 
+        double[][] draws = dirichletDraws();
+        S.fillDirichlet(draws);
+
         double count = 0;
         for(int i=0;i<(int) N;i++){
-            double[] point = S.Dirichlet();
+            double[] point = draws[i];
             for(int x=0;x<numbase;x++){
                 if(Info.data[x].inans==false){  //site is invariant or fixed  (no ancestral site?)
                     sampler[i]+=point[x];
@@ -387,46 +477,23 @@ public class BhattMethod {
     public double[][] NGmethod(int site,int codonsite){
         // HANDLES VARINT SITES ***************************************************
         // main NG method for all sites
-        double[][] identity = new double[3][2];
         int[] ancestralbases = new int[3];
         ancestralbases[0]=integer_ancestral[site];
         ancestralbases[1]=integer_ancestral[site+1];
         ancestralbases[2]=integer_ancestral[site+2];
-        int[] mainbases = new int[3];
-        int[] count = new int[3];
-
-        for(int i=0;i<integer_matrix.length;i++){
-            // adds codon bases
-            mainbases[0]=integer_matrix[i][site];
-            mainbases[1]=integer_matrix[i][site+1];
-            mainbases[2]=integer_matrix[i][site+2];
-            double[] tmp = NGpathway(ancestralbases,mainbases);  // per site
-            if(tmp[0]!=2.0 && tmp[0]!=3.0 ){
-                identity[0][0] += tmp[0];
-                count[0]++;
-            }
-            if(tmp[1]!=2.0 && tmp[1]!=3.0 ){
-                identity[1][0] += tmp[1];
-                count[1]++;
-            }
-            if(tmp[2]!=2.0 && tmp[2]!=3.0 ){
-                identity[2][0] += tmp[2];
-                count[2]++;
+        int[] histogram = compressed.codonCounts(column(site)/3, new int[CodonPathways.HISTOGRAM]);
+        // mean pathway value over the observed codons, see CodonPathways
+        return pathwayTable().identity(this, ancestralbases, histogram);
+    }
+
+    // NGpathway tabulated over all codon pairs, built on first use
+    CodonPathways pathwayTable(){
+        synchronized(BhattMethod.class){
+            if(pathwayTable == null){
+                pathwayTable = new CodonPathways(this);
             }
+            return pathwayTable;
         }
-
-        identity[0][0]=identity[0][0]/count[0];
-        identity[1][0]=identity[1][0]/count[1];
-        identity[2][0]=identity[2][0]/count[2];
-
-
-        identity[0][1] = 1.0-identity[0][0];
-        identity[1][1] = 1.0-identity[1][0];
-        identity[2][1] = 1.0-identity[2][0];
-
-
-        return identity;
-        // or add smoothing
     }
 
     public double[] NGpathway(int[] a, int[] b){
@@ -539,18 +606,18 @@ public class BhattMethod {
 
     public double[][] NGpossible(){
         int[] mainbases = new int[3];
-        double L = (double) integer_matrix.length;
-        double N = (double) integer_matrix[0].length;
+        double L = (double) packed.numSequences();
+        double N = (double) numSites();
         double[][] identity = new double[3][2];
         double[][] FinalIdentity = new double[(int)N][2];
-        for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+        for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
             identity = new double[3][2]; // set new identity vector
             if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) {  // check for bad sites
-                for(int sequence=0;sequence<integer_matrix.length;sequence++){		// loop through sequences
+                for(int sequence=0;sequence<packed.numSequences();sequence++){		// loop through sequences
 
-                    mainbases[0]=integer_matrix[sequence][site]; //main bases
-                    mainbases[1]=integer_matrix[sequence][site+1];
-                    mainbases[2]=integer_matrix[sequence][site+2];
+                    mainbases[0]=packed.get(sequence, column(site)); //main bases
+                    mainbases[1]=packed.get(sequence, column(site+1));
+                    mainbases[2]=packed.get(sequence, column(site+2));
                     double sil = 0; //silent count
                     double rep=0; //rep count
                     //********************************************************************************************************************************************
@@ -623,12 +690,12 @@ public class BhattMethod {
 
 
         double old_rho = 0;
-        for(int site=0,codon=0; site<integer_matrix[0].length-2;site+=3,codon++){
+        for(int site=0,codon=0; site<numSites()-2;site+=3,codon++){
             //System.out.println(site+","+codon);
 
 
             if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) {
-                temp = NGmethod(site,codon);
+                temp = summary().identity(codon);
                 // find site freq for pos1
                 SiteInfo inf = BetaSiteFreq(u,v,site,prior,needPrior);
 
@@ -701,6 +768,71 @@ public class BhattMethod {
 
     }
 
+    // SiteFreq split by codon, so that a codon bootstrap replicate is a weighted sum over codons rather than
+    // a pass over the alignment. [bin][codon][variant total, silent, replacement, invariant total], bad codons
+    // stay zero. Dprob is computed once per site, with sampled Beta bins every replicate shares those draws.
+    public double[][][] CodonSiteFreq(double[][] binsvalues, double[] prior, boolean needPrior){
+        double[][][] codonfreq = new double[binsvalues[0].length][numSites()/3][4];
+        for(int i=0;i<binsvalues[0].length;i++){
+            for(int site=0,codon=0; site<numSites()-2;site+=3,codon++){
+                if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) {
+                    double[][] temp = summary().identity(codon);
+                    for(int p=0;p<3;p++){
+                        SiteInfo inf = BetaSiteFreq(binsvalues[0][i],binsvalues[1][i],site+p,prior,needPrior);
+                        if(inf.Case==1){
+                            codonfreq[i][codon][3] += inf.Dprob;
+                        } else {
+                            codonfreq[i][codon][0] += inf.Dprob;
+                            codonfreq[i][codon][1] += inf.Dprob*temp[p][0];
+                            codonfreq[i][codon][2] += inf.Dprob*temp[p][1];
+                        }
+                    }
+                }
+            }
+        }
+        return codonfreq;
+    }
+
+    // SiteFreq of a codon bootstrap replicate from one bin of CodonSiteFreq, weights[c] is how often codon c was drawn
+    public double[] SiteFreq(double[][] codonfreq, int[] weights){
+        double[] totals = new double[4];
+        for(int codon=0;codon<weights.length;codon++){
+            if(weights[codon]!=0){
+                for(int k=0;k<4;k++){
+                    totals[k] += weights[codon]*codonfreq[codon][k];
+                }
+            }
+        }
+        return SiteFreq(totals);
+    }
+
+    // SiteFreq from the sums of one bin of CodonSiteFreq over some codons
+    private static double[] SiteFreq(double[] totals){
+        double total1 = totals[0];
+        double sigma1 = totals[1];
+        double rho1 = totals[2];
+        double total2 = totals[3];
+        double S = sigma1/total1;   // proportion of variant sites that are silent
+        double R = rho1/total1;     // proportion of variant sites that are replacement
+
+        double[] finalans = new double[5];
+        finalans[0] = sigma1+total2*S;  // silent count
+        finalans[1] = rho1+total2*R;    // replacement count
+        finalans[2] = total1+total2;    // total count
+        finalans[3] = total1;           // total variant
+        finalans[4] = total2;           // total invariant
+        return finalans;
+    }
+
+    // number of times each codon appears in a bootstrap sampler, the multinomial counts of the resample
+    public static int[] codonWeights(int[] sampler, int numCodons){
+        int[] weights = new int[numCodons];
+        for(int k=0;k<sampler.length;k++){
+            weights[sampler[k]]++;
+        }
+        return weights;
+    }
+
     // calculates a silent and replacement site frequency between ranges u and v
     public double[] SiteFreqNG(double u,double v, double[] prior, boolean needPrior){
         double[][] temp = new double[3][2];
@@ -714,9 +846,9 @@ public class BhattMethod {
         double[][] NGpossible = NGpossible();
 
         ArrayList<SiteInfo> Inv = new ArrayList<SiteInfo>();
-        for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+        for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
             if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) {
-                temp = NGmethod(site,codon);
+                temp = summary().identity(codon);
                 //inf - sitefreq for a specific nucleotide in the alignment
 
                 //find site freq for pos1
@@ -954,12 +1086,56 @@ public class BhattMethod {
     }
 
     public void Method(double[][] binsvalues,double[] prior, boolean needPrior,boolean[] which,double NR){
-        this.number_bins = binsvalues[0].length;
-        double[][] finalmat = new double[6][binsvalues[0].length];
-        double[][] totals = new double[3][binsvalues[0].length];
-        for(int i=0;i< (int) number_bins;i++){
+        double[][] sitefreq = new double[binsvalues[0].length][];
+        for(int i=0;i<binsvalues[0].length;i++){
             //System.out.println(prior);
-            double[] temp = SiteFreq(binsvalues[0][i], binsvalues[1][i],prior,needPrior);
+            sitefreq[i] = SiteFreq(binsvalues[0][i], binsvalues[1][i],prior,needPrior);
+        }
+        Method(sitefreq,which,NR);
+    }
+
+    // Method for a codon bootstrap replicate, codonfreq from CodonSiteFreq on the original alignment
+    public void Method(double[][][] codonfreq, int[] weights, boolean[] which, double NR){
+        double[][] sitefreq = new double[codonfreq.length][];
+        for(int i=0;i<codonfreq.length;i++){
+            sitefreq[i] = SiteFreq(codonfreq[i], weights);
+        }
+        Method(sitefreq,which,NR);
+    }
+
+    // Method on every window of width codons, one every step codons (see RollingWindow.starts). The bin
+    // probabilities and identities of each codon are worked out once and the window totals are rolled along,
+    // so a fine-step scan costs about one pass over the alignment. Window w is a view of codons
+    // starts[w] .. starts[w]+width-1 as in BhattMethod(original, sampler).
+    public BhattMethod[] slidingWindows(double[][] binsvalues, double[] prior, boolean needPrior, boolean[] which, double NR, int width, int step){
+        double[][][] codonfreq = CodonSiteFreq(binsvalues, prior, needPrior);
+        int[] starts = RollingWindow.starts(numSites()/3, width, step);
+        RollingWindow[] rolling = new RollingWindow[codonfreq.length];
+        for(int i=0;i<codonfreq.length;i++){
+            rolling[i] = new RollingWindow(codonfreq[i]);
+        }
+        BhattMethod[] windows = new BhattMethod[starts.length];
+        int[] codons = new int[width];
+        for(int w=0;w<starts.length;w++){
+            for(int k=0;k<width;k++){
+                codons[k] = starts[w] + k;
+            }
+            double[][] sitefreq = new double[codonfreq.length][];
+            for(int i=0;i<codonfreq.length;i++){
+                sitefreq[i] = SiteFreq(rolling[i].moveTo(starts[w], starts[w] + width));
+            }
+            windows[w] = new BhattMethod(this, codons);
+            windows[w].Method(sitefreq, which, NR);
+        }
+        return windows;
+    }
+
+    private void Method(double[][] sitefreq, boolean[] which, double NR){
+        this.number_bins = sitefreq.length;
+        double[][] finalmat = new double[6][sitefreq.length];
+        double[][] totals = new double[3][sitefreq.length];
+        for(int i=0;i< (int) number_bins;i++){
+            double[] temp = sitefreq[i];
             finalmat[0][i] = temp[0];   // number silent
             finalmat[1][i] = temp[1];	// number replacement
 
@@ -1040,68 +1216,7 @@ public class BhattMethod {
     }
 
     public SiteInfo SiteInformation(int site){
-        SiteInfo SI = new SiteInfo();
-        SI.locus=site;
-        double numbase = 4;	// number of bases
-
-        Obs[] data = new Obs[(int)numbase];		// create array of teaspoon.adaptation.Obs - an object that stores all info
-        for(int i=0;i<numbase;i++){
-            data[i] = new Obs();			// initialises the teaspoon.adaptation.Obs objects
-        }
-        double TotalNumBases=0.0;
-        for(int i=0;i<numbase;i++){
-            data[i].base=i+1;
-            data[i].rawNObs = preprocess.num_of_base(integer_matrix, i+1, site); //
-            TotalNumBases+=data[i].rawNObs;
-
-            if(integer_ancestral[site]-1 == -1) {
-
-
-                System.out.println(site+" x");
-            }
-            data[integer_ancestral[site]-1].inans=true;	//tests if base is ansestral
-        }
-        // calculates the number of observed ignoring gaps i.e as a sum of the total number of bases
-        for(int i=0;i<numbase;i++){
-            data[i].NObs = data[i].rawNObs/TotalNumBases;
-        }
-        SI.totalNumBases=TotalNumBases;
-        // store data in SI object
-        SI.data = data;
-
-        for(int i=0;i<numbase;i++){
-            if(SI.data[integer_ancestral[site]-1].NObs!=0.0){
-                SI.hasans=true;		// test if site has ansestralbase
-            }
-            if(SI.data[i].NObs!=0.0 && data[i].inans==false) {
-                SI.Numderived++; // site has no ancestral bases
-            }
-        }
-
-        if (SI.Numderived==0 && SI.hasans==true){
-            SI.Case=1;// invariant
-        }
-        else if (SI.Numderived==1 && SI.hasans==false){
-            //System.out.println("fixed: "+site);
-            SI.Case=2;// fixed
-        }
-        else if (SI.Numderived==1 && SI.hasans==true){
-            SI.Case=3;// 1 state derived and ans
-        }
-        else if (SI.Numderived==2 && SI.hasans==false){
-            SI.Case=4;// 2 state derived no ans
-        }
-        else if (SI.Numderived==2 && SI.hasans==true){
-            SI.Case=5;// 2 state derived and ans
-        }
-        else if (SI.Numderived==3 && SI.hasans==false){
-            SI.Case=6;// 3 state derived no ans
-        }
-        else if (SI.Numderived==3 && SI.hasans==true){
-            SI.Case=7;// 3 state derived and ans
-        }
-
-        return SI;
+        return summary().siteInfo(site);
     }
 
     // calculates codon number
@@ -1209,13 +1324,13 @@ public class BhattMethod {
 
     public BlockStruct[][] makeSeqBlocks(int blocksize,int length){
         double numblocks = length/blocksize;
-        BlockStruct[][] blockmat = new BlockStruct[integer_matrix.length][(int) numblocks];
+        BlockStruct[][] blockmat = new BlockStruct[packed.numSequences()][(int) numblocks];
         int[] temp = new int[blocksize];
         for (int site = 0,x=0; site < length - (blocksize-1); site = site + blocksize,x++) {
-            for(int i=0;i<integer_matrix.length;i++){
+            for(int i=0;i<packed.numSequences();i++){
                 int k=0;
                 for(int j=site;j<site+blocksize;j++){
-                    temp[k] = integer_matrix[i][j];
+                    temp[k] = packed.get(i, column(j));
                     k++;
                 }
                 blockmat[i][x] = new BlockStruct(blocksize);
@@ -1249,13 +1364,13 @@ public class BhattMethod {
 
     public BlockStruct[][] makeSeqBlocksOverlapping(int blocksize,int length){
         int numblocks = length-blocksize+1;
-        BlockStruct[][] blockmat = new BlockStruct[integer_matrix.length][(int) numblocks];
+        BlockStruct[][] blockmat = new BlockStruct[packed.numSequences()][(int) numblocks];
         int[] temp = new int[blocksize];
         for (int site = 0,x=0; site < length - (blocksize-1); site=site+3,x++) {
-            for(int i=0;i<integer_matrix.length;i++){
+            for(int i=0;i<packed.numSequences();i++){
                 int k=0;
                 for(int j=site;j<site+blocksize;j++){
-                    temp[k] = integer_matrix[i][j];
+                    temp[k] = packed.get(i, column(j));
                     k++;
                 }
                 blockmat[i][x] = new BlockStruct(blocksize);
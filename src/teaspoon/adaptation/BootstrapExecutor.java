@@ -0,0 +1,42 @@
+package teaspoon.adaptation;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+
+import jebl.util.TaskPool;
+
+/**
+ * Runs bootstrap replicates (and the dataset x timepoint cells inside them) on a jebl.util.TaskPool.
+ * Every task draws from its own stream, seeded from the master seed and the task's
+ * coordinates only, so results do not depend on the number of threads.
+ */
+public class BootstrapExecutor {
+
+    private final TaskPool pool;
+    private final RandomStreams streams;
+
+    public BootstrapExecutor(int threads, long seed) {
+        this.pool = new TaskPool(threads, "bootstrap");
+        this.streams = new RandomStreams(seed);
+    }
+
+    public long getSeed() {
+        return streams.getSeed();
+    }
+
+    // independent stream for the task at the given coordinates (e.g. bootstrap, cell)
+    public SplittableRandom stream(int... keys) {
+        return streams.stream(keys);
+    }
+
+    // runs all tasks and returns their results in submission order
+    public <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        return pool.invokeAll(tasks);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+}
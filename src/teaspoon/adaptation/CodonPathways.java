@@ -0,0 +1,93 @@
+package teaspoon.adaptation;
+
+/**
+ * Nei-Gojobori pathway values for every ancestral/observed codon pair. Codons are coded over the states
+ * 1-5 (125 codons: the 64 sense and stop codons and every codon with a gap or N), and each pair holds the
+ * three per-position values an NGpathway method returns (1 silent, 0 replacement, averages over pathways
+ * in between, 2 invariant, 3 for BhattMethod's all-gap codon). The table is filled by calling the
+ * pathway method itself on every pair, so it has that method's genetic code and gap conventions.
+ *
+ * NGmethod then reduces to a histogram of the observed codons at a site (CompressedAlignment.codonCounts)
+ * dotted with one row of the table, instead of a pathway enumeration per sequence.
+ */
+public class CodonPathways {
+
+	public static final int CODONS = 125;
+	public static final int HISTOGRAM = 216;	// codons over states 0-5, see CompressedAlignment
+
+	public interface Pathway {
+		double[] NGpathway(int[] a, int[] b);	// a = ancestral, b = main
+	}
+
+	private final double[] table = new double[CODONS * CODONS * 3];
+
+	public CodonPathways(Pathway pathway) {
+		int[] a = new int[3];
+		int[] b = new int[3];
+		for (int ans = 0; ans < CODONS; ans++) {
+			bases(ans, a);
+			for (int obs = 0; obs < CODONS; obs++) {
+				bases(obs, b);
+				double[] identity = pathway.NGpathway(a, b);
+				System.arraycopy(identity, 0, table, (ans * CODONS + obs) * 3, 3);
+			}
+		}
+	}
+
+	// table code of a codon, -1 if a state is not 1-5
+	public static int codon(int pos1, int pos2, int pos3) {
+		if (pos1 < 1 || pos1 > 5 || pos2 < 1 || pos2 > 5 || pos3 < 1 || pos3 > 5) {
+			return -1;
+		}
+		return 25 * (pos1 - 1) + 5 * (pos2 - 1) + (pos3 - 1);
+	}
+
+	private static void bases(int codon, int[] bases) {
+		bases[0] = codon / 25 + 1;
+		bases[1] = (codon / 5) % 5 + 1;
+		bases[2] = codon % 5 + 1;
+	}
+
+	// value of NGpathway(ancestral, observed)[position]
+	public double value(int ancestral, int observed, int position) {
+		return table[(ancestral * CODONS + observed) * 3 + position];
+	}
+
+	// silent/replacement identity [position][silent,replacement] of a codon as the NGmethods return it:
+	// the mean pathway value over the sequences, leaving out those where it is invariant (2) or a gap (3).
+	// pathway is the method the table was filled from, used for states outside 1-5.
+	public double[][] identity(Pathway pathway, int[] ancestralbases, int[] histogram) {
+		return identity(pathway, ancestralbases, histogram, new int[3]);
+	}
+
+	// as above, count[position] is set to the number of sequences the mean is over
+	public double[][] identity(Pathway pathway, int[] ancestralbases, int[] histogram, int[] count) {
+		double[][] identity = new double[3][2];
+		int ans = codon(ancestralbases[0], ancestralbases[1], ancestralbases[2]);
+		int[] mainbases = new int[3];
+		for (int h = 0; h < HISTOGRAM; h++) {
+			int n = histogram[h];
+			if (n == 0) {
+				continue;
+			}
+			mainbases[0] = h / 36;
+			mainbases[1] = (h / 6) % 6;
+			mainbases[2] = h % 6;
+			int obs = codon(mainbases[0], mainbases[1], mainbases[2]);
+			for (int p = 0; p < 3; p++) {
+				// states outside the table (unfilled rows) go through the pathway method as before
+				double tmp = (ans >= 0 && obs >= 0) ? table[(ans * CODONS + obs) * 3 + p] : pathway.NGpathway(ancestralbases, mainbases)[p];
+				if (tmp != 2.0 && tmp != 3.0) {
+					identity[p][0] += n * tmp;
+					count[p] += n;
+				}
+			}
+		}
+		for (int p = 0; p < 3; p++) {
+			identity[p][0] = identity[p][0] / count[p];
+			identity[p][1] = 1.0 - identity[p][0];
+		}
+		return identity;
+	}
+
+}
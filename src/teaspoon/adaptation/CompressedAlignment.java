@@ -0,0 +1,254 @@
+package teaspoon.adaptation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Alignment compressed to what the estimators read from it: for every codon position a sparse histogram
+ * of the codons observed there (code 36*s1 + 6*s2 + s3 over the states 0-5, with its count), the base
+ * counts of every site derived from it, and the first sequence's codons. Deep-sequencing columns hold a
+ * handful of distinct codons whatever the read depth, so per-site work scales with the distinct codons.
+ * A trailing partial codon is padded with state 0. The histograms are built from the packed alignment,
+ * three contiguous columns at a time.
+ *
+ * Estimators that still need whole sequences can run over the distinct haplotypes instead, see
+ * haplotypes(); the index is built on first use from the packed alignment, no int[][] is kept.
+ */
+public class CompressedAlignment {
+
+	public static final int STATES = 6;			// 0 (padding), A, C, G, T, gap/N
+
+	private final PackedAlignment packed;
+	private final int numSequences;
+	private final int numSites;
+	private final int numCodons;
+	private final int[] offsets;		// codon c has entries offsets[c] .. offsets[c+1]-1
+	private final short[] codes;
+	private final int[] counts;
+	private final int[] baseCounts;		// baseCounts[site*STATES + state]
+	private final int[] first;			// codon code of the first sequence
+	private Haplotypes haplotypes;
+
+	public CompressedAlignment(int[][] integer_matrix) {
+		this(new PackedAlignment(integer_matrix));
+	}
+
+	// columns start .. end-1 of integer_matrix, sites are numbered from 0 at start
+	public CompressedAlignment(int[][] integer_matrix, int start, int end) {
+		this(new PackedAlignment(integer_matrix, start, end));
+	}
+
+	public CompressedAlignment(PackedAlignment packed) {
+		this.packed = packed;
+		this.numSequences = packed.numSequences();
+		this.numSites = packed.numSites();
+		this.numCodons = (numSites + 2) / 3;
+
+		int[] dense = new int[CodonPathways.HISTOGRAM];
+		int[][] codonCodes = new int[numCodons][];
+		int[][] codonCounts = new int[numCodons][];
+		int total = 0;
+		for (int c = 0; c < numCodons; c++) {
+			packed.codonCounts(3 * c, dense);
+			int distinct = 0;
+			for (int h = 0; h < CodonPathways.HISTOGRAM; h++) {
+				if (dense[h] > 0) {
+					distinct++;
+				}
+			}
+			codonCodes[c] = new int[distinct];
+			codonCounts[c] = new int[distinct];
+			for (int h = 0, k = 0; h < CodonPathways.HISTOGRAM; h++) {
+				if (dense[h] > 0) {
+					codonCodes[c][k] = h;
+					codonCounts[c][k++] = dense[h];
+				}
+			}
+			total += distinct;
+		}
+
+		offsets = new int[numCodons + 1];
+		codes = new short[total];
+		counts = new int[total];
+		for (int c = 0, k = 0; c < numCodons; c++) {
+			offsets[c] = k;
+			for (int j = 0; j < codonCodes[c].length; j++, k++) {
+				codes[k] = (short) codonCodes[c][j];
+				counts[k] = codonCounts[c][j];
+			}
+		}
+		offsets[numCodons] = total;
+
+		baseCounts = new int[3 * numCodons * STATES];
+		for (int c = 0; c < numCodons; c++) {
+			for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+				int code = codes[k];
+				baseCounts[(3 * c) * STATES + code / 36] += counts[k];
+				baseCounts[(3 * c + 1) * STATES + (code / 6) % 6] += counts[k];
+				baseCounts[(3 * c + 2) * STATES + code % 6] += counts[k];
+			}
+		}
+
+		first = new int[numCodons];
+		for (int c = 0; numSequences > 0 && c < numCodons; c++) {
+			first[c] = code(0, 3 * c);
+		}
+	}
+
+	// codon code of a sequence at a codon's first site, missing trailing sites are state 0
+	private int code(int sequence, int site) {
+		int s1 = packed.get(sequence, site);
+		int s2 = site + 1 < numSites ? packed.get(sequence, site + 1) : 0;
+		int s3 = site + 2 < numSites ? packed.get(sequence, site + 2) : 0;
+		return 36 * s1 + 6 * s2 + s3;
+	}
+
+	public PackedAlignment packed() {
+		return packed;
+	}
+
+	public int numSequences() {
+		return numSequences;
+	}
+
+	public int numSites() {
+		return numSites;
+	}
+
+	public int numCodons() {
+		return numCodons;
+	}
+
+	// number of sequences with the given state (0-5) at a site
+	public int count(int site, int base) {
+		return baseCounts[site * STATES + base];
+	}
+
+	// counts of states 1-5 at a site, counts[0] is A
+	public int[] counts(int site) {
+		int[] out = new int[STATES - 1];
+		System.arraycopy(baseCounts, site * STATES + 1, out, 0, STATES - 1);
+		return out;
+	}
+
+	// state of the first sequence at a site
+	public int first(int site) {
+		int code = first[site / 3];
+		switch (site % 3) {
+			case 0: return code / 36;
+			case 1: return (code / 6) % 6;
+			default: return code % 6;
+		}
+	}
+
+	// number of distinct codons observed at a codon position
+	public int distinct(int codon) {
+		return offsets[codon + 1] - offsets[codon];
+	}
+
+	// k-th distinct codon at a codon position and how many sequences carry it
+	public int codon(int codon, int k) {
+		return codes[offsets[codon] + k];
+	}
+
+	public int codonCount(int codon, int k) {
+		return counts[offsets[codon] + k];
+	}
+
+	// dense histogram of the codons at a codon position, as CodonPathways.identity takes it
+	public int[] codonCounts(int codon, int[] histogram) {
+		Arrays.fill(histogram, 0);
+		for (int k = offsets[codon]; k < offsets[codon + 1]; k++) {
+			histogram[codes[k]] = counts[k];
+		}
+		return histogram;
+	}
+
+	// distinct sequences of the alignment, built on first use
+	public synchronized Haplotypes haplotypes() {
+		if (haplotypes == null) {
+			haplotypes = new Haplotypes(packed);
+		}
+		return haplotypes;
+	}
+
+	/**
+	 * Identical sequences collapsed: representative[h] is the first sequence of haplotype h, sequence(h)
+	 * its states, weight[h] how many sequences share it and index[i] the haplotype of sequence i.
+	 */
+	public static class Haplotypes {
+
+		private static final int BLOCK = 16;	// sequences unpacked per pass over the columns
+
+		public final int[] representative;
+		public final int[] weight;
+		public final int[] index;
+		private final int[][] sequences;
+
+		Haplotypes(PackedAlignment packed) {
+			int n = packed.numSequences();
+			Map<Row, Integer> seen = new HashMap<Row, Integer>();
+			int[] representatives = new int[n];
+			int[] weights = new int[n];
+			int[][] distinct = new int[n][];
+			index = new int[n];
+			int[][] block = new int[Math.min(BLOCK, n)][];
+			for (int from = 0; from < n; from += BLOCK) {
+				int size = Math.min(BLOCK, n - from);
+				for (int k = 0; k < size; k++) {
+					if (block[k] == null) {
+						block[k] = new int[packed.numSites()];
+					}
+				}
+				packed.rows(from, size == block.length ? block : Arrays.copyOf(block, size));
+				for (int k = 0; k < size; k++) {
+					Row row = new Row(block[k]);
+					Integer h = seen.get(row);
+					if (h == null) {
+						h = seen.size();
+						seen.put(row, h);
+						representatives[h] = from + k;
+						distinct[h] = block[k];
+						block[k] = null;	// kept as the haplotype's states, a fresh buffer replaces it
+					}
+					weights[h]++;
+					index[from + k] = h;
+				}
+			}
+			representative = Arrays.copyOf(representatives, seen.size());
+			weight = Arrays.copyOf(weights, seen.size());
+			sequences = Arrays.copyOf(distinct, seen.size());
+		}
+
+		public int size() {
+			return representative.length;
+		}
+
+		// states of haplotype h, callers must not modify them
+		public int[] sequence(int h) {
+			return sequences[h];
+		}
+	}
+
+	private static class Row {
+		private final int[] sites;
+		private final int hash;
+
+		Row(int[] sites) {
+			this.sites = sites;
+			this.hash = Arrays.hashCode(sites);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Row && Arrays.equals(sites, ((Row) o).sites);
+		}
+	}
+
+}
@@ -9,7 +9,6 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.StringTokenizer;
@@ -346,119 +345,37 @@ public class DataSet {
 	}
 
 	public void readFASTA() {
-
-		ArrayList<String> data = new ArrayList<String>();
+		// streamed straight into a byte per site, see FastaReader
+		FastaReader reader = new FastaReader(input);
+		reader.setKeepHeaders(true);
+		byte[][] states;
 		try {
-
-			BufferedReader br = new BufferedReader(
-					new InputStreamReader(
-							new FileInputStream(input)));
-
-			String line;
-			while((line = br.readLine()) != null)
-
-				if(line.length() != 0){
-					data.add(line);
-				}
-
-			br.close();		
+			states = reader.read();
 		}
 		catch (IOException e) {
 			System.err.println("Caught IOException: " +  e.getMessage());
-		}
-		data.add(">ForParsing");
-		ArrayList<String> sequence = new ArrayList<String>();
-		ArrayList<String> taxons = new ArrayList<String>();
-
-		String line = "";
-		String Taxon = "";
-		String Sequence = "";
-		Iterator<String> It =  data.iterator();
-		int flag = 0;
-		while(It.hasNext()){
-			line = It.next();
-			if(line.matches("(?i).*>.*")){
-				if(flag==1){
-					sequence.add(Sequence);			
-				}
-				flag = 1;
-				Taxon=line;
-				if(line!=">ForParsing"){
-					taxons.add(Taxon);
-				}
-				Sequence = "";
-			} else {
-				Sequence += line;
-			}
-		}
-
-		char[][] matrix = new char[sequence.size()][sequence.get(0).toString().length()];	
-		It =  sequence.iterator();	
-		int i=0;
-		while(It.hasNext()){
-			matrix[i] = It.next().toString().toCharArray();
-			i++;
+			return;
 		}
 
-		String[] namematrix = new String[taxons.size()];	
-		It =  taxons.iterator();	
-		i=0;
-		while(It.hasNext()){
-			namematrix[i] = It.next().toString();
-			i++;
+		String[] namematrix = new String[reader.headers().size()];
+		for(int i=0;i<namematrix.length;i++){
+			namematrix[i] = ">"+reader.headers().get(i);
 		}
 
-
-		this.integer_matrix = convert2int(matrix);
+		this.integer_matrix = FastaReader.toIntMatrix(states);
 		this.taxon_matrix = namematrix;
 	}
 
 	public int[][] readFASTAfast(){
-		ArrayList<String> data = new ArrayList<String>();
-
+		byte[][] states;
 		try {
-
-			BufferedReader br = new BufferedReader(
-					new InputStreamReader(
-							new FileInputStream(input)));
-
-			String line;
-			while((line = br.readLine()) != null)
-
-				if(line.length() != 0){
-					data.add(line);
-				}
-
-			br.close();		
+			states = new FastaReader(input).read();
 		}
 		catch (IOException e) {
 			System.err.println("Caught IOException: " +  e.getMessage());
+			return null;
 		}
-
-		ArrayList<String> sequence = new ArrayList<String>();
-
-
-		String line = "";
-		for(int i=1;i<data.size();i++){
-			char[] name = data.get(i).toString().toCharArray();	
-			if(new Character(name[0]).equals('>')){
-				sequence.add(line);
-				line = "";		
-			} else {
-				line += data.get(i);
-			}
-
-		}
-		sequence.add(line);
-
-		char[][] matrix = new char[sequence.size()][sequence.get(0).toString().length()];	
-
-		for(int i=0; i< sequence.size();i++){
-			matrix[i] = sequence.get(i).toString().toCharArray();			
-		}
-
-		int[][] integer_matrix = convert2int(matrix);
-		return integer_matrix;
+		return FastaReader.toIntMatrix(states);
 	}
 
 	public int[][] convert2int(char[][] matrix){
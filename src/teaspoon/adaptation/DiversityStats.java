@@ -2,9 +2,13 @@ package teaspoon.adaptation;
 
 public class DiversityStats {
 
-	public final int[][] integer_matrix;
+	public final PackedAlignment packed;	// the alignment, column-major; per-sequence access goes through column(site)
 	public final int[] integer_ancestral;
 	public final boolean[] bad_sites_list;
+	public final CompressedAlignment compressed;	// codon histograms, all column counts come from here
+	public final int[] codons;	// for a bootstrap view, the resampled codons of packed; null otherwise
+	public final DiversitySummary summary;	// per-column inputs of every statistic, shared with bootstrap views
+	private double[] totals;	// {segregating sites, fastSS, pairwise differences, singletons}, on first use
 	Methods preprocess = new Methods();
 	Method_no_Outgroup preprocess2 = new Method_no_Outgroup();
 	public final Double n;
@@ -17,55 +21,101 @@ public class DiversityStats {
 	}
 
 	public DiversityStats(int[][] m) {
+		this(new PackedAlignment(m));
+	}
+
+	public DiversityStats(PackedAlignment m) {
 		// if no outgroup then creates just a bad sites list
-		integer_matrix = m;
+		packed = m;
 		integer_ancestral = null;
-		bad_sites_list = preprocess2.bad_sites_list(m);	
-		n = new Double(m.length);
-		numsites = (double)m[0].length;
+		compressed = new CompressedAlignment(packed);
+		bad_sites_list = preprocess2.bad_sites_list(compressed);	
+		summary = new DiversitySummary(compressed, null);
+		codons = null;
+		n = new Double(m.numSequences());
+		numsites = (double)m.numSites();
 	}
 
 
 	public DiversityStats(int[][] m, int[] a) {
 		// creates good matricies which contain no gaps or sequencing errors
 		// creates integer and amino acid matricies
-		integer_matrix = preprocess.get_object(m, a, "base");
+		packed = new PackedAlignment(preprocess.get_object(m, a, "base"));
 		integer_ancestral = preprocess.get_ancestral_object(m,a,"base");
 		bad_sites_list = preprocess.bad_sites_list(m, a);	
+		compressed = new CompressedAlignment(packed);
+		summary = new DiversitySummary(compressed, integer_ancestral);
+		codons = null;
 		n = new Double(m.length);
 		numsites = (double)m[0].length;
 	}
 
+	// bootstrap replicate made of the given codons of the original alignment, shares the matrix and bad sites
+	public DiversityStats(DiversityStats original, int[] sampler) {
+		packed = original.packed;
+		compressed = original.compressed;
+		summary = original.summary;
+		codons = new int[sampler.length];
+		bad_sites_list = new boolean[3*sampler.length];
+		integer_ancestral = original.integer_ancestral == null ? null : new int[3*sampler.length];
+		for(int k=0;k<sampler.length;k++){
+			codons[k] = original.codons == null ? sampler[k] : original.codons[sampler[k]];
+			for(int p=0;p<3;p++){
+				bad_sites_list[3*k+p] = original.bad_sites_list[3*sampler[k]+p];
+				if(integer_ancestral != null){
+					integer_ancestral[3*k+p] = original.integer_ancestral[3*sampler[k]+p];
+				}
+			}
+		}
+		n = original.n;
+		numsites = 3.0*sampler.length;
+	}
+
+	// column of packed behind a site of this alignment
+	public int column(int site){
+		return codons == null ? site : 3*codons[site/3] + site%3;
+	}
 
+	public int numSites(){
+		return codons == null ? packed.numSites() : 3*codons.length;
+	}
 
 
-	public double numberOfSegregatingSites(){
-		double numberSegregatingSites = 0.0;
-		for(int site=0;site<integer_matrix[0].length;site++){
-			if(bad_sites_list[site]==false){
-				int[] basesPresent = preprocess.which_bases(integer_matrix, site);	// check which bases are present
-				int total = basesPresent[0] +basesPresent[1] +basesPresent[2] + basesPresent[3];	// check if polymorphic
-				if(total != 1){		// if polymorphic
-					numberSegregatingSites++;	// add to segregating sites
+	// sums over the good sites of the per-column inputs, one pass for every statistic of this alignment
+	private double[] totals(){
+		if(totals == null){
+			double[] sums = new double[4];
+			for(int site=0;site<numSites();site++){
+				if(bad_sites_list[site]==false){
+					int column = column(site);
+					if(summary.segregating(column)){
+						sums[0]++;
+					}
+					if(summary.differsFromFirst(column)){
+						sums[1]++;
+					}
+					sums[2] += summary.pairwiseDifferences(column);
+					if(summary.singleton(column)){
+						sums[3]++;
+					}
 				}
 			}
+			totals = sums;
 		}
-		return numberSegregatingSites;
+		return totals;
 	}
-	
+
+	public double numberOfSegregatingSites(){
+		return totals()[0];
+	}
+
 	public double fastSS(){
-		double numberSegregatingSites = 0.0;
-		int[] ss = new int[integer_matrix[0].length];
-		int l = integer_matrix[0].length;
-		for(int i=1;i<integer_matrix.length;i++){
-			for(int j=0;j<l;j++){
-				if(ss[j]==0 && integer_matrix[i][j] != integer_matrix[0][j] && bad_sites_list[j]==false ){
-					ss[j]=1;
-					numberSegregatingSites++;
-				}			
-			}
-		}
-		return numberSegregatingSites;
+		return totals()[1];
+	}
+
+	// good sites where some base is carried by a single sequence
+	public double numberOfSingletons(){
+		return totals()[3];
 	}
 	
 	
@@ -99,43 +149,8 @@ public class DiversityStats {
 	}
 
 	public double numberOfPairwiseDifferences(){
-		double numberPairwiseDifferences = 0;
-		double n = integer_matrix.length;
-		double[] n1 = new double[4];
-		int[] types = {1,2,3,4};
-		for(int site=0;site<integer_matrix[0].length;site++){
-			if(bad_sites_list[site]==false){		// if site is good
-				n1 = new double[4];
-				int[] basesPresent = preprocess.which_bases(integer_matrix, site);	// check which bases are present
-				int total = basesPresent[0] + basesPresent[1] + basesPresent[2] + basesPresent[3];	// check if polymorphic
-				double numdif = 0.0;
-				if(total==2){
-					n1[0] = preprocess.num_of_base(integer_matrix,integer_matrix[0][site], site);
-					numdif = n1[0]*(n-n1[0]);
-				}
-				if(total==3){
-					int count=0;
-					for(int i=0;i<basesPresent.length;i++){
-						if(basesPresent[i]==1){
-							n1[count] = preprocess.num_of_base(integer_matrix,types[i], site);
-							count++;
-						}
-					}
-					numdif = (n1[0]*(n-n1[0])) + (n1[1]*(n-n1[0]-n1[1]));					
-				}
-				if(total==4){
-					int count=0;
-					for(int i=0;i<basesPresent.length;i++){
-						if(basesPresent[i]==1){
-							n1[count] = preprocess.num_of_base(integer_matrix,types[i], site);
-							count++;
-						}
-					}
-					numdif = (n1[0]*(n-n1[0])) + (n1[1]*(n-n1[0]-n1[1])) + (n1[2]*(n-n1[0]-n1[1]-n1[2])) ; 
-				}
-				numberPairwiseDifferences += numdif;
-			}
-		}		
+		double numberPairwiseDifferences = totals()[2];
+		double n = packed.numSequences();
 		// for avg pairwise differences divide by the total number of possible comparisons
 		// which is n choose 2
 		//	double totalComparisons = Math.exp(preprocess.factorial(n.floatValue()))/(2*(Math.exp(preprocess.factorial(n.floatValue()-2f))));
@@ -144,6 +159,62 @@ public class DiversityStats {
 		return ans;
 	}
 
+	// per codon [segregating sites, sites differing from the first sequence, pairwise differences], bad sites
+	// excluded. A codon bootstrap replicate is a weighted sum of these, see bootstrapEstimates.
+	public double[][] codonStatistics(){
+		double[][] stats = new double[numSites()/3][3];
+		for(int site=0;site<3*stats.length;site++){
+			if(bad_sites_list[site]==false){
+				double[] codon = stats[site/3];
+				if(summary.segregating(column(site))){
+					codon[0]++;
+				}
+				if(summary.differsFromFirst(column(site))){
+					codon[1]++;
+				}
+				codon[2] += summary.pairwiseDifferences(column(site));
+			}
+		}
+		return stats;
+	}
+
+	// {watterson theta S, theta pi, Tajima's D, theta} of a codon bootstrap replicate from codonStatistics(),
+	// weights[c] is how often codon c was drawn
+	public double[] bootstrapEstimates(double[][] codonStatistics, int[] weights){
+		double[] totals = new double[3];
+		for(int codon=0;codon<weights.length;codon++){
+			for(int k=0;k<3;k++){
+				totals[k] += weights[codon]*codonStatistics[codon][k];
+			}
+		}
+		return estimates(totals);
+	}
+
+	// bootstrapEstimates of every window of width codons, one every step codons (see RollingWindow.starts),
+	// with the codonStatistics() totals rolled along the alignment instead of summed for each window
+	public double[][] slidingWindowEstimates(int width, int step){
+		RollingWindow rolling = new RollingWindow(codonStatistics());
+		int[] starts = RollingWindow.starts(numSites()/3, width, step);
+		double[][] estimates = new double[starts.length][];
+		for(int w=0;w<starts.length;w++){
+			estimates[w] = estimates(rolling.moveTo(starts[w], starts[w] + width));
+		}
+		return estimates;
+	}
+
+	// estimates from totals of codonStatistics() over some codons
+	private double[] estimates(double[] totals){
+		double segregating = totals[0];
+		double fastSS = totals[1];
+		double pairwise = totals[2];
+		double Es = 0.0;
+		for(double i=1.0;i<n;i++){
+			Es += 1.0/(i);		// harmonic series estimated from coalescent
+		}
+		double[] thetaEst = {segregating/Es, pairwise/((n*(n-1.0))/2.0)};
+		return new double[]{thetaEst[0], thetaEst[1], TajimasD(thetaEst), fastSS/Es};
+	}
+
 	public double[] wattersonEstimates(){
 		double[] wattersons = new double[2];
 		double Es = 0.0;
@@ -158,7 +229,10 @@ public class DiversityStats {
 	}
 
 	public double TajimasD(){
-		double[] thetaEst = wattersonEstimates(); // index 0 is segregating sites, 1 pairwise differences
+		return TajimasD(wattersonEstimates());
+	}
+
+	private double TajimasD(double[] thetaEst){	// index 0 is segregating sites, 1 pairwise differences
 		double Es = 0.0;
 		for(double i=1.0;i< n;i++){
 			Es += 1.0/(i);		// harmonic series estimated from coalescent
@@ -0,0 +1,91 @@
+package teaspoon.adaptation;
+
+/**
+ * Per-column inputs of the diversity statistics, worked out in one pass over the base counts of the
+ * compressed alignment: whether a column segregates, whether it differs from the first sequence, its
+ * pairwise differences, whether it holds a singleton, and the number of sequences carrying the ancestral
+ * base (for the derived site frequency spectrum). Built once per alignment and shared by its bootstrap
+ * views, so S, pi, singletons and the Fu & Li and Fay & Wu inputs all come from the same counts.
+ */
+public class DiversitySummary {
+
+	private final boolean[] segregating;
+	private final boolean[] differsFromFirst;
+	private final double[] pairwise;
+	private final boolean[] singleton;
+	private final int[] ancestralCount;	// -1 when there is no ancestor
+
+	public DiversitySummary(CompressedAlignment compressed, int[] integer_ancestral) {
+		int numSites = compressed.numSites();
+		int numSequences = compressed.numSequences();
+		double n = numSequences;
+		segregating = new boolean[numSites];
+		differsFromFirst = new boolean[numSites];
+		pairwise = new double[numSites];
+		singleton = new boolean[numSites];
+		ancestralCount = new int[numSites];
+		int[] present = new int[3];
+		for (int column = 0; column < numSites; column++) {
+			int first = compressed.first(column);
+			int total = 0;
+			boolean single = false;
+			for (int base = 1; base <= 4; base++) {
+				int count = compressed.count(column, base);
+				if (count > 0) {
+					if (total < present.length) {
+						present[total] = count;
+					}
+					total++;
+				}
+				single |= count == 1;
+			}
+			segregating[column] = total != 1;
+			differsFromFirst[column] = compressed.count(column, first) != numSequences;
+			singleton[column] = single;
+
+			// differences summed over the pairs, in the order the present bases are met
+			double numdif = 0.0;
+			if (total == 2) {
+				double n1 = compressed.count(column, first);
+				numdif = n1 * (n - n1);
+			} else if (total == 3) {
+				numdif = (present[0] * (n - present[0])) + (present[1] * (n - present[0] - present[1]));
+			} else if (total == 4) {
+				numdif = (present[0] * (n - present[0])) + (present[1] * (n - present[0] - present[1]))
+						+ (present[2] * (n - present[0] - present[1] - present[2]));
+			}
+			pairwise[column] = numdif;
+
+			if (integer_ancestral == null) {
+				ancestralCount[column] = -1;
+			} else {
+				int ancestral = integer_ancestral[column];
+				ancestralCount[column] = ancestral >= 0 && ancestral < CompressedAlignment.STATES ? compressed.count(column, ancestral) : 0;
+			}
+		}
+	}
+
+	public boolean segregating(int column) {
+		return segregating[column];
+	}
+
+	// some sequence has a different state from the first one
+	public boolean differsFromFirst(int column) {
+		return differsFromFirst[column];
+	}
+
+	public double pairwiseDifferences(int column) {
+		return pairwise[column];
+	}
+
+	// some base is carried by exactly one sequence
+	public boolean singleton(int column) {
+		return singleton[column];
+	}
+
+	// sequences carrying the ancestral base, -1 without an ancestor
+	public int ancestralCount(int column) {
+		return ancestralCount[column];
+	}
+
+}
@@ -0,0 +1,183 @@
+package teaspoon.adaptation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One-pass FASTA parser. The file is memory mapped a region at a time and every base is decoded
+ * straight into a byte per site (A=1,C=2,G=3,T=4, anything else 5 as in convert2int), so the only
+ * copy of the alignment on the heap is the byte matrix - no line Strings, char[][] or joined
+ * sequences. Records may be wrapped over any number of lines; blank lines and \r are ignored.
+ * toPacked hands the bytes to the estimators as a PackedAlignment, toIntMatrix widens them for
+ * the code that still works on an int[][].
+ *
+ * Headers (without the '>') are kept only when asked for, e.g. for sample times.
+ */
+public class FastaReader {
+
+    private static final long REGION = 1L << 28;    // bytes mapped at a time
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] STATES = new byte[256];
+
+    static {
+        Arrays.fill(STATES, (byte) 5);
+        STATES['A'] = 1;
+        STATES['C'] = 2;
+        STATES['G'] = 3;
+        STATES['T'] = 4;
+    }
+
+    private final File input;
+    private boolean keepHeaders;
+
+    private final List<byte[]> rows = new ArrayList<byte[]>();
+    private final List<String> headers = new ArrayList<String>();
+    private byte[] row = new byte[1024];
+    private int length;
+    private byte[] header = new byte[128];
+    private int headerLength;
+    private boolean inHeader;
+    private boolean inRecord;
+    private final byte[] chunk = new byte[1 << 16];
+
+    public FastaReader(File input) {
+        this.input = input;
+    }
+
+    public void setKeepHeaders(boolean keepHeaders) {
+        this.keepHeaders = keepHeaders;
+    }
+
+    // sequences in file order, each row sized to its own length
+    public byte[][] read() throws IOException {
+        rows.clear();
+        headers.clear();
+        length = 0;
+        headerLength = 0;
+        inHeader = false;
+        inRecord = false;
+        RandomAccessFile file = new RandomAccessFile(input, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            for (long position = 0; position < size; position += REGION) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION, size - position));
+                parse(buffer);
+            }
+        } finally {
+            file.close();
+        }
+        if (inHeader) {
+            endHeader();
+        }
+        endRecord();
+        return rows.toArray(new byte[rows.size()][]);
+    }
+
+    // headers without the '>', in the order of the rows; empty unless setKeepHeaders(true)
+    public List<String> headers() {
+        return headers;
+    }
+
+    private void parse(MappedByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            int n = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, n);
+            parse(chunk, n);
+        }
+    }
+
+    private void parse(byte[] bytes, int n) {
+        for (int k = 0; k < n; k++) {
+            byte b = bytes[k];
+            if (inHeader) {
+                if (b == '\n' || b == '\r') {
+                    endHeader();
+                } else if (keepHeaders) {
+                    if (headerLength == header.length) {
+                        header = Arrays.copyOf(header, 2 * headerLength);
+                    }
+                    header[headerLength++] = b;
+                }
+            } else if (b == '>') {
+                endRecord();
+                inHeader = true;
+                inRecord = true;
+            } else if (b != '\n' && b != '\r') {
+                if (length == row.length) {
+                    row = Arrays.copyOf(row, 2 * length);
+                }
+                row[length++] = STATES[b & 0xFF];
+                inRecord = true;
+            }
+        }
+    }
+
+    private void endHeader() {
+        inHeader = false;
+        if (keepHeaders) {
+            headers.add(new String(header, 0, headerLength, UTF8));
+            headerLength = 0;
+        }
+    }
+
+    private void endRecord() {
+        if (!inRecord) {
+            return;
+        }
+        // the next record is most likely the same length, so size its buffer to hand over without a copy
+        if (length == row.length) {
+            rows.add(row);
+        } else {
+            rows.add(Arrays.copyOf(row, length));
+        }
+        row = new byte[Math.max(length, 16)];
+        length = 0;
+        inRecord = false;
+    }
+
+    // integer matrix as Read_main returns it; rows are released as they are widened. As convert2int
+    // did, the first row sets the width and rows from the first one of a different length stay zero.
+    public static int[][] toIntMatrix(byte[][] states) {
+        int width = states[0].length;
+        int[][] matrix = new int[states.length][width];
+        boolean ragged = false;
+        for (int i = 0; i < states.length; i++) {
+            byte[] row = states[i];
+            states[i] = null;
+            ragged |= row.length != width;
+            if (!ragged) {
+                int[] out = matrix[i];
+                for (int j = 0; j < width; j++) {
+                    out[j] = row[j];
+                }
+            }
+        }
+        return matrix;
+    }
+
+    // the rows packed four bits a state, as the estimators read them; rows are released as they are packed.
+    // Width and ragged rows as toIntMatrix.
+    public static PackedAlignment toPacked(byte[][] states) {
+        int width = states[0].length;
+        PackedAlignment packed = new PackedAlignment(states.length, width);
+        boolean ragged = false;
+        for (int i = 0; i < states.length; i++) {
+            byte[] row = states[i];
+            states[i] = null;
+            ragged |= row.length != width;
+            if (!ragged) {
+                packed.setRow(i, row);
+            }
+        }
+        return packed;
+    }
+
+}
@@ -13,11 +13,11 @@ public class FayAndWu extends DiversityStats {
 	
 	
 	public double[] Estimators(){
-		double[] counter = new double[integer_matrix.length];
-		for(int j=0;j<integer_matrix[0].length;j++){
+		double[] counter = new double[packed.numSequences()];
+		for(int j=0;j<numSites();j++){
 			double temp = 0;
 			if(bad_sites_list[j] == false){
-				temp = preprocess.num_of_base(integer_matrix, integer_ancestral[j], j);	// if not equal to ancestral
+				temp = summary.ancestralCount(column(j));	// if not equal to ancestral
 				temp = n-temp;
 				if(temp != 0){
 					counter[(int) temp-1]++;
@@ -30,17 +30,17 @@ public class FayAndWu extends DiversityStats {
 		double part2 = 0;
 		// loop goes from 1 -> n-1 where n is the sample size
 		// counter goes from 0 -> n-2. which traverses all entries except the last - equvalent to n-1
-		for(int k=1;k<integer_matrix.length;k++){
+		for(int k=1;k<packed.numSequences();k++){
 			part1 += counter[k-1];
 			part2 += 1.0/k;
 		}
 		thetaw = part1*(1.0/part2);
 		double thetak = 0; // number of pairwise differences
-		for(int k=1;k<integer_matrix.length;k++){
+		for(int k=1;k<packed.numSequences();k++){
 			thetak += (2.0*counter[k-1]*k*(n-k))/(n*(n-1.0));
 		}
 		double thetah = 0; // weighted
-		for(int k=1;k<integer_matrix.length;k++){
+		for(int k=1;k<packed.numSequences();k++){
 			thetah += (2.0*counter[k-1]*k*k)/(n*(n-1.0));
 		}
 		
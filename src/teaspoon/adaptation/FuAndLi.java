@@ -16,23 +16,6 @@ public class FuAndLi extends DiversityStats {
 		super(m,a);
 	}
 
-	public double numberOfSingletons(){
-		double numberSingletons=0;
-		for(int site=0;site<integer_matrix[0].length;site++){
-			double[] C = new double[4];
-			if(bad_sites_list[site]==false){
-				C[0] = preprocess.num_of_base(integer_matrix, 1, site);
-				C[1] = preprocess.num_of_base(integer_matrix, 2, site);
-				C[2] = preprocess.num_of_base(integer_matrix, 3, site);
-				C[3] = preprocess.num_of_base(integer_matrix, 4, site);
-				if(C[0]==1||C[1]==1||C[2]==1||C[3]==1){
-					numberSingletons++;
-				}
-			}
-		}
-		return numberSingletons;
-	}
-
 	// explicit counts
 	public double[] counts(){
 		double S = fastSS();
@@ -14,53 +14,29 @@ public class McDonaldKreitman extends SiteEstMulti {
 		super(m, a);
 	}
 
+	public McDonaldKreitman(PackedAlignment m, int[] a) {
+		super(m, a);
+	}
+
 
 	
 	// original implementation method
 	public double[][] createContingency() {
 		double[][] contingencytable = new double[2][2];
-		for (int site = 0, codon = 0; site < integer_matrix[0].length - 2; site = site + 3, codon++) {
-			// counts number of bases that are the same as the ancestral base
-			double[][] identity = find_identityMK(site, codon);
+		for (int site = 0, codon = 0; site < numSites() - 2; site = site + 3, codon++) {
 			// if site is not bad, and derived
-			// position 1
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) {
-				SiteInfo Info1 = SiteInformation(site);
-				if(Info1.Case==1){ // invariant
-					// do nothing as site has no information
-				}
-				else if(Info1.Case==2){// fixed // if nucleotide is fixed
-					contingencytable[0][0] += identity[0][0] ;
-					contingencytable[1][0] += identity[0][1] ;
-				} else { // is polymorphic
-					contingencytable[0][1] += identity[0][0] ;
-					contingencytable[1][1] += identity[0][1] ;
-					
-				}
-			// position 2
-				SiteInfo Info2 = SiteInformation(site+1);
-				if(Info2.Case==1){ // invariant
-					// do nothing as site has no information
-				}
-				else if(Info2.Case==2){// fixed // if nucleotide is fixed
-					contingencytable[0][0] += identity[1][0] ;
-					contingencytable[1][0] += identity[1][1] ;
-				} else { // is polymorphic
-					contingencytable[0][1] += identity[1][0] ;
-					contingencytable[1][1] += identity[1][1] ;					
-				}
-			// position 3
-				SiteInfo Info3 = SiteInformation(site+2);
-				if(Info3.Case==1){ // invariant
-					// do nothing as site has no information
-				}
-				else if(Info3.Case==2){// fixed // if nucleotide is fixed
-					contingencytable[0][0] += identity[2][0] ;
-					contingencytable[1][0] += identity[2][1] ;
-				} else { // is polymorphic
-					contingencytable[0][1] += identity[2][0] ;
-					contingencytable[1][1] += identity[2][1] ;
-					
+				// counts number of bases that are the same as the ancestral base
+				double[][] identity = find_identityMK(site, codon);
+				for (int p = 0; p < 3; p++) {
+					int Case = SiteInformation(site+p).Case;
+					if (Case == 1) { // invariant
+						// do nothing as site has no information
+					} else if (Case == 2) { // fixed // if nucleotide is fixed
+						add(contingencytable, identity[p], 1.0, 0.0);
+					} else { // is polymorphic
+						add(contingencytable, identity[p], 0.0, 1.0);
+					}
 				}
 			}
 		}
@@ -71,119 +47,39 @@ public class McDonaldKreitman extends SiteEstMulti {
 	public double[][] createContingencyNew() {
 		double[][] contingencytable = new double[2][2];
 
-		for (int site = 0, codon = 0; site < integer_matrix[0].length - 2; site = site + 3, codon++) {
-			double[][] identity = find_identityMK(site, codon);
-			// position
-				if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) {
-					SiteInfo Info1 = SiteInformation(site);
-					if(Info1.Case==1){ // invariant
-						// do nothing as site has no information
-					}
-					if(Info1.Case==2){// fixed
-						contingencytable[0][0] += 1.0*identity[0][0] ;
-						contingencytable[1][0] += 1.0*identity[0][1] ;
-					}
-					if(Info1.Case==3){// 1 state derived and ans
-						contingencytable[0][1] += 1.0*identity[0][0] ;
-						contingencytable[1][1] += 1.0*identity[0][1] ;
-					}
-					if(Info1.Case==4){// 2 state derived no ans
-						contingencytable[0][0] += 0.5*identity[0][0] ;
-						contingencytable[1][0] += 0.5*identity[0][1] ;
-						contingencytable[0][1] += 0.5*identity[0][0] ;
-						contingencytable[1][1] += 0.5*identity[0][1] ;
-					}
-					if(Info1.Case==5){// 2 state derived and ans
-						contingencytable[0][1] += 1.0*identity[0][0] ;
-						contingencytable[1][1] += 1.0*identity[0][1] ;		
-					}
-					if(Info1.Case==6){// 3 state derived no ans
-						contingencytable[0][0] += (1.0/3.0)*identity[0][0] ;
-						contingencytable[1][0] += (1.0/3.0)*identity[0][1] ;
-						contingencytable[0][1] += (2.0/3.0)*identity[0][0] ;
-						contingencytable[1][1] += (2.0/3.0)*identity[0][1] ;
-
-					}
-					if(Info1.Case==7){// 3 state derived and ans
-						contingencytable[0][1] += 1.0*identity[0][0] ;
-						contingencytable[1][1] += 1.0*identity[0][1] ;	
-
-					}
-				
-				
-				// position 2
-					SiteInfo Info2 = SiteInformation(site+1);
-					if(Info2.Case==1){ // invariant
-						// do nothing as site has no information
-					}
-					if(Info2.Case==2){// fixed
-						contingencytable[0][0] += 1.0*identity[1][0] ;
-						contingencytable[1][0] += 1.0*identity[1][1] ;
-					}
-					if(Info2.Case==3){// 1 state derived and ans
-						contingencytable[0][1] += 1.0*identity[1][0] ;
-						contingencytable[1][1] += 1.0*identity[1][1] ;
-					}
-					if(Info2.Case==4){// 2 state derived no ans
-						contingencytable[0][0] += 0.5*identity[1][0] ;
-						contingencytable[1][0] += 0.5*identity[1][1] ;
-						contingencytable[0][1] += 0.5*identity[1][0] ;
-						contingencytable[1][1] += 0.5*identity[1][1] ;
-					}
-					if(Info2.Case==5){// 2 state derived and ans
-						contingencytable[0][1] += 1.0*identity[1][0] ;
-						contingencytable[1][1] += 1.0*identity[1][1] ;		
-					}
-					if(Info2.Case==6){// 3 state derived no ans
-						contingencytable[0][0] += (1.0/3.0)*identity[1][0] ;
-						contingencytable[1][0] += (1.0/3.0)*identity[1][1] ;
-						contingencytable[0][1] += (2.0/3.0)*identity[1][0] ;
-						contingencytable[1][1] += (2.0/3.0)*identity[1][1] ;
-
-					}
-					if(Info2.Case==7){// 3 state derived and ans
-						contingencytable[0][1] += 1.0*identity[1][0] ;
-						contingencytable[1][1] += 1.0*identity[1][1] ;	
-					}
-				
-				
-				// position 3
-					SiteInfo Info3 = SiteInformation(site+2);
-					if(Info3.Case==1){ // invariant
-						// do nothing as site has no information
-					}
-					if(Info3.Case==2){// fixed
-						contingencytable[0][0] += 1.0*identity[2][0] ;
-						contingencytable[1][0] += 1.0*identity[2][1] ;
-					}
-					if(Info3.Case==3){// 1 state derived and ans
-						contingencytable[0][1] += 1.0*identity[2][0] ;
-						contingencytable[1][1] += 1.0*identity[2][1] ;
-					}
-					if(Info3.Case==4){// 2 state derived no ans
-						contingencytable[0][0] += 0.5*identity[2][0] ;
-						contingencytable[1][0] += 0.5*identity[2][1] ;
-						contingencytable[0][1] += 0.5*identity[2][0] ;
-						contingencytable[1][1] += 0.5*identity[2][1] ;
-					}
-					if(Info3.Case==5){// 2 state derived and ans
-						contingencytable[0][1] += 1.0*identity[2][0] ;
-						contingencytable[1][1] += 1.0*identity[2][1] ;		
-					}
-					if(Info3.Case==6){// 3 state derived no ans
-						contingencytable[0][0] += (1.0/3.0)*identity[2][0] ;
-						contingencytable[1][0] += (1.0/3.0)*identity[2][1] ;
-						contingencytable[0][1] += (2.0/3.0)*identity[2][0] ;
-						contingencytable[1][1] += (2.0/3.0)*identity[2][1] ;
-					}
-					if(Info3.Case==7){// 3 state derived and ans
-					contingencytable[0][1] += 1.0*identity[2][0] ;
-					contingencytable[1][1] += 1.0*identity[2][1] ;	
-
+		for (int site = 0, codon = 0; site < numSites() - 2; site = site + 3, codon++) {
+			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) {
+				double[][] identity = find_identityMK(site, codon);
+				for (int p = 0; p < 3; p++) {
+					switch (SiteInformation(site+p).Case) {
+						case 2: // fixed
+							add(contingencytable, identity[p], 1.0, 0.0);
+							break;
+						case 3: // 1 state derived and ans
+						case 5: // 2 state derived and ans
+						case 7: // 3 state derived and ans
+							add(contingencytable, identity[p], 0.0, 1.0);
+							break;
+						case 4: // 2 state derived no ans
+							add(contingencytable, identity[p], 0.5, 0.5);
+							break;
+						case 6: // 3 state derived no ans
+							add(contingencytable, identity[p], 1.0/3.0, 2.0/3.0);
+							break;
+						default: // invariant, site has no information
 					}
 				}
 			}
-			return contingencytable;
+		}
+		return contingencytable;
+	}
+
+	// adds the silent/replacement identity of one position, weighted into the fixed and polymorphic columns
+	private static void add(double[][] contingencytable, double[] identity, double fixed, double polymorphic) {
+		contingencytable[0][0] += fixed*identity[0];
+		contingencytable[1][0] += fixed*identity[1];
+		contingencytable[0][1] += polymorphic*identity[0];
+		contingencytable[1][1] += polymorphic*identity[1];
 	}
 
 	public String[] labels() {
@@ -233,34 +129,7 @@ public class McDonaldKreitman extends SiteEstMulti {
 		values[10]= ContingencyTables.symmetricalUncertainty(matrix);
 		values[11]= ContingencyTables.tauVal(matrix); */
 
-/*
-		for (int site = 0, codon = 0; site < integer_matrix[0].length - 2; site = site + 3, codon++) {
-			int[] whichbases = new int[4];
-			for(int i=0; i< integer_matrix.length; i++){
-
-				if(integer_matrix[i][site] == 1){
-					whichbases[0] = 1;
-				} else if(integer_matrix[i][site] == 2){
-					whichbases[1] = 1;
-				} else if(integer_matrix[i][site] == 3){
-					whichbases[2] = 1;
-				} else if(integer_matrix[i][site] == 4){
-					whichbases[3] = 1;
-				}
-			}
-			int total = whichbases[0] + whichbases[1] + whichbases[2] + whichbases[3]; 
-
-			if(total==1){
-				values[0]++;
-			} if(total==2){
-				values[1]++;
-			} if(total==3){
-				values[2]++;
-			}if(total==4){
-				values[3]++;
-			}
 
-		} */
 
 		return values;
 	}
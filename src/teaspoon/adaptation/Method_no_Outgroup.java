@@ -145,6 +145,14 @@ public class Method_no_Outgroup {
 		}
 		return bad;
 	}
+//	the same list from the column counts: a site is bad if any sequence has a gap or invalid character
+	public boolean[] bad_sites_list(CompressedAlignment compressed){
+		boolean[] bad = new boolean[compressed.numSites()];
+		for(int i=0;i<bad.length;i++){
+			bad[i] = compressed.count(i, 5) > 0;
+		}
+		return bad;
+	}
 //  number of bad sites
 	public int number_of_bad_sites(boolean[] bad_sites_list){
 		int count=0;
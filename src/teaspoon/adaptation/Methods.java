@@ -85,6 +85,21 @@ public class Methods {
 		return whichbases;
 	}
 
+	//	overloaded for compressed alignments, counts come from the codon histograms
+	public double num_of_base(CompressedAlignment matrix, int base, int site){
+		return matrix.count(site, base);
+	}
+
+	public int[] which_bases(CompressedAlignment matrix, int site){
+		int[] whichbases = new int[4];
+		for (int k=0; k< whichbases.length; k++){
+			if(matrix.count(site, k+1) > 0){
+				whichbases[k] = 1;
+			}
+		}
+		return whichbases;
+	}
+
 	public int[] consensusArray(int[][] integer_matrix){
 		Methods preprocess = new Methods();
 		int[] consensus = new int[integer_matrix[0].length];
@@ -353,6 +368,15 @@ public class Methods {
 		return badlist;
 	}
 
+	public boolean[] InvalidSites(CompressedAlignment matrix, int[] integer_array){
+		boolean[] badlist = new boolean[matrix.numSites()];
+		for (int i = 0; i< matrix.numSites(); i++){
+			// flag any sites with gaps or invalid characters in the alignment or the ancestor
+			badlist[i] = matrix.count(i, 5) > 0 || integer_array[i] > 4;
+		}
+		return badlist;
+	}
+
 
 	//	boolean array showing if a site is bad or not	
 	public boolean[] bad_sites_list(int[][] good_integer, int[] good_ancestral){
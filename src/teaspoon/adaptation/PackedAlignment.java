@@ -0,0 +1,186 @@
+package teaspoon.adaptation;
+
+import java.util.Arrays;
+
+/**
+ * Column-major alignment with each state (A=1,C=2,G=3,T=4,gap/N=5) packed into 4 bits,
+ * sixteen sequences to a long. A column is a contiguous run of words, so per-base column
+ * counts are a few xor/popcount operations per sixteen sequences instead of one int load
+ * (and usually one cache miss) per sequence, and the alignment takes 1/8 of an int[][].
+ *
+ * FastaReader.toPacked builds one straight from the file bytes (Read_main.readPacked). The estimators
+ * (BhattMethod, SiteEstMulti and its subclasses, DiversityStats) keep only this and the
+ * CompressedAlignment built from it; their int[][] constructors pack the matrix and do not hold on to
+ * it, so the caller can drop it.
+ */
+public class PackedAlignment {
+
+	private static final int STATES_PER_WORD = 16;
+	private static final long LOW_BITS = 0x1111111111111111L;
+
+	private final int numSequences;
+	private final int numSites;
+	private final int wordsPerColumn;
+	private final int padding;		// unused (zero) states at the end of every column
+	private final long[] words;
+
+	public PackedAlignment(int numSequences, int numSites) {
+		this.numSequences = numSequences;
+		this.numSites = numSites;
+		this.wordsPerColumn = (numSequences + STATES_PER_WORD - 1) / STATES_PER_WORD;
+		this.padding = wordsPerColumn * STATES_PER_WORD - numSequences;
+		this.words = new long[wordsPerColumn * numSites];
+	}
+
+	// packs a row-major integer matrix as produced by Read_main
+	public PackedAlignment(int[][] integer_matrix) {
+		this(integer_matrix, 0, integer_matrix.length == 0 ? 0 : integer_matrix[0].length);
+	}
+
+	// packs columns start .. end-1 of a row-major integer matrix, sites are numbered from 0 at start
+	public PackedAlignment(int[][] integer_matrix, int start, int end) {
+		this(integer_matrix.length, end - start);
+		for (int i = 0; i < numSequences; i++) {
+			int[] row = integer_matrix[i];
+			int word = i / STATES_PER_WORD;
+			int shift = (i % STATES_PER_WORD) * 4;
+			for (int site = 0; site < numSites; site++) {
+				words[site * wordsPerColumn + word] |= ((long) (row[start + site] & 0xF)) << shift;
+			}
+		}
+	}
+
+	public int numSequences() {
+		return numSequences;
+	}
+
+	public int numSites() {
+		return numSites;
+	}
+
+	public int get(int sequence, int site) {
+		long word = words[site * wordsPerColumn + sequence / STATES_PER_WORD];
+		return (int) (word >>> ((sequence % STATES_PER_WORD) * 4)) & 0xF;
+	}
+
+	// only used while an alignment is being built
+	void set(int sequence, int site, int state) {
+		int index = site * wordsPerColumn + sequence / STATES_PER_WORD;
+		int shift = (sequence % STATES_PER_WORD) * 4;
+		words[index] = (words[index] & ~(0xFL << shift)) | (((long) (state & 0xF)) << shift);
+	}
+
+	// only used while an alignment is being built, row holds one state per site as FastaReader decodes it
+	void setRow(int sequence, byte[] row) {
+		int word = sequence / STATES_PER_WORD;
+		int shift = (sequence % STATES_PER_WORD) * 4;
+		for (int site = 0; site < numSites; site++) {
+			words[site * wordsPerColumn + word] |= ((long) (row[site] & 0xF)) << shift;
+		}
+	}
+
+	// sequences (in the given order) over columns start .. end-1, sites are numbered from 0 at start
+	public PackedAlignment select(int[] sequences, int start, int end) {
+		PackedAlignment selected = new PackedAlignment(sequences.length, end - start);
+		for (int site = 0; site < selected.numSites; site++) {
+			int offset = (start + site) * wordsPerColumn;
+			int to = site * selected.wordsPerColumn;
+			for (int k = 0; k < sequences.length; k++) {
+				int i = sequences[k];
+				long state = (words[offset + i / STATES_PER_WORD] >>> ((i % STATES_PER_WORD) * 4)) & 0xF;
+				selected.words[to + k / STATES_PER_WORD] |= state << ((k % STATES_PER_WORD) * 4);
+			}
+		}
+		return selected;
+	}
+
+	// adds to counts[i] the number of sites in start .. end-1 where sequence i has the given state
+	public void countRows(int start, int end, int base, int[] counts) {
+		long pattern = LOW_BITS * (base & 0xF);
+		for (int site = start; site < end; site++) {
+			int offset = site * wordsPerColumn;
+			for (int w = 0; w < wordsPerColumn; w++) {
+				long x = words[offset + w] ^ pattern;
+				x |= x >>> 1;
+				x |= x >>> 2;
+				// one low bit per matching nibble, padding nibbles are skipped by the bound below
+				long matches = ~x & LOW_BITS;
+				while (matches != 0) {
+					int i = w * STATES_PER_WORD + (Long.numberOfTrailingZeros(matches) >>> 2);
+					if (i < numSequences) {
+						counts[i]++;
+					}
+					matches &= matches - 1;
+				}
+			}
+		}
+	}
+
+	// number of sequences with the given state at a site
+	public int count(int site, int base) {
+		long pattern = LOW_BITS * (base & 0xF);
+		int offset = site * wordsPerColumn;
+		int matches = 0;
+		for (int w = 0; w < wordsPerColumn; w++) {
+			// a nibble is zero exactly where the state equals base, fold each nibble into its low bit
+			long x = words[offset + w] ^ pattern;
+			x |= x >>> 1;
+			x |= x >>> 2;
+			matches += STATES_PER_WORD - Long.bitCount(x & LOW_BITS);
+		}
+		if (base == 0) {
+			matches -= padding;
+		}
+		return matches;
+	}
+
+	// histogram of the codons starting at a site, indexed 36*s1 + 6*s2 + s3 over states 0-5. Sites past
+	// the end of the alignment (a trailing partial codon) are state 0.
+	public int[] codonCounts(int site, int[] histogram) {
+		Arrays.fill(histogram, 0);
+		int o1 = site * wordsPerColumn;
+		int o2 = site + 1 < numSites ? o1 + wordsPerColumn : -1;
+		int o3 = site + 2 < numSites ? o1 + 2 * wordsPerColumn : -1;
+		for (int w = 0; w < wordsPerColumn; w++) {
+			long x = words[o1 + w];
+			long y = o2 < 0 ? 0L : words[o2 + w];
+			long z = o3 < 0 ? 0L : words[o3 + w];
+			for (int k = 0; k < STATES_PER_WORD; k++) {
+				histogram[36 * ((int) x & 0xF) + 6 * ((int) y & 0xF) + ((int) z & 0xF)]++;
+				x >>>= 4;
+				y >>>= 4;
+				z >>>= 4;
+			}
+		}
+		histogram[0] -= padding;
+		return histogram;
+	}
+
+	public int[] row(int sequence, int[] out) {
+		for (int site = 0; site < numSites; site++) {
+			out[site] = get(sequence, site);
+		}
+		return out;
+	}
+
+	// unpacks sequences first .. first+out.length-1 in one pass over the columns
+	public int[][] rows(int first, int[][] out) {
+		for (int site = 0; site < numSites; site++) {
+			int offset = site * wordsPerColumn;
+			for (int k = 0; k < out.length; k++) {
+				int i = first + k;
+				out[k][site] = (int) (words[offset + i / STATES_PER_WORD] >>> ((i % STATES_PER_WORD) * 4)) & 0xF;
+			}
+		}
+		return out;
+	}
+
+	public int[][] toIntMatrix() {
+		int[][] matrix = new int[numSequences][numSites];
+		for (int first = 0; first < numSequences; first += STATES_PER_WORD) {
+			rows(first, Arrays.copyOfRange(matrix, first, Math.min(numSequences, first + STATES_PER_WORD)));
+		}
+		return matrix;
+	}
+
+}
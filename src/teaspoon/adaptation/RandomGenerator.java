@@ -4,10 +4,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 import cern.jet.random.Poisson;
 import cern.jet.random.Uniform;
-import cern.jet.random.engine.MersenneTwister;
 import cern.jet.random.engine.RandomEngine;
 
 /**
@@ -19,15 +19,21 @@ import cern.jet.random.engine.RandomEngine;
  */
 public class RandomGenerator {
 
-    public static java.util.Random random;
-    public static RandomEngine engine;
-    public static Uniform uniform;
+    public final java.util.Random random;
+    public final RandomEngine engine;
+    public final Uniform uniform;
 
 
+    // draws from this thread's default stream, see RandomStreams
     public RandomGenerator() {
 
-        random = new Random();
-        engine = new MersenneTwister((int)System.currentTimeMillis( ) % Integer.MAX_VALUE);
+        this(RandomStreams.current().split());
+    }
+
+    public RandomGenerator(SplittableRandom stream) {
+
+        random = new Random(stream.nextLong());
+        engine = new StreamEngine(stream);
         uniform = new Uniform(engine);
 
     }
@@ -67,10 +73,27 @@ public class RandomGenerator {
     public void shuffle(Object[] a) {
 
         List<Object> l = Arrays.asList(a);
-        Collections.shuffle(l);
+        Collections.shuffle(l, random);
         a = l.toArray();
 
     }
 
+    // colt engine over a SplittableRandom, so colt distributions draw from the same stream
+    private static class StreamEngine extends RandomEngine {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SplittableRandom stream;
+
+        StreamEngine(SplittableRandom stream) {
+            this.stream = stream;
+        }
+
+        public int nextInt() {
+            return stream.nextInt();
+        }
+
+    }
+
 
 }
@@ -0,0 +1,69 @@
+package teaspoon.adaptation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random streams for one run. Every stream is a SplittableRandom derived from the run seed and the
+ * coordinates of the task that uses it (bootstrap, dataset, timepoint...), so a run is reproducible
+ * from its seed alone whatever the number of threads. A stream belongs to one thread, use split()
+ * on it to hand independent streams to sub-tasks.
+ *
+ * Code that is not given a stream draws from current(), one stream per thread split from a default
+ * root, which replaces the static wall-clock seeded Random fields the samplers used to share.
+ */
+public class RandomStreams {
+
+    private static SplittableRandom root = new SplittableRandom(System.currentTimeMillis() ^ System.nanoTime());
+    private static final ThreadLocal<SplittableRandom> current = new ThreadLocal<SplittableRandom>() {
+        @Override
+        protected SplittableRandom initialValue() {
+            return splitRoot();
+        }
+    };
+
+    private final long seed;
+
+    public RandomStreams(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    // independent stream for the task at the given coordinates
+    public SplittableRandom stream(int... keys) {
+        return new SplittableRandom(streamSeed(seed, keys));
+    }
+
+    // mixes the coordinates into the run seed with the SplitMix64 finaliser
+    public static long streamSeed(long seed, int... keys) {
+        long z = seed;
+        for (int key : keys) {
+            z = mix(z + 0x9E3779B97F4A7C15L * (key + 1L));
+        }
+        return mix(z);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // this thread's default stream
+    public static SplittableRandom current() {
+        return current.get();
+    }
+
+    // reseeds the default streams, threads that already drew from theirs keep them
+    public static synchronized void setDefaultSeed(long seed) {
+        root = new SplittableRandom(seed);
+        current.remove();
+    }
+
+    private static synchronized SplittableRandom splitRoot() {
+        return root.split();
+    }
+
+}
@@ -2,10 +2,8 @@ package teaspoon.adaptation;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -78,70 +76,59 @@ public class Read_main {
 
     }
 
+    // one row per record, the lines of a wrapped record are joined (each line used to be read as a row of its own)
     public int[][] readFASTA(){
 
-        ArrayList<String> data = new ArrayList<String>();
-
-        try {
-
-            BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(input)));
-            String line;
-            while((line = br.readLine()) != null)
-
-                if(line.length() != 0){
-                    data.add(line);
-                }
-
-            br.close();
-        }
-        catch (IOException e) {
-            System.err.println("Caught IOException: " +  e.getMessage());
-            System.out.println(input);
+        byte[][] states = readStates();
+        if(states == null || states.length == 0) {
+            return null;
         }
 
-        ArrayList<String> sequence = new ArrayList<String>();
+        sequenceMatrix = FastaReader.toIntMatrix(states);
 
-        String line = "";
-        for(int i=0;i<data.size();i++){
-            line = data.get(i);
-            char[] name = line.toString().toCharArray();
+        return sequenceMatrix;
+    }
 
+    // the alignment as the estimators read it, never widened to an int[][]; sequenceMatrix is not set,
+    // so subMatrix(start, end) is not available on this reader
+    public PackedAlignment readPacked(){
 
-            if(!new Character(name[0]).equals('>')){
+        byte[][] states = readStates();
+        if(states == null || states.length == 0) {
+            return null;
+        }
 
-                sequence.add(line);
-            }
-            else{
-                //System.out.println(line);
-                if(getSampleTimes) {
-                    String [] parts = line.split("_");
-                    double date = Double.parseDouble(parts[parts.length - 1]);
-                    sampleTimes.add(date);
-                    String seqname = line.replace(">", "");
-                    sampleNames.add(seqname);
-                    Taxon t = Taxon.getTaxon(seqname);
-                    t.setAttribute("time",date);
+        return FastaReader.toPacked(states);
+    }
 
-                }
-            }
+    // streamed straight into a byte per site, see FastaReader; sample times are taken from the headers
+    private byte[][] readStates(){
 
+        FastaReader reader = new FastaReader(input);
+        reader.setKeepHeaders(getSampleTimes);
+        byte[][] states;
+        try {
+            states = reader.read();
         }
-        //sequence.add(line);
-        //System.out.println(sequence.get(0).toString().length());
-        if(sequence.size() == 0) {
+        catch (IOException e) {
+            System.err.println("Caught IOException: " +  e.getMessage());
+            System.out.println(input);
             return null;
         }
-        char[][] matrix = new char[sequence.size()][sequence.get(0).toString().length()];
 
-
-        //I could limit this so the sequences are read from non-zero start to elsewhere// helpful for whole genome mainAnalysis
-        for(int i=0; i< sequence.size();i++){
-            matrix[i] = sequence.get(i).toString().toCharArray();
+        if(getSampleTimes) {
+            for(String header : reader.headers()) {
+                // every '>' is dropped from the name, not just the leading one
+                String seqname = header.replace(">", "");
+                String [] parts = header.split("_");
+                double date = Double.parseDouble(parts[parts.length - 1]);
+                sampleTimes.add(date);
+                sampleNames.add(seqname);
+                Taxon t = Taxon.getTaxon(seqname);
+                t.setAttribute("time",date);
+            }
         }
-
-        sequenceMatrix = convert2int(matrix);
-
-        return sequenceMatrix;
+        return states;
     }
 
     public ArrayList readfile()  {
@@ -0,0 +1,104 @@
+package teaspoon.adaptation;
+
+import java.util.Arrays;
+
+/**
+ * Sums of per-codon statistics over a window sliding along an alignment. Moving the window adds the
+ * codons that enter it and subtracts those that leave, so a scan with a step of a few codons costs about
+ * one pass over the codons whatever the window width. Only a jump past the current window starts the sums
+ * again.
+ *
+ * A plain running sum leaves rounding residue behind once large values have left the window, and a window
+ * whose codons are all zero for a statistic would come out around 1e-13 rather than 0, turning a 0/0 that a
+ * fresh sum reports as NaN into a made-up finite ratio. So the number of non-zero values in the window is
+ * kept for every statistic and the sum is exactly 0 when there are none; otherwise the sum is compensated
+ * (Neumaier), which keeps it to within rounding of a fresh sum, and what is left below TOLERANCE times the
+ * largest value of the statistic is taken to be 0 as well.
+ */
+public class RollingWindow {
+
+	// relative to the largest value of a statistic; compensated residue is many orders of magnitude smaller
+	static final double TOLERANCE = 1e-20;
+
+	private final double[][] values;	// values[codon][statistic]
+	private final double[] sums;
+	private final double[] high;		// running sum and its compensation
+	private final double[] low;
+	private final int[] nonZero;		// codons in the window with a non-zero value
+	private final double[] tolerance;
+	private int from;
+	private int to;
+
+	public RollingWindow(double[][] values) {
+		this.values = values;
+		int statistics = values.length == 0 ? 0 : values[0].length;
+		this.sums = new double[statistics];
+		this.high = new double[statistics];
+		this.low = new double[statistics];
+		this.nonZero = new int[statistics];
+		this.tolerance = new double[statistics];
+		for (double[] v : values) {
+			for (int k = 0; k < statistics; k++) {
+				tolerance[k] = Math.max(tolerance[k], Math.abs(v[k]));
+			}
+		}
+		for (int k = 0; k < statistics; k++) {
+			tolerance[k] *= TOLERANCE;
+		}
+	}
+
+	// first codon of every window of width codons, one every step codons, that fits in numCodons
+	public static int[] starts(int numCodons, int width, int step) {
+		if (width < 1 || step < 1) {
+			throw new IllegalArgumentException("window width and step must be at least one codon");
+		}
+		int number = numCodons < width ? 0 : (numCodons - width) / step + 1;
+		int[] starts = new int[number];
+		for (int w = 0; w < number; w++) {
+			starts[w] = w * step;
+		}
+		return starts;
+	}
+
+	// moves the window to codons from .. to-1, the returned sums are reused by the next move
+	public double[] moveTo(int from, int to) {
+		if (from >= this.to || to <= this.from) {
+			Arrays.fill(high, 0.0);
+			Arrays.fill(low, 0.0);
+			Arrays.fill(nonZero, 0);
+			add(from, to, 1);
+		} else {
+			add(this.from, from, -1);	// only one of each pair is a non-empty range
+			add(from, this.from, 1);
+			add(to, this.to, -1);
+			add(this.to, to, 1);
+		}
+		this.from = from;
+		this.to = to;
+		for (int k = 0; k < sums.length; k++) {
+			double sum = high[k] + low[k];
+			sums[k] = nonZero[k] == 0 || Math.abs(sum) <= tolerance[k] ? 0.0 : sum;
+		}
+		return sums;
+	}
+
+	private void add(int start, int end, int sign) {
+		for (int codon = start; codon < end; codon++) {
+			double[] v = values[codon];
+			for (int k = 0; k < sums.length; k++) {
+				if (v[k] != 0) {
+					nonZero[k] += sign;
+					double x = sign * v[k];
+					double t = high[k] + x;
+					if (Math.abs(high[k]) >= Math.abs(x)) {
+						low[k] += (high[k] - t) + x;
+					} else {
+						low[k] += (x - t) + high[k];
+					}
+					high[k] = t;
+				}
+			}
+		}
+	}
+
+}
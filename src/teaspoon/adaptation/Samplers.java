@@ -1,20 +1,29 @@
 package teaspoon.adaptation;
 
-import java.util.Calendar;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class Samplers {
-  private static Random rng = new Random(
-      Calendar.getInstance().getTimeInMillis() +
-      Thread.currentThread().getId());
   double[] p;
+  SplittableRandom random;
+  private double spareNormal;		// second normal of the last polar pair
+  private boolean hasSpareNormal;
   
   public Samplers(double[] observations){
+	  this(observations, null);
+  }
+
+  // draws from the given stream, or from this thread's default stream if random is null
+  public Samplers(double[] observations, SplittableRandom random){
 	  this.p=observations;
+	  this.random = (random == null) ? RandomStreams.current() : random;
   }
   
   
   public static double sampleGamma(double k, double theta) {
+    return sampleGamma(k, theta, RandomStreams.current());
+  }
+
+  public static double sampleGamma(double k, double theta, SplittableRandom rng) {
     boolean accept = false;
     if (k < 1) {
  // Weibull algorithm
@@ -58,10 +67,10 @@ public class Samplers {
   public double[] Dirichlet(){
 	  double total = 0;
 	  double[] D = new double[4];
-	   D[0] = sampleGamma(p[0],1);total+=D[0];
-	   D[1] = sampleGamma(p[1],1);total+=D[1];
-	   D[2] = sampleGamma(p[2],1);total+=D[2];
-	   D[3] = sampleGamma(p[3],1);total+=D[3];
+	   D[0] = sampleGamma(p[0],1,random);total+=D[0];
+	   D[1] = sampleGamma(p[1],1,random);total+=D[1];
+	   D[2] = sampleGamma(p[2],1,random);total+=D[2];
+	   D[3] = sampleGamma(p[3],1,random);total+=D[3];
 	   
 	   D[0]=D[0]/total;
 	   D[1]=D[1]/total;
@@ -76,8 +85,8 @@ public class Samplers {
      double total = 0;
      double[] D = new double[2];
 
-     D[0] = sampleGamma(p[0],1);total+=D[0];
-     D[1] = sampleGamma(p[1],1);total+=D[1];
+     D[0] = sampleGamma(p[0],1,random);total+=D[0];
+     D[1] = sampleGamma(p[1],1,random);total+=D[1];
 
      D[0] = D[0]/total;
      D[1] = D[1]/total;
@@ -85,4 +94,89 @@ public class Samplers {
      return D[0];
 
  }
-}
\ No newline at end of file
+
+  // ---- batch samplers: Marsaglia & Tsang (2000) squeeze method, nothing is allocated per draw ----
+
+  // Beta(p[0],p[1]) draws into every element of out, as Beta() but without allocating
+  public void fillBeta(double[] out) {
+    double a = p[0], b = p[1];
+    double da = gammaD(a), ca = 1.0 / Math.sqrt(9.0 * da), ia = 1.0 / a;
+    double db = gammaD(b), cb = 1.0 / Math.sqrt(9.0 * db), ib = 1.0 / b;
+    for (int i = 0; i < out.length; i++) {
+      double x = nextGamma(a, da, ca, ia);
+      double y = nextGamma(b, db, cb, ib);
+      out[i] = x / (x + y);
+    }
+  }
+
+  // Dirichlet(p) draws into every row of out, as Dirichlet(); rows are at least p.length long
+  public void fillDirichlet(double[][] out) {
+    int k = p.length;
+    double[] d = new double[k];
+    double[] c = new double[k];
+    double[] inv = new double[k];
+    for (int j = 0; j < k; j++) {
+      d[j] = gammaD(p[j]);
+      c[j] = 1.0 / Math.sqrt(9.0 * d[j]);
+      inv[j] = 1.0 / p[j];
+    }
+    for (int i = 0; i < out.length; i++) {
+      double[] row = out[i];
+      double total = 0;
+      for (int j = 0; j < k; j++) {
+        row[j] = nextGamma(p[j], d[j], c[j], inv[j]);
+        total += row[j];
+      }
+      for (int j = 0; j < k; j++) {
+        row[j] = row[j] / total;
+      }
+    }
+  }
+
+  // shapes below one are drawn as Gamma(k+1) * U^(1/k)
+  private static double gammaD(double k) {
+    return (k < 1 ? k + 1 : k) - 1.0 / 3.0;
+  }
+
+  private double nextGamma(double k, double d, double c, double inv) {
+    double x, v, u;
+    while (true) {
+      do {
+        x = nextNormal();
+        v = 1.0 + c * x;
+      } while (v <= 0);
+      v = v * v * v;
+      u = random.nextDouble();
+      double x2 = x * x;
+      if (u < 1.0 - 0.0331 * x2 * x2) {
+        break;	// squeeze, avoids both logs most of the time
+      }
+      if (Math.log(u) < 0.5 * x2 + d * (1.0 - v + Math.log(v))) {
+        break;
+      }
+    }
+    double g = d * v;
+    if (k < 1) {
+      g *= Math.pow(random.nextDouble(), inv);
+    }
+    return g;
+  }
+
+  // standard normal by the Marsaglia polar method, the second value of each pair is kept for the next call
+  private double nextNormal() {
+    if (hasSpareNormal) {
+      hasSpareNormal = false;
+      return spareNormal;
+    }
+    double u, v, s;
+    do {
+      u = 2.0 * random.nextDouble() - 1.0;
+      v = 2.0 * random.nextDouble() - 1.0;
+      s = u * u + v * v;
+    } while (s >= 1.0 || s == 0.0);
+    double m = Math.sqrt(-2.0 * Math.log(s) / s);
+    spareNormal = v * m;
+    hasSpareNormal = true;
+    return u * m;
+  }
+}
@@ -1,26 +1,27 @@
 package teaspoon.adaptation;
 
-import java.util.Calendar;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import cc.mallet.types.Dirichlet;
 
-public class SiteEstMulti  {
-
-	private static Random rng = new Random(Calendar.getInstance().getTimeInMillis() + Thread.currentThread().getId());
+public class SiteEstMulti implements CodonPathways.Pathway {
 
 	double N = 5.0; //set number of replicates
 	Double number_bins;
 	boolean[] WhichBins;
 	double[][] bins;
 	int NumSample;
-	public final  int[][] integer_matrix;
+	public final PackedAlignment packed;	// the alignment, column-major; per-sequence access goes through column(site)
 	public final int[] integer_ancestral;
+	public final CompressedAlignment compressed;	// codon histograms, all column counts come from here
+	public final int[] codons;	// for a bootstrap view, the resampled codons of packed; null otherwise
 
 	public  int[] codon_ancestral;
-	public  int[][] codon_matrix;
+	public  int[][] codon_matrix;	// built on first use, see codonMatrix()
 	public  boolean[] bad_sites_list;
 	Methods preprocess = new Methods();
+	SplittableRandom random;	// sampling stream, null uses the thread's default stream
+	private static CodonPathways pathwayTable;	// NGpathway for every codon pair, the genetic code is fixed
 
 
 	public final String[] AA =	{"K","N","K","N","T","T","T","T","R","S","R","S","I","I","M","I","Q","H","Q","H","P","P","P","P",
@@ -46,29 +47,95 @@ public class SiteEstMulti  {
 		throw new RuntimeException("please input the raw intger matrix and the ancestral matrix");
 	}
 	public SiteEstMulti(int[][] m, int[] a){
+		this(new PackedAlignment(m), a);
+	}
+
+	public SiteEstMulti(PackedAlignment m, int[] a){
 		// creates good matricies which contain no gaps or sequencing errors
 		Methods creatematrix = new Methods();
-		this.integer_matrix = m;
+		this.packed = m;
 		this.integer_ancestral = a;
 		this.codon_ancestral = creatematrix.make_codon(a);
-		this.codon_matrix = creatematrix.make_codon(m);
 		//	integer_matrix = creatematrix.get_object(m, a, "base");
 		//	integer_ancestral = creatematrix.get_ancestral_object(m,a,"base");
 		//	codon_ancestral = creatematrix.get_ancestral_object(m, a, "codon");	
-		bad_sites_list = creatematrix.InvalidSites(integer_matrix, integer_ancestral);	
-		NumSample = integer_matrix.length;
+		this.compressed = new CompressedAlignment(m);
+		this.codons = null;
+		bad_sites_list = creatematrix.InvalidSites(compressed, integer_ancestral);	
+		NumSample = packed.numSequences();
 		//		System.out.println("MCMC samples: "+N);
 	}
 
 	public SiteEstMulti(int[][] m, int[] a, boolean[] badsites){
+		this(new PackedAlignment(m), a, badsites);
+	}
+
+	public SiteEstMulti(PackedAlignment m, int[] a, boolean[] badsites){
 		// creates good matricies which contain no gaps or sequencing errors
 		Methods creatematrix = new Methods();
-		this.integer_matrix = m;
+		this.packed = m;
 		this.integer_ancestral = a;
 		this.codon_ancestral = creatematrix.make_codon(a);
-		this.codon_matrix = creatematrix.make_codon(m);
+		this.compressed = new CompressedAlignment(m);
+		this.codons = null;
 		this.bad_sites_list = badsites;
-		NumSample = integer_matrix.length;
+		NumSample = packed.numSequences();
+	}
+
+	// bootstrap replicate made of the given codons of the original alignment, nothing per sequence is copied.
+	// packed stays the original one, per-sequence access goes through column(site)
+	public SiteEstMulti(SiteEstMulti original, int[] sampler){
+		this.packed = original.packed;
+		this.compressed = original.compressed;
+		this.codons = new int[sampler.length];
+		this.codon_ancestral = new int[sampler.length];
+		this.integer_ancestral = new int[3*sampler.length];
+		this.bad_sites_list = new boolean[3*sampler.length];
+		for(int k=0;k<sampler.length;k++){
+			codons[k] = original.codons == null ? sampler[k] : original.codons[sampler[k]];
+			codon_ancestral[k] = original.codon_ancestral[sampler[k]];
+			for(int p=0;p<3;p++){
+				integer_ancestral[3*k+p] = original.integer_ancestral[3*sampler[k]+p];
+				bad_sites_list[3*k+p] = original.bad_sites_list[3*sampler[k]+p];
+			}
+		}
+		NumSample = packed.numSequences();
+	}
+
+	// column of packed behind a site of this alignment
+	public int column(int site){
+		return codons == null ? site : 3*codons[site/3] + site%3;
+	}
+
+	public int numSites(){
+		return codons == null ? packed.numSites() : 3*codons.length;
+	}
+
+	public void setRandom(SplittableRandom random){
+		this.random = random;
+	}
+
+	// NGpathway tabulated over all codon pairs, built on first use
+	CodonPathways pathwayTable(){
+		synchronized(SiteEstMulti.class){
+			if(pathwayTable == null){
+				pathwayTable = new CodonPathways(this);
+			}
+			return pathwayTable;
+		}
+	}
+
+	// histogram of the observed codons starting at a site
+	int[] codonCounts(int site){
+		return compressed.codonCounts(column(site)/3, new int[CodonPathways.HISTOGRAM]);
+	}
+
+	// codon numbers of every sequence (packed columns), no estimator needs them so they are made on request
+	public int[][] codonMatrix(){
+		if(codon_matrix == null){
+			codon_matrix = new Methods().make_codon(packed.toIntMatrix());
+		}
+		return codon_matrix;
 	}
 
 
@@ -107,8 +174,8 @@ public class SiteEstMulti  {
 		}
 		for(int i=0;i<numbase;i++){
 			data[i].base=i+1;
-			data[i].rawNObs = preprocess.num_of_base(integer_matrix, i+1, site);
-			data[i].NObs = data[i].rawNObs / (double) integer_matrix.length;
+			data[i].rawNObs = preprocess.num_of_base(compressed, i+1, column(site));
+			data[i].NObs = data[i].rawNObs / (double) packed.numSequences();
 			data[integer_ancestral[site]-1].inans=true;	
 			//tests if base is ansestral
 		}
@@ -161,7 +228,7 @@ public class SiteEstMulti  {
 		double TotalNumBases=0.0;
 		for(int i=0;i<numbase;i++){
 			data[i].base=i+1;
-			data[i].rawNObs = preprocess.num_of_base(integer_matrix, i+1, site);
+			data[i].rawNObs = preprocess.num_of_base(compressed, i+1, column(site));
 			TotalNumBases+=data[i].rawNObs;
 			data[integer_ancestral[site]-1].inans=true;	//tests if base is ansestral			
 		}
@@ -228,12 +295,14 @@ public class SiteEstMulti  {
 			observations[i] = Info.data[i].rawNObs+Info.data[i].Prior;	// add observations into an array to find Dirichlet(01+p....0k+p) where p is the prior
 		}
 //	Dirichlet D = new Dirichlet(observations);
-		Samplers S = new Samplers(observations);
+		Samplers S = new Samplers(observations, random);
+		double[][] draws = new double[(int) N][4];
+		S.fillDirichlet(draws);
 
 		double count = 0;
 		for(int i=0;i<(int) N;i++){
 	//		double[] point = D.nextDistribution();	
-			double[] point = S.Dirichlet();
+			double[] point = draws[i];
 			for(int x=0;x<numbase;x++){
 				if(Info.data[x].inans==false){
 					sampler[i]+=point[x];
@@ -301,7 +370,7 @@ public class SiteEstMulti  {
 
 	public double[] Degeneracy(){
 		double count1fold=0;double count2fold=0;double count3fold=0;
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				double z=0;
 				// pos 1 ********************************************************************
@@ -333,7 +402,7 @@ public class SiteEstMulti  {
 		// main NG method for all sites
 		double[][] possible = SRcodonInvariant();
 		double[] identity = new double[2];
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				SiteInfo Info = SiteInformation(site);
 				SiteInfo Info1 = SiteInformation(site+1);
@@ -342,41 +411,41 @@ public class SiteEstMulti  {
 				double rep=0;
 				// find SR for pos1 ********************************************
 
-				for(int i=0;i<integer_matrix.length;i++){
-					int tmp = getcodonnumber(integer_matrix[i][site],integer_matrix[i][site+1],integer_matrix[i][site+2]);
+				for(int i=0;i<packed.numSequences();i++){
+					int tmp = getcodonnumber(packed.get(i, column(site)),packed.get(i, column(site+1)),packed.get(i, column(site+2)));
 					if(Double.isNaN(possible[tmp][0])==false){// && Info.Case==1){
 						sil += possible[tmp][0];
 						rep += 1.0-possible[tmp][0];
 					}
 				}
-				identity[0] += sil/integer_matrix.length;
-				identity[1] += rep/integer_matrix.length;
+				identity[0] += sil/packed.numSequences();
+				identity[1] += rep/packed.numSequences();
 
 				sil=0;rep=0;
 				// find SR for pos2 ********************************************
 
-				for(int i=0;i<integer_matrix.length;i++){
-					int tmp = getcodonnumber(integer_matrix[i][site],integer_matrix[i][site+1],integer_matrix[i][site+2]);
+				for(int i=0;i<packed.numSequences();i++){
+					int tmp = getcodonnumber(packed.get(i, column(site)),packed.get(i, column(site+1)),packed.get(i, column(site+2)));
 					if(Double.isNaN(possible[tmp][1])==false){// && Info1.Case==1){
 						sil += possible[tmp][1];
 						rep += 1.0-possible[tmp][1];
 					}
 				}
-				identity[0] += sil/integer_matrix.length;
-				identity[1] += rep/integer_matrix.length;
+				identity[0] += sil/packed.numSequences();
+				identity[1] += rep/packed.numSequences();
 
 				sil=0;rep=0;
 				// find SR for pos3 ********************************************
 
-				for(int i=0;i<integer_matrix.length;i++){
-					int tmp = getcodonnumber(integer_matrix[i][site],integer_matrix[i][site+1],integer_matrix[i][site+2]);
+				for(int i=0;i<packed.numSequences();i++){
+					int tmp = getcodonnumber(packed.get(i, column(site)),packed.get(i, column(site+1)),packed.get(i, column(site+2)));
 					if(Double.isNaN(possible[tmp][2])==false){// && Info2.Case==1){
 						sil += possible[tmp][2];
 						rep += 1.0-possible[tmp][2];
 					}
 				}
-				identity[0] += sil/integer_matrix.length;
-				identity[1] += rep/integer_matrix.length;
+				identity[0] += sil/packed.numSequences();
+				identity[1] += rep/packed.numSequences();
 
 			}
 		}
@@ -387,7 +456,7 @@ public class SiteEstMulti  {
 	public double[] NGoriginal(){
 		// main NG method for all sites
 		double[] identity = new double[2];
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				SiteInfo Info = SiteInformation(site);
 				SiteInfo Info1 = SiteInformation(site+1);
@@ -397,8 +466,8 @@ public class SiteEstMulti  {
 				double rep=0;
 				// find SR for pos1 ********************************************
 				if(Info.Case>1){
-					for(int i=0;i<integer_matrix.length;i++){
-						int[] tmp ={integer_matrix[i][site],integer_matrix[i][site+1],integer_matrix[i][site+2]};
+					for(int i=0;i<packed.numSequences();i++){
+						int[] tmp ={packed.get(i, column(site)),packed.get(i, column(site+1)),packed.get(i, column(site+2))};
 						int[] tmpans ={integer_ancestral[site],integer_ancestral[site+1],integer_ancestral[site+2]};
 						double[] sr = NGpathway(tmp,tmpans);
 						if(sr[0]!=2){
@@ -412,8 +481,8 @@ public class SiteEstMulti  {
 				// find SR for pos2 ********************************************
 				sil=0;rep=0;
 				if(Info1.Case>1){
-					for(int i=0;i<integer_matrix.length;i++){
-						int[] tmp ={integer_matrix[i][site],integer_matrix[i][site+1],integer_matrix[i][site+2]};
+					for(int i=0;i<packed.numSequences();i++){
+						int[] tmp ={packed.get(i, column(site)),packed.get(i, column(site+1)),packed.get(i, column(site+2))};
 						int[] tmpans ={integer_ancestral[site],integer_ancestral[site+1],integer_ancestral[site+2]};
 						double[] sr = NGpathway(tmp,tmpans);
 						if(sr[1]!=2){
@@ -427,8 +496,8 @@ public class SiteEstMulti  {
 				// find SR for pos3 ********************************************
 				sil=0;rep=0;
 				if(Info2.Case>1){
-					for(int i=0;i<integer_matrix.length;i++){
-						int[] tmp ={integer_matrix[i][site],integer_matrix[i][site+1],integer_matrix[i][site+2]};
+					for(int i=0;i<packed.numSequences();i++){
+						int[] tmp ={packed.get(i, column(site)),packed.get(i, column(site+1)),packed.get(i, column(site+2))};
 						int[] tmpans ={integer_ancestral[site],integer_ancestral[site+1],integer_ancestral[site+2]};
 						double[] sr = NGpathway(tmp,tmpans);
 						if(sr[2]!=2){
@@ -451,42 +520,12 @@ public class SiteEstMulti  {
 		// main NG method for all sites
 
 
-		double[][] identity = new double[3][2];
 		int[] ancestralbases = new int[3];
 		ancestralbases[0]=integer_ancestral[site];
 		ancestralbases[1]=integer_ancestral[site+1];
 		ancestralbases[2]=integer_ancestral[site+2];
-		int[] mainbases = new int[3];
-		int[] count = new int[3];
-
-		for(int i=0;i<integer_matrix.length;i++){
-			// adds codon bases
-			mainbases[0]=integer_matrix[i][site];
-			mainbases[1]=integer_matrix[i][site+1];
-			mainbases[2]=integer_matrix[i][site+2];
-			double[] tmp = NGpathway(ancestralbases,mainbases);
-			if(tmp[0]!=2.0){
-				identity[0][0] += tmp[0];
-				count[0]++;
-			}
-			if(tmp[1]!=2.0){
-				identity[1][0] += tmp[1];
-				count[1]++;
-			}
-			if(tmp[2]!=2.0){
-				identity[2][0] += tmp[2];
-				count[2]++;
-			}
-		}
-
-		identity[0][0]=identity[0][0]/count[0];
-		identity[1][0]=identity[1][0]/count[1];
-		identity[2][0]=identity[2][0]/count[2];
-
-
-		identity[0][1] = 1.0-identity[0][0];
-		identity[1][1] = 1.0-identity[1][0];
-		identity[2][1] = 1.0-identity[2][0];
+		// mean pathway value over the observed codons, see CodonPathways
+		double[][] identity = pathwayTable().identity(this, ancestralbases, codonCounts(site));
 
 
 
@@ -523,42 +562,12 @@ public class SiteEstMulti  {
 		// main NG method for all sites
 
 
-		double[][] identity = new double[3][2];
 		int[] ancestralbases = new int[3];
 		ancestralbases[0]=integer_ancestral[site];
 		ancestralbases[1]=integer_ancestral[site+1];
 		ancestralbases[2]=integer_ancestral[site+2];
-		int[] mainbases = new int[3];
-		int[] count = new int[3];
-
-		for(int i=0;i<integer_matrix.length;i++){
-			// adds codon bases
-			mainbases[0]=integer_matrix[i][site];
-			mainbases[1]=integer_matrix[i][site+1];
-			mainbases[2]=integer_matrix[i][site+2];
-			double[] tmp = NGpathway(ancestralbases,mainbases);
-			if(tmp[0]!=2.0){
-				identity[0][0] += tmp[0];
-				count[0]++;
-			}
-			if(tmp[1]!=2.0){
-				identity[1][0] += tmp[1];
-				count[1]++;
-			}
-			if(tmp[2]!=2.0){
-				identity[2][0] += tmp[2];
-				count[2]++;
-			}
-		}
-
-		identity[0][0]=identity[0][0]/count[0];
-		identity[1][0]=identity[1][0]/count[1];
-		identity[2][0]=identity[2][0]/count[2];
-
-
-		identity[0][1] = 1.0-identity[0][0];
-		identity[1][1] = 1.0-identity[1][0];
-		identity[2][1] = 1.0-identity[2][0];
+		// mean pathway value over the observed codons, see CodonPathways
+		double[][] identity = pathwayTable().identity(this, ancestralbases, codonCounts(site));
 		return identity;
 		// or add smoothing
 	}
@@ -568,42 +577,12 @@ public class SiteEstMulti  {
 		// main NG method for all sites
 
 
-		double[][] identity = new double[3][2];
 		int[] ancestralbases = new int[3];
 		ancestralbases[0]=integer_ancestral[site];
 		ancestralbases[1]=integer_ancestral[site+1];
 		ancestralbases[2]=integer_ancestral[site+2];
-		int[] mainbases = new int[3];
-		int[] count = new int[3];
-
-		for(int i=0;i<integer_matrix.length;i++){
-			// adds codon bases
-			mainbases[0]=integer_matrix[i][site];
-			mainbases[1]=integer_matrix[i][site+1];
-			mainbases[2]=integer_matrix[i][site+2];
-			double[] tmp = NGpathway(ancestralbases,mainbases);
-			if(tmp[0]!=2.0){
-				identity[0][0] += tmp[0];
-				count[0]++;
-			}
-			if(tmp[1]!=2.0){
-				identity[1][0] += tmp[1];
-				count[1]++;
-			}
-			if(tmp[2]!=2.0){
-				identity[2][0] += tmp[2];
-				count[2]++;
-			}
-		}
-
-		identity[0][0]=identity[0][0]/count[0];
-		identity[1][0]=identity[1][0]/count[1];
-		identity[2][0]=identity[2][0]/count[2];
-
-
-		identity[0][1] = 1.0-identity[0][0];
-		identity[1][1] = 1.0-identity[1][0];
-		identity[2][1] = 1.0-identity[2][0];
+		// mean pathway value over the observed codons, see CodonPathways
+		double[][] identity = pathwayTable().identity(this, ancestralbases, codonCounts(site));
 
 
 
@@ -613,11 +592,11 @@ public class SiteEstMulti  {
 		SiteInfo Info = SiteInformation(site);
 		SiteInfo Info1 = SiteInformation(site+1);
 		SiteInfo Info2 = SiteInformation(site+2);
-		count = new int[3];
+		int[] count = new int[3];
 		double[][] id = new double[3][2];
 		if(Info.Case==1){
-			for(int i=0;i<integer_matrix.length;i++){
-				int tmp = getcodonnumber(integer_matrix[i][site],integer_matrix[i][site+1],integer_matrix[i][site+2]);
+			for(int i=0;i<packed.numSequences();i++){
+				int tmp = getcodonnumber(packed.get(i, column(site)),packed.get(i, column(site+1)),packed.get(i, column(site+2)));
 
 				id[0][0] += CF[tmp][0];
 				count[0]++;
@@ -627,8 +606,8 @@ public class SiteEstMulti  {
 		}
 		// Position 2
 		if(Info1.Case==1){
-			for(int i=0;i<integer_matrix.length;i++){
-				int tmp = getcodonnumber(integer_matrix[i][site],integer_matrix[i][site+1],integer_matrix[i][site+2]);
+			for(int i=0;i<packed.numSequences();i++){
+				int tmp = getcodonnumber(packed.get(i, column(site)),packed.get(i, column(site+1)),packed.get(i, column(site+2)));
 				id[1][0] += CF[tmp][1];
 				count[1]++;
 			}
@@ -637,8 +616,8 @@ public class SiteEstMulti  {
 		}
 		// Position 3
 		if(Info2.Case==1){
-			for(int i=0;i<integer_matrix.length;i++){
-				int tmp = getcodonnumber(integer_matrix[i][site],integer_matrix[i][site+1],integer_matrix[i][site+2]);
+			for(int i=0;i<packed.numSequences();i++){
+				int tmp = getcodonnumber(packed.get(i, column(site)),packed.get(i, column(site+1)),packed.get(i, column(site+2)));
 				id[2][0] += CF[tmp][2];
 				count[2]++;
 			}
@@ -654,8 +633,8 @@ public class SiteEstMulti  {
 
 	public double[][] NGinvariant(){
 		int[] mainbases = new int[3];
-		double L = (double) integer_matrix.length;
-		double N = (double) integer_matrix[0].length;
+		double L = (double) packed.numSequences();
+		double N = (double) numSites();
 		double[][] identity = new double[3][2];
 		double[][] Avgidentity = new double[3][2];
 
@@ -664,17 +643,17 @@ public class SiteEstMulti  {
 
 		double[] cf = EmpiricalCodonFreq();
 
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			identity = new double[3][2]; // set new identity vector
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) {  // check for bad sites
-				for(int sequence=0;sequence<integer_matrix.length;sequence++){		// loop through sequences
+				for(int sequence=0;sequence<packed.numSequences();sequence++){		// loop through sequences
 
 					double cf1Total = 0; //reset base frequency total for each codon
 					double cf2Total = 0;
 					double cf3Total = 0;
-					mainbases[0]=integer_matrix[sequence][site]; //main bases
-					mainbases[1]=integer_matrix[sequence][site+1];
-					mainbases[2]=integer_matrix[sequence][site+2];
+					mainbases[0]=packed.get(sequence, column(site)); //main bases
+					mainbases[1]=packed.get(sequence, column(site+1));
+					mainbases[2]=packed.get(sequence, column(site+2));
 					double sil = 0; //silent count
 					double rep=0; //rep count
 					//********************************************************************************************************************************************
@@ -972,13 +951,13 @@ public class SiteEstMulti  {
 			identity[0][1]=1.0-pr1;		
 		} else {
 			int num = 0;
-			for(int sample=0;sample<integer_matrix.length;sample++){	// loop through all samples				
-				if(integer_matrix[sample][site]!=integer_ancestral[site]){
+			for(int sample=0;sample<packed.numSequences();sample++){	// loop through all samples				
+				if(packed.get(sample, column(site))!=integer_ancestral[site]){
 					num++;
 					int derivedcodonNumber = 0;
 					double pos1_identity = 0.0;	//position 1
 
-					derivedcodonNumber = getcodonnumber(integer_matrix[sample][site],ancestralbases[1],ancestralbases[2]);
+					derivedcodonNumber = getcodonnumber(packed.get(sample, column(site)),ancestralbases[1],ancestralbases[2]);
 					if(AA[codonNumber].equals(AA[derivedcodonNumber]) ){
 						pos1_identity=1.0;
 					} else {
@@ -1019,12 +998,12 @@ public class SiteEstMulti  {
 			identity[1][1]=1.0-pr2;			
 		} else {
 			int num = 0;
-			for(int sample=0;sample<integer_matrix.length;sample++){	// loop through all samples
-				if(integer_matrix[sample][site+1]!=integer_ancestral[site+1]){	
+			for(int sample=0;sample<packed.numSequences();sample++){	// loop through all samples
+				if(packed.get(sample, column(site+1))!=integer_ancestral[site+1]){	
 					num++;
 					int derivedcodonNumber = 0;
 					double pos2_identity = 0.0;	//position 1
-					derivedcodonNumber = getcodonnumber(ancestralbases[0],integer_matrix[sample][site+1],ancestralbases[2]);
+					derivedcodonNumber = getcodonnumber(ancestralbases[0],packed.get(sample, column(site+1)),ancestralbases[2]);
 					if(AA[codonNumber].equals(AA[derivedcodonNumber]) ){
 						pos2_identity=1.0;
 					} else {
@@ -1067,12 +1046,12 @@ public class SiteEstMulti  {
 			identity[2][1]=1.0-pr3;
 		} else {
 			int num = 0;
-			for(int sample=0;sample<integer_matrix.length;sample++){	// loop through all samples
-				if(integer_matrix[sample][site+2]!=integer_ancestral[site+2]){	
+			for(int sample=0;sample<packed.numSequences();sample++){	// loop through all samples
+				if(packed.get(sample, column(site+2))!=integer_ancestral[site+2]){	
 					num++;
 					int derivedcodonNumber = 0;
 					double pos3_identity = 0.0;	//position 1
-					derivedcodonNumber = getcodonnumber(ancestralbases[0],ancestralbases[1],integer_matrix[sample][site+2]);
+					derivedcodonNumber = getcodonnumber(ancestralbases[0],ancestralbases[1],packed.get(sample, column(site+2)));
 					if(AA[codonNumber].equals(AA[derivedcodonNumber]) ){
 						pos3_identity=1.0;
 					} else {
@@ -1118,7 +1097,7 @@ public class SiteEstMulti  {
 		//		double[][] Invidentity = NGinvariant();
 		//	double[][] Invidentity = SRcodonInvariant();
 		double[][] Invidentity= InvariantNew();
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				//		temp = NGmethodNew(site,codon,Invidentity);
 				temp = NGmethod(site,codon,Invidentity);
@@ -1166,7 +1145,7 @@ public class SiteEstMulti  {
 		//		double[][] Invidentity = NGinvariant();
 		//	double[][] Invidentity = SRcodonInvariant();
 		double[][] Invidentity= InvariantNew();
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				//		temp = NGmethodNew(site,codon,Invidentity);
 				temp = NGmethod(site,codon,Invidentity);
@@ -1335,90 +1314,59 @@ public class SiteEstMulti  {
 		double[][] identity = new double[3][2];
 		int[] ancestralbases = preprocess.codon_split(codon_ancestral[codon]);
 		int codonNumber =  getcodonnumber(ancestralbases[0],ancestralbases[1],ancestralbases[2]);
-		int silcount = 0;
+		// whether a sequence counts as silent depends only on its base at the position, so sequences are counted per base
 		// pos 1
-		for(int i=0;i<integer_matrix.length;i++){	// loop through all samples
-			int derivedcodonNumber = 0;
-			double pos1_identity = 0.0;	//position 1
-			if (codonNumber==8 || codonNumber==10 || codonNumber==24 ||
-					codonNumber==25 || codonNumber==26 || codonNumber==27 ||
-					codonNumber==28 || codonNumber==29 || codonNumber==30 ||
-					codonNumber==31 || codonNumber==60 || codonNumber==62) {
-				pos1_identity = 0.5;
-			}
-			if(pos1_identity==0.5){
-				derivedcodonNumber = getcodonnumber(integer_matrix[i][site],ancestralbases[1],ancestralbases[2]);
-				if(AA[codonNumber].equals(AA[derivedcodonNumber]) ){
-					pos1_identity=1.0;
-				} else {
-					pos1_identity=0.0;
-				}
-			}
-			if(pos1_identity==1.0){
-				silcount++;
-			}
+		int silcount = 0;
+		if (codonNumber==8 || codonNumber==10 || codonNumber==24 ||
+				codonNumber==25 || codonNumber==26 || codonNumber==27 ||
+				codonNumber==28 || codonNumber==29 || codonNumber==30 ||
+				codonNumber==31 || codonNumber==60 || codonNumber==62) {
+			silcount = silentCount(site, 0, ancestralbases, codonNumber);
 		}
-		identity[0][0] = silcount/integer_matrix.length;
+		identity[0][0] = silcount/packed.numSequences();
 		identity[0][1] = 1.0 - identity[0][0]; 
 		// pos 2
 		silcount = 0;
-		for(int i=0;i<integer_matrix.length;i++){	// loop through all samples
-			int derivedcodonNumber = 0;
-			double pos2_identity = 0.0;	//position 1
-
-
-			if (codonNumber==48 || codonNumber==50 || codonNumber==56) {
-				pos2_identity = 0.5;
-			}
-			if(pos2_identity==0.5){
-				derivedcodonNumber = getcodonnumber(ancestralbases[0],integer_matrix[i][site+1],ancestralbases[2]);
-				if(AA[codonNumber].equals(AA[derivedcodonNumber]) ){
-					pos2_identity=1.0;
-				} else {
-					pos2_identity=0.0;
-				}
-			}
-			if(pos2_identity==1.0){
-				silcount++;
-			}	
+		if (codonNumber==48 || codonNumber==50 || codonNumber==56) {
+			silcount = silentCount(site, 1, ancestralbases, codonNumber);
 		}
-		identity[1][0] = silcount/integer_matrix.length;
+		identity[1][0] = silcount/packed.numSequences();
 		identity[1][1] = 1.0 - identity[1][0];
 		// pos 3	
-		silcount = 0;
-		for(int i=0;i<integer_matrix.length;i++){	// loop through all samples
-			int derivedcodonNumber = 0;
-			double pos3_identity = 1.0;	//position 1
-
-			if (codonNumber==14 || codonNumber==58) {
-				pos3_identity= 0.0;
-			} else if (codonNumber==0 || codonNumber==1 || codonNumber==2 || codonNumber==3 ||
-					codonNumber==9 || codonNumber==11 || codonNumber==12 || codonNumber==13 ||
-					codonNumber==15 || codonNumber==16 || codonNumber==17 || codonNumber==18 ||
-					codonNumber==19 || codonNumber==32 || codonNumber==33 || codonNumber==34 ||
-					codonNumber==35 || codonNumber==48 || codonNumber==49 || codonNumber==50 ||
-					codonNumber==51 || codonNumber==56 || codonNumber==57 || codonNumber==59 ||
-					codonNumber==61 || codonNumber==63) {
-				pos3_identity = 0.5;
-			}
-			if(pos3_identity==0.5){
-				derivedcodonNumber = getcodonnumber(ancestralbases[0],ancestralbases[1],integer_matrix[i][site+2]);
-				if(AA[codonNumber].equals(AA[derivedcodonNumber]) ){
-					pos3_identity=1.0;
-				} else {
-					pos3_identity=0.0;
-				}
-			}
-			if(pos3_identity==1.0){
-				silcount++;
-			}
-		}
-		identity[2][0] = silcount/integer_matrix.length;
+		silcount = packed.numSequences();
+		if (codonNumber==14 || codonNumber==58) {
+			silcount = 0;
+		} else if (codonNumber==0 || codonNumber==1 || codonNumber==2 || codonNumber==3 ||
+				codonNumber==9 || codonNumber==11 || codonNumber==12 || codonNumber==13 ||
+				codonNumber==15 || codonNumber==16 || codonNumber==17 || codonNumber==18 ||
+				codonNumber==19 || codonNumber==32 || codonNumber==33 || codonNumber==34 ||
+				codonNumber==35 || codonNumber==48 || codonNumber==49 || codonNumber==50 ||
+				codonNumber==51 || codonNumber==56 || codonNumber==57 || codonNumber==59 ||
+				codonNumber==61 || codonNumber==63) {
+			silcount = silentCount(site, 2, ancestralbases, codonNumber);
+		}
+		identity[2][0] = silcount/packed.numSequences();
 		identity[2][1] = 1.0 - identity[2][0];
 		return identity;
 
 	}
 
+	// number of sequences whose base at position p, put into the ancestral codon, codes the same amino acid
+	private int silentCount(int site, int p, int[] ancestralbases, int codonNumber){
+		int silcount = 0;
+		int[] derived = ancestralbases.clone();
+		for(int base=0;base<CompressedAlignment.STATES;base++){
+			int count = compressed.count(column(site+p), base);
+			if(count > 0){
+				derived[p] = base;
+				if(AA[codonNumber].equals(AA[getcodonnumber(derived[0],derived[1],derived[2])])){
+					silcount += count;
+				}
+			}
+		}
+		return silcount;
+	}
+
 	public int getcodonnumber(int pos1, int pos2, int pos3){
 		if (pos1<5 && pos2<5 && pos3<5) { // normal codon
 			return (16*(pos1-1)) + (4*(pos2-1)) + (1*(pos3-1));
@@ -1437,22 +1385,25 @@ public class SiteEstMulti  {
 		double d=0;
 		double count1=0;
 		double count2=0;
-		for(int i=0;i<integer_matrix.length;i++){
+		// identical sequences give identical distances, so each haplotype is scored once and weighted
+		CompressedAlignment.Haplotypes haplotypes = compressed.haplotypes();
+		for(int h=0;h<haplotypes.size();h++){
+			int[] sequence = haplotypes.sequence(h);
 			count1=0;
 			count2=0;
 			p=0;
-			for(int j=0;j<integer_matrix[0].length;j++){
+			for(int j=0;j<numSites();j++){
 				if(bad_sites_list[j]==false){
-					if(integer_matrix[i][j]!=integer_ancestral[j]){count1++;} //counting differences
+					if(sequence[column(j)]!=integer_ancestral[j]){count1++;} //counting differences
 					count2++;
 				}
 			}
 			p = count1/count2;
 
 			//	d += count1/count2;  //normal uncorrected PWD
-			d += (-3.0/4.0)*Math.log(1.0-((4.0/3.0)*p));	//  jukes cantor correction
+			d += haplotypes.weight[h]*((-3.0/4.0)*Math.log(1.0-((4.0/3.0)*p)));	//  jukes cantor correction
 		}
-		return (d/integer_matrix.length);
+		return (d/packed.numSequences());
 	}
 
 	public double K2P(){
@@ -1460,14 +1411,15 @@ public class SiteEstMulti  {
 		double Q=0;
 		double d=0;
 		double count2=0;
-		for(int i=0;i<integer_matrix.length;i++){
-
+		CompressedAlignment.Haplotypes haplotypes = compressed.haplotypes();
+		for(int h=0;h<haplotypes.size();h++){
+			int[] sequence = haplotypes.sequence(h);
 			count2=0;
 			P=0;Q=0;
-			for(int j=0;j<integer_matrix[0].length;j++){
+			for(int j=0;j<numSites();j++){
 				if(bad_sites_list[j]==false){
-					if(integer_matrix[i][j]==integer_ancestral[j]){/*do nothing*/} 
-					else if(integer_matrix[i][j]==1 && integer_ancestral[j] == 3 || integer_matrix[i][j]==3 && integer_ancestral[j] == 1 || integer_matrix[i][j]==2 && integer_ancestral[j] == 4 || integer_matrix[i][j]==4 && integer_ancestral[j] == 2){P++;} 
+					if(sequence[column(j)]==integer_ancestral[j]){/*do nothing*/} 
+					else if(sequence[column(j)]==1 && integer_ancestral[j] == 3 || sequence[column(j)]==3 && integer_ancestral[j] == 1 || sequence[column(j)]==2 && integer_ancestral[j] == 4 || sequence[column(j)]==4 && integer_ancestral[j] == 2){P++;} 
 					else {Q++;} 
 					count2++;
 				}
@@ -1475,15 +1427,15 @@ public class SiteEstMulti  {
 			P=P/count2;
 			Q=Q/count2;
 			// jukes cantor correction
-			d += ((-1.0/2.0)*Math.log(1.0 - (2.0*P) - Q)) - ((-1/4)*Math.log(1.0-(2.0*Q)));	
+			d += haplotypes.weight[h]*(((-1.0/2.0)*Math.log(1.0 - (2.0*P) - Q)) - ((-1/4)*Math.log(1.0-(2.0*Q))));	
 		}
-		return (d/integer_matrix.length);
+		return (d/packed.numSequences());
 	}
 
 
 	public double howManyMultiPoly(){
 		double count=0;
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				SiteInfo s = SiteInformation(site);			
 				if(s.Case==4 ||s.Case==5 ||s.Case==6 ||s.Case==7 ){
@@ -1504,7 +1456,7 @@ public class SiteEstMulti  {
 
 	public double howManySingPoly(){
 		double count=0;
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				SiteInfo s = SiteInformation(site);			
 				if(s.Case==3){
@@ -1525,7 +1477,7 @@ public class SiteEstMulti  {
 
 	public double howManyFixed(){
 		double count=0;
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				SiteInfo s = SiteInformation(site);			
 				if(s.Case==2){
@@ -1546,7 +1498,7 @@ public class SiteEstMulti  {
 
 	public double howManyInvariant(){
 		double count=0;
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				SiteInfo s = SiteInformation(site);			
 				if(s.Case==1){
@@ -1567,7 +1519,7 @@ public class SiteEstMulti  {
 
 	public double howManyBad(){
 		double count=0;
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				// do nothing	
 			} else {
@@ -1582,50 +1534,13 @@ public class SiteEstMulti  {
 
 
 	public static double sampleGamma(double k, double theta) {
-		boolean accept = false;
-		if (k < 1) {
-			// Weibull algorithm
-			double c = (1 / k);
-			double d = ((1 - k) * Math.pow(k, (k / (1 - k))));
-			double u, v, z, e, x;
-			do {
-				u = rng.nextDouble();
-				v = rng.nextDouble();
-				z = -Math.log(u);
-				e = -Math.log(v);
-				x = Math.pow(z, c);
-				if ((z + e) >= (d + x)) {
-					accept = true;
-				}
-			} while (!accept);
-			return (x * theta);
-		} else {
-			// Cheng's algorithm
-			double b = (k - Math.log(4));
-			double c = (k + Math.sqrt(2 * k - 1));
-			double lam = Math.sqrt(2 * k - 1);
-			double cheng = (1 + Math.log(4.5));
-			double u, v, x, y, z, r;
-			do {
-				u = rng.nextDouble();
-				v = rng.nextDouble();
-				y = ((1 / lam) * Math.log(v / (1 - v)));
-				x = (k * Math.exp(y));
-				z = (u * v * v);
-				r = (b + (c * y) - x);
-				if ((r >= ((4.5 * z) - cheng)) ||
-						(r >= Math.log(z))) {
-					accept = true;
-				}
-			} while (!accept);
-			return (x * theta);
-		}
+		return Samplers.sampleGamma(k, theta);
 	}
 
 	public double[] unfoldedSiteFreq(){
 		double[] sf = new double[10];
 		//	double sil[][] = new double[3][2];
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
 				//	sil = srSmoothing(site,codon);
 				SiteInfo Info = SiteInformation(site);
@@ -1715,12 +1630,12 @@ public class SiteEstMulti  {
 		double[] CodonFreq = new double[AA.length];
 		int[] mainbases = new int[3];
 
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
-				for(int sequence=0;sequence<integer_matrix.length;sequence++){	
-					mainbases[0]=integer_matrix[sequence][site]; //main bases
-					mainbases[1]=integer_matrix[sequence][site+1];
-					mainbases[2]=integer_matrix[sequence][site+2];
+				for(int sequence=0;sequence<packed.numSequences();sequence++){	
+					mainbases[0]=packed.get(sequence, column(site)); //main bases
+					mainbases[1]=packed.get(sequence, column(site+1));
+					mainbases[2]=packed.get(sequence, column(site+2));
 					int codonNumber =  getcodonnumber(mainbases[0],mainbases[1],mainbases[2]);
 					CodonFreq[codonNumber]++;				
 				}
@@ -1743,59 +1658,59 @@ public class SiteEstMulti  {
 		int counter1 = 0;
 		int counter2 = 0;
 		int counter3 = 0;
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { 
-				for(int j=0;j<integer_matrix.length;j++){
+				for(int j=0;j<packed.numSequences();j++){
 					// site 1
-					if(integer_matrix[j][site]==1){
+					if(packed.get(j, column(site))==1){
 						pconfig[0][0]++;
 						counter1++;
 					}
-					if(integer_matrix[j][site]==2){
+					if(packed.get(j, column(site))==2){
 						pconfig[0][1]++;
 						counter1++;
 					}
-					if(integer_matrix[j][site]==3){
+					if(packed.get(j, column(site))==3){
 						pconfig[0][2]++;
 						counter1++;
 					}
-					if(integer_matrix[j][site]==4){
+					if(packed.get(j, column(site))==4){
 						pconfig[0][3]++;
 						counter1++;
 					}
 
 					// site 2
-					if(integer_matrix[j][site+1]==1){
+					if(packed.get(j, column(site+1))==1){
 						pconfig[1][0]++;
 						counter2++;
 					}
-					if(integer_matrix[j][site+1]==2){
+					if(packed.get(j, column(site+1))==2){
 						pconfig[1][1]++;
 						counter2++;
 					}
-					if(integer_matrix[j][site+1]==3){
+					if(packed.get(j, column(site+1))==3){
 						pconfig[1][2]++;
 						counter2++;
 					}
-					if(integer_matrix[j][site+1]==4){
+					if(packed.get(j, column(site+1))==4){
 						pconfig[1][3]++;
 						counter2++;
 					}
 
 					// site 3
-					if(integer_matrix[j][site+2]==1){
+					if(packed.get(j, column(site+2))==1){
 						pconfig[2][0]++;
 						counter3++;
 					}
-					if(integer_matrix[j][site+2]==2){
+					if(packed.get(j, column(site+2))==2){
 						pconfig[2][1]++;
 						counter3++;
 					}
-					if(integer_matrix[j][site+2]==3){
+					if(packed.get(j, column(site+2))==3){
 						pconfig[2][2]++;
 						counter3++;
 					}
-					if(integer_matrix[j][site+2]==4){
+					if(packed.get(j, column(site+2))==4){
 						pconfig[2][3]++;
 						counter3++;
 					}
@@ -1822,10 +1737,10 @@ public class SiteEstMulti  {
 		double[][] CodonTrans = new double[64][64];
 
 		double count=0;
-		for(int i=0;i<integer_matrix[0].length-2;i=i+3){
+		for(int i=0;i<numSites()-2;i=i+3){
 			int anscodonNumber = getcodonnumber(integer_ancestral[i],integer_ancestral[i+1],integer_ancestral[i+2]);
-			for(int j=0;j<integer_matrix.length;j++){
-				int codonNumber = getcodonnumber(integer_matrix[j][i],integer_matrix[j][i+1],integer_matrix[j][i+2]);
+			for(int j=0;j<packed.numSequences();j++){
+				int codonNumber = getcodonnumber(packed.get(j, column(i)),packed.get(j, column(i+1)),packed.get(j, column(i+2)));
 				if(codonNumber != anscodonNumber){
 					CodonTrans[anscodonNumber][codonNumber]++;
 					count++;
@@ -1848,7 +1763,7 @@ public class SiteEstMulti  {
 		double sil2=0; double rep2=0;
 		double sil3=0; double rep3=0;
 
-		for(int site=0,codon=0; site<integer_matrix[0].length-2;site=site+3,codon++){
+		for(int site=0,codon=0; site<numSites()-2;site=site+3,codon++){
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) {  // check for bad sites
 				SiteInfo Info1 = SiteInformation(site);			
 				/// position 1
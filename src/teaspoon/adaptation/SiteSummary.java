@@ -0,0 +1,154 @@
+package teaspoon.adaptation;
+
+/**
+ * Immutable per-alignment summary used by BhattMethod: base counts per column, the site case
+ * classification and the Nei-Gojobori silent/replacement identity of every good codon.
+ * Counts and codon identities come from the codon histograms of the compressed alignment; built once and
+ * shared by every bin and Method overload. A bootstrap replicate is a view over resampled codons
+ * that shares all of the arrays.
+ */
+public class SiteSummary {
+
+	public static final int STATES = 5;	// A,C,G,T and gap/N
+
+	private final int numSequences;
+	private final int numSites;
+	private final int[] integer_ancestral;
+	private final int[] counts;			// counts[site*STATES + base-1]
+	private final int[] cases;
+	private final double[][][] identity;	// [codon][position][silent,replacement], null for bad codons
+	private final int[] codons;			// resampled codon indices for a view, null otherwise
+
+	public SiteSummary(CompressedAlignment compressed, int[] integer_ancestral, boolean[] bad_sites_list, BhattMethod pathways) {
+		this.numSequences = compressed.numSequences();
+		this.numSites = compressed.numSites();
+		this.integer_ancestral = integer_ancestral;
+		this.codons = null;
+
+		// base counts, summed over the distinct codons
+		counts = new int[numSites * STATES];
+		for (int site = 0; site < numSites; site++) {
+			for (int base = 1; base <= STATES; base++) {
+				counts[site * STATES + base - 1] = compressed.count(site, base);
+			}
+		}
+
+		cases = new int[numSites];
+		for (int site = 0; site < numSites; site++) {
+			cases[site] = (integer_ancestral[site] >= 1 && integer_ancestral[site] <= 4) ? siteInfo(site).Case : 9;
+		}
+
+		// NG identity for every good codon, its codon histogram dotted with the pathway table
+		CodonPathways table = pathways.pathwayTable();
+		int numCodons = numSites / 3;
+		identity = new double[numCodons][][];
+		int[] histogram = new int[CodonPathways.HISTOGRAM];
+		for (int site = 0, codon = 0; site < numSites - 2; site += 3, codon++) {
+			if (!bad_sites_list[site] && !bad_sites_list[site + 1] && !bad_sites_list[site + 2]) {
+				int[] ancestralbases = {integer_ancestral[site], integer_ancestral[site + 1], integer_ancestral[site + 2]};
+				identity[codon] = table.identity(pathways, ancestralbases, compressed.codonCounts(codon, histogram));
+			}
+		}
+	}
+
+	private SiteSummary(SiteSummary original, int[] codons) {
+		this.numSequences = original.numSequences;
+		this.numSites = codons.length * 3;
+		this.integer_ancestral = original.integer_ancestral;
+		this.counts = original.counts;
+		this.cases = original.cases;
+		this.identity = original.identity;
+		this.codons = codons;
+	}
+
+	// view of the alignment made of the given codons (indices into this summary), nothing is copied
+	public SiteSummary resample(int[] codons) {
+		if (this.codons == null) {
+			return new SiteSummary(this, codons);
+		}
+		int[] composed = new int[codons.length];
+		for (int k = 0; k < codons.length; k++) {
+			composed[k] = this.codons[codons[k]];
+		}
+		return new SiteSummary(this, composed);
+	}
+
+	// column of the underlying alignment behind a site of this summary
+	public int column(int site) {
+		return codons == null ? site : 3 * codons[site / 3] + site % 3;
+	}
+
+	public int numSequences() {
+		return numSequences;
+	}
+
+	public int numSites() {
+		return numSites;
+	}
+
+	// number of sequences with the given base (1-5) at a site
+	public int count(int site, int base) {
+		return counts[column(site) * STATES + base - 1];
+	}
+
+	public int ancestral(int site) {
+		return integer_ancestral[column(site)];
+	}
+
+	// case classification of BhattMethod.SiteInformation, 9 if the ancestral base is not A,C,G or T
+	public int caseOf(int site) {
+		return cases[column(site)];
+	}
+
+	// silent/replacement identity of a good codon as returned by BhattMethod.NGmethod, callers must not modify it
+	public double[][] identity(int codon) {
+		return identity[codons == null ? codon : codons[codon]];
+	}
+
+	// a fresh SiteInfo for the site, equal to the one BhattMethod.SiteInformation builds from the matrix
+	public SiteInfo siteInfo(int site) {
+		SiteInfo SI = new SiteInfo();
+		SI.locus = site;
+		Obs[] data = new Obs[4];
+		double TotalNumBases = 0.0;
+		for (int i = 0; i < 4; i++) {
+			data[i] = new Obs();
+			data[i].base = i + 1;
+			data[i].rawNObs = count(site, i + 1);
+			TotalNumBases += data[i].rawNObs;
+		}
+		data[ancestral(site) - 1].inans = true;	//tests if base is ansestral
+		for (int i = 0; i < 4; i++) {
+			data[i].NObs = data[i].rawNObs / TotalNumBases;
+		}
+		SI.totalNumBases = TotalNumBases;
+		SI.data = data;
+
+		for (int i = 0; i < 4; i++) {
+			if (SI.data[ancestral(site) - 1].NObs != 0.0) {
+				SI.hasans = true;
+			}
+			if (SI.data[i].NObs != 0.0 && data[i].inans == false) {
+				SI.Numderived++;
+			}
+		}
+
+		if (SI.Numderived == 0 && SI.hasans == true) {
+			SI.Case = 1;// invariant
+		} else if (SI.Numderived == 1 && SI.hasans == false) {
+			SI.Case = 2;// fixed
+		} else if (SI.Numderived == 1 && SI.hasans == true) {
+			SI.Case = 3;// 1 state derived and ans
+		} else if (SI.Numderived == 2 && SI.hasans == false) {
+			SI.Case = 4;// 2 state derived no ans
+		} else if (SI.Numderived == 2 && SI.hasans == true) {
+			SI.Case = 5;// 2 state derived and ans
+		} else if (SI.Numderived == 3 && SI.hasans == false) {
+			SI.Case = 6;// 3 state derived no ans
+		} else if (SI.Numderived == 3 && SI.hasans == true) {
+			SI.Case = 7;// 3 state derived and ans
+		}
+		return SI;
+	}
+
+}
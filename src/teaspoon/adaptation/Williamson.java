@@ -64,8 +64,8 @@ public class Williamson extends SiteEstMulti{
 
 	public double[][] williamson_method(){
 		double ds = 0;double dn = 0; double cs = 0;double cn = 0; double rs = 0; double rn = 0;
-		McDonaldKreitman mk = new McDonaldKreitman(integer_matrix,integer_ancestral);
-		for (int site = 0, codon = 0; site < integer_matrix[0].length - 2; site = site + 3, codon++) {
+		McDonaldKreitman mk = new McDonaldKreitman(packed,integer_ancestral);
+		for (int site = 0, codon = 0; site < packed.numSites() - 2; site = site + 3, codon++) {
 			double[][] identity = find_identityMK(site, codon);
 			
 			/********************************************************************************************************************************************************/
@@ -580,7 +580,7 @@ public class Williamson extends SiteEstMulti{
 		double[] sigma = new double[2];
 		double[] rho = new double[2];
 
-		McDonaldKreitman mk = new McDonaldKreitman(integer_matrix,integer_ancestral);
+		McDonaldKreitman mk = new McDonaldKreitman(packed,integer_ancestral);
 		double[][] mat = mk.createContingencyNew();
 		double[][] finalmat = new double[6][2];
 		// less than 1
@@ -21,6 +21,7 @@ public class Williamson3bin extends SiteEstMulti{
 	double L;
 	double[] gapcount;
 	double[] gapSitecount;
+	private static CodonPathways includeMainGapsTable;	// NGpathway_IncludeMainGaps for every codon pair
 
 	public Williamson3bin() {
 		// default no-arg constructor
@@ -35,6 +36,38 @@ public class Williamson3bin extends SiteEstMulti{
 		super(m,a,badsites);
 	}
 
+	public Williamson3bin(PackedAlignment m, int[] a){
+		super(m,a);
+	}
+
+	public Williamson3bin(PackedAlignment m, int[] a,boolean[] badsites){
+		super(m,a,badsites);
+	}
+
+	// bootstrap replicate over resampled codons, replaces CreateBlocks and the copied matrix
+	public Williamson3bin(Williamson3bin original, int[] sampler){
+		super(original,sampler);
+	}
+
+	// NGpathway_IncludeMainGaps as a CodonPathways.Pathway
+	private CodonPathways.Pathway includeMainGaps(){
+		return new CodonPathways.Pathway(){
+			public double[] NGpathway(int[] a, int[] b){
+				return NGpathway_IncludeMainGaps(a, b);
+			}
+		};
+	}
+
+	// NGpathway_IncludeMainGaps tabulated over all codon pairs, built on first use
+	CodonPathways includeMainGapsTable(){
+		synchronized(Williamson3bin.class){
+			if(includeMainGapsTable == null){
+				includeMainGapsTable = new CodonPathways(includeMainGaps());
+			}
+			return includeMainGapsTable;
+		}
+	}
+
 
 	public double[][] williamsonEstimator(double[] identity,int sitelocation, double[] low, double[] mid, double[] high){
 		double fs = 0;double fn = 0; double as = 0;double an = 0; double ds = 0; double dn = 0;double ns=0;double nn=0;
@@ -453,7 +486,7 @@ public class Williamson3bin extends SiteEstMulti{
 
 	public void williamson3bin_method(double neutralratio,double[] low, double[] mid, double[] high){
 		double fs = 0;double fn = 0; double as = 0;double an = 0; double ds = 0; double dn = 0;double ns=0;double nn=0;
-		for (int site = 0, codon = 0; site < integer_matrix[0].length - 2; site = site + 3, codon++) {
+		for (int site = 0, codon = 0; site < numSites() - 2; site = site + 3, codon++) {
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { // check codon is not bad
 				//		double[][] identity = find_identityMK(site, codon);
 				double[][] identity = NGmethodWilliamson(site, codon);
@@ -511,12 +544,12 @@ public class Williamson3bin extends SiteEstMulti{
 		this.fix_S =fs;
 		this.Adapt=totalAdapt;
 		this.Prop=propAdapt;
-		this.L=integer_matrix.length;
+		this.L=packed.numSequences();
 	}
 	// 
 	public void williamson3bin_method_delta(double neutralratio,double mu_ns,double[] low, double[] mid, double[] high){
 		double fs = 0;double fn = 0; double as = 0;double an = 0; double ds = 0; double dn = 0;double ns=0;double nn=0;
-		for (int site = 0, codon = 0; site < integer_matrix[0].length - 2; site = site + 3, codon++) {
+		for (int site = 0, codon = 0; site < numSites() - 2; site = site + 3, codon++) {
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { // check codon is not bad
 				//		double[][] identity = find_identityMK(site, codon);
 				double[][] identity = NGmethodWilliamson(site, codon);
@@ -575,14 +608,14 @@ public class Williamson3bin extends SiteEstMulti{
 		this.fix_S =fs;
 		this.Adapt=totalAdapt;
 		this.Prop=propAdapt;
-		this.L=integer_matrix.length;
+		this.L=packed.numSequences();
 	}
 
 	
 	// overloaded for no neutral ratio
 	public double williamson3bin_method(double[] low, double[] mid, double[] high){
 		double fs = 0;double fn = 0; double as = 0;double an = 0; double ds = 0; double dn = 0;double ns=0;double nn=0;
-		for (int site = 0, codon = 0; site < integer_matrix[0].length - 2; site = site + 3, codon++) {
+		for (int site = 0, codon = 0; site < numSites() - 2; site = site + 3, codon++) {
 		//	double[][] identity = find_identityMK(site, codon);
 			double[][] identity = NGmethodWilliamson(site, codon);
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { // check codon is not bad
@@ -657,7 +690,7 @@ public class Williamson3bin extends SiteEstMulti{
         this.fix_S =fs;
         this.Adapt=totalAdapt;
         this.Prop=propAdapt;
-        this.L=integer_matrix.length;
+        this.L=packed.numSequences();
         this.Nr = neutralratio;
 
 		return totalAdapt;
@@ -668,7 +701,7 @@ public class Williamson3bin extends SiteEstMulti{
 	//overloaded to include main gaps
 	public void williamson3bin_method_IncludeMainGaps(double neutralratio,double[] low, double[] mid, double[] high){
 		double fs = 0;double fn = 0; double as = 0;double an = 0; double ds = 0; double dn = 0;double ns=0;double nn=0;
-		for (int site = 0, codon = 0; site < integer_matrix[0].length - 2; site = site + 3, codon++) {
+		for (int site = 0, codon = 0; site < numSites() - 2; site = site + 3, codon++) {
 			if (bad_sites_list[site] == false && bad_sites_list[site+1] == false && bad_sites_list[site+2] == false) { // check codon is not bad
 				double[][] identity = NGmethodWilliamson_IncludeMainGaps(site, codon);
 				/************************	Position 1	************************************************/
@@ -720,12 +753,12 @@ public class Williamson3bin extends SiteEstMulti{
 		this.fix_S =fs;
 		this.Adapt=totalAdapt;
 		this.Prop=propAdapt;
-		this.L=integer_matrix.length;
+		this.L=packed.numSequences();
 	}
 	// overloaded to exclude codons
 	public double williamson3bin_method_ExcludeCodons(double neutralratio, int[] excludelist,double[] low, double[] mid, double[] high){
 		double fs = 0;double fn = 0; double as = 0;double an = 0; double ds = 0; double dn = 0;double ns=0;double nn=0;
-		for (int site = 0, codon = 0; site < integer_matrix[0].length - 2; site = site + 3, codon++) {
+		for (int site = 0, codon = 0; site < numSites() - 2; site = site + 3, codon++) {
 			double[][] identity = find_identityMK(site, codon);
 
 
@@ -785,13 +818,13 @@ public class Williamson3bin extends SiteEstMulti{
 
 	public BlockStruct[][] makeSeqBlocks(int blocksize,int length){
 		double numblocks = length/blocksize;
-		BlockStruct[][] blockmat = new BlockStruct[integer_matrix.length][(int) numblocks];
+		BlockStruct[][] blockmat = new BlockStruct[packed.numSequences()][(int) numblocks];
 		int[] temp = new int[blocksize];
 		for (int site = 0,x=0; site < length - (blocksize-1); site = site + blocksize,x++) {
-			for(int i=0;i<integer_matrix.length;i++){
+			for(int i=0;i<packed.numSequences();i++){
 				int k=0;
 				for(int j=site;j<site+blocksize;j++){
-					temp[k] = integer_matrix[i][j];
+					temp[k] = packed.get(i, column(j));
 					k++;
 				}
 				blockmat[i][x] = new BlockStruct(blocksize);
@@ -825,13 +858,13 @@ public class Williamson3bin extends SiteEstMulti{
 
 	public BlockStruct[][] makeSeqBlocksOverlapping(int blocksize,int length){
 		int numblocks = length-blocksize+1;
-		BlockStruct[][] blockmat = new BlockStruct[integer_matrix.length][(int) numblocks];
+		BlockStruct[][] blockmat = new BlockStruct[packed.numSequences()][(int) numblocks];
 		int[] temp = new int[blocksize];
 		for (int site = 0,x=0; site < length - (blocksize-1); site=site+3,x++) {
-			for(int i=0;i<integer_matrix.length;i++){
+			for(int i=0;i<packed.numSequences();i++){
 				int k=0;
 				for(int j=site;j<site+blocksize;j++){
-					temp[k] = integer_matrix[i][j];
+					temp[k] = packed.get(i, column(j));
 					k++;
 				}
 				blockmat[i][x] = new BlockStruct(blocksize);
@@ -942,63 +975,16 @@ public class Williamson3bin extends SiteEstMulti{
 	}
 
 	public double[][] NGmethodWilliamson(int site, int codonsite){
-		double[][] identity = new double[3][2];
 		int[] ancestralbases = preprocess.codon_split(codon_ancestral[codonsite]);
-		int[] mainbases = new int[3];
-		int[] count = new int[3];
-		for(int i=0;i<integer_matrix.length;i++){
-			// adds codon bases
-			mainbases[0]=integer_matrix[i][site];
-			mainbases[1]=integer_matrix[i][site+1];
-			mainbases[2]=integer_matrix[i][site+2];
-			double[] tmp = NGpathway(ancestralbases,mainbases);
-			if(tmp[0]!=2.0){
-				identity[0][0] += tmp[0];
-				count[0]++;
-			}
-			if(tmp[1]!=2.0){
-				identity[1][0] += tmp[1];
-				count[1]++;
-			}
-			if(tmp[2]!=2.0){
-				identity[2][0] += tmp[2];
-				count[2]++;
-			}
-		}
-		identity[0][0]=identity[0][0]/count[0];
-		identity[1][0]=identity[1][0]/count[1];
-		identity[2][0]=identity[2][0]/count[2];
-		identity[0][1] = 1.0-identity[0][0];
-		identity[1][1] = 1.0-identity[1][0];
-		identity[2][1] = 1.0-identity[2][0];
-		return identity;
+		// mean pathway value over the observed codons, see CodonPathways
+		return pathwayTable().identity(this, ancestralbases, codonCounts(site));
 	}
 
 
 	public double[][] NGmethodWilliamson_IncludeMainGaps(int site, int codonsite){
-		double[][] identity = new double[3][2];
 		int[] ancestralbases = preprocess.codon_split(codon_ancestral[codonsite]);
-		int[] mainbases = new int[3];
 		int[] count = new int[3];
-		for(int i=0;i<integer_matrix.length;i++){
-			// adds codon bases
-			mainbases[0]=integer_matrix[i][site];
-			mainbases[1]=integer_matrix[i][site+1];
-			mainbases[2]=integer_matrix[i][site+2];
-			double[] tmp = NGpathway_IncludeMainGaps(ancestralbases,mainbases);
-			if(tmp[0]!=2.0 && tmp[0]!=3.0 ){
-				identity[0][0] += tmp[0];
-				count[0]++;
-			}
-			if(tmp[1]!=2.0 && tmp[1]!=3.0 ){
-				identity[1][0] += tmp[1];
-				count[1]++;
-			}
-			if(tmp[2]!=2.0 && tmp[2]!=3.0 ){
-				identity[2][0] += tmp[2];
-				count[2]++;
-			}
-		}
+		double[][] identity = includeMainGapsTable().identity(includeMainGaps(), ancestralbases, codonCounts(site), count);
 		
 		SiteInfo ss = SiteInformation_IncludeMainGaps(site);
 		// test routine
@@ -1006,12 +992,6 @@ public class Williamson3bin extends SiteEstMulti{
 		System.out.println(site+"\t"+count[0]+"\t"+ss.Case+"\t"+ ss.totalNumBases+"\t" + ss.data[0].NObs+"\t" + ss.data[1].NObs+"\t" + ss.data[2].NObs+"\t" + ss.data[3].NObs);
 		}
 		
-		identity[0][0]=identity[0][0]/count[0];
-		identity[1][0]=identity[1][0]/count[1];
-		identity[2][0]=identity[2][0]/count[2];
-		identity[0][1] = 1.0-identity[0][0];
-		identity[1][1] = 1.0-identity[1][0];
-		identity[2][1] = 1.0-identity[2][0];
 	//	if(count[0]==0){System.out.println(identity[0][0]+"\t"+site);}//identity[0][0]=0;identity[0][1]=0;};
 	//	if(count[1]==0){identity[1][0]=0;identity[1][1]=0;};
 	//	if(count[2]==0){identity[2][0]=0;identity[2][1]=0;};
@@ -1125,44 +1105,41 @@ public class Williamson3bin extends SiteEstMulti{
 	}
 
 	public void gapInfo(){
-		double[] invalidcount = new double[integer_matrix.length];
+		double[] invalidcount = new double[packed.numSequences()];
 		double count=0;
-		for(int i=0;i<integer_matrix.length;i++){
+		// counted once per haplotype, identical sequences share the value
+		CompressedAlignment.Haplotypes haplotypes = compressed.haplotypes();
+		double[] haplotypecount = new double[haplotypes.size()];
+		for(int h=0;h<haplotypes.size();h++){
+			int[] sequence = haplotypes.sequence(h);
 			count=0;
-			for(int j=0;j<integer_matrix[0].length;j++){
-				if(integer_matrix[i][j]==5){
+			for(int j=0;j<numSites();j++){
+				if(sequence[column(j)]==5){
 					count++;
 				}
 			}
-			invalidcount[i] = 100*(count/(double) integer_matrix[0].length);
+			haplotypecount[h] = 100*(count/(double) numSites());
+		}
+		for(int i=0;i<packed.numSequences();i++){
+			invalidcount[i] = haplotypecount[haplotypes.index[i]];
 		}
 		this.gapcount=invalidcount;
 	}
 
 	public void gapSiteInfo(){
-		double[] invalidcount = new double[integer_matrix[0].length];
+		double[] invalidcount = new double[numSites()];
 		double count=0;
-		for(int i=0;i<integer_matrix[0].length;i++){
-			count=0;
-			for(int j=0;j<integer_matrix.length;j++){
-				if(integer_matrix[j][i]==5){
-					count++;
-				}
-			}
-			invalidcount[i] = (count/(double) integer_matrix.length);
+		for(int i=0;i<numSites();i++){
+			count=compressed.count(column(i), 5);
+			invalidcount[i] = (count/(double) packed.numSequences());
 		}
 		this.gapSitecount=invalidcount;
 	}
 	public int[] BaseCount(){
 		int count=0;
-		int[] invalidcount = new int[integer_matrix[0].length];
-		for(int i=0;i<integer_matrix[0].length;i++){
-			count=0;
-			for(int j=0;j<integer_matrix.length;j++){
-				if(integer_matrix[j][i]<5){
-					count++;
-				}
-			}
+		int[] invalidcount = new int[numSites()];
+		for(int i=0;i<numSites();i++){
+			count=packed.numSequences()-compressed.count(column(i), 5);
 			invalidcount[i] = (count);
 		}
 		return invalidcount;
@@ -1170,14 +1147,11 @@ public class Williamson3bin extends SiteEstMulti{
 	}
 
 	public void badsites_IncludeMainGaps(){
-		boolean[] badsites = new boolean[integer_matrix[0].length];
-		for (int j=0; j<integer_matrix[0].length; j++){
-			int tot=0;
+		boolean[] badsites = new boolean[numSites()];
+		for (int j=0; j<numSites(); j++){
+			int tot=compressed.count(column(j), 5);
 			if(integer_ancestral[j]==5){badsites[j]=true;}
-			for(int i=0;i<integer_matrix.length;i++){
-				if(integer_matrix[i][j]==5){tot++;}
-			}
-			if(tot==integer_matrix.length){badsites[j]=true;} // can change this to remove sites with insufficient data
+			if(tot==packed.numSequences()){badsites[j]=true;} // can change this to remove sites with insufficient data
 		}
 		this.bad_sites_list = badsites;
 	}
@@ -1187,12 +1161,12 @@ public class Williamson3bin extends SiteEstMulti{
 		int two=0;
 		int three=0;
 		int zero=0;
-		for(int i=0;i<integer_matrix.length;i++){
-			for (int j=0; j<integer_matrix[0].length; j=j+3){
+		for(int i=0;i<packed.numSequences();i++){
+			for (int j=0; j<numSites(); j=j+3){
 				int[] c = new int[3];
-				if(integer_matrix[i][j]==5){c[0]=1;}
-				if(integer_matrix[i][j+1]==5){c[1]=1;}
-				if(integer_matrix[i][j+2]==5){c[2]=1;}
+				if(packed.get(i, column(j))==5){c[0]=1;}
+				if(packed.get(i, column(j+1))==5){c[1]=1;}
+				if(packed.get(i, column(j+2))==5){c[2]=1;}
 				int tot = c[0]+c[1]+c[2];
 				if(tot==0){
 					zero++;
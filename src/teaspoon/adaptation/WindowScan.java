@@ -0,0 +1,119 @@
+package teaspoon.adaptation;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+
+import jebl.util.TaskPool;
+
+/**
+ * Sliding-window scans over whole-genome alignments. Window boundaries are worked out once per gene,
+ * every window runs as a task on a jebl.util.TaskPool and selects its rows and column range straight from the
+ * shared PackedAlignment (see Read_main.readPacked) instead of taking Methods.subMatrix copies.
+ *
+ * Results are handed back in submission order as soon as they and all earlier ones are done, so a
+ * caller can write per-window output while later windows are still running, and the output does not
+ * depend on the number of threads.
+ */
+public class WindowScan {
+
+    public static final int MAX_SEQUENCES = 30000;    // as Methods.subMatrix, larger windows are subsampled
+
+    private final TaskPool pool;
+
+    public WindowScan(int threads) {
+        this.pool = new TaskPool(threads, "window scan");
+    }
+
+    // {start, end} of the windows of a gene, each length columns long. With partial the last window is cut
+    // at end (the gene is covered by ceil(length) windows), otherwise only whole windows are kept.
+    public static int[][] windows(int start, int end, int length, boolean partial) {
+        int number = partial ? (end - start + length - 1) / length : (end - start) / length;
+        int[][] windows = new int[Math.max(number, 0)][];
+        for (int i = 0; i < windows.length; i++) {
+            int from = start + i * length;
+            windows[i] = new int[]{from, Math.min(from + length, end)};
+        }
+        return windows;
+    }
+
+    // rows of m to use for the window start .. end-1, packed over the window only: with gapLimit only those with
+    // at most 5% gaps in the window, as Methods.subMatrix. Beyond MAX_SEQUENCES a random subset is kept, drawn
+    // from random.
+    public static PackedAlignment rows(PackedAlignment m, int start, int end, boolean gapLimit, SplittableRandom random) {
+        int limit = (int) Math.round((end - start) * 0.05);
+        int[] gaps = new int[m.numSequences()];
+        if (gapLimit) {
+            m.countRows(start, end, 5, gaps);
+        }
+        boolean[] keep = new boolean[gaps.length];
+        for (int i = 0; i < gaps.length; i++) {
+            keep[i] = gaps[i] <= limit;
+        }
+        return rows(m, keep, start, end, random);
+    }
+
+    // the rows of m with keep set over columns start .. end-1, subsampled beyond MAX_SEQUENCES as above
+    public static PackedAlignment rows(PackedAlignment m, boolean[] keep, int start, int end, SplittableRandom random) {
+        int[] kept = new int[keep.length];
+        int n = 0;
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                kept[n++] = i;
+            }
+        }
+        if (n > MAX_SEQUENCES) {
+            // partial Fisher-Yates, the chosen rows then go back into alignment order
+            for (int k = 0; k < MAX_SEQUENCES; k++) {
+                int j = k + random.nextInt(n - k);
+                int tmp = kept[k];
+                kept[k] = kept[j];
+                kept[j] = tmp;
+            }
+            n = MAX_SEQUENCES;
+            Arrays.sort(kept, 0, n);
+        }
+        return m.select(Arrays.copyOf(kept, n), start, end);
+    }
+
+    // for windows of width codons starting at codon starts[w] of a gene beginning at column offset (starts a
+    // step apart, as RollingWindow.starts), which rows of m have at most 5% gaps in each window, as rows().
+    // The gap count of every row is carried from one window to the next.
+    public static boolean[][] keptRows(PackedAlignment m, int offset, int[] starts, int width, int step) {
+        int length = 3 * width;
+        int limit = (int) Math.round(length * 0.05);
+        int[] gaps = new int[m.numSequences()];
+        int[] left = new int[m.numSequences()];
+        boolean[][] kept = new boolean[starts.length][m.numSequences()];
+        for (int w = 0; w < starts.length; w++) {
+            int start = offset + 3 * starts[w];
+            if (w == 0 || step >= width) {
+                Arrays.fill(gaps, 0);
+                m.countRows(start, start + length, 5, gaps);
+            } else {
+                Arrays.fill(left, 0);
+                m.countRows(start - 3 * step, start, 5, left);
+                m.countRows(start - 3 * step + length, start + length, 5, gaps);
+                for (int i = 0; i < gaps.length; i++) {
+                    gaps[i] -= left[i];
+                }
+            }
+            for (int i = 0; i < gaps.length; i++) {
+                kept[w][i] = gaps[i] <= limit;
+            }
+        }
+        return kept;
+    }
+
+    // submits every task at once; the iterator blocks until the next result in submission order is ready
+    public <T> Iterator<T> scan(List<Callable<T>> tasks) {
+        return pool.results(tasks);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+}
@@ -9,8 +9,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
@@ -47,6 +51,9 @@ public class analyseDeepGenome implements Analysis {
 
     int[] map;
     Map<String, Integer> which;
+    int threads = Runtime.getRuntime().availableProcessors(); // window scans run on this many threads
+    boolean sufficientStatistics = false; // bootstrap replicates as weighted sums of per-codon statistics
+    long seed = System.currentTimeMillis(); // run seed, every replicate draws from a stream derived from it
 
     public analyseDeepGenome(String ancestralFile, String mainFile) {
 
@@ -70,9 +77,10 @@ public class analyseDeepGenome implements Analysis {
     public void bmAnalysis() {
 
         Read_main ancestral;
-        List<int[][]> main_alignments = new ArrayList<int[][]>();    //list of main_alignments that represent different timepoints...
+        List<PackedAlignment> main_alignments = new ArrayList<PackedAlignment>();    //list of main_alignments that represent different timepoints...
 
         no_timepoints = timepoints.length;
+        WindowScan scan = new WindowScan(threads);
         try {
             BufferedReader reader1 = new BufferedReader(new FileReader(ancestralFile));
             ancestral = new Read_main(reader1.readLine().trim(),true);
@@ -92,6 +100,9 @@ public class analyseDeepGenome implements Analysis {
                 highfreq = new BufferedWriter(new FileWriter(output + "_highfreq_table.csv"));
                 lowfreq = new BufferedWriter(new FileWriter(output + "_lowfreq_table.csv"));
                 midfreq = new BufferedWriter(new FileWriter(output + "_midfreq_table.csv"));
+                midfreq.write("gene,time,window,total_sites_mid,no_silent_sites_mid,no_replacement_sites_mid,rm/sm,no_of_adaptations,Seed\n");
+                lowfreq.write("gene,time,window,total_sites_low,no_silent_sites_low,no_replacement_sites_low,rl/sl,no_of_noneutral_sites,Seed\n");
+                highfreq.write("gene,time,window,total_sites_high,no_silent_sites_high,no_replacement_sites_high,rh/sh,no_of_adaptations,Seed\n");
             } else {
                 output = output.replace(".txt", "_indivNR");
                 System.out.println(output);
@@ -101,33 +112,50 @@ public class analyseDeepGenome implements Analysis {
                 String filename = reader2.readLine().trim();
                 Read_main m = new Read_main(filename, true);
                 System.out.println(filename);
-                main_alignments.add(m.readFASTA());
+                main_alignments.add(m.readPacked());
             }
 
 
             BufferedWriter summaryResults = new BufferedWriter(new FileWriter(output + "_summaryTable_windowlength_"+window_length+".csv"));
 
-            StringBuffer mid = new StringBuffer();
-            StringBuffer low = new StringBuffer();
-            StringBuffer high = new StringBuffer();
             StringBuilder summary = new StringBuilder();
             StringBuilder neutralRatio = new StringBuilder();
 
-            mid.append("gene,time,window,total_sites_mid,no_silent_sites_mid,no_replacement_sites_mid,rm/sm,no_of_adaptations\n");
-            low.append("gene,time,window,total_sites_low,no_silent_sites_low,no_replacement_sites_low,rl/sl,no_of_noneutral_sites\n");
-            high.append("gene,time,window,total_sites_high,no_silent_sites_high,no_replacement_sites_high,rh/sh,no_of_adaptations\n");
-            summary.append("Gene,Timepoint,r_l,r_m,r_h,s_l,s_m,s_h,a_l,a_h,Neutral Ratio,no_of_windows\n");
-            neutralRatio.append("Gene,r_m,s_m,Average Neutral Ratio\n");
+            summary.append("Gene,Timepoint,r_l,r_m,r_h,s_l,s_m,s_h,a_l,a_h,Neutral Ratio,no_of_windows,Seed\n");
+            neutralRatio.append("Gene,r_m,s_m,Average Neutral Ratio,Seed\n");
 
             int no_genes = genes.length;
+            boolean ancestralSeqs = ancestral.sequenceMatrix.length > 0;
+
+            // window boundaries once per gene, every window of every timepoint is a task of the scan
+            RandomStreams streams = new RandomStreams(seed);
+            int[][][] gene_windows = new int[no_genes][][];
+            List<Callable<BhattMethod>> tasks = new ArrayList<Callable<BhattMethod>>();
+            for(int g=0; g<no_genes; g++) {
+
+                int gene_start = genes[g][0]-1;
+                int gene_end = genes[g][1]-1;
+                gene_windows[g] = WindowScan.windows(gene_start, gene_end, window_length, true);
+                if (!ancestralSeqs) {
+                    continue;
+                }
+                int[] gene_ans_con = geneConsensus(ancestral, gene_start, gene_end);
+                for (int t = 0; t < no_timepoints; t++) {
+                    for (int i = 0; i < gene_windows[g].length; i++) {
+                        int[] window = gene_windows[g][i];
+                        int[] site_ans_con = Arrays.copyOfRange(gene_ans_con, window[0] - gene_start, window[1] - gene_start);
+                        tasks.add(bmWindow(main_alignments.get(t), window, site_ans_con, 100, streams.stream(g, t, i, -1), streams.stream(g, t, i), g));
+                    }
+                }
+            }
+            Iterator<BhattMethod> results = scan.scan(tasks);
 
             for(int g=0; g<no_genes; g++) {
 
                 int[] gene_boundary = genes[g];
                 int gene_start = gene_boundary[0]-1;
                 int gene_end = gene_boundary[1]-1;
-                int gene_length = gene_end-gene_start;
-                int no_sites = (int)Math.round(Math.ceil(gene_length/(double)window_length));
+                int no_sites = gene_windows[g].length;
 
                 System.out.println(gene_start+","+gene_end+": "+no_sites);
 
@@ -150,146 +178,77 @@ public class analyseDeepGenome implements Analysis {
 
                     int c = 0; // no of windows with no seqs
                     double d = 0.0;
-                    int codon_start = gene_start;
-                    int codon_end = codon_start + window_length;
                     for (int i = 0; i < no_sites; i++) {
 
-                        // check if sequences in frame
-
-//                        codon_start += window_length;
-//                        codon_end += window_length;
-
-                        if(codon_end > gene_end) {
-                            codon_end = gene_end;
-                            d = (codon_end-codon_start)/(double)window_length;
-
+                        int[] window = gene_windows[g][i];
+                        if(window[1] - window[0] < window_length) {
+                            d = (window[1] - window[0])/(double)window_length;
                         }
-                        //System.out.println(codon_start + "," + codon_end);
-                        int[][] site_ans = methods.subMatrix(ancestral.sequenceMatrix, codon_start, codon_end, false);
-
-
-                        if (site_ans.length > 0) {
-
-                            int[] site_ans_con = ancestral.consensusArray(site_ans);
-
-//                        for (int t = 0; t < no_timepoints; t++) {
-//
-//                            //System.out.println("*****************"+timepoints[t]+"*****************");
-//                            System.out.println("t:\t" + timepoints[t]);
-
-                            //main_alignments.get(t).readFASTA();
-
-
-                            int[][] site_main = methods.subMatrix(main_alignments.get(t), codon_start, codon_end, true);
 
+                        BhattMethod bm = ancestralSeqs ? results.next() : null;
+
+                        if (bm != null) {
+
+                            // per-window rows go out as soon as the window and all before it are done
+                            if (fixedNR) {
+                                StringBuffer row = new StringBuffer();
+                                methods.record(row, datasets[g], new double[]{g, i, Double.parseDouble(timepoints[t]), 0}, bm);
+                                lowfreq.write(withSeed(row));
+                                row.setLength(0);
+                                methods.record(row, datasets[g], new double[]{g, i, Double.parseDouble(timepoints[t]), 1}, bm);
+                                midfreq.write(withSeed(row));
+                                row.setLength(0);
+                                methods.record(row, datasets[g], new double[]{g, i, Double.parseDouble(timepoints[t]), 2}, bm);
+                                highfreq.write(withSeed(row));
+                            }
 
-                            if (site_main.length > 100) {
-
-                                //System.out.println(i+","+timepoints[t]+",main_length = 0");
-
-
-                                BhattMethod bm = new BhattMethod(site_main, site_ans_con);
-                                //bm.Method(bins, prior, false, Nvec, nr[g]);
-
-                                if (fixedNR == true) {
-
-                                    bm.Method(bins, prior, true, Nvec, nr[g]);
-
-                                }
-                                else {
-
-                                    bm.Method(bins, prior, true, Nvec);
-                                }
-
-                                for (int r = 0; r < bm.ReplacementCountArray.length; r++) {
-
-                                    if (Double.isNaN(bm.ReplacementCountArray[r])) {
-
-                                        bm.ReplacementCountArray[r] = 0.0;
-                                    }
-                                }
-
-                                for (int s = 0; s < bm.SilentCountArray.length; s++) {
-
-                                    if (Double.isNaN(bm.SilentCountArray[s])) {
-
-                                        bm.SilentCountArray[s] = 0.0;
-                                    }
-                                }
-
-                                for (int s = 0; s < bm.NonNeutralSubstitutions.length; s++) {
-
-                                    if (Double.isNaN(bm.NonNeutralSubstitutions[s])) {
-
-                                        bm.NonNeutralSubstitutions[s] = 0.0;
-                                    }
-                                }
-
-
-                                methods.record(low, datasets[g], new double[]{g, i, Double.parseDouble(timepoints[t]), 0}, bm);
-                                methods.record(mid, datasets[g], new double[]{g, i, Double.parseDouble(timepoints[t]), 1}, bm);
-                                methods.record(high, datasets[g], new double[]{g, i, Double.parseDouble(timepoints[t]), 2}, bm);
-
-                                if (!Double.isNaN(bm.ReplacementCountArray[1])) {
-                                    r_m.addValue(bm.ReplacementCountArray[1]);
-                                }
-                                if (!Double.isNaN(bm.SilentCountArray[1])) {
-                                    s_m.addValue(bm.SilentCountArray[1]);
-                                }
-
-                                r_l.addValue(bm.ReplacementCountArray[0]);
-                                s_l.addValue(bm.SilentCountArray[0]);
-//                                r_m.addValue(bm.ReplacementCountArray[1]);
-//                                s_m.addValue(bm.SilentCountArray[1]);
-                                r_h.addValue(bm.ReplacementCountArray[2]);
-                                s_h.addValue(bm.SilentCountArray[2]);
-                                adapt_l.addValue(bm.NonNeutralSubstitutions[0]);
-                                adapt_m.addValue(bm.NonNeutralSubstitutions[1]);
-                                adapt_h.addValue(bm.NonNeutralSubstitutions[2]);
-
-                            } else {
-                                System.out.println("no seqs at window " + i);
-                                if(d>0) {
-                                    d = 1;
-                                }
-                                c++;
+                            if (!Double.isNaN(bm.ReplacementCountArray[1])) {
+                                r_m.addValue(bm.ReplacementCountArray[1]);
+                            }
+                            if (!Double.isNaN(bm.SilentCountArray[1])) {
+                                s_m.addValue(bm.SilentCountArray[1]);
                             }
 
+                            r_l.addValue(bm.ReplacementCountArray[0]);
+                            s_l.addValue(bm.SilentCountArray[0]);
+                            r_h.addValue(bm.ReplacementCountArray[2]);
+                            s_h.addValue(bm.SilentCountArray[2]);
+                            adapt_l.addValue(bm.NonNeutralSubstitutions[0]);
+                            adapt_m.addValue(bm.NonNeutralSubstitutions[1]);
+                            adapt_h.addValue(bm.NonNeutralSubstitutions[2]);
 
                         } else {
-                            System.out.println("no seqs at first timepoint at window " + i);
+                            if (ancestralSeqs) {
+                                System.out.println("no seqs at window " + i);
+                            } else {
+                                System.out.println("no seqs at first timepoint at window " + i);
+                            }
                             if(d>0) {
                                 d = 1;
                             }
                             c++;
                         }
-
-                        codon_start += window_length;
-                        codon_end += window_length;
                     }
-                    high.append("\n");
-                    low.append("\n");
-                    mid.append("\n");
+                    if (fixedNR) {
+                        highfreq.write("\n");
+                        lowfreq.write("\n");
+                        midfreq.write("\n");
+                    }
 
 
                     System.out.println("no of windows: "+(double)((no_sites-1)+d-c));
 
                     //System.out.println(gene_names[g]+","+timepoints[t]+","+r_h.getSum()+","+adapt_h.getSum()+","+(no_sites-c));
-                    summary.append(datasets[g]).append(",").append(timepoints[t]).append(",").append(r_l.getSum()).append(",").append(r_m.getSum()).append(",").append(r_h.getSum()).append(",").append(s_l.getSum()).append(",").append(s_m.getSum()).append(",").append(s_h.getSum()).append(",").append(adapt_l.getSum()).append(",").append(adapt_h.getSum()).append(",").append(r_m.getSum()/s_m.getSum()).append(",").append((no_sites -1-c) + d).append("\n");
+                    summary.append(datasets[g]).append(",").append(timepoints[t]).append(",").append(r_l.getSum()).append(",").append(r_m.getSum()).append(",").append(r_h.getSum()).append(",").append(s_l.getSum()).append(",").append(s_m.getSum()).append(",").append(s_h.getSum()).append(",").append(adapt_l.getSum()).append(",").append(adapt_h.getSum()).append(",").append(r_m.getSum()/s_m.getSum()).append(",").append((no_sites -1-c) + d).append(",").append(seed).append("\n");
 
 
                 }
-                neutralRatio.append(datasets[g]).append(",").append(r_m.getSum()).append(",").append(s_m.getSum()).append(",").append(r_m.getSum() / s_m.getSum()).append("\n");
+                neutralRatio.append(datasets[g]).append(",").append(r_m.getSum()).append(",").append(s_m.getSum()).append(",").append(r_m.getSum() / s_m.getSum()).append(",").append(seed).append("\n");
                 System.out.println(">" + datasets[g] + ": r_m = " + r_m.getSum() + ", s_m = " + s_m.getSum() + " average_nr = " + r_m.getSum() / s_m.getSum());
 
             }
 
             if(fixedNR) {
-                lowfreq.write(low.toString());
-                midfreq.write(mid.toString());
-                highfreq.write(high.toString());
-
-
                 highfreq.close();
                 lowfreq.close();
                 midfreq.close();
@@ -305,9 +264,208 @@ public class analyseDeepGenome implements Analysis {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
         } catch (IOException e) {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+        } finally {
+            scan.shutdown();
+        }
+
+
+    }
+
+    // bmAnalysis on windows of window_length sites, one every window_step sites (both whole codons), with the
+    // fixed neutral ratios nr; one row per window, sites numbered from 1. As in bmAnalysis each window uses the
+    // sequences with at most 5% gaps in it, but consecutive windows that keep the same sequences are estimated
+    // together and their totals rolled along (BhattMethod.slidingWindows), so a step of one codon costs about
+    // one pass over the gene unless gappy sequences keep crossing the limit. Only whole windows are reported.
+    // Each row also has the diversity statistics of the window's sequences (DiversityStats.slidingWindowEstimates),
+    // rolled along the same runs.
+    public void bmAnalysisSliding(int window_step) {
+
+        if (window_length < 3 || window_length % 3 != 0 || window_step < 3 || window_step % 3 != 0) {
+            throw new IllegalArgumentException("window length and step must be whole codons, got "
+                    + window_length + " and " + window_step + " sites");
+        }
+        Read_main ancestral;
+        List<PackedAlignment> main_alignments = new ArrayList<PackedAlignment>();
+
+        no_timepoints = timepoints.length;
+        WindowScan scan = new WindowScan(threads);
+        try {
+            BufferedReader reader1 = new BufferedReader(new FileReader(ancestralFile));
+            ancestral = new Read_main(reader1.readLine().trim(), true);
+            ancestral.readFASTA();
+
+            BufferedReader reader2 = new BufferedReader(new FileReader(mainFile));
+            while (reader2.ready()) {
+
+                String filename = reader2.readLine().trim();
+                Read_main m = new Read_main(filename, true);
+                System.out.println(filename);
+                main_alignments.add(m.readPacked());
+            }
+
+            String output = mainFile.replace(".txt", "_sliding_" + window_length + "_" + window_step + ".csv");
+            System.out.println(output);
+            BufferedWriter table = new BufferedWriter(new FileWriter(output));
+            table.write("gene,time,window,window_start,window_end,r_l,r_m,r_h,s_l,s_m,s_h,a_l,a_m,a_h,S,theta_pi,tajimas_d,theta,Seed\n");
+
+            int no_genes = genes.length;
+            RandomStreams streams = new RandomStreams(seed);
+            List<Callable<SlidingWindows>> tasks = new ArrayList<Callable<SlidingWindows>>();
+            for (int g = 0; g < no_genes && ancestral.sequenceMatrix.length > 0; g++) {
+                int gene_start = genes[g][0] - 1;
+                int gene_end = genes[g][1] - 1;
+                int[] gene_ans_con = geneConsensus(ancestral, gene_start, gene_end);
+                for (int t = 0; t < no_timepoints; t++) {
+                    tasks.add(slidingWindows(main_alignments.get(t), gene_start, gene_end, gene_ans_con, window_step,
+                            streams.stream(g, t, -1), streams.stream(g, t), g));
+                }
+            }
+            Iterator<SlidingWindows> results = scan.scan(tasks);
+
+            for (int g = 0; g < no_genes && ancestral.sequenceMatrix.length > 0; g++) {
+                int gene_start = genes[g][0] - 1;
+                for (int t = 0; t < no_timepoints; t++) {
+                    SlidingWindows windows = results.next();
+                    if (windows == null) {
+                        System.out.println("no seqs for " + datasets[g] + " at " + timepoints[t]);
+                        continue;
+                    }
+                    StringBuilder rows = new StringBuilder();
+                    for (int i = 0; i < windows.bm.length; i++) {
+                        BhattMethod bm = windows.bm[i];
+                        if (bm == null) {
+                            System.out.println("no seqs at window " + i);
+                            continue;
+                        }
+                        int window_start = gene_start + i * window_step;
+                        rows.append(datasets[g]).append(",").append(timepoints[t]).append(",").append(i).append(",")
+                                .append(window_start + 1).append(",").append(window_start + window_length);
+                        for (double[] values : new double[][]{bm.ReplacementCountArray, bm.SilentCountArray, bm.NonNeutralSubstitutions,
+                                windows.diversity[i]}) {
+                            for (double v : values) {
+                                rows.append(",").append(v);
+                            }
+                        }
+                        rows.append(",").append(seed).append("\n");
+                    }
+                    table.write(rows.toString());
+                }
+            }
+            table.close();
+
+        } catch (IOException e) {
+            e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+        } finally {
+            scan.shutdown();
         }
+    }
 
+    // windows of one gene and timepoint for bmAnalysisSliding, null where no more than 100 sequences pass the gap
+    // limit, or null altogether if no window has enough
+    private Callable<SlidingWindows> slidingWindows(final PackedAlignment main, final int gene_start, final int gene_end, final int[] gene_ans_con,
+                                                   final int window_step, final SplittableRandom rows, final SplittableRandom random, final int g) {
+        return new Callable<SlidingWindows>() {
+            @Override
+            public SlidingWindows call() {
+                int width = window_length / 3;
+                int step = window_step / 3;
+                int[] starts = RollingWindow.starts((gene_end - gene_start) / 3, width, step);
+                BhattMethod[] windows = new BhattMethod[starts.length];
+                double[][] diversity = new double[starts.length][];
+                boolean[][] kept = WindowScan.keptRows(main, gene_start, starts, width, step);
+                boolean any = false;
+                for (int first = 0, last; first < starts.length; first = last) {
+                    // a run of windows that keep the same sequences
+                    for (last = first + 1; last < starts.length && Arrays.equals(kept[last], kept[first]); last++);
+                    int span_start = gene_start + 3 * starts[first];
+                    int span_end = gene_start + 3 * (starts[last - 1] + width);
+                    PackedAlignment span_main = WindowScan.rows(main, kept[first], span_start, span_end, rows);
+                    if (span_main.numSequences() <= 100) {
+                        continue;
+                    }
+                    int[] span_ans_con = Arrays.copyOfRange(gene_ans_con, span_start - gene_start, span_end - gene_start);
+                    BhattMethod span = new BhattMethod(span_main, span_ans_con);
+                    span.setRandom(random);
+                    BhattMethod[] run = span.slidingWindows(bins, prior.clone(), true, Nvec, nr[g], width, step);
+                    double[][] run_diversity = new DiversityStats(span_main).slidingWindowEstimates(width, step);
+                    for (int w = 0; w < run.length; w++) {
+                        clearNaN(run[w]);
+                        windows[first + w] = run[w];
+                        diversity[first + w] = run_diversity[w];
+                    }
+                    any = true;
+                }
+                return any ? new SlidingWindows(windows, diversity) : null;
+            }
+        };
+    }
+
+    // the windows of one gene and timepoint, diversity[i] is {S, theta pi, Tajima's D, theta} of window i
+    private static class SlidingWindows {
+        final BhattMethod[] bm;
+        final double[][] diversity;
+
+        SlidingWindows(BhattMethod[] bm, double[][] diversity) {
+            this.bm = bm;
+            this.diversity = diversity;
+        }
+    }
+
+    // the ancestral consensus is taken column by column, so it is worked out over a gene once and cut into windows
+    private int[] geneConsensus(Read_main ancestral, int gene_start, int gene_end) {
+        return ancestral.consensusArray(methods.subMatrix(ancestral.sequenceMatrix, gene_start, gene_end, false));
+    }
+
+    // one window of bmAnalysis over the shared rows of main, null if no more than minSequences pass the gap limit
+    private Callable<BhattMethod> bmWindow(final PackedAlignment main, final int[] window, final int[] site_ans_con, final int minSequences,
+                                           final SplittableRandom rows, final SplittableRandom random, final int g) {
+        return new Callable<BhattMethod>() {
+            @Override
+            public BhattMethod call() {
+                PackedAlignment site_main = WindowScan.rows(main, window[0], window[1], true, rows);
+                if (site_main.numSequences() <= minSequences) {
+                    return null;
+                }
+                BhattMethod bm = new BhattMethod(site_main, site_ans_con);
+                bm.setRandom(random);
+                if (fixedNR == true) {
+                    bm.Method(bins, prior.clone(), true, Nvec, nr[g]);
+                }
+                else {
+                    bm.Method(bins, prior.clone(), true, Nvec);
+                }
+                clearNaN(bm);
+                return bm;
+            }
+        };
+    }
 
+    // a Methods.record row with the run seed as its last column, as in analyseGene's bootstrap table
+    private String withSeed(StringBuffer row) {
+        row.setLength(row.length() - 1);
+        return row.append(",").append(seed).append("\n").toString();
+    }
+
+    // windows without a count in some bin add nothing to the gene totals
+    private static void clearNaN(BhattMethod bm) {
+        for (int x = 0; x < bm.ReplacementCountArray.length; x++) {
+            if (Double.isNaN(bm.ReplacementCountArray[x])) {
+                bm.ReplacementCountArray[x] = 0.0;
+            }
+        }
+        for (int x = 0; x < bm.SilentCountArray.length; x++) {
+            if (Double.isNaN(bm.SilentCountArray[x])) {
+                bm.SilentCountArray[x] = 0.0;
+            }
+        }
+        for (int x = 0; x < bm.NonNeutralSubstitutions.length; x++) {
+            if (Double.isNaN(bm.NonNeutralSubstitutions[x])) {
+                bm.NonNeutralSubstitutions[x] = 0.0;
+            }
+        }
+        if (Double.isNaN(bm.Adaptation)) {
+            bm.Adaptation = 0.0;
+        }
     }
 
     @Override
@@ -349,6 +507,8 @@ public class analyseDeepGenome implements Analysis {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
         }
 
+        RandomStreams streams = new RandomStreams(seed);
+
         for( int bs=0; bs < bootstraps; bs++) {
             System.out.println("I am on Run  "+(bs+1)+"  of "+bootstraps);
 
@@ -374,7 +534,7 @@ public class analyseDeepGenome implements Analysis {
 
                 int[] sampler = new int[gene_length / 3];
                 //choosing your codons
-                RandomGenerator generator = new RandomGenerator();
+                RandomGenerator generator = new RandomGenerator(streams.stream(bs, g));
                 for (int x = 0; x < sampler.length; x++) {
                     sampler[x] = generator.nextInt(sampler.length - 1);//generator.nextInt(sampler.length-1);
                 }
@@ -426,6 +586,7 @@ public class analyseDeepGenome implements Analysis {
                             if (temp_main.length >= 100) {
 
                                 BhattMethod bm = new BhattMethod(temp_main, temp_ans);
+                                bm.setRandom(streams.stream(bs, g, t, i));
 
                                  bm.Method(bins, prior, true, Nvec, nr[g]);
 
@@ -553,6 +714,8 @@ public class analyseDeepGenome implements Analysis {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
         }
 
+        RandomStreams streams = new RandomStreams(seed);
+
         for (int bs = 0; bs < bootstraps; bs++) {
             System.out.println("I am on Run  " + (bs + 1) + "  of " + bootstraps);
 
@@ -615,7 +778,7 @@ public class analyseDeepGenome implements Analysis {
 
                             int[] sampler = new int[site_ans_con.length / 3];
                             //choosing your codons
-                            RandomGenerator generator = new RandomGenerator();
+                            RandomGenerator generator = new RandomGenerator(streams.stream(bs, g, t, i));
                             for (int x = 0; x < sampler.length; x++) {
                                 sampler[x] = generator.nextInt(sampler.length - 1);//generator.nextInt(sampler.length-1);
                             }
@@ -624,8 +787,8 @@ public class analyseDeepGenome implements Analysis {
 
 
                                 BhattMethod b = new BhattMethod(site_main, site_ans_con);
-                                Store s = b.CreateBlocks(3, site_main[0].length, sampler); //******
-                                BhattMethod bm = new BhattMethod(s.RandomisedIntegerMatrix, s.RandomisedIntegerAncestral);
+                                BhattMethod bm = new BhattMethod(b, sampler);
+                                bm.setRandom(streams.stream(bs, g, t, i));
 
                                 bm.Method(bins, prior, true, Nvec, nr[g]);
 
@@ -730,6 +893,20 @@ public class analyseDeepGenome implements Analysis {
         this.which = which;
     }
 
+    // bootstrap replicates as weighted sums of per-codon statistics, in getBootstrapsBybmAnalysisByWindow
+    public void setSufficientStatistics(boolean sufficientStatistics) {
+        this.sufficientStatistics = sufficientStatistics;
+    }
+
+    // master seed of the run, every task draws from a stream derived from it; it is written to the CSVs
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
 
 
     public void getBootstrapsBybmAnalysisByWindow(int bootstraps) {
@@ -746,7 +923,7 @@ public class analyseDeepGenome implements Analysis {
         }
 
         Read_main ancestral = null;
-        List<int[][]> main_alignments = new ArrayList<int[][]>();
+        List<PackedAlignment> main_alignments = new ArrayList<PackedAlignment>();
 
         try {
             BufferedReader reader1 = new BufferedReader(new FileReader(ancestralFile));
@@ -761,7 +938,7 @@ public class analyseDeepGenome implements Analysis {
                 String filename = reader2.readLine().trim();
                 Read_main m = new Read_main(filename, true);
                 System.out.println(filename);
-                main_alignments.add(m.readFASTA());
+                main_alignments.add(m.readPacked());
             }
         } catch (FileNotFoundException e) {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
@@ -769,129 +946,79 @@ public class analyseDeepGenome implements Analysis {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
         }
 
-        for (int bs = 0; bs < bootstraps; bs++) {
-            System.out.println("I am on Run  " + (bs + 1) + "  of " + bootstraps);
-
-            //list of main_alignments that represent different timepoints...
-
-            no_timepoints = timepoints.length;
+        // with sufficient statistics each window is read and summarised once, replicates only reweight its codons
+        Map<String, BhattMethod> windows = new ConcurrentHashMap<String, BhattMethod>();
+        Map<String, double[][][]> windowfreq = new ConcurrentHashMap<String, double[][][]>();
 
+        RandomStreams streams = new RandomStreams(seed);
 
-            int no_genes = genes.length;
-
-            for (int g = 0; g < no_genes; g++) {
+        //list of main_alignments that represent different timepoints...
 
-                int[] gene_boundary = genes[g];
-                int gene_start = gene_boundary[0] - 1;
-                int gene_end = gene_boundary[1] - 1;
-                int gene_length = gene_end - gene_start;
-                int no_sites = gene_length / window_length;
-
-
-                System.out.println(gene_start + "," + gene_end + ": " + no_sites);
-
-
-                for (int t = 0; t < no_timepoints; t++) {
-                    DescriptiveStatistics r_m = new DescriptiveStatistics();
-                    DescriptiveStatistics s_m = new DescriptiveStatistics();
-                    DescriptiveStatistics r_l = new DescriptiveStatistics();
-                    DescriptiveStatistics s_l = new DescriptiveStatistics();
-                    DescriptiveStatistics r_h = new DescriptiveStatistics();
-                    DescriptiveStatistics s_h = new DescriptiveStatistics();
-                    DescriptiveStatistics adapt_l = new DescriptiveStatistics();
-                    DescriptiveStatistics adapt_m = new DescriptiveStatistics();
-                    DescriptiveStatistics adapt_h = new DescriptiveStatistics();
-
-                    int c = 0;
-                    for (int i = 0; i < no_sites; i++) {
-
-                        int codon_start = gene_start;
-                        int codon_end = codon_start + window_length;   // check if sequences in frame
-
-                        codon_start += i * window_length;
-                        codon_end += i * window_length;
-
-                        //System.out.println(codon_start + "," + codon_end);
-                        assert ancestral != null;
-                        int[][] site_ans = methods.subMatrix(ancestral.sequenceMatrix, codon_start, codon_end, false);
-
-
-                        if (site_ans.length > 0) {
-
-                            int[] site_ans_con = ancestral.consensusArray(site_ans);
-
-
-                            //System.out.println("*****************"+timepoints[t]+"*****************");
-                            //System.out.println("t:\t" + timepoints[t]);
-
-                            //main_alignments.get(t).readFASTA();
-
-
-                            int[][] site_main = methods.subMatrix(main_alignments.get(t), codon_start, codon_end, true);
-
-                            int[] sampler = new int[site_ans_con.length / 3];
-                            //choosing your codons
-                            RandomGenerator generator = new RandomGenerator();
-                            for (int x = 0; x < sampler.length; x++) {
-                                sampler[x] = generator.nextInt(sampler.length - 1);//generator.nextInt(sampler.length-1);
-                            }
-
-                            if (site_main.length > 10) {
-
-
-                                //System.out.println(i+","+timepoints[t]+",main_length = 0");
-
-
-                                BhattMethod b = new BhattMethod(site_main, site_ans_con);
-                                Store s = b.CreateBlocks(3, site_main[0].length, sampler); //******
-                                BhattMethod bm = new BhattMethod(s.RandomisedIntegerMatrix, s.RandomisedIntegerAncestral);
-
-                                //bm.Method(bins, prior, false, Nvec, nr[g]);
-
-//                                    if (fixedNR == true) {
+        no_timepoints = timepoints.length;
 
-                                bm.Method(bins, prior, true, Nvec, nr[g]);
 
-//                                    } else {
-//
-//                                        bm.Method(bins, prior, true, Nvec);
-//                                    }
-
-                                for (int x = 0; x < bm.ReplacementCountArray.length; x++) {
+        int no_genes = genes.length;
 
-                                    if (Double.isNaN(bm.ReplacementCountArray[x])) {
-
-                                        bm.ReplacementCountArray[x] = 0.0;
-                                    }
-                                }
-
-                                for (int x = 0; x < bm.SilentCountArray.length; x++) {
+        // window boundaries and the ancestral consensus are the same in every replicate
+        assert ancestral != null;
+        boolean ancestralSeqs = ancestral.sequenceMatrix.length > 0;
+        int[][][] gene_windows = new int[no_genes][][];
+        int[][] gene_ans_con = new int[no_genes][];
+        for (int g = 0; g < no_genes; g++) {
+            int gene_start = genes[g][0] - 1;
+            int gene_end = genes[g][1] - 1;
+            gene_windows[g] = WindowScan.windows(gene_start, gene_end, window_length, false);
+            if (ancestralSeqs) {
+                gene_ans_con[g] = geneConsensus(ancestral, gene_start, gene_end);
+            }
+        }
 
-                                    if (Double.isNaN(bm.SilentCountArray[x])) {
+        WindowScan scan = new WindowScan(threads);
+        try {
+            for (int bs = 0; bs < bootstraps; bs++) {
+                System.out.println("I am on Run  " + (bs + 1) + "  of " + bootstraps);
+
+                List<Callable<BhattMethod>> tasks = new ArrayList<Callable<BhattMethod>>();
+                for (int g = 0; g < no_genes && ancestralSeqs; g++) {
+                    int gene_start = genes[g][0] - 1;
+                    for (int t = 0; t < no_timepoints; t++) {
+                        for (int i = 0; i < gene_windows[g].length; i++) {
+                            int[] window = gene_windows[g][i];
+                            int[] site_ans_con = Arrays.copyOfRange(gene_ans_con[g], window[0] - gene_start, window[1] - gene_start);
+                            tasks.add(bootstrapWindow(main_alignments.get(t), window, site_ans_con, streams, windows, windowfreq, bs, g, t, i));
+                        }
+                    }
+                }
+                Iterator<BhattMethod> results = scan.scan(tasks);
 
-                                        bm.SilentCountArray[x] = 0.0;
-                                    }
-                                }
+                for (int g = 0; g < no_genes; g++) {
 
-                                for (int x = 0; x < bm.NonNeutralSubstitutions.length; x++) {
+                    int[] gene_boundary = genes[g];
+                    int gene_start = gene_boundary[0] - 1;
+                    int gene_end = gene_boundary[1] - 1;
+                    int no_sites = gene_windows[g].length;
 
-                                    if (Double.isNaN(bm.NonNeutralSubstitutions[x])) {
 
-                                        bm.NonNeutralSubstitutions[x] = 0.0;
-                                    }
-                                }
+                    System.out.println(gene_start + "," + gene_end + ": " + no_sites);
 
-                                if (Double.isNaN(bm.Adaptation)) {
 
-                                    bm.Adaptation = 0.0;
-                                }
+                    for (int t = 0; t < no_timepoints; t++) {
+                        DescriptiveStatistics r_m = new DescriptiveStatistics();
+                        DescriptiveStatistics s_m = new DescriptiveStatistics();
+                        DescriptiveStatistics r_l = new DescriptiveStatistics();
+                        DescriptiveStatistics s_l = new DescriptiveStatistics();
+                        DescriptiveStatistics r_h = new DescriptiveStatistics();
+                        DescriptiveStatistics s_h = new DescriptiveStatistics();
+                        DescriptiveStatistics adapt_l = new DescriptiveStatistics();
+                        DescriptiveStatistics adapt_m = new DescriptiveStatistics();
+                        DescriptiveStatistics adapt_h = new DescriptiveStatistics();
 
+                        int c = 0;
+                        for (int i = 0; i < no_sites; i++) {
 
-                                //System.out.println(t+","+timepoints[t])
-//                                    record(low, new double[]{g, i, Double.parseDouble(timepoints[t]), 0}, bm);
-//                                    record(mid, new double[]{g, i, Double.parseDouble(timepoints[t]), 1}, bm);
-//                                    record(high, new double[]{g, i, Double.parseDouble(timepoints[t]), 2}, bm);
+                            BhattMethod bm = ancestralSeqs ? results.next() : null;
 
+                            if (bm != null) {
 
                                 r_l.addValue(bm.ReplacementCountArray[0]);
                                 s_l.addValue(bm.SilentCountArray[0]);
@@ -903,50 +1030,84 @@ public class analyseDeepGenome implements Analysis {
                                 adapt_m.addValue(bm.NonNeutralSubstitutions[1]);
                                 adapt_h.addValue(bm.Adaptation);
 
-
-//                                    if (!Double.isNaN(bm.ReplacementCountArray[1])) {
-//                                        r_m.addValue(bm.ReplacementCountArray[1]);
-//                                    }
-//                                    if (!Double.isNaN(bm.SilentCountArray[1])) {
-//                                        s_m.addValue(bm.SilentCountArray[1]);
-//                                    }
-
-
-                            } else {
+                            } else if (ancestralSeqs) {
                                 System.out.println("no seqs at window " + i);
                                 c++;
+                            } else {
+                                System.out.println("no seqs at first timepoint at window " + i);
+                                c++;
                             }
+                        }
+                        System.out.println("no of windows: " + (no_sites - c));
+                        value_matrix[t][g].rm[bs] = r_m.getSum();
+                        value_matrix[t][g].sm[bs] = s_m.getSum();
+                        value_matrix[t][g].rh[bs] = r_h.getSum();
+                        value_matrix[t][g].sh[bs] = s_h.getSum();
+                        value_matrix[t][g].rl[bs] = r_l.getSum();
+                        value_matrix[t][g].sl[bs] = s_l.getSum();
+                        value_matrix[t][g].adaptations[bs] = adapt_h.getSum();
+                        value_matrix[t][g].row = timepoints[t];
+                        value_matrix[t][g].column = datasets[g];
+                        value_matrix[t][g].no_windows[bs] = (no_sites - c);
 
 
-                        } else {
-                            System.out.println("no seqs at first timepoint at window " + i);
-                            c++;
-                        }
                     }
-                    System.out.println("no of windows: " + (no_sites - c));
-//                        high.append("\n");
-//                        low.append("\n");
-//                        mid.append("\n");
-                    value_matrix[t][g].rm[bs] = r_m.getSum();
-                    value_matrix[t][g].sm[bs] = s_m.getSum();
-                    value_matrix[t][g].rh[bs] = r_h.getSum();
-                    value_matrix[t][g].sh[bs] = s_h.getSum();
-                    value_matrix[t][g].rl[bs] = r_l.getSum();
-                    value_matrix[t][g].sl[bs] = s_l.getSum();
-                    value_matrix[t][g].adaptations[bs] = adapt_h.getSum();
-                    value_matrix[t][g].row = timepoints[t];
-                    value_matrix[t][g].column = datasets[g];
-                    value_matrix[t][g].no_windows[bs] = (no_sites - c);
+                    //System.out.println(">" + gene_names[g] + ": r_m = " + r_m.getSum() + ", s_m = " + s_m.getSum() + " average_nr = " + r_m.getSum() / s_m.getSum());
 
 
                 }
-                //System.out.println(">" + gene_names[g] + ": r_m = " + r_m.getSum() + ", s_m = " + s_m.getSum() + " average_nr = " + r_m.getSum() / s_m.getSum());
 
 
             }
+        } finally {
+            scan.shutdown();
+        }
+    }
 
+    // one window of one bootstrap replicate, null if no more than 10 sequences pass the gap limit. The rows
+    // of a window are drawn once for all replicates; with sufficient statistics the window itself is kept too.
+    private Callable<BhattMethod> bootstrapWindow(final PackedAlignment main, final int[] window, final int[] site_ans_con, final RandomStreams streams,
+                                                  final Map<String, BhattMethod> windows, final Map<String, double[][][]> windowfreq,
+                                                  final int bs, final int g, final int t, final int i) {
+        return new Callable<BhattMethod>() {
+            @Override
+            public BhattMethod call() {
+                String key = g + "," + t + "," + i;
+                BhattMethod b = windows.get(key);
+
+                int[] sampler = new int[site_ans_con.length / 3];
+                //choosing your codons
+                RandomGenerator generator = new RandomGenerator(streams.stream(bs, g, t, i));
+                for (int x = 0; x < sampler.length; x++) {
+                    sampler[x] = generator.nextInt(sampler.length - 1);//generator.nextInt(sampler.length-1);
+                }
 
-        }
+                if (b == null) {
+                    // a kept window passed this check when it was made
+                    PackedAlignment site_main = WindowScan.rows(main, window[0], window[1], true, streams.stream(-1, g, t, i, -1));
+                    if (site_main.numSequences() <= 10) {
+                        return null;
+                    }
+                    b = new BhattMethod(site_main, site_ans_con);
+                    if (sufficientStatistics) {
+                        b.setRandom(streams.stream(-1, g, t, i));
+                        windowfreq.put(key, b.CodonSiteFreq(bins, prior.clone(), true));
+                        windows.put(key, b);
+                    }
+                }
+                BhattMethod bm = new BhattMethod(b, sampler);
+
+                if (sufficientStatistics) {
+                    double[][][] codonfreq = windowfreq.get(key);
+                    bm.Method(codonfreq, BhattMethod.codonWeights(sampler, codonfreq[0].length), Nvec, nr[g]);
+                } else {
+                    bm.setRandom(streams.stream(bs, g, t, i));
+                    bm.Method(bins, prior.clone(), true, Nvec, nr[g]);
+                }
+                clearNaN(bm);
+                return bm;
+            }
+        };
     }
 
 
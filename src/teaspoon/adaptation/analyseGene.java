@@ -7,9 +7,13 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import teaspoon.adaptation.Methods.*;
@@ -52,6 +56,10 @@ public class analyseGene implements Analysis {
     int [] map;
     Map<String, Integer> which = new HashMap<String, Integer>();
     Methods methods = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    long seed = System.currentTimeMillis(); // run seed, recorded in the bootstrap CSV
+    boolean analyticBeta = false;
+    boolean sufficientStatistics = false; // bootstrap replicates as weighted sums of per-codon statistics
 
     public analyseGene(String ancestralFile, String mainFile) {
 
@@ -158,6 +166,7 @@ public class analyseGene implements Analysis {
                                 }
 
                                 BhattMethod bm = new BhattMethod(main, ans_tmp);
+                                bm.setAnalyticBeta(analyticBeta);
 
                                 if (fixedNR == true) {
 
@@ -320,6 +329,7 @@ public class analyseGene implements Analysis {
 
 
                             BhattMethod bm = new BhattMethod(main, ans_tmp);
+                            bm.setAnalyticBeta(analyticBeta);
 
                             if (fixedNR) {
 
@@ -419,173 +429,114 @@ public class analyseGene implements Analysis {
 
 
 
-        for (int bs = 0; bs < bootstraps; bs++) {
-
-            //int c = 0;
-
+        final BootstrapExecutor executor = new BootstrapExecutor(threads, seed);
 
-//            if (which.containsKey(datasets[0])) {
-//                int[] tmp_2 = methods.Subsetter(ans, map, which.get(datasets[0]));
-//                ans = tmp_2;
-//
-//            }
+        // dataset x timepoint cells are fixed across replicates, so resolve them once
+        final List<BootstrapCell> cells = new ArrayList<BootstrapCell>();
+        final int[][] ans_per_dataset = new int[no_datasets][];
+        int c = 0;
 
-            //choosing your codons
+        for (int t = 0; t < no_datasets; t++) {
 
-            //int [] ans = ancestral.consensusArray(ancestralMatrix);
+            int [] ans_tmp = ans;
 
-            RandomGenerator generator = new RandomGenerator();
-            int[] sampler = new int[ans.length / 3];
+            no_timepoints = timepoints_per_dataset[t];
+            timepoints = timepoints_multi.get(datasets[t]);
 
-            for (int x = 0; x < sampler.length; x++) {
-                sampler[x] = generator.nextInt(sampler.length - 1);//generator.nextInt(sampler.length-1);
+            if (which.containsKey(datasets[t])) {
+                ans_tmp = methods.Subsetter(ans_tmp, map, which.get(datasets[t]));
             }
+            ans_per_dataset[t] = ans_tmp;
 
-            int c = 0;
-
-            for (int t = 0; t < no_datasets; t++) {
+            for (int d = 0; d < no_timepoints; d++) {
 
+                int[][] main = main_alignments.get(c);
 
-                int [] ans_tmp = ans;
-//                System.out.println(nr[t]);
-
-                no_timepoints = timepoints_per_dataset[t];
-                timepoints = timepoints_multi.get(datasets[t]);
-
-                //               int[] ans_tmp = ans;
-
-                if (which.containsKey(datasets[t])) {
-
-                    int[] tmp_2 = methods.Subsetter(ans_tmp, map, which.get(datasets[t]));
-
-                    ans_tmp = tmp_2;
-                    sampler = new int[ans_tmp.length / 3];
-
-                    for (int x = 0; x < sampler.length; x++) {
-                        sampler[x] = generator.nextInt(sampler.length - 1);//generator.nextInt(sampler.length-1);
+                while((main == null || main.length < 10)) {
+                    d+=1;
+                    c++;
+                    if(d == no_timepoints && c== main_alignments.size()) {
+                        break;
                     }
+                    main = main_alignments.get(c);
+                }
 
+                if (which.containsKey(datasets[t])) {
+                    main = methods.Subsetter(main, map, which.get(datasets[t]));
                 }
 
+                value_matrix[d][t].row = timepoints[d];
+                value_matrix[d][t].column = datasets[t];
+                value_matrix[d][t].codons = ans_tmp.length / 3;
+
+                // replicates are views over these, the summary is built here as it is not thread safe
+                BhattMethod original = new BhattMethod(main, ans_tmp);
+                original.summary();
+                DiversityStats stats = new DiversityStats(original.packed);
+                BootstrapCell cell = new BootstrapCell(d, t, original, stats);
+                if (sufficientStatistics) {
+                    original.setRandom(executor.stream(-1, t, d));
+                    original.setAnalyticBeta(analyticBeta);
+                    cell.codonfreq = original.CodonSiteFreq(bins, prior.clone(), true);
+                    cell.codonStatistics = stats.codonStatistics();
+                }
+                cells.add(cell);
+                c++;
+            }
+        }
 
+        final AtomicInteger[] remaining = new AtomicInteger[bootstraps];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
 
-                //System.out.println(datasets[t]);
-                for (int d = 0; d < no_timepoints; d++) {
+        for (int bs = 0; bs < bootstraps; bs++) {
 
-                    int[][] main = main_alignments.get(c);
-                    //if(reader2.ready()) {
-                    //String mainFile = reader2.readLine().trim();
+            remaining[bs] = new AtomicInteger(cells.size());
 
-                    //Read_main r = new Read_main(mainFile);
-                    //int [] ans_tmp = ancestral.consensusArray(ancestralMatrix);
-                    //System.out.println(c);
+            for (final BootstrapCell cell : cells) {
 
+                final int replicate = bs;
+                final int total = bootstraps;
 
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
 
-                    //System.out.println(d+","+main);
-                    while((main == null || main.length < 10)) {
-                        d+=1;
-                        c++;
-                        if(d == no_timepoints && c== main_alignments.size()) {
-                            break;
+                        //choosing your codons: one draw per replicate shared by every dataset (a paired bootstrap),
+                        //a subsetted dataset has fewer codons and draws its own
+                        int[] ans_tmp = ans_per_dataset[cell.t];
+                        SplittableRandom codons = which.containsKey(datasets[cell.t])
+                                ? executor.stream(replicate, cell.t) : executor.stream(replicate);
+                        int[] sampler = new int[ans_tmp.length / 3];
+                        for (int x = 0; x < sampler.length; x++) {
+                            sampler[x] = codons.nextInt(sampler.length);
                         }
-                        //System.out.println(main);
-                        main = main_alignments.get(c);
-                        //System.out.println(">"+main);
-                        //System.out.println(c);
-
-
-                    }
-                    //System.out.println(c);
-                    //System.out.println(d+","+main);
 
+                        BhattMethod bm = new BhattMethod(cell.original, sampler);
+
+                        if (cell.codonfreq != null) {
+                            int[] weights = BhattMethod.codonWeights(sampler, cell.codonStatistics.length);
+                            bm.Method(cell.codonfreq, weights, Nvec, nr[cell.t]);
+                            recordBootstrap(value_matrix[cell.d][cell.t], replicate, bm, cell.stats.bootstrapEstimates(cell.codonStatistics, weights));
+                        } else {
+                            bm.setRandom(executor.stream(replicate, cell.t, cell.d));
+                            bm.setAnalyticBeta(analyticBeta);
+                            bm.Method(bins, prior.clone(), true, Nvec, nr[cell.t]);
+                            recordBootstrap(value_matrix[cell.d][cell.t], replicate, bm, new DiversityStats(cell.stats, sampler));
+                        }
 
-                    if (which.containsKey(datasets[t])) {
-
-                        //int[] list = codonlist.get(datasets[t]);
-                        int[][] tmp_1 = methods.Subsetter(main, map, which.get(datasets[t]));
-                        //int[] tmp_2 = methods.Subsetter(ans_tmp, map, which.get(datasets[t]));
-
-                        main = tmp_1;
-                    //ans_tmp = tmp_2;
-
-
-                    }
-
-                    //int[] tmp_2 = ancestral.consensusArray(ancestralMatrix);
-
-                    //System.out.println(main);
-                    BhattMethod b = new BhattMethod(main, ans_tmp); //******
-                    Store s = b.CreateBlocks(3, main[0].length, sampler); //******
-                    BhattMethod bm = new BhattMethod(s.RandomisedIntegerMatrix, s.RandomisedIntegerAncestral);
-
-                    bm.Method(bins, prior, true, Nvec, nr[t]);
-
-
-                    //System.out.println(timepoints[d]+","+datasets[t]);
-                    value_matrix[d][t].row = timepoints[d];
-                    value_matrix[d][t].column = datasets[t];
-                    value_matrix[d][t].codons = sampler.length;
-
-                    value_matrix[d][t].rm[bs] = bm.ReplacementCountArray[1];
-                    value_matrix[d][t].sm[bs] = bm.SilentCountArray[1];
-                    value_matrix[d][t].rh[bs] = bm.ReplacementCountArray[2];
-                    value_matrix[d][t].sh[bs] = bm.SilentCountArray[2];
-                    value_matrix[d][t].sl[bs] = bm.SilentCountArray[0];
-                    value_matrix[d][t].rl[bs] = bm.ReplacementCountArray[0];
-
-
-                    if (bm.ReplacementCountArray[2] > 0) {
-                        value_matrix[d][t].sh_rh[bs] = bm.SilentCountArray[2] / bm.ReplacementCountArray[2];
-                    }
-
-                    if (bm.SilentCountArray[2] > 0) {
-                        value_matrix[d][t].rh_sh[bs] = bm.ReplacementCountArray[2] / bm.SilentCountArray[2];
-                    }
-
-                    if (bm.SilentCountArray[0] > 0) {
-                        value_matrix[d][t].rl_sl[bs] = bm.ReplacementCountArray[0] / bm.SilentCountArray[0];
-
-                    }
-                    if (bm.SilentCountArray[1] > 0) {
-                        value_matrix[d][t].nr[bs] = bm.neutralratio;
-
-                    }
-
-                    if (Double.isNaN(bm.Adaptation)) {
-                        bm.Adaptation = 0.0;
-                    }
-                    value_matrix[d][t].adaptations[bs] = bm.Adaptation;
-
-                    DiversityStats diversityStats = new DiversityStats(bm.integer_matrix);
-                    double[] wattersonEstimates = diversityStats.wattersonEstimates();
-
-                    value_matrix[d][t].tajimas_D[bs] = diversityStats.TajimasD();
-                    if (Double.isNaN(value_matrix[d][t].tajimas_D[bs])) {
-                        value_matrix[d][t].tajimas_D[bs] = 0.0;
+                        if (remaining[replicate].decrementAndGet() == 0) {
+                            System.out.println("I am on Run  " + (replicate + 1) + "  of " + total);
+                        }
+                        return null;
                     }
-                    value_matrix[d][t].watterson_S[bs] = wattersonEstimates[0];
-                    value_matrix[d][t].watterson_pi[bs] = wattersonEstimates[1];
-                    value_matrix[d][t].theta[bs] = diversityStats.theta();
-
-
-                    c++;
-
-                    //}
-                    //}
-                    //}
-                    //}
-
-
-                }
-
-
+                });
             }
+        }
 
-
-            System.out.println("I am on Run  " + (bs + 1) + "  of " + bootstraps);
-
-
+        try {
+            executor.invokeAll(tasks);
+        } finally {
+            executor.shutdown();
         }
 
 
@@ -593,7 +544,7 @@ public class analyseGene implements Analysis {
         try {
             BufferedWriter writer = new BufferedWriter(new FileWriter(output.replace(".txt", "_bootstraps_n_"+bootstraps+"_adaptations.csv")));
 
-            writer.write("dataset, Time,Mean,Median,Lower Quartile,Upper Quartile,Standard Deviation,No of Codons\n");
+            writer.write("dataset, Time,Mean,Median,Lower Quartile,Upper Quartile,Standard Deviation,No of Codons,Seed\n");
 
             for (int d = 0; d < no_datasets; d++) {
                 String s = String.valueOf(datasets[d]);
@@ -613,7 +564,7 @@ public class analyseGene implements Analysis {
 
 
                     System.out.println(s+","+t + "," + mean + ","+ med + "," + lq + "," + uq + "," + std + "," + value_matrix[t][d].codons);
-                    writer.write(s+","+t + "," + mean + ","+ med + "," + lq + "," + uq + "," + std + "," + value_matrix[t][d].codons+"\n");
+                    writer.write(s+","+t + "," + mean + ","+ med + "," + lq + "," + uq + "," + std + "," + value_matrix[t][d].codons+","+executor.getSeed()+"\n");
 
                     //                System.out.println();
 //                System.out.println(d + "," + t + "," + value_matrix[t][d].rh[d]);
@@ -637,6 +588,68 @@ public class analyseGene implements Analysis {
 
 
 
+    // stores one replicate's estimates, each replicate writes only its own slot
+    private void recordBootstrap(Value value, int bs, BhattMethod bm, DiversityStats diversityStats) {
+        double[] wattersonEstimates = diversityStats.wattersonEstimates();
+        recordBootstrap(value, bs, bm, new double[]{wattersonEstimates[0], wattersonEstimates[1], diversityStats.TajimasD(), diversityStats.theta()});
+    }
+
+    // diversity holds watterson theta S, theta pi, Tajima's D and theta as in DiversityStats.bootstrapEstimates
+    private void recordBootstrap(Value value, int bs, BhattMethod bm, double[] diversity) {
+
+        value.rm[bs] = bm.ReplacementCountArray[1];
+        value.sm[bs] = bm.SilentCountArray[1];
+        value.rh[bs] = bm.ReplacementCountArray[2];
+        value.sh[bs] = bm.SilentCountArray[2];
+        value.sl[bs] = bm.SilentCountArray[0];
+        value.rl[bs] = bm.ReplacementCountArray[0];
+
+        if (bm.ReplacementCountArray[2] > 0) {
+            value.sh_rh[bs] = bm.SilentCountArray[2] / bm.ReplacementCountArray[2];
+        }
+        if (bm.SilentCountArray[2] > 0) {
+            value.rh_sh[bs] = bm.ReplacementCountArray[2] / bm.SilentCountArray[2];
+        }
+        if (bm.SilentCountArray[0] > 0) {
+            value.rl_sl[bs] = bm.ReplacementCountArray[0] / bm.SilentCountArray[0];
+        }
+        if (bm.SilentCountArray[1] > 0) {
+            value.nr[bs] = bm.neutralratio;
+        }
+
+        if (Double.isNaN(bm.Adaptation)) {
+            bm.Adaptation = 0.0;
+        }
+        value.adaptations[bs] = bm.Adaptation;
+
+        value.tajimas_D[bs] = diversity[2];
+        if (Double.isNaN(value.tajimas_D[bs])) {
+            value.tajimas_D[bs] = 0.0;
+        }
+        value.watterson_S[bs] = diversity[0];
+        value.watterson_pi[bs] = diversity[1];
+        value.theta[bs] = diversity[3];
+    }
+
+    // one dataset x timepoint alignment taking part in every bootstrap replicate
+    private static class BootstrapCell {
+        final int d;
+        final int t;
+        final BhattMethod original;
+        final DiversityStats stats;
+        double[][][] codonfreq;         // per-codon site frequencies, only for sufficient statistics
+        double[][] codonStatistics;
+
+        BootstrapCell(int d, int t, BhattMethod original, DiversityStats stats) {
+            this.d = d;
+            this.t = t;
+            this.original = original;
+            this.stats = stats;
+        }
+    }
+
+
+
     public void w3bAnalysis() {
 
         try {
@@ -855,6 +868,25 @@ public class analyseGene implements Analysis {
         this.which = which;
     }
 
+    // exact Beta bin probabilities (BhattMethod.setAnalyticBeta) in place of Monte Carlo draws
+    public void setAnalyticBeta(boolean analyticBeta) {
+        this.analyticBeta = analyticBeta;
+    }
+
+    // bootstrap replicates as weighted sums of per-codon statistics, in bmAnalysisBootstrap and getBootstrapsByBm
+    public void setSufficientStatistics(boolean sufficientStatistics) {
+        this.sufficientStatistics = sufficientStatistics;
+    }
+
+    // master seed of the run, every task draws from a stream derived from it; it is written to the CSVs
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
 
     public void getBootstrapsByW3Bin() {
         value_matrix = new Value[this.no_timepoints][this.no_datasets];
@@ -893,6 +925,8 @@ public class analyseGene implements Analysis {
 
         int n = 0;
 
+        RandomStreams streams = new RandomStreams(seed);
+
         for( int bs=0; bs < bootstraps; bs++) {
 //            try {
 //                BufferedReader reader1 = new BufferedReader(new FileReader("ancestral_filelist_nr.txt"));
@@ -913,7 +947,7 @@ public class analyseGene implements Analysis {
                 int[] sampler = new int[ans.length/3];
 
                 //choosing your codons
-                RandomGenerator generator = new RandomGenerator();
+                RandomGenerator generator = new RandomGenerator(streams.stream(bs, t));
                 for(int x=0; x< sampler.length; x++) {
                     sampler[x] = generator.nextInt(sampler.length-1);
                 }
@@ -945,9 +979,8 @@ public class analyseGene implements Analysis {
                     }
 
                     Williamson3bin ww = new Williamson3bin(main,ans_tmp);
-                    //creating matrices with randomly chosen codons
-                    Store s = ww.CreateBlocks(3,main[0].length,sampler);
-                    Williamson3bin w = new Williamson3bin(s.RandomisedIntegerMatrix,s.RandomisedIntegerAncestral);
+                    //view over the randomly chosen codons
+                    Williamson3bin w = new Williamson3bin(ww, sampler);
                     w.williamson3bin_method(low, mid, high);
 
                     value_matrix[d][t].row = timepoints[d];
@@ -1017,6 +1050,11 @@ public class analyseGene implements Analysis {
         }
 
 
+        // the alignments are the same in every replicate, only the codon sampler changes
+        BootstrapCell[][] cells = new BootstrapCell[no_datasets][];
+
+        RandomStreams streams = new RandomStreams(seed);
+
         for (int bs = 0; bs < bootstraps; bs++) {
 //            try {
 //                BufferedReader reader1 = new BufferedReader(new FileReader(ancestralFile));
@@ -1038,7 +1076,7 @@ public class analyseGene implements Analysis {
                 int[] sampler = new int[ans.length / 3];
 
                 //choosing your codons
-                RandomGenerator generator = new RandomGenerator();
+                RandomGenerator generator = new RandomGenerator(streams.stream(bs, t));
                 for (int x = 0; x < sampler.length; x++) {
                     sampler[x] = generator.nextInt(sampler.length - 1);//generator.nextInt(sampler.length-1);
                 }
@@ -1048,6 +1086,9 @@ public class analyseGene implements Analysis {
                 no_timepoints = timepoints_per_dataset[t];
                 timepoints = timepoints_multi.get(datasets[t]);
                 //System.out.println(timepoints.length);
+                if (cells[t] == null) {
+                    cells[t] = new BootstrapCell[no_timepoints];
+                }
 
 
                 for (int d = 0; d < no_timepoints; d++) {
@@ -1075,11 +1116,30 @@ public class analyseGene implements Analysis {
 
                     }
 
-                    BhattMethod b = new BhattMethod(main, ans_tmp); //******
-                    Store s = b.CreateBlocks(3, main[0].length, sampler); //******
-                    BhattMethod bm = new BhattMethod(s.RandomisedIntegerMatrix, s.RandomisedIntegerAncestral);
-
-                    bm.Method(bins, prior, true, Nvec, nr[t]);
+                    BootstrapCell cell = cells[t][d];
+                    if (cell == null) {
+                        BhattMethod original = new BhattMethod(main, ans_tmp);
+                        cell = cells[t][d] = new BootstrapCell(d, t, original, new DiversityStats(original.packed));
+                        if (sufficientStatistics) {
+                            original.setRandom(streams.stream(-1, t, d));
+                            original.setAnalyticBeta(analyticBeta);
+                            cell.codonfreq = original.CodonSiteFreq(bins, prior.clone(), true);
+                            cell.codonStatistics = cell.stats.codonStatistics();
+                        }
+                    }
+                    // as CreateBlocks did, a subsetted alignment takes only the first of the sampled codons
+                    int[] codons = Arrays.copyOf(sampler, Math.min(sampler.length, cell.original.numSites() / 3));
+                    BhattMethod bm = new BhattMethod(cell.original, codons);
+
+                    int[] weights = null;
+                    if (cell.codonfreq != null) {
+                        weights = BhattMethod.codonWeights(codons, cell.codonStatistics.length);
+                        bm.Method(cell.codonfreq, weights, Nvec, nr[t]);
+                    } else {
+                        bm.setRandom(streams.stream(bs, t, d));
+                        bm.setAnalyticBeta(analyticBeta);
+                        bm.Method(bins, prior.clone(), true, Nvec, nr[t]);
+                    }
 
 
                     //System.out.println(timepoints[d]+","+datasets[t]);
@@ -1087,46 +1147,11 @@ public class analyseGene implements Analysis {
                     value_matrix[d][t].column = datasets[t];
                     value_matrix[d][t].codons = sampler.length;
 
-                    value_matrix[d][t].rm[bs] = bm.ReplacementCountArray[1];
-                    value_matrix[d][t].sm[bs] = bm.SilentCountArray[1];
-                    value_matrix[d][t].rh[bs] = bm.ReplacementCountArray[2];
-                    value_matrix[d][t].sh[bs] = bm.SilentCountArray[2];
-                    value_matrix[d][t].sl[bs] = bm.SilentCountArray[0];
-                    value_matrix[d][t].rl[bs] = bm.ReplacementCountArray[0];
-
-
-                    if (bm.ReplacementCountArray[2] > 0) {
-                        value_matrix[d][t].sh_rh[bs] = bm.SilentCountArray[2] / bm.ReplacementCountArray[2];
-                    }
-
-                    if (bm.SilentCountArray[2] > 0) {
-                        value_matrix[d][t].rh_sh[bs] = bm.ReplacementCountArray[2] / bm.SilentCountArray[2];
-                    }
-
-                    if (bm.SilentCountArray[0] > 0) {
-                        value_matrix[d][t].rl_sl[bs] = bm.ReplacementCountArray[0] / bm.SilentCountArray[0];
-
+                    if (weights != null) {
+                        recordBootstrap(value_matrix[d][t], bs, bm, cell.stats.bootstrapEstimates(cell.codonStatistics, weights));
+                    } else {
+                        recordBootstrap(value_matrix[d][t], bs, bm, new DiversityStats(cell.stats, codons));
                     }
-                    if (bm.SilentCountArray[1] > 0) {
-                        value_matrix[d][t].nr[bs] = bm.neutralratio;
-
-                    }
-
-                    if (Double.isNaN(bm.Adaptation)) {
-                        bm.Adaptation = 0.0;
-                    }
-                    value_matrix[d][t].adaptations[bs] = bm.Adaptation;
-
-                    DiversityStats diversityStats = new DiversityStats(bm.integer_matrix);
-                    double[] wattersonEstimates = diversityStats.wattersonEstimates();
-
-                    value_matrix[d][t].tajimas_D[bs] = diversityStats.TajimasD();
-                    if (Double.isNaN(value_matrix[d][t].tajimas_D[bs])) {
-                        value_matrix[d][t].tajimas_D[bs] = 0.0;
-                    }
-                    value_matrix[d][t].watterson_S[bs] = wattersonEstimates[0];
-                    value_matrix[d][t].watterson_pi[bs] = wattersonEstimates[1];
-                    value_matrix[d][t].theta[bs] = diversityStats.theta();
 
 
                     //}
@@ -1160,6 +1185,8 @@ public class analyseGene implements Analysis {
         }
 
 
+        RandomStreams streams = new RandomStreams(seed);
+
         for( int bs=0; bs < bootstraps; bs++) {
             try {
                 BufferedReader reader1 = new BufferedReader(new FileReader(ancestralFile));
@@ -1178,7 +1205,7 @@ public class analyseGene implements Analysis {
                         int[] sampler = new int[ans.length/3];
 
                         //choosing your codons
-                        RandomGenerator generator = new RandomGenerator();
+                        RandomGenerator generator = new RandomGenerator(streams.stream(bs, t));
                         for(int x=0; x< sampler.length; x++) {
                             sampler[x] = generator.nextInt(sampler.length-1);//generator.nextInt(sampler.length-1);
                         }
@@ -1194,8 +1221,7 @@ public class analyseGene implements Analysis {
                                 int[][] main = r.readNEXUS();
 
                                 Williamson3bin w = new Williamson3bin(main,ans);
-                                Store s = w.CreateBlocks(3, main[0].length, sampler);
-                                Williamson3bin w3b = new Williamson3bin(s.RandomisedIntegerMatrix, s.RandomisedIntegerAncestral);
+                                Williamson3bin w3b = new Williamson3bin(w, sampler);
 
                                 w3b.williamson3bin_method(nr[t], low, mid, high);
                                 value_matrix[d][t].row = timepoints[d];
@@ -1230,7 +1256,7 @@ public class analyseGene implements Analysis {
                                 value_matrix[d][t].adaptations[bs] = w3b.Adapt;
                                 value_matrix[d][t].nr[bs] = w3b.Nr;
 
-                                DiversityStats diversityStats = new DiversityStats(w3b.integer_matrix);
+                                DiversityStats diversityStats = new DiversityStats(new DiversityStats(w.packed), sampler);
                                 double[] wattersonEstimates = diversityStats.wattersonEstimates();
 
                                 value_matrix[d][t].tajimas_D[bs] = diversityStats.TajimasD();
@@ -4,7 +4,9 @@ package teaspoon.adaptation;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
 import java.io.BufferedWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Created with IntelliJ IDEA.
@@ -22,6 +24,11 @@ public class mainAnalysis {
     boolean fixedNR;
     double[] nr;
     String [] timepoints;
+    boolean analyticBeta;      // exact Beta bin probabilities in place of Monte Carlo draws
+    boolean sufficientStatistics;  // bootstrap replicates as weighted sums of per-codon statistics
+    int bootstraps;            // bootstrap replicates run after bmAnalysis, none if 0
+    long seed = System.currentTimeMillis();    // master seed, a run is reproduced by passing its CSV Seed back in
+    int threads = Runtime.getRuntime().availableProcessors();
 
 
     public mainAnalysis() {
@@ -75,6 +82,7 @@ public class mainAnalysis {
 
 
         analysis.no_timepoints = max_timepoints;
+        setOptions(analysis);
         analysis.bmAnalysis();
     }
 
@@ -158,7 +166,11 @@ public class mainAnalysis {
 
 
         analysis.no_timepoints = max_timepoints;
+        setOptions(analysis);
         analysis.bmAnalysis();
+        if (bootstraps > 0) {
+            analysis.bmAnalysisBootstrap(bootstraps);
+        }
 
 //       analysis.bmAnalysisBootstrap(100);
 
@@ -206,11 +218,31 @@ public class mainAnalysis {
 
         analysis.datasets = new String[] {"gag", "pol", "env", "nef"};
 
+        setOptions(analysis);
         analysis.bmAnalysis();
 
 
     }
 
+    // windows of windowLength sites one every windowStep sites (both multiples of 3), with the fixed neutral ratios nr
+    public void runSlidingDeepGenomeAnalysis(int windowLength, int windowStep) {
+
+        analyseDeepGenome analysis = new analyseDeepGenome(ancestralfilename, mainfilename);
+
+        analysis.datasets = new String[] {"gag", "pol", "env", "nef"};
+        analysis.no_datasets = analysis.datasets.length;
+        analysis.timepoints = timepoints;
+        analysis.genes = gene_coordinates;
+
+        analysis.fixedNR = true;
+        analysis.nr = nr;
+        analysis.window_length = windowLength;
+        setOptions(analysis);
+
+        analysis.bmAnalysisSliding(windowStep);
+
+    }
+
     public void runBootstrapDeepGenomeAnalysis(int bootstraps) {
 
         analyseDeepGenome analysis = new analyseDeepGenome(ancestralfilename, mainfilename);
@@ -227,9 +259,29 @@ public class mainAnalysis {
         }
 
         analysis.fixedNR = true;
+        setOptions(analysis);
 
     }
 
+    // run options given on the command line
+    private void setOptions(analyseGene analysis) {
+
+        analysis.setAnalyticBeta(analyticBeta);
+        analysis.setSufficientStatistics(sufficientStatistics);
+        analysis.setSeed(seed);
+        analysis.setThreads(threads);
+        // draws outside the bootstrap streams (bmAnalysis) come from the default streams
+        RandomStreams.setDefaultSeed(seed);
+    }
+
+    private void setOptions(analyseDeepGenome analysis) {
+
+        analysis.setSufficientStatistics(sufficientStatistics);
+        analysis.setSeed(seed);
+        analysis.setThreads(threads);
+        RandomStreams.setDefaultSeed(seed);
+    }
+
     public void readParams(String filename) {
 
         this.ancestralfilename = filename;
@@ -247,12 +299,65 @@ public class mainAnalysis {
 
 
 
+        // options can go anywhere, the other arguments keep their positions
+        List<String> positional = new ArrayList<String>();
+        int windowLength = 0;      // sliding-window deep genome analysis if set
+        int windowStep = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-analyticBeta")) {
+                mainAnalysis.analyticBeta = true;
+            } else if (args[i].equals("-sufficientStatistics")) {
+                mainAnalysis.sufficientStatistics = true;
+            } else if (args[i].equals("-bootstrap")) {
+                mainAnalysis.bootstraps = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-seed")) {
+                mainAnalysis.seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                mainAnalysis.threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-sliding")) {
+                windowLength = Integer.parseInt(args[++i]);
+                windowStep = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-genes")) {
+                // start-end,start-end,... in sites from 1, one per gag, pol, env, nef
+                String[] genes = args[++i].split(",");
+                mainAnalysis.gene_coordinates = new int[genes.length][];
+                for (int g = 0; g < genes.length; g++) {
+                    String[] bounds = genes[g].split("-");
+                    mainAnalysis.gene_coordinates[g] = new int[] {Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1])};
+                }
+            } else if (args[i].equals("-timepoints")) {
+                mainAnalysis.timepoints = args[++i].split(",");
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        args = positional.toArray(new String[positional.size()]);
+
 //        adaptarate_H3N8
         mainAnalysis.ancestralfilename = args[0];
         mainAnalysis.mainfilename = args[1];
 
 
 
+        if (windowLength > 0) {
+            // -sliding <length> <step> -genes ... -timepoints ... ancestral main nr_gag nr_pol nr_env nr_nef
+            if (mainAnalysis.gene_coordinates == null || mainAnalysis.timepoints == null) {
+                throw new IllegalArgumentException("-sliding needs -genes and -timepoints");
+            }
+            if (mainAnalysis.gene_coordinates.length != 4) {
+                throw new IllegalArgumentException("-genes needs gag, pol, env and nef, got " + mainAnalysis.gene_coordinates.length);
+            }
+            if (args.length != 6) {
+                throw new IllegalArgumentException("-sliding needs one neutral ratio per gene, got " + (args.length - 2));
+            }
+            mainAnalysis.nr = new double[args.length - 2];
+            for (int g = 0; g < mainAnalysis.nr.length; g++) {
+                mainAnalysis.nr[g] = Double.parseDouble(args[2 + g]);
+            }
+            mainAnalysis.runSlidingDeepGenomeAnalysis(windowLength, windowStep);
+            return;
+        }
+
         if(args.length>2) {
             mainAnalysis.fixedNR = Boolean.parseBoolean(args[2]);
             mainAnalysis.nr = new double[] { Double.parseDouble(args[3]), Double.parseDouble(args[4]), Double.parseDouble(args[5]), Double.parseDouble(args[6]),